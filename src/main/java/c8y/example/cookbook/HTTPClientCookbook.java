@@ -1,6 +1,7 @@
 package c8y.example.cookbook;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
@@ -15,11 +16,11 @@ import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -27,6 +28,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
+import c8y.example.cookbook.resilience.UpstreamGuard;
+import c8y.example.cookbook.startup.StartupOrchestrator;
+import c8y.example.cookbook.startup.StartupPhase;
+
 @Component
 public class HTTPClientCookbook {
 
@@ -44,6 +49,15 @@ public class HTTPClientCookbook {
 	@Value("${C8Y.bootstrap.password}")
 	private String serviceBootstrapPassword;
 	
+	@Value("${cookbook.httpClient.socketTimeoutMillis:10000}")
+	private int socketTimeoutMillis;
+	
+	@Autowired
+	private StartupOrchestrator startupOrchestrator;
+	
+	@Autowired
+	private UpstreamGuard upstreamGuard;
+	
 	private HttpClient httpClient;
 	
 	@PostConstruct
@@ -59,12 +73,23 @@ public class HTTPClientCookbook {
         .setConnectionTimeToLive(20, TimeUnit.SECONDS)
         .setMaxConnTotal(400).setMaxConnPerRoute(400)
         .setDefaultRequestConfig(RequestConfig.custom()
-                .setSocketTimeout(30000).setConnectTimeout(5000).build())
-        .setRetryHandler(new DefaultHttpRequestRetryHandler(5, true))        
+                .setSocketTimeout(socketTimeoutMillis).setConnectTimeout(5000).build())
+        // retried by the upstream guard within the call's deadline, not by the client
+        .disableAutomaticRetries()
         .build();
 		
-		
-		ArrayNode serviceCredentials = getServiceCredentials();
+		// the remote call is made by the startup orchestrator once the application is ready, not here
+		startupOrchestrator.register("httpClientCookbook", StartupPhase.CONTEXT_READY, this::logServiceCredentials);
+	}
+	
+	private void logServiceCredentials() {
+		ArrayNode serviceCredentials = upstreamGuard.call("subscriptions", tenantId, () -> {
+			try {
+				return getServiceCredentials();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
 		log.info(String.format("Service credentials: %s", serviceCredentials));
 	}
 
@@ -1,15 +1,18 @@
 package c8y.example.cookbook;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
-import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionsInitializedEvent;
 import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
 import com.cumulocity.model.idtype.GId;
 import com.cumulocity.model.util.ExtensibilityConverter;
@@ -18,16 +21,38 @@ import com.cumulocity.sdk.client.Platform;
 import com.cumulocity.sdk.client.inventory.InventoryApi;
 import com.cumulocity.sdk.client.inventory.InventoryFilter;
 import com.cumulocity.sdk.client.inventory.ManagedObjectCollection;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import c8y.example.cookbook.business.CustomDevice;
+import c8y.example.cookbook.cache.ManagedObjectCache;
+import c8y.example.cookbook.delta.DeltaInventoryUpdater;
+import c8y.example.cookbook.logging.StructuredLogger;
+import c8y.example.cookbook.paging.AdaptivePager;
+import c8y.example.cookbook.query.InventoryQuery;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+import c8y.example.cookbook.sharding.ShardManager;
+import c8y.example.cookbook.startup.StartupOrchestrator;
+import c8y.example.cookbook.startup.StartupPhase;
 import c8y.example.cookbook.util.ExtendedInventoryFilter;
+import c8y.example.cookbook.util.ManagedObjectPOJOMapper;
+import c8y.example.cookbook.writebehind.InventoryWriteBehindBuffer;
 
 @Component
 public class InventoryCookbook {
 	
 	private static final Logger log = LoggerFactory.getLogger(InventoryCookbook.class);
+
+	// per-object events, with the managed object as JSON only at DEBUG
+	private static final StructuredLogger events = StructuredLogger.getLogger(InventoryCookbook.class);
+
+	private static final InventoryQuery BY_MANUFACTURER = InventoryQuery.where(InventoryQuery.eq(
+			ExtensibilityConverter.classToStringRepresentation(CustomDevice.class) + ".manufacturer",
+			InventoryQuery.param("manufacturer")));
+	
+	// devices are written on every delta update, with a serializer that skips bean introspection
+	private static final ManagedObjectPOJOMapper DEVICE_MAPPER = ManagedObjectPOJOMapper.builder()
+			.serializer(CustomDevice.class, new CustomDevice.Serializer())
+			.deserializer(CustomDevice.class, new CustomDevice.Deserializer())
+			.build();
 	
 	@Autowired
 	MicroserviceSubscriptionsService subscriptionsService;
@@ -35,10 +60,43 @@ public class InventoryCookbook {
 	@Autowired
     InventoryApi inventoryApi;
 	
-	@EventListener
-	public void onSubscriptionsInitialized(MicroserviceSubscriptionsInitializedEvent event) {
+	@Autowired
+	TenantRateLimiter rateLimiter;
+	
+	@Autowired
+	StartupOrchestrator startupOrchestrator;
+	
+	@Autowired
+	ManagedObjectCache managedObjectCache;
+	
+	@Autowired
+	InventoryWriteBehindBuffer writeBuffer;
+	
+	@Autowired
+	DeltaInventoryUpdater deltaUpdater;
+	
+	@Autowired
+	AdaptivePager pager;
+	
+	@Autowired
+	ShardManager shardManager;
+	
+	@PostConstruct
+	public void init() {
+		startupOrchestrator.register("inventoryCookbook", StartupPhase.SUBSCRIPTIONS_INITIALIZED, this::onSubscriptionsInitialized);
+	}
+	
+	/**
+	 * Run by the startup orchestrator once the subscriptions have been initialized on application startup;
+	 * with sharding, only on the instance owning the tenant, which creates and deletes managed objects
+	 */
+	public void onSubscriptionsInitialized() {
 		try {
 			MicroserviceCredentials tenantCredentials = subscriptionsService.getAll().iterator().next();
+			if (!shardManager.owns(tenantCredentials.getTenant())) {
+				log.info(String.format("Inventory cookbook of tenant %s runs on another instance", tenantCredentials.getTenant()));
+				return;
+			}
 			subscriptionsService.runForTenant(tenantCredentials.getTenant(), ()-> {
 							
 				log.info("Fetching from inventory..");
@@ -57,13 +115,12 @@ public class InventoryCookbook {
 								
 				// see the section on Query Language at https://cumulocity.com/guides/reference/inventory/  
 				log.info("Fetching from inventory with a query filter..");
-				String fragmentTypeString =  ExtensibilityConverter.classToStringRepresentation(CustomDevice.class);
-				InventoryFilter queryFilter = new ExtendedInventoryFilter().byQuery(String.format("%s.manufacturer eq 'Acme Corp'", fragmentTypeString));
+				InventoryFilter queryFilter = new ExtendedInventoryFilter().byQuery(BY_MANUFACTURER.bind("manufacturer", "Acme Corp"));
 				filteredFetchFromIventory(queryFilter);			
 				
 				// filtering by query for a different manufacturer will return no matches
 				log.info("Fetching from inventory with a different query filter..");
-				queryFilter = new ExtendedInventoryFilter().byQuery(String.format("%s.manufacturer eq 'AmeriCorp'", fragmentTypeString));
+				queryFilter = new ExtendedInventoryFilter().byQuery(BY_MANUFACTURER.bind("manufacturer", "AmeriCorp"));
 				filteredFetchFromIventory(queryFilter);
 								
 				log.info("Updating existing object in inventory");
@@ -90,15 +147,15 @@ public class InventoryCookbook {
 		mor.set(device);	
 		
 		try {
-			mor = inventoryApi.create(mor);			
+			// buffered and written with the next flush; we wait for it here since the following steps read the object
+			long started = System.currentTimeMillis();
+			mor = writeBuffer.create(mor).join();
 		
-			log.info(String.format("Created object in tenant %s; managed object: %s ", 
-					subscriptionsService.getTenant(),
-					new ObjectMapper().writeValueAsString(mor)
-					));
+			events.info("Created managed object").tenant(subscriptionsService.getTenant()).id(mor.getId())
+					.latencyMillis(System.currentTimeMillis() - started)
+					.json("managedObject", mor)
+					.log();
 		
-		} catch (JsonProcessingException e) {
-			log.error("Error writing JSON string", e);
 		} catch (Exception e) {
 			log.error("Error creating ManagedObject in inventory", e);
 		}
@@ -110,58 +167,60 @@ public class InventoryCookbook {
 		ManagedObjectCollection managedObjectCollection = inventoryApi.getManagedObjectsByFilter(filter);
 		
 		// get a single managed object
-		ManagedObjectRepresentation mor = managedObjectCollection.get().elements(1).iterator().next();
+		ManagedObjectRepresentation mor = rateLimiter.call(() -> managedObjectCollection.get(1).getManagedObjects().get(0));
 		
-		// create a new one to replace it; we could also update the one we fetched and pass it to inventoryApi.update()
-		ManagedObjectRepresentation updated = new ManagedObjectRepresentation();
-		updated.set(new CustomDevice("Acme Corp", "foobar 15"));
-		
-		// set the new object's database id to the one we're updating
-		updated.setId(new GId(mor.getId().getValue()));
-		
-		inventoryApi.update(updated);
+		// the fetched fragments are the baseline for the diff; we could also skip this and let the first 
+		// update send all fragments
+		deltaUpdater.remember(mor, DEVICE_MAPPER);
 		
+		// only sends the fragment if it differs from the fetched one; calling this again with the same device
+		// sends nothing
+		String fragmentName = ExtensibilityConverter.classToStringRepresentation(CustomDevice.class);
+		try {
+			boolean sent = deltaUpdater.update(mor.getId(), 
+					Collections.singletonMap(fragmentName, new CustomDevice("Acme Corp", "foobar 15")), DEVICE_MAPPER);
+			events.info("Updated managed object").id(mor.getId()).field("sent", sent).log();
+			
+			sent = deltaUpdater.update(mor.getId(), 
+					Collections.singletonMap(fragmentName, new CustomDevice("Acme Corp", "foobar 15")), DEVICE_MAPPER);
+			events.info("Repeated update of managed object").id(mor.getId()).field("sent", sent).log();
+		} catch (IOException e) {
+			log.error("Error serializing CustomDevice", e);
+		}
 	}
 
 	private void simpleFetchFromIventory() {
 		String tenant= subscriptionsService.getTenant();			
 		ManagedObjectCollection managedObjectCollection = inventoryApi.getManagedObjects();
 		int numObjectsToRetrieve = 1;			
-		Iterator<ManagedObjectRepresentation> itor = managedObjectCollection.get().elements(numObjectsToRetrieve).iterator();					
+		// a single page, fetched within the rate limit; elements() would fetch further pages outside of it
+		Iterator<ManagedObjectRepresentation> itor = rateLimiter.call(() -> managedObjectCollection.get(numObjectsToRetrieve).getManagedObjects()).iterator();
 	    while (itor.hasNext()) {
 	        ManagedObjectRepresentation managedObjectRepresentation = itor.next();
-	        try {
-				log.info(String.format("Fteched managed object with id %s from tenant %s", 
-						managedObjectRepresentation.getId().getValue(), 
-						tenant,
-						new ObjectMapper().writeValueAsString(managedObjectRepresentation)));
-			} catch (JsonProcessingException e) {
-				log.error("Error writing JSON string", e);
-			}
+	        events.info("Fetched managed object").tenant(tenant).id(managedObjectRepresentation.getId())
+	        		.json("managedObject", managedObjectRepresentation)
+	        		.log();
 	    }
 	}
 
 	private void filteredFetchFromIventory(InventoryFilter filter) {
 		String tenant= subscriptionsService.getTenant();			
 		ManagedObjectCollection managedObjectCollection = inventoryApi.getManagedObjectsByFilter(filter);
-		Iterator<ManagedObjectRepresentation> itor = managedObjectCollection.get().allPages().iterator();
+		Iterator<ManagedObjectRepresentation> itor = pager.allPages(tenant, managedObjectCollection).iterator();
 	    while (itor.hasNext()) {
 	        ManagedObjectRepresentation managedObjectRepresentation = itor.next();
-	        try {
-				log.info(String.format("Fetched with filter a managed object with id %s from tenant %s, object: %s", 
-						managedObjectRepresentation.getId().getValue(), 
-						tenant,							
-						new ObjectMapper().writeValueAsString(managedObjectRepresentation)));
-			} catch (JsonProcessingException e) {
-				log.error("Error writing JSON string", e);
-			}
+	        // a filter can match many objects, so at most 10 of these per second
+	        events.info("Fetched managed object with filter").tenant(tenant).id(managedObjectRepresentation.getId())
+	        		.json("managedObject", managedObjectRepresentation)
+	        		.rateLimited(10)
+	        		.log();
 	    }				
 	}
 
 	private void readJavaObjectFromManagedObject() {
 		InventoryFilter filter = new InventoryFilter().byFragmentType(CustomDevice.class);
 		ManagedObjectCollection managedObjectCollection = inventoryApi.getManagedObjectsByFilter(filter);
-		ManagedObjectRepresentation mor = managedObjectCollection.get().elements(1).iterator().next();
+		ManagedObjectRepresentation mor = rateLimiter.call(() -> managedObjectCollection.get(1).getManagedObjects().get(0));
 		CustomDevice customDevice = mor.get(CustomDevice.class);
 		log.info("Read POJO from inventory: " + customDevice.toString());
 	}
@@ -169,12 +228,14 @@ public class InventoryCookbook {
 	private void deleteFromInventory() {
 		InventoryFilter filter = new InventoryFilter().byFragmentType(CustomDevice.class);
 		ManagedObjectCollection managedObjectCollection = inventoryApi.getManagedObjectsByFilter(filter);
-		Iterable<ManagedObjectRepresentation> mos = managedObjectCollection.get().allPages();
+		// every page fetched through the rate limiter; collected first, deleting while paging would skip objects
+		List<ManagedObjectRepresentation> mos = pager.getAll(subscriptionsService.getTenant(), managedObjectCollection);
 		for (ManagedObjectRepresentation mor : mos) {
-			log.info(String.format("Deleting in tenant %s; managed object: %s ", 
-					subscriptionsService.getTenant(),
-					mor.getId().getValue()));
-			inventoryApi.delete(mor.getId());
+			events.info("Deleting managed object").tenant(subscriptionsService.getTenant()).id(mor.getId()).rateLimited(10).log();
+			writeBuffer.discard(subscriptionsService.getTenant(), mor.getId().getValue());
+			deltaUpdater.forget(subscriptionsService.getTenant(), mor.getId().getValue());
+			rateLimiter.run(() -> inventoryApi.delete(mor.getId()));
+			managedObjectCache.evict(subscriptionsService.getTenant(), mor.getId().getValue());
         }	
 	}
 }
@@ -4,24 +4,30 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.PostConstruct;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
-import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionsInitializedEvent;
 import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
 import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
 import com.cumulocity.sdk.client.inventory.InventoryApi;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import c8y.example.cookbook.business.CompactSensorList;
 import c8y.example.cookbook.business.HumiditySensor;
 import c8y.example.cookbook.business.Sensor;
 import c8y.example.cookbook.business.SensorArray;
 import c8y.example.cookbook.business.TemperatureSensor;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+import c8y.example.cookbook.sharding.ShardManager;
+import c8y.example.cookbook.startup.StartupOrchestrator;
+import c8y.example.cookbook.startup.StartupPhase;
 import c8y.example.cookbook.util.ManagedObjectPOJOMapper;
+import c8y.example.cookbook.util.PolymorphicTypeRegistry;
 
 @Component
 public class InventorySerializationCookbook {
@@ -34,10 +40,41 @@ public class InventorySerializationCookbook {
 	@Autowired
     InventoryApi inventoryApi;
 	
-	@EventListener
-	public void onSubscriptionsInitialized(MicroserviceSubscriptionsInitializedEvent event) {
+	@Autowired
+	TenantRateLimiter rateLimiter;
+	
+	@Autowired
+	StartupOrchestrator startupOrchestrator;
+	
+	@Autowired
+	ShardManager shardManager;
+	
+	/**
+	 * Sensors are written with short type ids instead of class names; reads sensor arrays written with TRUSTED_SOURCE too
+	 */
+	private final ManagedObjectPOJOMapper sensorMapper = ManagedObjectPOJOMapper.builder().typeRegistry(new PolymorphicTypeRegistry()
+			.register(Sensor.class, Sensor.class, "sensor")
+			.register(Sensor.class, TemperatureSensor.class, "temperature")
+			.register(Sensor.class, HumiditySensor.class, "humidity")
+			.allowLegacy(SensorArray.class, CompactSensorList.class))
+			.build();
+	
+	@PostConstruct
+	public void init() {
+		startupOrchestrator.register("inventorySerializationCookbook", StartupPhase.SUBSCRIPTIONS_INITIALIZED, this::onSubscriptionsInitialized);
+	}
+	
+	/**
+	 * Run by the startup orchestrator once the subscriptions have been initialized on application startup;
+	 * with sharding, only on the instance owning the tenant the examples run in
+	 */
+	public void onSubscriptionsInitialized() {
+		if (subscriptionsService.getAll().isEmpty() || !shardManager.owns(subscriptionsService.getAll().iterator().next().getTenant())) {
+			return;
+		}
 		serializeComplexObjectDefault();
 		serializeComplexObjectCustom();
+		serializeComplexObjectTypeRegistry();
 	}
 
 	/**
@@ -54,12 +91,12 @@ public class InventorySerializationCookbook {
 					ManagedObjectRepresentation mor = new ManagedObjectRepresentation();
 					mor.set(sensorArray);
 					
-					ManagedObjectRepresentation created = inventoryApi.create(mor);
+					ManagedObjectRepresentation created = rateLimiter.call(() -> inventoryApi.create(mor));
 					
 					log.info(String.format("Created sensor array: %s ", 
 								new ObjectMapper().writeValueAsString(created)));
 					
-					ManagedObjectRepresentation fetched = inventoryApi.get(created.getId());
+					ManagedObjectRepresentation fetched = rateLimiter.call(() -> inventoryApi.get(created.getId()));
 					SensorArray fetchedSensorArray = fetched.get(SensorArray.class);
 
 					log.info(String.format("Fetched sensor array: %s ", 
@@ -94,12 +131,12 @@ public class InventorySerializationCookbook {
 					ManagedObjectRepresentation mor = new ManagedObjectRepresentation();
 					ManagedObjectPOJOMapper.TRUSTED_SOURCE.writePOJO(mor, sensorArray);
 					
-					ManagedObjectRepresentation created = inventoryApi.create(mor);
+					ManagedObjectRepresentation created = rateLimiter.call(() -> inventoryApi.create(mor));
 					
 					log.info(String.format("Created sensor array: %s ", 
 								new ObjectMapper().writeValueAsString(created)));
 					
-					ManagedObjectRepresentation fetched = inventoryApi.get(created.getId());
+					ManagedObjectRepresentation fetched = rateLimiter.call(() -> inventoryApi.get(created.getId()));
 					SensorArray fetchedSensorArray = ManagedObjectPOJOMapper.TRUSTED_SOURCE
 							.readPOJO(fetched, SensorArray.class);
 					
@@ -121,5 +158,39 @@ public class InventorySerializationCookbook {
 			log.error("Error", e);
 		} 
 	}
+	
+	private void serializeComplexObjectTypeRegistry() {
+		try {			
+			MicroserviceCredentials tenantCredentials = subscriptionsService.getAll().iterator().next();			
+			subscriptionsService.runForTenant(tenantCredentials.getTenant(), ()-> {
+				try {
+					List<Sensor> sensors = Arrays.<Sensor>asList(new TemperatureSensor("foo"), new HumiditySensor("bar"));
+					SensorArray sensorArray = new SensorArray(sensors);
+					ManagedObjectRepresentation mor = new ManagedObjectRepresentation();
+					// {"sensors":[{"@type":"temperature","name":"foo"},{"@type":"humidity","name":"bar"}]}
+					sensorMapper.writePOJO(mor, sensorArray);
+					
+					ManagedObjectRepresentation created = rateLimiter.call(() -> inventoryApi.create(mor));
+					
+					log.info(String.format("Created sensor array with type registry ids: %s ", 
+								new ObjectMapper().writeValueAsString(created)));
+					
+					ManagedObjectRepresentation fetched = rateLimiter.call(() -> inventoryApi.get(created.getId()));
+					SensorArray fetchedSensorArray = sensorMapper.readPOJO(fetched, SensorArray.class);
+					
+					Sensor sensor = fetchedSensorArray.getSensors().get(0);  // TemperatureSensor
+					
+					log.info(String.format("Fetched sensor of type %s: %s ", sensor.getClass().getSimpleName(),
+							new ObjectMapper().writeValueAsString(sensor)));
+					
+				} catch (Exception e) {
+					log.error("Error ", e);
+				}
+			});
+			
+		} catch (Exception e) {
+			log.error("Error", e);
+		} 
+	}
 			
 }
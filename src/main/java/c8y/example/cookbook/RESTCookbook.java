@@ -1,12 +1,12 @@
 package c8y.example.cookbook;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +20,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import com.cumulocity.microservice.security.service.RoleService;
 import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
@@ -30,13 +31,27 @@ import com.cumulocity.sdk.client.PlatformParameters;
 import com.cumulocity.sdk.client.inventory.InventoryApi;
 import com.cumulocity.sdk.client.inventory.PagedManagedObjectCollectionRepresentation;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+
+import c8y.example.cookbook.cache.ManagedObjectCache;
+import c8y.example.cookbook.health.HealthReport;
+import c8y.example.cookbook.health.HealthService;
+import c8y.example.cookbook.http.HttpCaching;
+import c8y.example.cookbook.http.ManagedObjectStreamWriter;
+import c8y.example.cookbook.paging.AdaptivePager;
+import c8y.example.cookbook.logging.StructuredLogger;
+import c8y.example.cookbook.resilience.UpstreamGuard;
+import c8y.example.cookbook.resilience.UpstreamUnavailableException;
+import c8y.example.cookbook.security.UserAuthorization;
+import c8y.example.cookbook.security.UserAuthorizationCache;
+import c8y.example.cookbook.startup.StartupOrchestrator;
 
 @RestController
 @RequestMapping("/api")
 public class RESTCookbook {
 	
 	private static final Logger log = LoggerFactory.getLogger(RESTCookbook.class);
+
+	private static final StructuredLogger events = StructuredLogger.getLogger(RESTCookbook.class);
 	
 	@Autowired
 	private MicroserviceSubscriptionsService subscriptionsService;
@@ -51,11 +66,61 @@ public class RESTCookbook {
 	@Qualifier("userPlatform")
 	private Platform userPlatform;
 	
+	@Autowired
+	private UserAuthorizationCache authorizationCache;
+	
+	@Autowired
+	private ManagedObjectCache managedObjectCache;
+	
+	@Autowired
+	private StartupOrchestrator startupOrchestrator;
+	
+	@Autowired
+	private HealthService healthService;
+	
+	@Autowired
+	private HttpCaching httpCaching;
+	
+	@Autowired
+	private AdaptivePager pager;
+	
+	@Autowired
+	private ManagedObjectStreamWriter streamWriter;
+	
+	@Autowired
+	private UpstreamGuard upstreamGuard;
+	
 	@GetMapping("/health")
 	public String health() {
 		return "Service is up and running!";
 	}
 	
+	/**
+	 * Liveness probe: the service is up and not broken beyond recovery, even if it is still starting up
+	 */
+	@GetMapping(path = "/health/liveness", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> liveness() {
+		HealthReport report = healthService.getLiveness();
+		return ResponseEntity.status(report.isHealthy() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(report);
+	}
+	
+	/**
+	 * Readiness probe: startup is finished, and the service is not overloaded and can reach the platform
+	 */
+	@GetMapping(path = "/health/readiness", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> readiness() {
+		HealthReport report = healthService.getReadiness();
+		return ResponseEntity.status(report.isHealthy() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(report);
+	}
+	
+	/**
+	 * @return Timing breakdown of the startup phases and tasks
+	 */
+	@GetMapping(path = "/startup", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> getStartupReport() {
+		return ResponseEntity.status(HttpStatus.OK).body(startupOrchestrator.getReport());
+	}
+	
 	@GetMapping("/env")
 	public String getEnvironmentVariables() {
 		StringBuilder responseBuilder = new StringBuilder("Environment variables:<br>");
@@ -72,36 +137,67 @@ public class RESTCookbook {
 	}
 	
 	
+	/**
+	 * Written to the response as the objects are fetched (see ManagedObjectStreamWriter), so the whole inventory
+	 * is never held in memory. Only a single page has an ETag, the ETag of all objects is not known before they
+	 * are written.
+	 */
 	@GetMapping(path = "/inventory", produces = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<?> getManagedObjects(@RequestParam(value = "pageSize") Optional<Integer> pageSize,
-			@RequestParam(value = "currentPage") Optional<Integer> currentPage) throws JsonProcessingException {
+	public void getManagedObjects(@RequestParam(value = "pageSize") Optional<Integer> pageSize,
+			@RequestParam(value = "currentPage") Optional<Integer> currentPage, WebRequest request,
+			HttpServletResponse response) throws IOException {
 
+		String tenant = getUserPlatformParameters().getTenantId();
+		
 		if (!currentPage.isPresent() || !pageSize.isPresent()) {
-			Iterable<ManagedObjectRepresentation> managedObjectsIterable = inventoryApi.getManagedObjects().get(2000).allPages();
-			List<ManagedObjectRepresentation> managedObjects = StreamSupport.stream(managedObjectsIterable.spliterator(), false).collect(Collectors.toList());
-					
-			log.info(String.format("Fetched all managed objects, %d total", 
-						managedObjects.size()));
+			// page size tuned per tenant, each page fetched through the rate limiter when the writer reaches it
+			streamWriter.write(request, response, "inventory.list", null, pager.allPages(tenant, inventoryApi.getManagedObjects()));
 			
-			return ResponseEntity.status(HttpStatus.OK).body(managedObjects);
+			log.info(String.format("Streamed all managed objects of tenant %s", tenant));
 		} else {
 			
-			PagedManagedObjectCollectionRepresentation collection = inventoryApi.getManagedObjects().get();
+			List<ManagedObjectRepresentation> managedObjects = upstreamGuard.call("inventory", tenant, () -> {
+				PagedManagedObjectCollectionRepresentation collection = inventoryApi.getManagedObjects().get();
+				
+				return inventoryApi.getManagedObjects().getPage(collection, currentPage.get(), pageSize.get()).getManagedObjects();
+			});
 			
-			List<ManagedObjectRepresentation> managedObjects = inventoryApi.getManagedObjects().getPage(collection, currentPage.get(), pageSize.get()).getManagedObjects();
-			
-			return ResponseEntity.status(HttpStatus.OK).body(managedObjects);
+			streamWriter.write(request, response, "inventory.list", httpCaching.etag(managedObjects), managedObjects);
 		}
 	}	
 	
 	@GetMapping(path = "/inventory/{managedObjectId}", produces = MediaType.APPLICATION_JSON_VALUE)
-	public ResponseEntity<?> getManagedObject(@PathVariable(value = "managedObjectId") String managedObjectId) throws JsonProcessingException {
+	public ResponseEntity<?> getManagedObject(@PathVariable(value = "managedObjectId") String managedObjectId,
+			WebRequest request) throws JsonProcessingException {
 		
-		ManagedObjectRepresentation managedObject = inventoryApi.get(GId.asGId(managedObjectId));
-		log.info(String.format("Fetched managed object: %s", 
-				new ObjectMapper().writeValueAsString(managedObject)));
+		String tenant = getUserPlatformParameters().getTenantId();
 		
-		return ResponseEntity.status(HttpStatus.OK).body(managedObject);
+		// the cache is filled with the service credentials, so it may only answer for users who can read the whole inventory
+		boolean mayUseCache = authorizationCache.getForCurrentUser().hasRole("ROLE_INVENTORY_READ");
+		if (mayUseCache) {
+			Optional<ManagedObjectRepresentation> cached = managedObjectCache.get(tenant, managedObjectId);
+			if (cached.isPresent()) {
+				return httpCaching.conditional(request, "inventory.object", httpCaching.etag(cached.get()), cached::get);
+			}
+		}
+		
+		long started = System.currentTimeMillis();
+		ManagedObjectRepresentation managedObject;
+		try {
+			managedObject = upstreamGuard.call("inventory", tenant, () -> inventoryApi.get(GId.asGId(managedObjectId)));
+		} catch (UpstreamUnavailableException e) {
+			Optional<ManagedObjectRepresentation> stale = mayUseCache ? managedObjectCache.getStale(tenant, managedObjectId) : Optional.empty();
+			if (!stale.isPresent()) {
+				throw e;
+			}
+			return httpCaching.conditional(request, "inventory.object", httpCaching.etag(stale.get()), stale::get, true);
+		}
+		events.info("Fetched managed object").tenant(tenant).id(managedObject.getId())
+				.latencyMillis(System.currentTimeMillis() - started)
+				.json("managedObject", managedObject)
+				.log();
+		
+		return httpCaching.conditional(request, "inventory.object", httpCaching.etag(managedObject), () -> managedObject);
 	}
 	
 	@GetMapping(path = "/user", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -122,32 +218,56 @@ public class RESTCookbook {
 	@GetMapping(path = "/inventory/{tenantId}/{managedObjectId}", produces = MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<?> getManagedObjectFromTenant(
 			@PathVariable(value = "tenantId") String tenantId,
-			@PathVariable(value = "managedObjectId") String managedObjectId) throws JsonProcessingException {
+			@PathVariable(value = "managedObjectId") String managedObjectId, WebRequest request) throws JsonProcessingException {
+		
+		// cached per user for a short time, so the checks below don't cost a call to the platform on every request
+		UserAuthorization authorization = authorizationCache.getForCurrentUser();
 		
-		if(!getUserPlatformParameters().getTenantId().equals(tenantId)) {
+		if(!authorization.getTenant().equals(tenantId)) {
 			return  ResponseEntity.status(HttpStatus.FORBIDDEN)
-					.body(String.format("User's tenant id %s does not match request tenantId %s", getUserPlatformParameters().getTenantId(), tenantId));
+					.body(String.format("User's tenant id %s does not match request tenantId %s", authorization.getTenant(), tenantId));
 		}
 		
-		if (!subscriptionsService.getCredentials(tenantId).isPresent()) {
+		if (!authorization.isTenantSubscribed()) {
 			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
 					.body(String.format("Tenant not subscribed: %s", tenantId));
 		}
 		
-		if(!userHasCookbookAdminRole()) {			 
+		if(!authorization.hasRole("ROLE_COOKBOOK_ADMIN")) {			 
 			return  ResponseEntity.status(HttpStatus.FORBIDDEN)
 					.body("Insufficient Permissions: user does not have required permission to access this API: ROLE_COOKBOOK_ADMIN");
 		}	
 		
-		ManagedObjectRepresentation managedObject = subscriptionsService.callForTenant(tenantId, ()->{
-			return inventoryApi.get(GId.asGId(managedObjectId));
-		});
+		// fetched with the service credentials, so objects cached by the tenant warm-up can be served as well;
+		// a client polling with If-None-Match gets a 304 without an upstream call as long as the object is cached
+		Optional<ManagedObjectRepresentation> cached = managedObjectCache.get(tenantId, managedObjectId);
+		if (cached.isPresent()) {
+			return httpCaching.conditional(request, "inventory.tenantObject", httpCaching.etag(cached.get()), cached::get);
+		}
 		
-		log.info(String.format("Fetched from tenant %s managed object: %s",
-				tenantId,
-				new ObjectMapper().writeValueAsString(managedObject)));
+		long started = System.currentTimeMillis();
+		ManagedObjectRepresentation managedObject;
+		try {
+			managedObject = upstreamGuard.call("inventory", tenantId, () -> 
+				subscriptionsService.callForTenant(tenantId, ()->{
+					return inventoryApi.get(GId.asGId(managedObjectId));
+				}));
+		} catch (UpstreamUnavailableException e) {
+			// the platform is slow or failing, an outdated object is better than none
+			Optional<ManagedObjectRepresentation> stale = managedObjectCache.getStale(tenantId, managedObjectId);
+			if (!stale.isPresent()) {
+				throw e;
+			}
+			return httpCaching.conditional(request, "inventory.tenantObject", httpCaching.etag(stale.get()), stale::get, true);
+		}
+		managedObjectCache.put(tenantId, managedObject);
 		
-		return ResponseEntity.status(HttpStatus.OK).body(managedObject);
+		events.info("Fetched managed object from tenant").tenant(tenantId).id(managedObject.getId())
+				.latencyMillis(System.currentTimeMillis() - started)
+				.json("managedObject", managedObject)
+				.log();
+		
+		return httpCaching.conditional(request, "inventory.tenantObject", httpCaching.etag(managedObject), () -> managedObject);
 	}
 
 	private PlatformParameters getUserPlatformParameters() {
@@ -159,16 +279,5 @@ public class RESTCookbook {
 		return userPlatformParameters;
 	}
 	
-	private Boolean userHasCookbookAdminRole() {
-
-		for(String userRole : roleService.getUserRoles()){
-			if(userRole.equals("ROLE_COOKBOOK_ADMIN")) {
-				return true;
-			}
-		}
-		
-		return false;
-	}
-	
 
 }
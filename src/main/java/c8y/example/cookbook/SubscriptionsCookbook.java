@@ -13,14 +13,19 @@ import org.springframework.stereotype.Component;
 import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
 import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionAddedEvent;
 import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
-import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionsInitializedEvent;
 import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
 import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
 import com.cumulocity.sdk.client.Platform;
 import com.cumulocity.sdk.client.inventory.InventoryApi;
 import com.cumulocity.sdk.client.inventory.ManagedObjectCollection;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+
+import c8y.example.cookbook.execution.TaskExecutors;
+import c8y.example.cookbook.logging.StructuredLogger;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+import c8y.example.cookbook.scheduling.TenantJobScheduler;
+import c8y.example.cookbook.sharding.ShardManager;
+import c8y.example.cookbook.startup.StartupOrchestrator;
+import c8y.example.cookbook.startup.StartupPhase;
 
 @Component
 public class SubscriptionsCookbook {
@@ -31,14 +36,34 @@ public class SubscriptionsCookbook {
 	@Autowired
 	private Platform c8yPlatform;
 	
+	@Autowired
+	private TenantRateLimiter rateLimiter;
+	
+	@Autowired
+	private StartupOrchestrator startupOrchestrator;
+
+	@Autowired
+	private TaskExecutors taskExecutors;
+
+	@Autowired
+	private TenantJobScheduler jobScheduler;
+
+	@Autowired
+	private ShardManager shardManager;
+	
 	private static final Logger log = LoggerFactory.getLogger(SubscriptionsCookbook.class);
 
+	private static final StructuredLogger events = StructuredLogger.getLogger(SubscriptionsCookbook.class);
+
 	/**
 	 * Executes after dependencies have been autowired
 	 */
 	@PostConstruct
 	public void init() {	
-		listSubscriptions(); 
+		startupOrchestrator.register("subscriptionsCookbook.listSubscriptions", StartupPhase.CONTEXT_READY, this::listSubscriptions);
+		startupOrchestrator.register("subscriptionsCookbook", StartupPhase.SUBSCRIPTIONS_INITIALIZED, this::onSubscriptionsInitialized);
+		// the same as on subscription, periodically (cookbook.jobs.subscriptionsCookbook.sampleInventory.intervalSeconds) or via POST /jobs/{name}/trigger
+		jobScheduler.register("subscriptionsCookbook.sampleInventory", 0, this::sampleInventory);
 	}
 
 	@EventListener
@@ -52,8 +77,10 @@ public class SubscriptionsCookbook {
 		log.info("subscription removed for tenant: " + event.getTenant());
 	};
 
-	@EventListener
-	public void onSubscriptionsInitialized(MicroserviceSubscriptionsInitializedEvent event) {
+	/**
+	 * Run by the startup orchestrator once the subscriptions have been initialized on application startup
+	 */
+	public void onSubscriptionsInitialized() {
 		log.info("Subscriptions have been initialized on application startup");
 		listSubscriptions();
 		runBusinessLogicForAllTenants();
@@ -76,30 +103,27 @@ public class SubscriptionsCookbook {
 	};
 	
 	private void runBusinessLogicForAllTenants() {
-		subscriptionsService.runForEachTenant( ()->{
+		taskExecutors.runForEachTenant( ()->{
 			/*
 			 * runForEachTenant() works some magic behind the scenes. Code that is wrapped in  
 			 * runForEachTenant() will actually use a different instance of Platform (and InventoryApi) 
 			 * for each tenant. Under the hood, this is implemented using Spring's custom
 			 * scopes functionality (see https://www.baeldung.com/spring-custom-scope)
 			 * 
+			 * TaskExecutors.runForEachTenant() wraps MicroserviceSubscriptionsService.runForTenant() and
+			 * runs the tenants in parallel, on virtual threads with cookbook.execution.mode=VIRTUAL
 			 */
 			String tenant= subscriptionsService.getTenant();		 
 			InventoryApi tenantInventoryApi = c8yPlatform.getInventoryApi();
 			ManagedObjectCollection managedObjectCollection = tenantInventoryApi.getManagedObjects();
-			Iterator<ManagedObjectRepresentation> itor = managedObjectCollection.get().elements(1).iterator();
+			Iterator<ManagedObjectRepresentation> itor = rateLimiter.call(tenant, () -> managedObjectCollection.get(1).getManagedObjects()).iterator();
 			while (itor.hasNext()) {
                 ManagedObjectRepresentation managedObjectRepresentation = itor.next();
-                try {
-					log.info(String.format("Fteched managed object with id %s from tenant %s: %s",
-							managedObjectRepresentation.getId().getValue(), 
-							tenant,
-							new ObjectMapper().writeValueAsString(managedObjectRepresentation)));
-				} catch (JsonProcessingException e) {
-					log.error("Error writing JSON string", e);
-				}
+                events.info("Fetched managed object").tenant(tenant).id(managedObjectRepresentation.getId())
+                		.json("managedObject", managedObjectRepresentation)
+                		.log();
             }
-		});
+		}).join();
 	}
 	
 	/**
@@ -119,39 +143,40 @@ public class SubscriptionsCookbook {
 	private void runBusinessLogicOutOfContext() {
 		InventoryApi tenantInventoryApi = c8yPlatform.getInventoryApi();
 		ManagedObjectCollection managedObjectCollection = tenantInventoryApi.getManagedObjects();
-		Iterator<ManagedObjectRepresentation> itor = managedObjectCollection.get().elements(1).iterator();
+		Iterator<ManagedObjectRepresentation> itor = managedObjectCollection.get(1).getManagedObjects().iterator();
 		while (itor.hasNext()) {
             ManagedObjectRepresentation managedObjectRepresentation = itor.next();
-            try {
-				log.info(String.format("Fteched managed object with id %s : %s",
-						managedObjectRepresentation.getId().getValue(),						
-						new ObjectMapper().writeValueAsString(managedObjectRepresentation)));
-			} catch (JsonProcessingException e) {
-				log.error("Error writing JSON string", e);
-			}
+            events.info("Fetched managed object").id(managedObjectRepresentation.getId())
+            		.json("managedObject", managedObjectRepresentation)
+            		.log();
         }	
 	}
 	
 	/**
+	 * Runs on the instance owning the tenant only, the subscription added event is published on every instance
+	 *
 	 * @param tenant Tenant id, e.g. 't174774'
 	 */
 	private void runBusinessLogicForSingleTenant(String tenant) {		
-		subscriptionsService.runForTenant(tenant,  ()->{
-			InventoryApi tenantInventoryApi = c8yPlatform.getInventoryApi();
-			ManagedObjectCollection managedObjectCollection = tenantInventoryApi.getManagedObjects();
-			Iterator<ManagedObjectRepresentation> itor = managedObjectCollection.get().elements(1).iterator();
-            while (itor.hasNext()) {
-                ManagedObjectRepresentation managedObjectRepresentation = itor.next();
-                try {
-					log.info(String.format("Fteched managed object with id %s from tenant %s: %s",
-							managedObjectRepresentation.getId().getValue(), 
-							tenant,
-							new ObjectMapper().writeValueAsString(managedObjectRepresentation)));
-				} catch (JsonProcessingException e) {
-					log.error("Error writing JSON string", e);
-				}
-            }
-		});
+		if (!shardManager.owns(tenant)) {
+			return;
+		}
+		subscriptionsService.runForTenant(tenant, () -> sampleInventory(tenant));
+	}
+
+	/**
+	 * Fetches and logs a managed object of the tenant; must be called within the tenant's scope
+	 */
+	private void sampleInventory(String tenant) {
+		InventoryApi tenantInventoryApi = c8yPlatform.getInventoryApi();
+		ManagedObjectCollection managedObjectCollection = tenantInventoryApi.getManagedObjects();
+		Iterator<ManagedObjectRepresentation> itor = rateLimiter.call(tenant, () -> managedObjectCollection.get(1).getManagedObjects()).iterator();
+		while (itor.hasNext()) {
+			ManagedObjectRepresentation managedObjectRepresentation = itor.next();
+			events.info("Fetched managed object").tenant(tenant).id(managedObjectRepresentation.getId())
+					.json("managedObject", managedObjectRepresentation)
+					.log();
+		}
 	}
 
 	
@@ -0,0 +1,77 @@
+package c8y.example.cookbook.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merged aggregate over all tenants. complete is false if some tenants failed or didn't answer before the
+ * deadline; their status is in tenants, their objects are not counted.
+ */
+public class FleetAggregate {
+
+	private final InventoryAggregate aggregate;
+	private final List<TenantAggregate> tenants = new ArrayList<>();
+	private boolean complete = true;
+	private boolean finished;
+	private long durationMillis;
+
+	FleetAggregate(boolean grouped) {
+		aggregate = new InventoryAggregate(grouped);
+	}
+
+	/**
+	 * @return false if the aggregation is already finished, and the result was not added
+	 */
+	synchronized boolean add(TenantAggregate result) {
+		if (finished) {
+			return false;
+		}
+		tenants.add(result);
+		if (result.getStatus() == TenantAggregate.Status.OK) {
+			aggregate.merge(result.getAggregate());
+		} else {
+			complete = false;
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the tenants which have no result yet as timed out
+	 */
+	synchronized void finish(Collection<String> allTenants, long durationMillis) {
+		if (finished) {
+			return;
+		}
+		Set<String> answered = new HashSet<>();
+		for (TenantAggregate tenant : tenants) {
+			answered.add(tenant.getTenant());
+		}
+		for (String tenant : allTenants) {
+			if (!answered.contains(tenant)) {
+				add(TenantAggregate.timedOut(tenant, durationMillis));
+			}
+		}
+		this.durationMillis = durationMillis;
+		finished = true;
+	}
+
+	public synchronized InventoryAggregate getAggregate() {
+		return aggregate;
+	}
+
+	public synchronized List<TenantAggregate> getTenants() {
+		return new ArrayList<>(tenants);
+	}
+
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+
+	public synchronized long getDurationMillis() {
+		return durationMillis;
+	}
+
+}
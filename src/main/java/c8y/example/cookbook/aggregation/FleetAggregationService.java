@@ -0,0 +1,223 @@
+package c8y.example.cookbook.aggregation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.cumulocity.sdk.client.PagingParam;
+import com.cumulocity.sdk.client.QueryParam;
+import com.cumulocity.sdk.client.inventory.InventoryApi;
+import com.cumulocity.sdk.client.inventory.InventoryFilter;
+
+import c8y.example.cookbook.execution.TaskExecutors;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.paging.AdaptivePager;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+import c8y.example.cookbook.util.ExtendedInventoryFilter;
+
+/**
+ * Fleet-wide inventory aggregation: runs an inventory query in all subscribed tenants in parallel (on
+ * cookbook.aggregation.threads threads, each tenant with its service credentials and through its rate
+ * limiter) and merges the per-tenant counts.
+ *
+ * Without a group-by property, the count of each tenant is read from the page statistics of a single
+ * request. With a group-by property (e.g. 'type' or 'c8y_example_cookbook_business_CustomDevice.manufacturer'),
+ * the matching objects are iterated and counted per value.
+ *
+ * Tenants which haven't answered by the deadline are cancelled and reported as timed out; the aggregate of
+ * the other tenants is returned regardless.
+ *
+ * Not sharded (see ShardManager): an aggregation runs once per request, on the instance which received it, and
+ * has to cover all tenants.
+ */
+@Component
+public class FleetAggregationService {
+
+	private static final Logger log = LoggerFactory.getLogger(FleetAggregationService.class);
+
+	public static final String NO_VALUE = "(none)";
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private InventoryApi inventoryApi;
+
+	@Autowired
+	private TenantRateLimiter rateLimiter;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private TaskExecutors taskExecutors;
+
+	@Autowired
+	private AdaptivePager pager;
+
+	@Value("${cookbook.aggregation.threads:8}")
+	private int threads;
+
+	private ExecutorService executor;
+	private ScheduledExecutorService timeoutScheduler;
+
+	@PostConstruct
+	public void init() {
+		executor = taskExecutors.newExecutor("aggregation", "fleet-aggregation-", threads);
+		timeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+				runnable -> new Thread(runnable, "fleet-aggregation-timeout"));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+		timeoutScheduler.shutdownNow();
+	}
+
+	/**
+	 * Starts the aggregation over all subscribed tenants
+	 *
+	 * @param query Inventory query, e.g. "has(c8y_IsDevice)"; null or empty for all managed objects
+	 * @param groupBy Property to group by, dot-separated for nested properties; null to only count
+	 * @param timeoutMillis Deadline for the whole aggregation
+	 * @param onTenantResult Called with each tenant's result as soon as it's available (not for timed out tenants)
+	 * @return Completes with the merged aggregate once all tenants answered, or at the deadline
+	 */
+	public CompletableFuture<FleetAggregate> aggregate(String query, String groupBy, long timeoutMillis,
+			Consumer<TenantAggregate> onTenantResult) {
+		long started = System.nanoTime();
+		List<String> tenants = new ArrayList<>();
+		for (MicroserviceCredentials credentials : subscriptionsService.getAll()) {
+			tenants.add(credentials.getTenant());
+		}
+
+		FleetAggregate fleetAggregate = new FleetAggregate(groupBy != null);
+		CompletableFuture<FleetAggregate> result = new CompletableFuture<>();
+		if (tenants.isEmpty()) {
+			fleetAggregate.finish(tenants, 0);
+			result.complete(fleetAggregate);
+			return result;
+		}
+
+		AtomicInteger remaining = new AtomicInteger(tenants.size());
+		List<Future<?>> tasks = new ArrayList<>();
+		for (String tenant : tenants) {
+			tasks.add(executor.submit(() -> {
+				TenantAggregate tenantAggregate = aggregateTenant(tenant, query, groupBy);
+				synchronized (fleetAggregate) {
+					if (fleetAggregate.add(tenantAggregate)) {
+						onTenantResult.accept(tenantAggregate);
+					}
+				}
+				if (remaining.decrementAndGet() == 0) {
+					fleetAggregate.finish(tenants, millisSince(started));
+					result.complete(fleetAggregate);
+				}
+			}));
+		}
+
+		timeoutScheduler.schedule(() -> {
+			if (!result.isDone()) {
+				fleetAggregate.finish(tenants, millisSince(started));
+				result.complete(fleetAggregate);
+				for (Future<?> task : tasks) {
+					task.cancel(true);
+				}
+				metricsRegistry.increment("aggregation.timedOut");
+				log.warn(String.format("Fleet aggregation '%s' timed out after %d ms", query, timeoutMillis));
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+
+		metricsRegistry.increment("aggregation.requests");
+		return result;
+	}
+
+	private TenantAggregate aggregateTenant(String tenant, String query, String groupBy) {
+		long started = System.nanoTime();
+		try {
+			InventoryFilter filter = query == null || query.trim().isEmpty()
+					? new ExtendedInventoryFilter()
+					: new ExtendedInventoryFilter().byQuery(query);
+
+			// when grouping, each page goes through the rate limiter on its own
+			InventoryAggregate aggregate = groupBy == null
+					? rateLimiter.call(tenant, () -> subscriptionsService.callForTenant(tenant, () -> count(filter)))
+					: subscriptionsService.callForTenant(tenant, () -> countGrouped(tenant, filter, groupBy));
+			return TenantAggregate.ok(tenant, millisSince(started), aggregate);
+		} catch (Exception e) {
+			if (Thread.currentThread().isInterrupted()) {
+				return TenantAggregate.timedOut(tenant, millisSince(started));
+			}
+			metricsRegistry.increment("aggregation.tenantErrors");
+			log.warn(String.format("Aggregation in tenant %s failed: %s", tenant, e.getMessage()));
+			return TenantAggregate.failed(tenant, millisSince(started), e.getMessage());
+		}
+	}
+
+	private InventoryAggregate count(InventoryFilter filter) {
+		// with a page size of 1, the number of pages is the number of matching objects
+		Integer totalPages = inventoryApi.getManagedObjectsByFilter(filter)
+				.get(1, new QueryParam(PagingParam.WITH_TOTAL_PAGES, "true"))
+				.getPageStatistics().getTotalPages();
+		InventoryAggregate aggregate = new InventoryAggregate(false);
+		aggregate.count(totalPages == null ? 0 : totalPages);
+		return aggregate;
+	}
+
+	private InventoryAggregate countGrouped(String tenant, InventoryFilter filter, String groupBy) {
+		String[] path = groupBy.split("\\.");
+		InventoryAggregate aggregate = new InventoryAggregate(true);
+		Iterator<ManagedObjectRepresentation> itor = pager.allPages(tenant, inventoryApi.getManagedObjectsByFilter(filter)).iterator();
+		while (itor.hasNext()) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new IllegalStateException("Aggregation cancelled");
+			}
+			aggregate.count(valueOf(itor.next(), path), 1);
+		}
+		return aggregate;
+	}
+
+	private static String valueOf(ManagedObjectRepresentation managedObject, String[] path) {
+		Object value;
+		if (path.length == 1 && "type".equals(path[0])) {
+			value = managedObject.getType();
+		} else if (path.length == 1 && "name".equals(path[0])) {
+			value = managedObject.getName();
+		} else {
+			value = managedObject.get(path[0]);
+			for (int i = 1; i < path.length; i++) {
+				value = value instanceof Map ? ((Map<?, ?>) value).get(path[i]) : null;
+			}
+			if (value instanceof Map) {
+				value = null;
+			}
+		}
+		return value == null ? NO_VALUE : String.valueOf(value);
+	}
+
+	private static long millisSince(long startedNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+	}
+
+}
@@ -0,0 +1,59 @@
+package c8y.example.cookbook.aggregation;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Result of the count / group-by reducers over the managed objects matching a query: the number of matching
+ * objects, and, if grouped, the number of objects per value of the group-by property
+ */
+public class InventoryAggregate {
+
+	private long count;
+	private Map<String, Long> groups;
+
+	public InventoryAggregate() {
+	}
+
+	public InventoryAggregate(boolean grouped) {
+		if (grouped) {
+			groups = new TreeMap<>();
+		}
+	}
+
+	public void count(long objects) {
+		count += objects;
+	}
+
+	public void count(String group, long objects) {
+		count += objects;
+		groups.merge(group, objects, Long::sum);
+	}
+
+	/**
+	 * Adds the counts of another aggregate (e.g. of another tenant) to this one
+	 */
+	public void merge(InventoryAggregate other) {
+		count += other.count;
+		if (other.groups != null) {
+			if (groups == null) {
+				groups = new TreeMap<>();
+			}
+			for (Map.Entry<String, Long> group : other.groups.entrySet()) {
+				groups.merge(group.getKey(), group.getValue(), Long::sum);
+			}
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Number of objects per value of the group-by property, null if not grouped
+	 */
+	public Map<String, Long> getGroups() {
+		return groups;
+	}
+
+}
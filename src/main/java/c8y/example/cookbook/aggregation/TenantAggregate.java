@@ -0,0 +1,58 @@
+package c8y.example.cookbook.aggregation;
+
+/**
+ * The aggregate of a single tenant, or the reason why there is none
+ */
+public class TenantAggregate {
+
+	public enum Status {
+		OK, FAILED, TIMED_OUT
+	}
+
+	private final String tenant;
+	private final Status status;
+	private final long durationMillis;
+	private final InventoryAggregate aggregate;
+	private final String error;
+
+	private TenantAggregate(String tenant, Status status, long durationMillis, InventoryAggregate aggregate, String error) {
+		this.tenant = tenant;
+		this.status = status;
+		this.durationMillis = durationMillis;
+		this.aggregate = aggregate;
+		this.error = error;
+	}
+
+	public static TenantAggregate ok(String tenant, long durationMillis, InventoryAggregate aggregate) {
+		return new TenantAggregate(tenant, Status.OK, durationMillis, aggregate, null);
+	}
+
+	public static TenantAggregate failed(String tenant, long durationMillis, String error) {
+		return new TenantAggregate(tenant, Status.FAILED, durationMillis, null, error);
+	}
+
+	public static TenantAggregate timedOut(String tenant, long durationMillis) {
+		return new TenantAggregate(tenant, Status.TIMED_OUT, durationMillis, null, "deadline exceeded");
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public InventoryAggregate getAggregate() {
+		return aggregate;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+}
@@ -0,0 +1,336 @@
+package c8y.example.cookbook.business;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+/**
+ * Columnar List<Sensor> for large sensor arrays: instead of one Sensor object and one String per element,
+ * it stores a type tag per element in a byte column and a dictionary-encoded name per element in an int
+ * column (5 bytes per sensor). The columns can be allocated off-heap, in direct buffers.
+ *
+ * Elements are materialized on access: get() returns a new Sensor each time, so changes to the returned
+ * object are not reflected in the list (use set() instead). Only Sensor, TemperatureSensor and
+ * HumiditySensor elements are supported.
+ *
+ * Jackson (and so ManagedObjectPOJOMapper) writes and reads the list straight from and into the columns.
+ * The JSON is the same as for a List<Sensor>, including the sensors' type ids, except for the list's own
+ * type id when default typing is enabled (ManagedObjectPOJOMapper.TRUSTED_SOURCE), which makes it read
+ * back as a CompactSensorList. With a type registry, the sensors' ids are those of the registry, and a
+ * property has to be declared as CompactSensorList (e.g. with @JsonDeserialize(as = ...)) to read it back.
+ *
+ * SensorArray sensorArray = new SensorArray(CompactSensorList.of(sensors));
+ */
+@JsonSerialize(using = CompactSensorList.Serializer.class)
+@JsonDeserialize(using = CompactSensorList.Deserializer.class)
+public class CompactSensorList extends AbstractList<Sensor> implements RandomAccess {
+
+	private static final Class<?>[] TYPES = { Sensor.class, TemperatureSensor.class, HumiditySensor.class };
+
+	private final SensorNameDictionary dictionary;
+	private final boolean offHeap;
+
+	private ByteBuffer types;
+	private IntBuffer nameCodes;
+	private int size;
+
+	public CompactSensorList() {
+		this(16, new SensorNameDictionary(), false);
+	}
+
+	/**
+	 * @param initialCapacity Number of sensors the columns can hold before they have to grow
+	 * @param dictionary Dictionary of the sensor names, may be shared with other lists
+	 * @param offHeap Whether to allocate the columns in direct buffers, outside the Java heap
+	 */
+	public CompactSensorList(int initialCapacity, SensorNameDictionary dictionary, boolean offHeap) {
+		this.dictionary = dictionary;
+		this.offHeap = offHeap;
+		allocate(Math.max(initialCapacity, 1));
+	}
+
+	public static CompactSensorList of(Collection<? extends Sensor> sensors) {
+		return of(sensors, new SensorNameDictionary(), false);
+	}
+
+	public static CompactSensorList of(Collection<? extends Sensor> sensors, SensorNameDictionary dictionary, boolean offHeap) {
+		CompactSensorList list = new CompactSensorList(sensors.size(), dictionary, offHeap);
+		list.addAll(sensors);
+		return list;
+	}
+
+	@Override
+	public Sensor get(int index) {
+		checkIndex(index);
+		Sensor sensor = newSensor(types.get(index));
+		sensor.setName(dictionary.decode(nameCodes.get(index)));
+		return sensor;
+	}
+
+	/**
+	 * Reads the name of a sensor without materializing it
+	 */
+	public String getName(int index) {
+		checkIndex(index);
+		return dictionary.decode(nameCodes.get(index));
+	}
+
+	/**
+	 * Reads the class of a sensor without materializing it
+	 */
+	public Class<?> getSensorClass(int index) {
+		checkIndex(index);
+		return TYPES[types.get(index)];
+	}
+
+	@Override
+	public Sensor set(int index, Sensor sensor) {
+		Sensor previous = get(index);
+		types.put(index, typeOf(sensor));
+		nameCodes.put(index, dictionary.encode(sensor.getName()));
+		return previous;
+	}
+
+	@Override
+	public void add(int index, Sensor sensor) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		byte type = typeOf(sensor);
+		if (size == types.capacity()) {
+			grow();
+		}
+		for (int i = size; i > index; i--) {
+			types.put(i, types.get(i - 1));
+			nameCodes.put(i, nameCodes.get(i - 1));
+		}
+		types.put(index, type);
+		nameCodes.put(index, dictionary.encode(sensor.getName()));
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public Sensor remove(int index) {
+		Sensor removed = get(index);
+		for (int i = index; i < size - 1; i++) {
+			types.put(i, types.get(i + 1));
+			nameCodes.put(i, nameCodes.get(i + 1));
+		}
+		size--;
+		modCount++;
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	public SensorNameDictionary getDictionary() {
+		return dictionary;
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	private void appendEncoded(byte type, int nameCode) {
+		if (size == types.capacity()) {
+			grow();
+		}
+		types.put(size, type);
+		nameCodes.put(size, nameCode);
+		size++;
+		modCount++;
+	}
+
+	private void allocate(int capacity) {
+		if (offHeap) {
+			types = ByteBuffer.allocateDirect(capacity);
+			nameCodes = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		} else {
+			types = ByteBuffer.allocate(capacity);
+			nameCodes = IntBuffer.allocate(capacity);
+		}
+	}
+
+	private void grow() {
+		ByteBuffer oldTypes = types;
+		IntBuffer oldNameCodes = nameCodes;
+		allocate(types.capacity() + (types.capacity() >> 1) + 1);
+
+		oldTypes.position(0).limit(size);
+		oldNameCodes.position(0).limit(size);
+		types.put(oldTypes);
+		nameCodes.put(oldNameCodes);
+		types.clear();
+		nameCodes.clear();
+	}
+
+	private static byte typeOf(Sensor sensor) {
+		return typeOf(sensor.getClass());
+	}
+
+	private static byte typeOf(Class<?> sensorClass) {
+		for (byte i = 0; i < TYPES.length; i++) {
+			if (TYPES[i] == sensorClass) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Sensor type not supported by CompactSensorList: " + sensorClass.getName());
+	}
+
+	private static Sensor newSensor(byte type) {
+		switch (type) {
+		case 1:
+			return new TemperatureSensor();
+		case 2:
+			return new HumiditySensor();
+		default:
+			return new Sensor();
+		}
+	}
+
+	/**
+	 * Writes the list as a JSON array of sensors, reading names and types from the columns
+	 */
+	public static class Serializer extends JsonSerializer<CompactSensorList> {
+
+		@Override
+		public void serialize(CompactSensorList list, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+			gen.writeStartArray();
+			writeSensors(list, gen, serializers);
+			gen.writeEndArray();
+		}
+
+		@Override
+		public void serializeWithType(CompactSensorList list, JsonGenerator gen, SerializerProvider serializers,
+				TypeSerializer typeSer) throws IOException {
+			typeSer.writeTypePrefixForArray(list, gen);
+			writeSensors(list, gen, serializers);
+			typeSer.writeTypeSuffixForArray(list, gen);
+		}
+
+		private static void writeSensors(CompactSensorList list, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+			// type ids of the sensors, if the mapper writes them (default typing or a type registry)
+			TypeSerializer sensorTypeSer = serializers.findTypeSerializer(serializers.constructType(Sensor.class));
+			if (sensorTypeSer != null && sensorTypeSer.getTypeInclusion() != JsonTypeInfo.As.PROPERTY) {
+				// other inclusions are not written from the columns
+				for (int i = 0; i < list.size; i++) {
+					serializers.findTypedValueSerializer(Sensor.class, true, null).serialize(list.get(i), gen, serializers);
+				}
+				return;
+			}
+
+			// resolved when a type first occurs: a type registry may leave out the types the list doesn't hold
+			String[] typeIds = new String[TYPES.length];
+			for (int i = 0; i < list.size; i++) {
+				gen.writeStartObject();
+				if (sensorTypeSer != null) {
+					byte type = list.types.get(i);
+					if (typeIds[type] == null) {
+						typeIds[type] = sensorTypeSer.getTypeIdResolver().idFromValueAndType(null, TYPES[type]);
+					}
+					gen.writeStringField(sensorTypeSer.getPropertyName(), typeIds[type]);
+				}
+				gen.writeStringField("name", list.dictionary.decode(list.nameCodes.get(i)));
+				gen.writeEndObject();
+			}
+		}
+	}
+
+	/**
+	 * Reads a JSON array of sensors into the columns of a new list, with a new dictionary. Elements without
+	 * type information are read as Sensor.
+	 */
+	public static class Deserializer extends JsonDeserializer<CompactSensorList> {
+
+		@Override
+		public CompactSensorList deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+			if (!p.isExpectedStartArrayToken()) {
+				throw new JsonMappingException(p, "Expected an array of sensors");
+			}
+			CompactSensorList list = new CompactSensorList();
+			while (p.nextToken() != JsonToken.END_ARRAY) {
+				if (p.getCurrentToken() != JsonToken.START_OBJECT) {
+					throw new JsonMappingException(p, "Expected a sensor object");
+				}
+				byte type = 0;
+				String name = null;
+				while (p.nextToken() == JsonToken.FIELD_NAME) {
+					String field = p.getCurrentName();
+					p.nextToken();
+					if ("name".equals(field)) {
+						name = p.getValueAsString();
+					} else if (field.startsWith("@")) {
+						type = typeOf(p.getText(), p, ctxt);
+					} else {
+						p.skipChildren();
+					}
+				}
+				list.appendEncoded(type, list.dictionary.encode(name));
+			}
+			return list;
+		}
+
+		@Override
+		public Object deserializeWithType(JsonParser p, DeserializationContext ctxt, TypeDeserializer typeDeserializer) throws IOException {
+			return typeDeserializer.deserializeTypedFromArray(p, ctxt);
+		}
+
+		/**
+		 * @param typeId The class name written with default typing, or the id of a type registry's subtype
+		 */
+		private static byte typeOf(String typeId, JsonParser p, DeserializationContext ctxt) throws IOException {
+			for (byte i = 0; i < TYPES.length; i++) {
+				if (TYPES[i].getName().equals(typeId)) {
+					return i;
+				}
+			}
+			TypeDeserializer sensorTypeDeser = ctxt.getFactory().findTypeDeserializer(ctxt.getConfig(),
+					ctxt.constructType(Sensor.class));
+			if (sensorTypeDeser != null && sensorTypeDeser.getTypeIdResolver().getMechanism() == JsonTypeInfo.Id.NAME) {
+				JavaType type = sensorTypeDeser.getTypeIdResolver().typeFromId(ctxt, typeId);
+				for (byte i = 0; type != null && i < TYPES.length; i++) {
+					if (TYPES[i] == type.getRawClass()) {
+						return i;
+					}
+				}
+			}
+			throw new JsonMappingException(p, "Sensor type not supported by CompactSensorList: " + typeId);
+		}
+	}
+
+}
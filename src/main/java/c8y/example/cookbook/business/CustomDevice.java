@@ -1,5 +1,25 @@
 package c8y.example.cookbook.business;
 
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+/**
+ * Written to every device, so ManagedObjectPOJOMapper can be built with the Serializer and Deserializer below,
+ * which write and read the two fields directly instead of through bean introspection:
+ * 
+ * ManagedObjectPOJOMapper.builder().serializer(CustomDevice.class, new CustomDevice.Serializer())
+ *		.deserializer(CustomDevice.class, new CustomDevice.Deserializer()).build();
+ */
 public class CustomDevice {		
 	
 	private String manufacturer;
@@ -35,4 +55,70 @@ public class CustomDevice {
 		return "CustomDevice [manufacturer=" + manufacturer + ", model=" + model + "]";
 	}	
 	
+	/**
+	 * Writes {"manufacturer":...,"model":...}, null fields included like the bean serializer does
+	 */
+	public static class Serializer extends JsonSerializer<CustomDevice> {
+
+		@Override
+		public void serialize(CustomDevice device, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+			gen.writeStartObject();
+			writeFields(device, gen);
+			gen.writeEndObject();
+		}
+
+		@Override
+		public void serializeWithType(CustomDevice device, JsonGenerator gen, SerializerProvider serializers,
+				TypeSerializer typeSer) throws IOException {
+			typeSer.writeTypePrefixForObject(device, gen);
+			writeFields(device, gen);
+			typeSer.writeTypeSuffixForObject(device, gen);
+		}
+
+		@Override
+		public Class<CustomDevice> handledType() {
+			return CustomDevice.class;
+		}
+
+		private static void writeFields(CustomDevice device, JsonGenerator gen) throws IOException {
+			gen.writeStringField("manufacturer", device.manufacturer);
+			gen.writeStringField("model", device.model);
+		}
+	}
+
+	/**
+	 * Reads the manufacturer and model, skipping unknown properties
+	 */
+	public static class Deserializer extends JsonDeserializer<CustomDevice> {
+
+		@Override
+		public CustomDevice deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+			JsonToken token = p.getCurrentToken();
+			if (token == JsonToken.START_OBJECT) {
+				token = p.nextToken();
+			} else if (token != JsonToken.FIELD_NAME) {
+				// FIELD_NAME when the type id property came first and was consumed by the type deserializer
+				throw new JsonMappingException(p, "Expected a custom device object");
+			}
+			CustomDevice device = new CustomDevice();
+			for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+				String field = p.getCurrentName();
+				p.nextToken();
+				if ("manufacturer".equals(field)) {
+					device.manufacturer = p.getValueAsString();
+				} else if ("model".equals(field)) {
+					device.model = p.getValueAsString();
+				} else {
+					p.skipChildren();
+				}
+			}
+			return device;
+		}
+
+		@Override
+		public Object deserializeWithType(JsonParser p, DeserializationContext ctxt, TypeDeserializer typeDeserializer) throws IOException {
+			return typeDeserializer.deserializeTypedFromObject(p, ctxt);
+		}
+	}
+
 }
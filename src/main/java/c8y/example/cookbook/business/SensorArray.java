@@ -25,5 +25,14 @@ public class SensorArray {
 		this.sensors = sensors;
 	}
 	
+	/**
+	 * Replaces the sensors with a CompactSensorList holding the same sensors, for large arrays kept in memory
+	 */
+	public void compact(SensorNameDictionary dictionary, boolean offHeap) {
+		if (sensors != null && !(sensors instanceof CompactSensorList)) {
+			sensors = CompactSensorList.of(sensors, dictionary, offHeap);
+		}
+	}
+	
 	
 }
@@ -0,0 +1,58 @@
+package c8y.example.cookbook.business;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary encoding of sensor names: each distinct name is stored once and referred to by an int code.
+ *
+ * A dictionary can be shared by many CompactSensorLists, e.g. by all sensor arrays of a tenant, which
+ * usually reuse the same few names. Codes are never reused, so a shared dictionary only grows; create
+ * a new one when the set of names changes completely.
+ */
+public class SensorNameDictionary {
+
+	public static final int NULL_CODE = -1;
+
+	private final Map<String, Integer> codes = new HashMap<>();
+	private String[] names = new String[16];
+	private int size;
+
+	/**
+	 * @return The code of the name, adding the name to the dictionary if it's not known yet
+	 */
+	public synchronized int encode(String name) {
+		if (name == null) {
+			return NULL_CODE;
+		}
+		Integer code = codes.get(name);
+		if (code == null) {
+			if (size == names.length) {
+				names = Arrays.copyOf(names, size * 2);
+			}
+			code = size;
+			names[size++] = name;
+			codes.put(name, code);
+		}
+		return code;
+	}
+
+	public synchronized String decode(int code) {
+		if (code == NULL_CODE) {
+			return null;
+		}
+		if (code < 0 || code >= size) {
+			throw new IllegalArgumentException("Unknown sensor name code " + code);
+		}
+		return names[code];
+	}
+
+	/**
+	 * @return Number of distinct names
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+}
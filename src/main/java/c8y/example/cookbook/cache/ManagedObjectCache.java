@@ -0,0 +1,147 @@
+package c8y.example.cookbook.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.query.CompiledQuery;
+
+/**
+ * Per-tenant cache of managed objects, keyed by managed object id. 
+ * 
+ * Entries are considered fresh for cookbook.inventoryCache.ttlSeconds; each tenant holds at most 
+ * cookbook.inventoryCache.maxEntriesPerTenant objects (further puts are dropped until expired 
+ * entries have been cleaned up). Expired entries can still be read with getStale() for up to
+ * cookbook.inventoryCache.maxStaleSeconds, as a fallback while the platform is unavailable.
+ * 
+ * Metrics: inventoryCache.{tenant}.size (gauge), inventoryCache.hits, inventoryCache.misses, inventoryCache.staleHits
+ */
+@Component
+public class ManagedObjectCache {
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.inventoryCache.ttlSeconds:60}")
+	private long ttlSeconds;
+
+	@Value("${cookbook.inventoryCache.maxEntriesPerTenant:10000}")
+	private int maxEntriesPerTenant;
+
+	@Value("${cookbook.inventoryCache.maxStaleSeconds:600}")
+	private long maxStaleSeconds;
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Entry>> tenants = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		metricsRegistry.gauge("inventoryCache.tenants", tenants::size);
+	}
+
+	/**
+	 * @return The cached managed object, if present and not older than the TTL
+	 */
+	public Optional<ManagedObjectRepresentation> get(String tenant, String managedObjectId) {
+		ConcurrentMap<String, Entry> entries = tenants.get(tenant);
+		Entry entry = entries == null ? null : entries.get(managedObjectId);
+		
+		if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+			metricsRegistry.increment("inventoryCache.misses");
+			return Optional.empty();
+		}
+		metricsRegistry.increment("inventoryCache.hits");
+		return Optional.of(entry.managedObject);
+	}
+
+	/**
+	 * @return The cached managed object, if present and expired for at most maxStaleSeconds; only for fallbacks
+	 *         when the object can't be fetched from the platform
+	 */
+	public Optional<ManagedObjectRepresentation> getStale(String tenant, String managedObjectId) {
+		ConcurrentMap<String, Entry> entries = tenants.get(tenant);
+		Entry entry = entries == null ? null : entries.get(managedObjectId);
+		
+		if (entry == null || entry.isExpired(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(maxStaleSeconds))) {
+			return Optional.empty();
+		}
+		metricsRegistry.increment("inventoryCache.staleHits");
+		return Optional.of(entry.managedObject);
+	}
+
+	/**
+	 * Evaluates a query against the tenant's cached objects. Only the objects which happen to be cached
+	 * (and not expired) are considered, so this is a complete result only if the caller knows that all
+	 * matching objects are cached, e.g. because they were all fetched recently.
+	 *
+	 * @return The matching cached objects, in the query's order
+	 */
+	public List<ManagedObjectRepresentation> query(String tenant, CompiledQuery query) {
+		ConcurrentMap<String, Entry> entries = tenants.get(tenant);
+		if (entries == null) {
+			return Collections.emptyList();
+		}
+		long now = System.currentTimeMillis();
+		List<ManagedObjectRepresentation> cached = entries.values().stream()
+				.filter(entry -> !entry.isExpired(now))
+				.map(entry -> entry.managedObject)
+				.collect(Collectors.toList());
+		return query.filter(cached);
+	}
+
+	public void put(String tenant, ManagedObjectRepresentation managedObject) {
+		ConcurrentMap<String, Entry> entries = tenants.computeIfAbsent(tenant, t -> {
+			ConcurrentMap<String, Entry> newEntries = new ConcurrentHashMap<>();
+			metricsRegistry.gauge("inventoryCache." + t + ".size", newEntries::size);
+			return newEntries;
+		});
+		
+		long now = System.currentTimeMillis();
+		if (entries.size() >= maxEntriesPerTenant) {
+			entries.values().removeIf(entry -> entry.isExpired(now));
+		}
+		if (entries.size() < maxEntriesPerTenant || entries.containsKey(managedObject.getId().getValue())) {
+			entries.put(managedObject.getId().getValue(), 
+					new Entry(managedObject, now + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+		}
+	}
+
+	public void evict(String tenant, String managedObjectId) {
+		ConcurrentMap<String, Entry> entries = tenants.get(tenant);
+		if (entries != null) {
+			entries.remove(managedObjectId);
+		}
+	}
+
+	public void evictTenant(String tenant) {
+		tenants.remove(tenant);
+		metricsRegistry.removeAll("inventoryCache." + tenant + ".");
+	}
+
+	private static class Entry {
+		private final ManagedObjectRepresentation managedObject;
+		private final long expiresAtMillis;
+
+		Entry(ManagedObjectRepresentation managedObject, long expiresAtMillis) {
+			this.managedObject = managedObject;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+
+		boolean isExpired(long nowMillis) {
+			return nowMillis >= expiresAtMillis;
+		}
+	}
+
+}
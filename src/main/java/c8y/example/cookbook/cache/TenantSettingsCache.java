@@ -0,0 +1,98 @@
+package c8y.example.cookbook.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.settings.service.MicroserviceSettingsService;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+
+import c8y.example.cookbook.scheduling.TenantJobScheduler;
+
+/**
+ * Caches the microservice settings (tenant options) of each subscribed tenant, so that reading a 
+ * setting doesn't cost a call to the platform. The settings of a tenant are reloaded at most every 
+ * cookbook.tenantSettings.refreshSeconds. The job tenantSettings.refresh reloads them in the background
+ * at the same interval, so that requests rarely find them expired.
+ */
+@Component
+public class TenantSettingsCache {
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private MicroserviceSettingsService settingsService;
+
+	@Autowired
+	private TenantJobScheduler jobScheduler;
+
+	@Value("${cookbook.tenantSettings.refreshSeconds:60}")
+	private long refreshSeconds;
+
+	private final ConcurrentMap<String, Entry> tenants = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		jobScheduler.register("tenantSettings.refresh", refreshSeconds, this::refresh);
+	}
+
+	/**
+	 * @return All settings of the tenant; loads them with the tenant's service credentials if not cached
+	 */
+	public Map<String, String> getAll(String tenant) {
+		Entry entry = tenants.get(tenant);
+		if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+			entry = load(tenant);
+		}
+		return entry.settings;
+	}
+
+	public String get(String tenant, String key) {
+		return getAll(tenant).get(key);
+	}
+
+	/**
+	 * Loads the settings of the tenant, regardless of whether they are cached
+	 */
+	public Map<String, String> refresh(String tenant) {
+		return load(tenant).settings;
+	}
+
+	public void evictTenant(String tenant) {
+		tenants.remove(tenant);
+	}
+
+	private Entry load(String tenant) {
+		Map<String, String> settings = subscriptionsService.callForTenant(tenant, () -> settingsService.getAll());
+		
+		Entry entry = new Entry(Collections.unmodifiableMap(new HashMap<>(settings)), 
+				System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(refreshSeconds));
+		tenants.put(tenant, entry);
+		return entry;
+	}
+
+	private static class Entry {
+		private final Map<String, String> settings;
+		private final long expiresAtMillis;
+
+		Entry(Map<String, String> settings, long expiresAtMillis) {
+			this.settings = settings;
+			this.expiresAtMillis = expiresAtMillis;
+		}
+
+		boolean isExpired(long nowMillis) {
+			return nowMillis >= expiresAtMillis;
+		}
+	}
+
+}
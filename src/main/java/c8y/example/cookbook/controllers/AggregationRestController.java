@@ -0,0 +1,144 @@
+package c8y.example.cookbook.controllers;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import c8y.example.cookbook.aggregation.FleetAggregate;
+import c8y.example.cookbook.aggregation.FleetAggregationService;
+import c8y.example.cookbook.security.UserAuthorization;
+import c8y.example.cookbook.security.UserAuthorizationCache;
+
+/**
+ * Fleet-wide inventory counts across all subscribed tenants, for operators: users with the role
+ * ROLE_COOKBOOK_ADMIN in one of the tenants listed in cookbook.operatorTenants (by default
+ * the tenant the microservice is registered in).
+ *
+ * GET /aggregation/inventory?query=has(c8y_IsDevice)&groupBy=c8y_example_cookbook_business_CustomDevice.manufacturer
+ *
+ * With stream=true the response is newline-delimited JSON, see streamInventoryAggregation().
+ */
+@RestController
+@RequestMapping("/aggregation")
+public class AggregationRestController {
+
+	private static final Logger log = LoggerFactory.getLogger(AggregationRestController.class);
+
+	private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+	@Autowired
+	private FleetAggregationService aggregationService;
+
+	@Autowired
+	private UserAuthorizationCache authorizationCache;
+
+	@Value("${cookbook.operatorTenants:${cookbook.aggregation.operatorTenants:${C8Y.bootstrap.tenant:}}}")
+	private String[] operatorTenants;
+
+	@Value("${cookbook.aggregation.defaultTimeoutMillis:10000}")
+	private long defaultTimeoutMillis;
+
+	@Value("${cookbook.aggregation.maxTimeoutMillis:60000}")
+	private long maxTimeoutMillis;
+
+	/**
+	 * @param query Inventory query (see the query language in the inventory API reference), all managed objects if omitted
+	 * @param groupBy Property to count by, e.g. 'type' or 'fragment.property'; only counts if omitted
+	 * @param timeoutMillis Deadline, tenants which haven't answered by then are reported as timed out
+	 */
+	@GetMapping(path = "/inventory", produces = MediaType.APPLICATION_JSON_VALUE)
+	public CompletableFuture<ResponseEntity<?>> aggregateInventory(
+			@RequestParam(value = "query", required = false) String query,
+			@RequestParam(value = "groupBy", required = false) String groupBy,
+			@RequestParam(value = "timeoutMillis", required = false) Long timeoutMillis) {
+
+		if (!isOperator()) {
+			return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.FORBIDDEN)
+					.body("Insufficient Permissions: fleet-wide aggregation requires ROLE_COOKBOOK_ADMIN in an operator tenant"));
+		}
+
+		return aggregationService.aggregate(query, groupByProperty(groupBy), deadline(timeoutMillis), tenantResult -> {})
+				.thenApply(fleetAggregate -> ResponseEntity.status(HttpStatus.OK).body(summary(fleetAggregate)));
+	}
+
+	/**
+	 * Same as aggregateInventory(), but streams newline-delimited JSON: one line per tenant as soon as its
+	 * result is available, then a last line with the merged result
+	 */
+	@GetMapping(path = "/inventory", params = "stream=true")
+	public ResponseEntity<ResponseBodyEmitter> streamInventoryAggregation(
+			@RequestParam(value = "query", required = false) String query,
+			@RequestParam(value = "groupBy", required = false) String groupBy,
+			@RequestParam(value = "timeoutMillis", required = false) Long timeoutMillis) {
+
+		if (!isOperator()) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).body(null);
+		}
+
+		long deadline = deadline(timeoutMillis);
+		// the service completes at the deadline, the emitter's timeout is only a safety net
+		ResponseBodyEmitter emitter = new ResponseBodyEmitter(deadline + 5000);
+		aggregationService.aggregate(query, groupByProperty(groupBy), deadline, tenantResult -> {
+			try {
+				emitter.send(tenantResult, MediaType.APPLICATION_JSON);
+				emitter.send("\n", MediaType.TEXT_PLAIN);
+			} catch (IOException | IllegalStateException e) {
+				log.debug("Client went away while streaming aggregation results: " + e.getMessage());
+			}
+		}).whenComplete((fleetAggregate, e) -> {
+			try {
+				if (e != null) {
+					emitter.completeWithError(e);
+					return;
+				}
+				emitter.send(summary(fleetAggregate), MediaType.APPLICATION_JSON);
+				emitter.send("\n", MediaType.TEXT_PLAIN);
+				emitter.complete();
+			} catch (IOException | IllegalStateException sendError) {
+				log.debug("Client went away while streaming aggregation results: " + sendError.getMessage());
+			}
+		});
+		return ResponseEntity.status(HttpStatus.OK).contentType(NDJSON).body(emitter);
+	}
+
+	private boolean isOperator() {
+		UserAuthorization authorization = authorizationCache.getForCurrentUser();
+		return authorization.hasRole("ROLE_COOKBOOK_ADMIN") && Arrays.asList(operatorTenants).contains(authorization.getTenant());
+	}
+
+	private long deadline(Long timeoutMillis) {
+		return Math.min(timeoutMillis == null ? defaultTimeoutMillis : timeoutMillis, maxTimeoutMillis);
+	}
+
+	private static String groupByProperty(String groupBy) {
+		return groupBy == null || groupBy.trim().isEmpty() ? null : groupBy.trim();
+	}
+
+	private static Map<String, Object> summary(FleetAggregate fleetAggregate) {
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("complete", fleetAggregate.isComplete());
+		summary.put("durationMillis", fleetAggregate.getDurationMillis());
+		summary.put("count", fleetAggregate.getAggregate().getCount());
+		if (fleetAggregate.getAggregate().getGroups() != null) {
+			summary.put("groups", fleetAggregate.getAggregate().getGroups());
+		}
+		summary.put("tenants", fleetAggregate.getTenants());
+		return summary;
+	}
+
+}
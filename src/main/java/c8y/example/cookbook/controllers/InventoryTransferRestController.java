@@ -0,0 +1,109 @@
+package c8y.example.cookbook.controllers;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import c8y.example.cookbook.export.InventoryTransferService;
+import c8y.example.cookbook.export.TransferJob;
+import c8y.example.cookbook.security.UserAuthorization;
+import c8y.example.cookbook.security.UserAuthorizationCache;
+
+/**
+ * Inventory export and import jobs, see InventoryTransferService. Requires ROLE_COOKBOOK_ADMIN in the tenant;
+ * importing the export of another tenant requires ROLE_COOKBOOK_ADMIN in an operator tenant
+ * (cookbook.operatorTenants).
+ *
+ * POST /transfer/{tenant}/export?query=has(c8y_IsDevice)   starts or resumes an export, 202 with the job status
+ * POST /transfer/{tenant}/import?from={sourceTenant}      imports the export of sourceTenant (default: the tenant itself)
+ * GET  /transfer/{tenant}                                 status and throughput of the last job
+ */
+@RestController
+@RequestMapping("/transfer")
+public class InventoryTransferRestController {
+
+	@Autowired
+	private InventoryTransferService transferService;
+
+	@Autowired
+	private UserAuthorizationCache authorizationCache;
+
+	@Value("${cookbook.operatorTenants:${cookbook.aggregation.operatorTenants:${C8Y.bootstrap.tenant:}}}")
+	private String[] operatorTenants;
+
+	@PostMapping(path = "/{tenant}/export", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> startExport(@PathVariable("tenant") String tenant,
+			@RequestParam(value = "query", required = false) String query) {
+
+		if (!isAdmin(tenant, tenant)) {
+			return forbidden();
+		}
+		try {
+			return ResponseEntity.status(HttpStatus.ACCEPTED).body(transferService.startExport(tenant, query));
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+		} catch (IllegalStateException e) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+		}
+	}
+
+	@PostMapping(path = "/{tenant}/import", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> startImport(@PathVariable("tenant") String tenant,
+			@RequestParam(value = "from", required = false) String sourceTenant) {
+
+		String source = sourceTenant == null ? tenant : sourceTenant;
+		if (!isAdmin(tenant, source)) {
+			return forbidden();
+		}
+		try {
+			return ResponseEntity.status(HttpStatus.ACCEPTED).body(transferService.startImport(tenant, source));
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+		} catch (IllegalStateException e) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+		}
+	}
+
+	@GetMapping(path = "/{tenant}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> getJob(@PathVariable("tenant") String tenant) {
+		if (!isAdmin(tenant, tenant)) {
+			return forbidden();
+		}
+		Optional<TransferJob> job = transferService.getJob(tenant);
+		if (!job.isPresent()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(String.format("No export or import for tenant %s", tenant));
+		}
+		return ResponseEntity.status(HttpStatus.OK).body(job.get());
+	}
+
+	/**
+	 * Admins may transfer within their own tenant, operators between any tenants
+	 */
+	private boolean isAdmin(String tenant, String sourceTenant) {
+		UserAuthorization authorization = authorizationCache.getForCurrentUser();
+		if (!authorization.hasRole("ROLE_COOKBOOK_ADMIN")) {
+			return false;
+		}
+		if (Arrays.asList(operatorTenants).contains(authorization.getTenant())) {
+			return true;
+		}
+		return authorization.getTenant().equals(tenant) && authorization.getTenant().equals(sourceTenant);
+	}
+
+	private static ResponseEntity<?> forbidden() {
+		return ResponseEntity.status(HttpStatus.FORBIDDEN)
+				.body("Insufficient Permissions: user does not have required permission to access this API: ROLE_COOKBOOK_ADMIN");
+	}
+
+}
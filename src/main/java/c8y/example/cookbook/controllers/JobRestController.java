@@ -0,0 +1,99 @@
+package c8y.example.cookbook.controllers;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+
+import c8y.example.cookbook.scheduling.JobStatus;
+import c8y.example.cookbook.scheduling.TenantJobScheduler;
+import c8y.example.cookbook.security.UserAuthorization;
+import c8y.example.cookbook.security.UserAuthorizationCache;
+
+/**
+ * Lists and triggers the jobs of TenantJobScheduler. Listing requires ROLE_COOKBOOK_READ, triggering
+ * ROLE_COOKBOOK_ADMIN; only users of an operator tenant (cookbook.operatorTenants) may trigger
+ * jobs of other tenants.
+ *
+ * GET  /jobs                              all jobs with run counts and execution time percentiles
+ * GET  /jobs/{name}                       a single job
+ * POST /jobs/{name}/trigger?tenant={t}    runs the job for the tenant (default: the user's tenant) now, 202;
+ *                                         409 if it is already running for the tenant
+ */
+@RestController
+@RequestMapping("/jobs")
+public class JobRestController {
+
+	@Autowired
+	private TenantJobScheduler jobScheduler;
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private UserAuthorizationCache authorizationCache;
+
+	@Value("${cookbook.operatorTenants:${cookbook.aggregation.operatorTenants:${C8Y.bootstrap.tenant:}}}")
+	private String[] operatorTenants;
+
+	@GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> getJobs() {
+		if (!authorizationCache.getForCurrentUser().hasRole("ROLE_COOKBOOK_READ")) {
+			return forbidden("ROLE_COOKBOOK_READ");
+		}
+		return ResponseEntity.status(HttpStatus.OK).body(jobScheduler.getJobs());
+	}
+
+	@GetMapping(path = "/{name:.+}", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> getJob(@PathVariable("name") String name) {
+		if (!authorizationCache.getForCurrentUser().hasRole("ROLE_COOKBOOK_READ")) {
+			return forbidden("ROLE_COOKBOOK_READ");
+		}
+		Optional<JobStatus> job = jobScheduler.getJob(name);
+		if (!job.isPresent()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(String.format("No job %s", name));
+		}
+		return ResponseEntity.status(HttpStatus.OK).body(job.get());
+	}
+
+	@PostMapping(path = "/{name:.+}/trigger", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> trigger(@PathVariable("name") String name,
+			@RequestParam(value = "tenant", required = false) String tenantParam) {
+
+		UserAuthorization authorization = authorizationCache.getForCurrentUser();
+		String tenant = tenantParam == null ? authorization.getTenant() : tenantParam;
+		if (!authorization.hasRole("ROLE_COOKBOOK_ADMIN")
+				|| !(authorization.getTenant().equals(tenant) || Arrays.asList(operatorTenants).contains(authorization.getTenant()))) {
+			return forbidden("ROLE_COOKBOOK_ADMIN");
+		}
+		if (!subscriptionsService.getCredentials(tenant).isPresent()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(String.format("Tenant %s is not subscribed", tenant));
+		}
+		try {
+			if (!jobScheduler.trigger(name, tenant)) {
+				return ResponseEntity.status(HttpStatus.CONFLICT).body(String.format("Job %s is already running for tenant %s", name, tenant));
+			}
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+		}
+		return ResponseEntity.status(HttpStatus.ACCEPTED).body(jobScheduler.getJob(name).get());
+	}
+
+	private static ResponseEntity<?> forbidden(String role) {
+		return ResponseEntity.status(HttpStatus.FORBIDDEN)
+				.body("Insufficient Permissions: user does not have required permission to access this API: " + role);
+	}
+
+}
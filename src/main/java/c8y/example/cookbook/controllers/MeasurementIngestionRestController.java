@@ -0,0 +1,65 @@
+package c8y.example.cookbook.controllers;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import c8y.example.cookbook.ingest.MeasurementIngestionBuffer;
+import c8y.example.cookbook.ingest.SensorReading;
+import c8y.example.cookbook.security.UserAuthorization;
+import c8y.example.cookbook.security.UserAuthorizationCache;
+
+/**
+ * Batched ingestion of sensor readings into the current user's tenant, see MeasurementIngestionBuffer.
+ * Posting requires ROLE_MEASUREMENT_ADMIN, the status ROLE_MEASUREMENT_READ.
+ *
+ * POST /measurements/readings   queues a JSON array of SensorReadings, 202 with the tenant's ingest status
+ * GET  /measurements/ingest     queued readings, lag and ingest rate of the tenant
+ */
+@RestController
+@RequestMapping("/measurements")
+public class MeasurementIngestionRestController {
+
+	@Autowired
+	private MeasurementIngestionBuffer ingestionBuffer;
+
+	@Autowired
+	private UserAuthorizationCache authorizationCache;
+
+	@PostMapping(path = "/readings", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> submit(@RequestBody List<SensorReading> readings) {
+		UserAuthorization authorization = authorizationCache.getForCurrentUser();
+		if (!authorization.hasRole("ROLE_MEASUREMENT_ADMIN")) {
+			return forbidden("ROLE_MEASUREMENT_ADMIN");
+		}
+		try {
+			ingestionBuffer.submit(authorization.getTenant(), readings);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+		}
+		return ResponseEntity.status(HttpStatus.ACCEPTED).body(ingestionBuffer.getStatus(authorization.getTenant()));
+	}
+
+	@GetMapping(path = "/ingest", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> getStatus() {
+		UserAuthorization authorization = authorizationCache.getForCurrentUser();
+		if (!authorization.hasRole("ROLE_MEASUREMENT_READ")) {
+			return forbidden("ROLE_MEASUREMENT_READ");
+		}
+		return ResponseEntity.status(HttpStatus.OK).body(ingestionBuffer.getStatus(authorization.getTenant()));
+	}
+
+	private static ResponseEntity<?> forbidden(String role) {
+		return ResponseEntity.status(HttpStatus.FORBIDDEN)
+				.body("Insufficient Permissions: user does not have required permission to access this API: " + role);
+	}
+
+}
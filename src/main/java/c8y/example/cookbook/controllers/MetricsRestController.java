@@ -0,0 +1,37 @@
+package c8y.example.cookbook.controllers;
+
+import java.util.SortedMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Not at /metrics, which belongs to the Spring Boot actuator pulled in by the microservice SDK; its handler
+ * mapping takes precedence over the controllers'.
+ */
+@RestController
+@RequestMapping("/service-metrics")
+public class MetricsRestController {
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	/**
+	 * @return Current values of all metrics, optionally only those whose name starts with the given prefix 
+	 */
+	@GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> getMetrics(@RequestParam(value = "prefix", required = false) String prefix) {
+		SortedMap<String, Number> metrics = metricsRegistry.snapshot(prefix);
+		
+		return ResponseEntity.status(HttpStatus.OK).body(metrics);
+	}
+
+}
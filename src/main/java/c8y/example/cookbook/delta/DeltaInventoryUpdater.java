@@ -0,0 +1,238 @@
+package c8y.example.cookbook.delta;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.util.FragmentDiff;
+import c8y.example.cookbook.util.ManagedObjectPOJOMapper;
+import c8y.example.cookbook.writebehind.InventoryWriteBehindBuffer;
+
+/**
+ * Delta-only inventory updates: serializes POJOs to fragments with a ManagedObjectPOJOMapper, compares
+ * them with the last known fragments of the managed object, and sends only the fragments which changed.
+ * If nothing changed, no update is sent at all.
+ *
+ * The last known fragments of an object are those last sent through this updater, or those of a managed
+ * object passed to remember() (e.g. one just fetched from the inventory), converted to plain JSON values: the
+ * SDK reads fragments of known classes as POJOs, which would never equal the maps they are compared with. They are kept per tenant for
+ * cookbook.deltaUpdates.ttlSeconds, for at most cookbook.deltaUpdates.maxObjectsPerTenant objects;
+ * fragments with no (or expired) last known state are always sent. Changes made by other clients are not
+ * seen, so the TTL bounds how long such a change can hide a needed update.
+ *
+ * Updates go through the InventoryWriteBehindBuffer. Must be called within a tenant scope:
+ *
+ * deltaUpdater.update(device.getId(), customDevice);
+ *
+ * Metrics: deltaUpdates.sent, deltaUpdates.skipped (no fragment changed), deltaUpdates.fragmentsSent,
+ * deltaUpdates.fragmentsUnchanged
+ */
+@Component
+public class DeltaInventoryUpdater {
+
+	private static final Logger log = LoggerFactory.getLogger(DeltaInventoryUpdater.class);
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private InventoryWriteBehindBuffer writeBuffer;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.deltaUpdates.ttlSeconds:300}")
+	private long ttlSeconds;
+
+	@Value("${cookbook.deltaUpdates.maxObjectsPerTenant:10000}")
+	private int maxObjectsPerTenant;
+
+	private final ConcurrentMap<String, ConcurrentMap<String, KnownState>> tenants = new ConcurrentHashMap<>();
+
+	/**
+	 * Updates the POJO's fragment (named after its class, see ManagedObjectPOJOMapper.getDefaultFragmentNameForClass()), if it changed
+	 *
+	 * @return true if an update was sent
+	 */
+	public boolean update(GId managedObjectId, Object pojo) throws IOException {
+		return update(managedObjectId, ManagedObjectPOJOMapper.getDefaultFragmentNameForClass(pojo.getClass()), pojo);
+	}
+
+	public boolean update(GId managedObjectId, String fragmentName, Object pojo) throws IOException {
+		return update(managedObjectId, Collections.singletonMap(fragmentName, pojo), ManagedObjectPOJOMapper.DEFAULT);
+	}
+
+	/**
+	 * Sends the changed fragments of the managed object, if any
+	 *
+	 * @param pojosByFragmentName The POJOs to write, by the name of the fragment holding them
+	 * @param mapper Mapper used to serialize the POJOs, e.g. ManagedObjectPOJOMapper.TRUSTED_SOURCE for polymorphic types
+	 * @return true if an update was sent
+	 */
+	public boolean update(GId managedObjectId, Map<String, Object> pojosByFragmentName, ManagedObjectPOJOMapper mapper) throws IOException {
+		String tenant = subscriptionsService.getTenant();
+		String id = managedObjectId.getValue();
+
+		Map<String, Object> current = new LinkedHashMap<>();
+		for (Map.Entry<String, Object> pojo : pojosByFragmentName.entrySet()) {
+			current.put(pojo.getKey(), mapper.toFragment(pojo.getValue()));
+		}
+
+		Map<String, Object> changed = FragmentDiff.changedFragments(getKnownFragments(tenant, id), current);
+		metricsRegistry.add("deltaUpdates.fragmentsUnchanged", current.size() - changed.size());
+		if (changed.isEmpty()) {
+			metricsRegistry.increment("deltaUpdates.skipped");
+			return false;
+		}
+
+		ManagedObjectRepresentation delta = new ManagedObjectRepresentation();
+		delta.setId(managedObjectId);
+		for (Map.Entry<String, Object> fragment : changed.entrySet()) {
+			delta.set(fragment.getValue(), fragment.getKey());
+		}
+
+		// remember before the write completes, so that a concurrent sync of the same state is skipped;
+		// forgotten again if the write fails
+		remember(tenant, id, changed);
+		writeBuffer.update(delta).whenComplete((result, e) -> {
+			if (e != null) {
+				forget(tenant, id);
+			}
+		});
+
+		metricsRegistry.increment("deltaUpdates.sent");
+		metricsRegistry.add("deltaUpdates.fragmentsSent", changed.size());
+		log.debug(String.format("Delta update of managed object %s of tenant %s: %s", id, tenant, changed.keySet()));
+		return true;
+	}
+
+	/**
+	 * Records the fragments of a managed object of the current tenant as its last known state, e.g. after fetching it
+	 */
+	public void remember(ManagedObjectRepresentation managedObject) {
+		remember(managedObject, ManagedObjectPOJOMapper.DEFAULT);
+	}
+
+	/**
+	 * @param mapper The mapper later passed to update(), so fragments the SDK read as POJOs (e.g. CustomDevice)
+	 *        are compared in the same form
+	 */
+	public void remember(ManagedObjectRepresentation managedObject, ManagedObjectPOJOMapper mapper) {
+		remember(subscriptionsService.getTenant(), managedObject.getId().getValue(), toFragments(managedObject.getAttrs(), mapper));
+	}
+
+	/**
+	 * Drops the last known state of a managed object, e.g. because it was deleted or changed elsewhere
+	 */
+	public void forget(String tenant, String managedObjectId) {
+		ConcurrentMap<String, KnownState> objects = tenants.get(tenant);
+		if (objects != null) {
+			objects.remove(managedObjectId);
+		}
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		tenants.remove(event.getTenant());
+	}
+
+	/**
+	 * @return Deep copies of the attributes as plain JSON values (maps, lists, strings, numbers, booleans), with
+	 *         POJOs serialized like update() does; attributes which can't be serialized are left out, so they are
+	 *         always sent
+	 */
+	static Map<String, Object> toFragments(Map<String, Object> attrs, ManagedObjectPOJOMapper mapper) {
+		Map<String, Object> fragments = new LinkedHashMap<>();
+		for (Map.Entry<String, Object> attr : attrs.entrySet()) {
+			try {
+				fragments.put(attr.getKey(), toJsonValue(attr.getValue(), mapper));
+			} catch (IOException | RuntimeException e) {
+				log.debug(String.format("Fragment %s not remembered: %s", attr.getKey(), e.getMessage()));
+			}
+		}
+		return fragments;
+	}
+
+	private static Object toJsonValue(Object value, ManagedObjectPOJOMapper mapper) throws IOException {
+		if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+			return value;
+		}
+		if (value instanceof Map) {
+			Map<String, Object> copy = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				copy.put(String.valueOf(entry.getKey()), toJsonValue(entry.getValue(), mapper));
+			}
+			return copy;
+		}
+		if (value instanceof Collection || value instanceof Object[]) {
+			Collection<?> elements = value instanceof Collection ? (Collection<?>) value : Arrays.asList((Object[]) value);
+			List<Object> copy = new ArrayList<>(elements.size());
+			for (Object element : elements) {
+				copy.add(toJsonValue(element, mapper));
+			}
+			return copy;
+		}
+		return mapper.toFragment(value);
+	}
+
+	private Map<String, Object> getKnownFragments(String tenant, String managedObjectId) {
+		ConcurrentMap<String, KnownState> objects = tenants.get(tenant);
+		KnownState state = objects == null ? null : objects.get(managedObjectId);
+		if (state == null || state.isExpired(System.currentTimeMillis())) {
+			return Collections.emptyMap();
+		}
+		synchronized (state) {
+			return new LinkedHashMap<>(state.fragments);
+		}
+	}
+
+	private void remember(String tenant, String managedObjectId, Map<String, Object> fragments) {
+		ConcurrentMap<String, KnownState> objects = tenants.computeIfAbsent(tenant, t -> new ConcurrentHashMap<>());
+
+		long now = System.currentTimeMillis();
+		if (objects.size() >= maxObjectsPerTenant) {
+			objects.values().removeIf(state -> state.isExpired(now));
+		}
+		if (objects.size() >= maxObjectsPerTenant && !objects.containsKey(managedObjectId)) {
+			return;
+		}
+
+		KnownState state = objects.compute(managedObjectId,
+				(id, existing) -> existing == null || existing.isExpired(now) ? new KnownState() : existing);
+		synchronized (state) {
+			state.fragments.putAll(fragments);
+			state.expiresAtMillis = now + TimeUnit.SECONDS.toMillis(ttlSeconds);
+		}
+	}
+
+	private static class KnownState {
+		private final Map<String, Object> fragments = new LinkedHashMap<>();
+		private volatile long expiresAtMillis;
+
+		boolean isExpired(long now) {
+			return now >= expiresAtMillis;
+		}
+	}
+
+}
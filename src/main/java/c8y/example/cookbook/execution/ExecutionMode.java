@@ -0,0 +1,11 @@
+package c8y.example.cookbook.execution;
+
+/**
+ * How TaskExecutors runs tasks, configured with cookbook.execution.mode
+ */
+public enum ExecutionMode {
+	/** Fixed pools of platform threads, sized by each service's threads property */
+	PLATFORM,
+	/** A new virtual thread per task, see VirtualThreadExecutor; falls back to PLATFORM before Java 21 */
+	VIRTUAL
+}
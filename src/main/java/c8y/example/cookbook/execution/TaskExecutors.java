@@ -0,0 +1,130 @@
+package c8y.example.cookbook.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.sharding.ShardManager;
+
+/**
+ * Creates the executors of the services, in the mode configured with cookbook.execution.mode:
+ *
+ * - PLATFORM: a fixed pool of platform threads per executor, sized by the service's threads property
+ * - VIRTUAL: a new virtual thread per task (Java 21 or later), at most cookbook.execution.virtual.maxConcurrency
+ *   tasks per executor at a time; the services' threads properties are ignored
+ *
+ * The SDK calls are blocking, so with platform threads every task holds a thread for the full round
+ * trip to the platform. Virtual threads are unmounted while blocked, so a few carrier threads serve
+ * many concurrent calls; the load on the platform is still limited by TenantRateLimiter.
+ *
+ * The request threads of the embedded Tomcat are switched to virtual threads by VirtualThreadServletCustomizer.
+ *
+ * Tasks run in a tenant's context by wrapping their work in MicroserviceSubscriptionsService.runForTenant()
+ * or callForTenant() on the executor's thread, as runForEachTenant() does, which works the same on
+ * virtual threads.
+ *
+ * Metrics: executor.{name}.queued (gauge, tasks waiting for a thread or permit)
+ */
+@Component
+public class TaskExecutors {
+
+	private static final Logger log = LoggerFactory.getLogger(TaskExecutors.class);
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private ShardManager shardManager;
+
+	@Value("${cookbook.execution.mode:PLATFORM}")
+	private ExecutionMode configuredMode;
+
+	@Value("${cookbook.execution.virtual.maxConcurrency:256}")
+	private int maxVirtualConcurrency;
+
+	@Value("${cookbook.execution.tenantJobThreads:8}")
+	private int tenantJobThreads;
+
+	private ExecutionMode mode;
+	private ExecutorService tenantJobExecutor;
+
+	@PostConstruct
+	public void init() {
+		mode = configuredMode;
+		if (mode == ExecutionMode.VIRTUAL && !VirtualThreadExecutor.isSupported()) {
+			log.warn(String.format("Virtual threads are not supported on Java %s, falling back to platform threads",
+					System.getProperty("java.version")));
+			mode = ExecutionMode.PLATFORM;
+		}
+		log.info(String.format("Running tasks on %s threads", mode == ExecutionMode.VIRTUAL ? "virtual" : "platform"));
+
+		tenantJobExecutor = newExecutor("tenantJobs", "tenant-job-", tenantJobThreads);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		tenantJobExecutor.shutdownNow();
+	}
+
+	public ExecutionMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @param name Name of the executor in the metrics
+	 * @param threadNamePrefix Prefix of the thread names, followed by a sequence number
+	 * @param threads Number of threads in PLATFORM mode
+	 */
+	public ExecutorService newExecutor(String name, String threadNamePrefix, int threads) {
+		if (mode == ExecutionMode.VIRTUAL) {
+			VirtualThreadExecutor executor = new VirtualThreadExecutor(threadNamePrefix, maxVirtualConcurrency);
+			metricsRegistry.gauge("executor." + name + ".queued", executor::getQueueSize);
+			return executor;
+		}
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads,
+				runnable -> new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet()));
+		metricsRegistry.gauge("executor." + name + ".queued", () -> executor.getQueue().size());
+		return executor;
+	}
+
+	/**
+	 * Like MicroserviceSubscriptionsService.runForEachTenant(), but runs the task for the subscribed tenants
+	 * in parallel, on cookbook.execution.tenantJobThreads threads in PLATFORM mode. With sharding, only for
+	 * the tenants this instance owns (see ShardManager), so that the other instances don't run it again.
+	 *
+	 * @return Completes when the task has run for all tenants, exceptionally if it failed for any tenant
+	 */
+	public CompletableFuture<Void> runForEachTenant(Runnable task) {
+		List<CompletableFuture<Void>> runs = new ArrayList<>();
+		for (MicroserviceCredentials credentials : subscriptionsService.getAll()) {
+			String tenant = credentials.getTenant();
+			if (!shardManager.owns(tenant)) {
+				continue;
+			}
+			runs.add(CompletableFuture.runAsync(() -> subscriptionsService.runForTenant(tenant, task), tenantJobExecutor));
+		}
+		return CompletableFuture.allOf(runs.toArray(new CompletableFuture[runs.size()]));
+	}
+
+}
@@ -0,0 +1,172 @@
+package c8y.example.cookbook.execution;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor which runs every task on a new virtual thread, at most maxConcurrency tasks at a time.
+ *
+ * The project is compiled for Java 8, so virtual threads are created through reflection and are only
+ * available when running on Java 21 or later (isSupported()). Tasks over the concurrency limit wait for
+ * a permit on their own virtual thread; they are counted by getQueueSize(), like the queue of a
+ * ThreadPoolExecutor. Once maxQueued tasks are waiting, further tasks are rejected with a
+ * RejectedExecutionException, like by a ThreadPoolExecutor with a full bounded queue.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+	private static final boolean SUPPORTED = createFactory("virtual-probe-") != null;
+
+	private final ThreadFactory threadFactory;
+	private final Semaphore permits;
+	private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+	private final int maxQueued;
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+
+	private volatile boolean shutdown;
+
+	/**
+	 * @throws UnsupportedOperationException if the JVM doesn't support virtual threads
+	 */
+	public VirtualThreadExecutor(String threadNamePrefix, int maxConcurrency) {
+		this(threadNamePrefix, maxConcurrency, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxQueued Tasks which may wait for a permit, further tasks are rejected
+	 * @throws UnsupportedOperationException if the JVM doesn't support virtual threads
+	 */
+	public VirtualThreadExecutor(String threadNamePrefix, int maxConcurrency, int maxQueued) {
+		this.threadFactory = createFactory(threadNamePrefix);
+		if (threadFactory == null) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running on " + System.getProperty("java.version"));
+		}
+		this.permits = new Semaphore(maxConcurrency);
+		this.maxQueued = maxQueued;
+	}
+
+	public static boolean isSupported() {
+		return SUPPORTED;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Executor has been shut down");
+		}
+		boolean permitted = permits.tryAcquire();
+		// counted as waiting before its thread starts, so that the limit holds however many tasks are submitted at once
+		if (!permitted && waiting.incrementAndGet() > maxQueued) {
+			waiting.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException(String.format("%d tasks waiting already", maxQueued));
+		}
+		Thread thread = threadFactory.newThread(() -> {
+			try {
+				if (!permitted) {
+					try {
+						permits.acquire();
+					} finally {
+						waiting.decrementAndGet();
+					}
+				}
+				try {
+					task.run();
+				} finally {
+					permits.release();
+				}
+			} catch (InterruptedException e) {
+				// cancelled while waiting for a permit
+			} finally {
+				threads.remove(Thread.currentThread());
+			}
+		});
+		threads.add(thread);
+		thread.start();
+	}
+
+	/**
+	 * @return Number of tasks waiting for a permit
+	 */
+	public int getQueueSize() {
+		return waiting.get();
+	}
+
+	/**
+	 * @return Number of tasks rejected because maxQueued tasks were waiting
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return Number of tasks running or waiting
+	 */
+	public int getThreadCount() {
+		return threads.size();
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown && threads.isEmpty();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		for (Thread thread : threads) {
+			long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remainingMillis <= 0) {
+				break;
+			}
+			thread.join(remainingMillis);
+		}
+		return isTerminated();
+	}
+
+	/**
+	 * Thread.ofVirtual().name(prefix, 1).factory(), or null if not available
+	 */
+	private static ThreadFactory createFactory(String threadNamePrefix) {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = ofVirtual.invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadNamePrefix, 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// before Java 19, or Java 19/20 without --enable-preview
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package c8y.example.cookbook.execution;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.coyote.AbstractProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.stereotype.Component;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * In VIRTUAL execution mode (and unless cookbook.execution.virtual.servlet is false), handles the requests
+ * of the embedded Tomcat on virtual threads, so that controllers calling the platform don't hold a
+ * request thread while waiting. The request scope and the user context of the SDK are thread-bound and
+ * work unchanged. At most cookbook.execution.virtual.maxConcurrency requests are processed at a time, and at
+ * most cookbook.execution.virtual.servletMaxQueued wait for their turn; Tomcat closes the connections of
+ * further requests, as it does when maxThreads and acceptCount are exhausted, instead of queueing them without
+ * limit.
+ *
+ * This bean is created together with the servlet container, before the other beans, so it reads the
+ * mode itself instead of depending on TaskExecutors.
+ */
+@Component
+public class VirtualThreadServletCustomizer implements EmbeddedServletContainerCustomizer {
+
+	private static final Logger log = LoggerFactory.getLogger(VirtualThreadServletCustomizer.class);
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.execution.mode:PLATFORM}")
+	private ExecutionMode mode;
+
+	@Value("${cookbook.execution.virtual.servlet:true}")
+	private boolean enabled;
+
+	@Value("${cookbook.execution.virtual.maxConcurrency:256}")
+	private int maxConcurrency;
+
+	@Value("${cookbook.execution.virtual.servletMaxQueued:100}")
+	private int maxQueued;
+
+	private VirtualThreadExecutor executor;
+
+	@Override
+	public void customize(ConfigurableEmbeddedServletContainer container) {
+		if (mode != ExecutionMode.VIRTUAL || !enabled || !VirtualThreadExecutor.isSupported()
+				|| !(container instanceof TomcatEmbeddedServletContainerFactory)) {
+			return;
+		}
+		executor = new VirtualThreadExecutor("http-virtual-", maxConcurrency, maxQueued);
+		metricsRegistry.gauge("executor.servlet.queued", executor::getQueueSize);
+		metricsRegistry.gauge("executor.servlet.rejected", executor::getRejectedCount);
+		((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+			if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+				((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor);
+				log.info("Handling requests on virtual threads");
+			}
+		});
+	}
+
+	/**
+	 * Tomcat doesn't stop executors it didn't create
+	 */
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package c8y.example.cookbook.export;
+
+/**
+ * Progress of an export, written after each page: the export file is valid up to fileLength, the next
+ * page to fetch is nextPage
+ */
+public class ExportCheckpoint {
+
+	private String query;
+	private int pageSize;
+	private int nextPage = 1;
+	private long objects;
+	private long fileLength;
+	private boolean complete;
+
+	public String getQuery() {
+		return query;
+	}
+
+	public void setQuery(String query) {
+		this.query = query;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public int getNextPage() {
+		return nextPage;
+	}
+
+	public void setNextPage(int nextPage) {
+		this.nextPage = nextPage;
+	}
+
+	public long getObjects() {
+		return objects;
+	}
+
+	public void setObjects(long objects) {
+		this.objects = objects;
+	}
+
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	public void setFileLength(long fileLength) {
+		this.fileLength = fileLength;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+}
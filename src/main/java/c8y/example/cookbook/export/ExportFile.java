@@ -0,0 +1,170 @@
+package c8y.example.cookbook.export;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cumulocity.model.JSONBase;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An export file and its checkpoint. Opening it resumes the last export if it was started with the same query
+ * and page size and didn't complete: the part of the file after the checkpoint, a page which was only partly
+ * written, is cut off. Otherwise the export starts over with an empty file.
+ */
+class ExportFile implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(ExportFile.class);
+
+	static final String CHECKPOINT_FILE = "inventory.checkpoint.json";
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final Path checkpointFile;
+	private final int pageSize;
+	private final FileChannel channel;
+	private final ExportCheckpoint checkpoint;
+	private final boolean resumed;
+
+	ExportFile(Path file, String query, int pageSize) throws IOException {
+		this.checkpointFile = file.resolveSibling(CHECKPOINT_FILE);
+		this.pageSize = pageSize;
+		Files.createDirectories(file.getParent());
+		ExportCheckpoint last = readCheckpoint(checkpointFile);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			resumed = last != null && !last.isComplete() && Objects.equals(last.getQuery(), query)
+					&& last.getPageSize() == pageSize && channel.size() >= last.getFileLength();
+			if (resumed) {
+				checkpoint = last;
+			} else {
+				checkpoint = new ExportCheckpoint();
+				checkpoint.setQuery(query);
+				checkpoint.setPageSize(pageSize);
+			}
+			channel.truncate(checkpoint.getFileLength());
+			channel.position(checkpoint.getFileLength());
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	boolean isResumed() {
+		return resumed;
+	}
+
+	ExportCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Fetches and appends the pages from the checkpoint's next page on, until a page is not full
+	 *
+	 * @param pageWritten Called with each page once it's on disk and checkpointed
+	 */
+	void exportPages(IntFunction<List<ManagedObjectRepresentation>> fetchPage,
+			Consumer<List<ManagedObjectRepresentation>> pageWritten) throws IOException {
+		List<ManagedObjectRepresentation> managedObjects;
+		do {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new IllegalStateException("Export interrupted, resume it by starting it again");
+			}
+			int page = checkpoint.getNextPage();
+			managedObjects = fetchPage.apply(page);
+			if (managedObjects.isEmpty()) {
+				break;
+			}
+			writePage(managedObjects);
+			channel.force(false);
+
+			checkpoint.setNextPage(page + 1);
+			checkpoint.setObjects(checkpoint.getObjects() + managedObjects.size());
+			checkpoint.setFileLength(channel.position());
+			writeCheckpoint(checkpointFile, checkpoint);
+			pageWritten.accept(managedObjects);
+		} while (managedObjects.size() == pageSize);
+	}
+
+	void complete() throws IOException {
+		checkpoint.setComplete(true);
+		writeCheckpoint(checkpointFile, checkpoint);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Writes the page as one gzip member at the channel's position
+	 */
+	private void writePage(List<ManagedObjectRepresentation> managedObjects) throws IOException {
+		// closed after each page, which ends the deflater and frees its native memory, but leaves the channel open
+		OutputStream page = new FilterOutputStream(Channels.newOutputStream(channel)) {
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(page, 64 * 1024),
+				StandardCharsets.UTF_8), 64 * 1024)) {
+			for (ManagedObjectRepresentation managedObject : managedObjects) {
+				writer.write(JSONBase.getJSONGenerator().forValue(managedObject));
+				writer.write('\n');
+			}
+		}
+	}
+
+	static ExportCheckpoint readCheckpoint(Path checkpointFile) {
+		if (!Files.exists(checkpointFile)) {
+			return null;
+		}
+		try {
+			return objectMapper.readValue(checkpointFile.toFile(), ExportCheckpoint.class);
+		} catch (IOException e) {
+			log.warn(String.format("Ignoring unreadable export checkpoint %s: %s", checkpointFile, e.getMessage()));
+			return null;
+		}
+	}
+
+	/**
+	 * Replaces the checkpoint atomically, so a crash leaves either the old or the new one
+	 */
+	private static void writeCheckpoint(Path checkpointFile, ExportCheckpoint checkpoint) throws IOException {
+		Path tempFile = checkpointFile.resolveSibling(CHECKPOINT_FILE + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.write(ByteBuffer.wrap(objectMapper.writeValueAsBytes(checkpoint)));
+			channel.force(true);
+		}
+		Files.move(tempFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
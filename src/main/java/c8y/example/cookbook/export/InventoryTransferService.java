@@ -0,0 +1,298 @@
+package c8y.example.cookbook.export;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+import com.cumulocity.model.JSONBase;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.cumulocity.sdk.client.PagingParam;
+import com.cumulocity.sdk.client.QueryParam;
+import com.cumulocity.sdk.client.inventory.InventoryApi;
+import com.cumulocity.sdk.client.inventory.InventoryFilter;
+
+import c8y.example.cookbook.execution.TaskExecutors;
+import c8y.example.cookbook.logging.StructuredLogger;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+import c8y.example.cookbook.resilience.UpstreamGuard;
+import c8y.example.cookbook.util.ExtendedInventoryFilter;
+
+/**
+ * Exports the inventory of a tenant to a file and imports it into a tenant, e.g. for migrations.
+ *
+ * The export fetches the managed objects page by page (cookbook.export.pageSize) with the tenant's
+ * service credentials and writes them as newline-delimited JSON, in the SDK's JSON format, to
+ * {cookbook.export.directory}/{tenant}/inventory.ndjson.gz. Each page is written as a separate gzip member
+ * (a file of concatenated members is a valid gzip file) and forced to disk, then a checkpoint with the
+ * next page and the valid file length is written. An export which crashed or was stopped is resumed from
+ * the checkpoint when it's started again with the same query: the partly written page is cut off and the
+ * export continues with the next page. Objects created or deleted in the tenant in the meantime can shift
+ * the pages, so an export should be resumed soon.
+ *
+ * The import reads an export file in batches of cookbook.export.importBatchSize objects and creates them
+ * with at most cookbook.export.importParallelism requests in flight. Objects get new ids; references
+ * between objects (child assets/devices/additions and parents) are not restored.
+ *
+ * One export or import runs per tenant at a time. All calls go through the tenant's rate limiter. The export file
+ * and its checkpoint are handled by ExportFile.
+ *
+ * Metrics: export.objects, export.pages, import.created, import.failed
+ */
+@Component
+public class InventoryTransferService {
+
+	private static final Logger log = LoggerFactory.getLogger(InventoryTransferService.class);
+
+	private static final StructuredLogger events = StructuredLogger.getLogger(InventoryTransferService.class);
+
+	static final String EXPORT_FILE = "inventory.ndjson.gz";
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private InventoryApi inventoryApi;
+
+	@Autowired
+	private TenantRateLimiter rateLimiter;
+
+	@Autowired
+	private UpstreamGuard upstreamGuard;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private TaskExecutors taskExecutors;
+
+	@Value("${cookbook.export.directory:${java.io.tmpdir}/cookbook-export}")
+	private String directory;
+
+	@Value("${cookbook.export.threads:2}")
+	private int threads;
+
+	@Value("${cookbook.export.pageSize:2000}")
+	private int pageSize;
+
+	@Value("${cookbook.export.importBatchSize:500}")
+	private int importBatchSize;
+
+	@Value("${cookbook.export.importParallelism:8}")
+	private int importParallelism;
+
+	private ExecutorService jobExecutor;
+	private ExecutorService importExecutor;
+
+	private final ConcurrentMap<String, TransferJob> jobs = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		jobExecutor = taskExecutors.newExecutor("transferJobs", "inventory-transfer-", threads);
+		importExecutor = taskExecutors.newExecutor("import", "inventory-import-", importParallelism);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		// an interrupted export is resumed from its last checkpoint
+		jobExecutor.shutdownNow();
+		importExecutor.shutdownNow();
+	}
+
+	/**
+	 * @return The last export or import job of the tenant, possibly still running
+	 */
+	public Optional<TransferJob> getJob(String tenant) {
+		return Optional.ofNullable(jobs.get(tenant));
+	}
+
+	/**
+	 * Starts an export of the tenant's inventory, or resumes the last one if it was started with the same query
+	 * and didn't complete
+	 *
+	 * @param query Inventory query, null or empty for all managed objects
+	 * @throws IllegalStateException if an export or import is already running for the tenant
+	 */
+	public TransferJob startExport(String tenant, String query) {
+		Path file = tenantDirectory(tenant).resolve(EXPORT_FILE);
+		TransferJob job = register(new TransferJob(TransferJob.Type.EXPORT, tenant, file.toString()));
+		jobExecutor.execute(() -> runExport(job, query == null || query.trim().isEmpty() ? null : query.trim(), file));
+		return job;
+	}
+
+	/**
+	 * Starts an import of the last export of sourceTenant into tenant
+	 *
+	 * @throws IllegalArgumentException if there is no complete export of sourceTenant
+	 * @throws IllegalStateException if an export or import is already running for the tenant
+	 */
+	public TransferJob startImport(String tenant, String sourceTenant) {
+		Path file = tenantDirectory(sourceTenant).resolve(EXPORT_FILE);
+		ExportCheckpoint checkpoint = ExportFile.readCheckpoint(tenantDirectory(sourceTenant).resolve(ExportFile.CHECKPOINT_FILE));
+		if (checkpoint == null || !checkpoint.isComplete() || !Files.exists(file)) {
+			throw new IllegalArgumentException(String.format("No complete export of tenant %s", sourceTenant));
+		}
+		TransferJob job = register(new TransferJob(TransferJob.Type.IMPORT, tenant, file.toString()));
+		jobExecutor.execute(() -> runImport(job, file));
+		return job;
+	}
+
+	private TransferJob register(TransferJob job) {
+		TransferJob registered = jobs.compute(job.getTenant(), (tenant, running) -> running != null && running.isRunning() ? running : job);
+		if (registered != job) {
+			throw new IllegalStateException(String.format("An inventory %s is already running for tenant %s",
+					registered.getType().name().toLowerCase(), job.getTenant()));
+		}
+		return job;
+	}
+
+	private void runExport(TransferJob job, String query, Path file) {
+		String tenant = job.getTenant();
+		try {
+			ExportCheckpoint checkpoint;
+			try (ExportFile exportFile = new ExportFile(file, query, pageSize)) {
+				checkpoint = exportFile.getCheckpoint();
+				if (exportFile.isResumed()) {
+					job.setResumedFromPage(checkpoint.getNextPage());
+					log.info(String.format("Resuming inventory export of tenant %s at page %d", tenant, checkpoint.getNextPage()));
+				}
+				InventoryFilter filter = query == null ? new ExtendedInventoryFilter() : new ExtendedInventoryFilter().byQuery(query);
+				exportFile.exportPages(page -> fetchPage(tenant, filter, page), managedObjects -> {
+					job.addObjects(managedObjects.size());
+					job.setBytes(exportFile.getCheckpoint().getFileLength());
+					metricsRegistry.add("export.objects", managedObjects.size());
+					metricsRegistry.increment("export.pages");
+				});
+				exportFile.complete();
+			}
+
+			job.complete();
+			events.info("Exported inventory").tenant(tenant).latencyMillis(job.getDurationMillis())
+					.field("objects", checkpoint.getObjects())
+					.field("bytes", checkpoint.getFileLength())
+					.field("objectsPerSecond", Math.round(job.getObjectsPerSecond()))
+					.log();
+		} catch (Exception e) {
+			job.fail(e);
+			log.warn(String.format("Inventory export of tenant %s failed: %s", tenant, e.getMessage()));
+		}
+	}
+
+	private List<ManagedObjectRepresentation> fetchPage(String tenant, InventoryFilter filter, int page) {
+		return upstreamGuard.call("inventory", tenant, () -> subscriptionsService.callForTenant(tenant, () ->
+				inventoryApi.getManagedObjectsByFilter(filter)
+						.get(pageSize, new QueryParam(PagingParam.CURRENT_PAGE, String.valueOf(page)))
+						.getManagedObjects()));
+	}
+
+	private void runImport(TransferJob job, Path file) {
+		String tenant = job.getTenant();
+		Semaphore inFlight = new Semaphore(importParallelism);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+				BufferedReader reader = new BufferedReader(new InputStreamReader(
+						new GZIPInputStream(Channels.newInputStream(channel), 64 * 1024), StandardCharsets.UTF_8))) {
+
+			List<String> batch = new ArrayList<>(importBatchSize);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					batch.add(line);
+				}
+				if (batch.size() == importBatchSize) {
+					importBatch(job, batch, inFlight);
+					batch.clear();
+					job.setBytes(channel.position());
+				}
+			}
+			importBatch(job, batch, inFlight);
+			job.setBytes(channel.position());
+
+			job.complete();
+			events.info("Imported inventory").tenant(tenant).latencyMillis(job.getDurationMillis())
+					.field("file", file)
+					.field("objects", job.getObjects())
+					.field("failed", job.getFailed())
+					.field("objectsPerSecond", Math.round(job.getObjectsPerSecond()))
+					.log();
+		} catch (Exception e) {
+			job.fail(e);
+			log.warn(String.format("Inventory import into tenant %s failed: %s", tenant, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Creates the objects of the batch, at most importParallelism at a time, and waits for all of them
+	 */
+	private void importBatch(TransferJob job, List<String> batch, Semaphore inFlight) throws InterruptedException {
+		String tenant = job.getTenant();
+		List<CompletableFuture<Void>> creates = new ArrayList<>(batch.size());
+		for (String json : batch) {
+			inFlight.acquire();
+			creates.add(CompletableFuture.runAsync(() -> {
+				try {
+					ManagedObjectRepresentation managedObject = forCreate(JSONBase.getJSONParser().parse(ManagedObjectRepresentation.class, json));
+					rateLimiter.call(tenant, () -> subscriptionsService.callForTenant(tenant, () -> inventoryApi.create(managedObject)));
+					job.addObjects(1);
+					metricsRegistry.increment("import.created");
+				} catch (Exception e) {
+					job.addFailed(1);
+					metricsRegistry.increment("import.failed");
+					events.warn("Import of managed object failed").tenant(tenant).field("error", e.getMessage()).rateLimited(1).log();
+				} finally {
+					inFlight.release();
+				}
+			}, importExecutor));
+		}
+		CompletableFuture.allOf(creates.toArray(new CompletableFuture[creates.size()])).join();
+	}
+
+	/**
+	 * Removes the fields set by the platform and the references to other objects, which have other ids in the target tenant
+	 */
+	private static ManagedObjectRepresentation forCreate(ManagedObjectRepresentation managedObject) {
+		managedObject.setId(null);
+		managedObject.setSelf(null);
+		managedObject.setLastUpdated(null);
+		managedObject.setOwner(null);
+		managedObject.setChildAssets(null);
+		managedObject.setChildDevices(null);
+		managedObject.setChildAdditions(null);
+		managedObject.setAssetParents(null);
+		managedObject.setDeviceParents(null);
+		managedObject.setAdditionParents(null);
+		return managedObject;
+	}
+
+	private Path tenantDirectory(String tenant) {
+		if (!tenant.matches("[A-Za-z0-9_\\-]+")) {
+			throw new IllegalArgumentException("Invalid tenant id: " + tenant);
+		}
+		return Paths.get(directory, tenant);
+	}
+
+}
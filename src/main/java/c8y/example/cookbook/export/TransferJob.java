@@ -0,0 +1,128 @@
+package c8y.example.cookbook.export;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Status and throughput of an export or import job, returned by the REST API while and after it runs
+ */
+public class TransferJob {
+
+	public enum Type {
+		EXPORT, IMPORT
+	}
+
+	public enum Status {
+		RUNNING, COMPLETED, FAILED
+	}
+
+	private final Type type;
+	private final String tenant;
+	private final String file;
+	private final long startedAtMillis = System.currentTimeMillis();
+	private final long startedNanos = System.nanoTime();
+
+	private final AtomicLong objects = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private volatile long bytes;
+	private volatile int resumedFromPage;
+	private volatile Status status = Status.RUNNING;
+	private volatile String error;
+	private volatile long durationMillis = -1;
+
+	TransferJob(Type type, String tenant, String file) {
+		this.type = type;
+		this.tenant = tenant;
+		this.file = file;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public long getStartedAtMillis() {
+		return startedAtMillis;
+	}
+
+	/**
+	 * @return Objects exported/imported in this run, not counting those of a resumed run
+	 */
+	public long getObjects() {
+		return objects.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return Compressed bytes written/read
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return Page the export resumed at, 0 if it started from the beginning
+	 */
+	public int getResumedFromPage() {
+		return resumedFromPage;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis >= 0 ? durationMillis : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+	}
+
+	public double getObjectsPerSecond() {
+		long millis = getDurationMillis();
+		return millis == 0 ? 0 : objects.get() * 1000.0 / millis;
+	}
+
+	public boolean isRunning() {
+		return status == Status.RUNNING;
+	}
+
+	void addObjects(long count) {
+		objects.addAndGet(count);
+	}
+
+	void addFailed(long count) {
+		failed.addAndGet(count);
+	}
+
+	void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	void setResumedFromPage(int resumedFromPage) {
+		this.resumedFromPage = resumedFromPage;
+	}
+
+	void complete() {
+		durationMillis = getDurationMillis();
+		status = Status.COMPLETED;
+	}
+
+	void fail(Throwable e) {
+		durationMillis = getDurationMillis();
+		error = e.getMessage();
+		status = Status.FAILED;
+	}
+
+}
@@ -0,0 +1,30 @@
+package c8y.example.cookbook.health;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Fails if there are deadlocked threads, the microservice can't recover from that without a restart
+ */
+@Component
+public class DeadlockLivenessCheck implements LivenessCheck {
+
+	private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+	@Override
+	public String getName() {
+		return "deadlocks";
+	}
+
+	@Override
+	public HealthCheckResult check() {
+		long[] deadlockedThreads = threadMXBean.findDeadlockedThreads();
+		if (deadlockedThreads != null && deadlockedThreads.length > 0) {
+			return HealthCheckResult.down(String.format("%d deadlocked threads", deadlockedThreads.length));
+		}
+		return HealthCheckResult.up("no deadlocked threads");
+	}
+
+}
@@ -0,0 +1,42 @@
+package c8y.example.cookbook.health;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Not ready while the queue of upstream calls waiting for the rate limiter, or the queue of any 
+ * of the executors (gauges executor.{name}.queued), is deeper than cookbook.health.maxQueueDepth
+ */
+@Component
+public class ExecutorQueueReadinessCheck implements ReadinessCheck {
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.health.maxQueueDepth:500}")
+	private long maxQueueDepth;
+
+	@Override
+	public String getName() {
+		return "queueDepth";
+	}
+
+	@Override
+	public HealthCheckResult check() {
+		Map<String, Number> queues = metricsRegistry.snapshot("executor.");
+		queues.putAll(metricsRegistry.snapshot("rateLimit.queued"));
+		
+		for (Map.Entry<String, Number> queue : queues.entrySet()) {
+			if (queue.getKey().endsWith(".queued") && queue.getValue().longValue() > maxQueueDepth) {
+				return HealthCheckResult.down(String.format("%s is %d", queue.getKey(), queue.getValue().longValue()));
+			}
+		}
+		return HealthCheckResult.up(queues.toString());
+	}
+
+}
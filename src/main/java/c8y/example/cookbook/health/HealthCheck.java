@@ -0,0 +1,16 @@
+package c8y.example.cookbook.health;
+
+/**
+ * A single health check. Implementations are Spring components implementing either LivenessCheck 
+ * or ReadinessCheck, and are picked up by HealthService.
+ * 
+ * Checks are polled frequently by the probes and must be cheap: no calls to the platform, only 
+ * local state.
+ */
+public interface HealthCheck {
+
+	String getName();
+
+	HealthCheckResult check();
+
+}
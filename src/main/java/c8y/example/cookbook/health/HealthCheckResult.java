@@ -0,0 +1,29 @@
+package c8y.example.cookbook.health;
+
+public class HealthCheckResult {
+
+	private final boolean healthy;
+	private final String detail;
+
+	private HealthCheckResult(boolean healthy, String detail) {
+		this.healthy = healthy;
+		this.detail = detail;
+	}
+
+	public static HealthCheckResult up(String detail) {
+		return new HealthCheckResult(true, detail);
+	}
+
+	public static HealthCheckResult down(String detail) {
+		return new HealthCheckResult(false, detail);
+	}
+
+	public boolean isHealthy() {
+		return healthy;
+	}
+
+	public String getDetail() {
+		return detail;
+	}
+
+}
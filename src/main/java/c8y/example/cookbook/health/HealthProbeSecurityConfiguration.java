@@ -0,0 +1,34 @@
+package c8y.example.cookbook.health;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
+
+/**
+ * Lets the liveness and readiness probes of cumulocity.json through without credentials: Kubernetes sends
+ * none, and everything else under /api requires the SDK's basic authentication. Applies to exactly these two
+ * GET requests, ahead of the SDK's security configuration.
+ */
+@Configuration
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class HealthProbeSecurityConfiguration extends WebSecurityConfigurerAdapter {
+
+	public static final String LIVENESS_PATH = "/api/health/liveness";
+	public static final String READINESS_PATH = "/api/health/readiness";
+
+	@Override
+	protected void configure(HttpSecurity http) throws Exception {
+		http.requestMatchers().antMatchers(HttpMethod.GET, LIVENESS_PATH, READINESS_PATH)
+				.and()
+				.authorizeRequests().anyRequest().permitAll()
+				.and()
+				.sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+				.and()
+				.csrf().disable();
+	}
+
+}
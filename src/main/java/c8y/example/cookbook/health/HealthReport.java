@@ -0,0 +1,33 @@
+package c8y.example.cookbook.health;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The results of all liveness or all readiness checks at a point in time
+ */
+public class HealthReport {
+
+	private final boolean healthy;
+	private final long checkedAtMillis;
+	private final Map<String, HealthCheckResult> checks;
+
+	HealthReport(Map<String, HealthCheckResult> checks, long checkedAtMillis) {
+		this.checks = Collections.unmodifiableMap(checks);
+		this.checkedAtMillis = checkedAtMillis;
+		this.healthy = checks.values().stream().allMatch(HealthCheckResult::isHealthy);
+	}
+
+	public boolean isHealthy() {
+		return healthy;
+	}
+
+	public long getCheckedAtMillis() {
+		return checkedAtMillis;
+	}
+
+	public Map<String, HealthCheckResult> getChecks() {
+		return checks;
+	}
+
+}
@@ -0,0 +1,84 @@
+package c8y.example.cookbook.health;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the liveness and readiness checks. The reports are cached for cookbook.health.cacheMillis, so
+ * that the probes can poll every second without the checks themselves becoming a cost.
+ */
+@Component
+public class HealthService {
+
+	private static final Logger log = LoggerFactory.getLogger(HealthService.class);
+
+	@Autowired(required = false)
+	private List<LivenessCheck> livenessChecks = Collections.emptyList();
+
+	@Autowired(required = false)
+	private List<ReadinessCheck> readinessChecks = Collections.emptyList();
+
+	@Value("${cookbook.health.cacheMillis:1000}")
+	private long cacheMillis;
+
+	private volatile HealthReport liveness;
+	private volatile HealthReport readiness;
+
+	public HealthReport getLiveness() {
+		HealthReport report = liveness;
+		if (report == null || isStale(report)) {
+			report = run(livenessChecks);
+			liveness = report;
+		}
+		return report;
+	}
+
+	public HealthReport getReadiness() {
+		HealthReport report = readiness;
+		if (report == null || isStale(report)) {
+			HealthReport previous = report;
+			report = run(readinessChecks);
+			readiness = report;
+			if (previous != null && previous.isHealthy() != report.isHealthy()) {
+				log.info(String.format("Readiness changed to %s: %s", report.isHealthy() ? "ready" : "not ready", 
+						describeFailures(report)));
+			}
+		}
+		return report;
+	}
+
+	private boolean isStale(HealthReport report) {
+		return System.currentTimeMillis() - report.getCheckedAtMillis() >= cacheMillis;
+	}
+
+	private static HealthReport run(List<? extends HealthCheck> checks) {
+		Map<String, HealthCheckResult> results = new LinkedHashMap<>();
+		for (HealthCheck check : checks) {
+			try {
+				results.put(check.getName(), check.check());
+			} catch (Exception e) {
+				results.put(check.getName(), HealthCheckResult.down("Check failed: " + e.getMessage()));
+			}
+		}
+		return new HealthReport(results, System.currentTimeMillis());
+	}
+
+	private static String describeFailures(HealthReport report) {
+		StringBuilder failures = new StringBuilder();
+		for (Map.Entry<String, HealthCheckResult> check : report.getChecks().entrySet()) {
+			if (!check.getValue().isHealthy()) {
+				failures.append(String.format("%s: %s; ", check.getKey(), check.getValue().getDetail()));
+			}
+		}
+		return failures.toString();
+	}
+
+}
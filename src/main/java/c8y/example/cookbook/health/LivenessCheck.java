@@ -0,0 +1,8 @@
+package c8y.example.cookbook.health;
+
+/**
+ * A check which fails only if the microservice is broken beyond recovery and has to be restarted
+ */
+public interface LivenessCheck extends HealthCheck {
+
+}
@@ -0,0 +1,9 @@
+package c8y.example.cookbook.health;
+
+/**
+ * A check which fails while the microservice should not get any traffic, e.g. while it is starting 
+ * up or overloaded
+ */
+public interface ReadinessCheck extends HealthCheck {
+
+}
@@ -0,0 +1,30 @@
+package c8y.example.cookbook.health;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import c8y.example.cookbook.startup.StartupOrchestrator;
+
+/**
+ * Not ready until the subscriptions have been initialized and all eager startup tasks are finished
+ */
+@Component
+public class StartupReadinessCheck implements ReadinessCheck {
+
+	@Autowired
+	private StartupOrchestrator startupOrchestrator;
+
+	@Override
+	public String getName() {
+		return "startup";
+	}
+
+	@Override
+	public HealthCheckResult check() {
+		if (!startupOrchestrator.isReady()) {
+			return HealthCheckResult.down("subscriptions not initialized or eager startup tasks still running");
+		}
+		return HealthCheckResult.up("startup finished");
+	}
+
+}
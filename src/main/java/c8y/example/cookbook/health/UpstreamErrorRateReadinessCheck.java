@@ -0,0 +1,43 @@
+package c8y.example.cookbook.health;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import c8y.example.cookbook.metrics.UpstreamCallStats;
+
+/**
+ * Not ready while more than cookbook.health.maxUpstreamErrorRate of the recent calls to the platform 
+ * failed. Only evaluated once there were at least cookbook.health.minUpstreamCalls calls in the window, 
+ * so that a few failures right after startup don't take the service out of rotation.
+ */
+@Component
+public class UpstreamErrorRateReadinessCheck implements ReadinessCheck {
+
+	@Autowired
+	private UpstreamCallStats upstreamCallStats;
+
+	@Value("${cookbook.health.maxUpstreamErrorRate:0.5}")
+	private double maxErrorRate;
+
+	@Value("${cookbook.health.minUpstreamCalls:20}")
+	private long minCalls;
+
+	@Override
+	public String getName() {
+		return "upstreamErrorRate";
+	}
+
+	@Override
+	public HealthCheckResult check() {
+		long calls = upstreamCallStats.getCallCount();
+		double errorRate = upstreamCallStats.getErrorRate();
+		String detail = String.format("error rate %.2f over %d calls", errorRate, calls);
+		
+		if (calls >= minCalls && errorRate > maxErrorRate) {
+			return HealthCheckResult.down(detail);
+		}
+		return HealthCheckResult.up(detail);
+	}
+
+}
@@ -0,0 +1,121 @@
+package c8y.example.cookbook.http;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.WebRequest;
+
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * ETags and Cache-Control headers for responses with managed objects.
+ *
+ * The ETag of a managed object is derived from its id and lastUpdated time, or from a hash of its JSON if
+ * it has no lastUpdated time; the ETag of a list is a hash of the ETags of its objects. The ETags are weak,
+ * since the JSON of an unchanged object is not guaranteed to be byte-identical.
+ *
+ * The Cache-Control header of a route is configured with cookbook.http.cacheControl.{route}, e.g.
+ * cookbook.http.cacheControl.inventory.object=private, max-age=10; default cookbook.http.cacheControl.default.
+ *
+ * Metrics: http.notModified
+ */
+@Component
+public class HttpCaching {
+
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+
+	@Autowired
+	private Environment environment;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	public String etag(ManagedObjectRepresentation managedObject) {
+		if (managedObject.getLastUpdated() != null && managedObject.getId() != null) {
+			return weak(managedObject.getId().getValue() + "-" + managedObject.getLastUpdated().getTime());
+		}
+		try {
+			return weak(DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(managedObject)));
+		} catch (JsonProcessingException e) {
+			throw new IllegalArgumentException("Managed object not serializable", e);
+		}
+	}
+
+	public String etag(Collection<ManagedObjectRepresentation> managedObjects) {
+		StringBuilder etags = new StringBuilder();
+		for (ManagedObjectRepresentation managedObject : managedObjects) {
+			etags.append(etag(managedObject)).append(',');
+		}
+		return weak(DigestUtils.md5DigestAsHex(etags.toString().getBytes()));
+	}
+
+	/**
+	 * @return 304 without body if the request's If-None-Match matches the ETag, otherwise 200 with the body;
+	 *         both with the ETag and the route's Cache-Control header
+	 */
+	public <T> ResponseEntity<T> conditional(WebRequest request, String route, String etag, Supplier<T> body) {
+		return conditional(request, route, etag, body, false);
+	}
+
+	/**
+	 * @param stale Whether the body is a stale fallback, e.g. an expired cached object served while the platform
+	 *        is unavailable; adds a Warning header and Cache-Control no-cache, so clients don't keep it
+	 */
+	public <T> ResponseEntity<T> conditional(WebRequest request, String route, String etag, Supplier<T> body, boolean stale) {
+		HttpStatus status = HttpStatus.OK;
+		if (isNotModified(request, etag)) {
+			metricsRegistry.increment("http.notModified");
+			status = HttpStatus.NOT_MODIFIED;
+		}
+		ResponseEntity.BodyBuilder builder = ResponseEntity.status(status)
+				.eTag(etag)
+				.header(HttpHeaders.CACHE_CONTROL, stale ? "private, no-cache" : cacheControl(route));
+		if (stale) {
+			builder.header(HttpHeaders.WARNING, "110 - \"Response is Stale\"");
+		}
+		return status == HttpStatus.NOT_MODIFIED ? builder.build() : builder.body(body.get());
+	}
+
+	/**
+	 * @return Whether the If-None-Match header of the request matches the ETag, using the weak comparison of RFC 7232
+	 */
+	public boolean isNotModified(WebRequest request, String etag) {
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		String opaqueTag = opaqueTag(etag);
+		for (String candidate : ifNoneMatch.split(",")) {
+			String trimmed = candidate.trim();
+			if ("*".equals(trimmed) || opaqueTag.equals(opaqueTag(trimmed))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String cacheControl(String route) {
+		return environment.getProperty("cookbook.http.cacheControl." + route,
+				environment.getProperty("cookbook.http.cacheControl.default", "private, no-cache"));
+	}
+
+	private static String weak(String tag) {
+		return "W/\"" + tag + "\"";
+	}
+
+	private static String opaqueTag(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+}
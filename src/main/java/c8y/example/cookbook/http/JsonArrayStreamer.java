@@ -0,0 +1,94 @@
+package c8y.example.cookbook.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Serializes values one by one as a JSON array straight to an output stream, through a PooledResponseStream:
+ * only the value being written and one pooled buffer are in memory, however long the array. The values are
+ * serialized with the given ObjectMapper, so the JSON is the same as from Spring's message converter when
+ * its ObjectMapper is given.
+ *
+ * Not a Spring bean, see ManagedObjectStreamWriter.
+ */
+public class JsonArrayStreamer {
+
+	private final ObjectMapper objectMapper;
+	private final ObjectWriter objectWriter;
+	private final ResponseBufferPool bufferPool;
+
+	public JsonArrayStreamer(ObjectMapper objectMapper, ResponseBufferPool bufferPool) {
+		this.objectMapper = objectMapper;
+		// the stream only passes on full buffers anyway
+		this.objectWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Writes the values, fetching them from the iterable as they are written; the target is flushed but not closed.
+	 * If the iteration or a write fails, the array is left incomplete.
+	 *
+	 * @return Number of values and bytes written
+	 */
+	public Result write(OutputStream target, Iterable<?> values, boolean gzip) throws IOException {
+		return write(target, values, gzip, null);
+	}
+
+	/**
+	 * Like write(target, values, gzip)
+	 *
+	 * @param beforeFirstWrite Runs once before the first bytes are written to the target, which is after the
+	 *        first buffer is full or all values are written; not at all if the values fail before that
+	 */
+	public Result write(OutputStream target, Iterable<?> values, boolean gzip, Runnable beforeFirstWrite) throws IOException {
+		PooledResponseStream stream = new PooledResponseStream(target, bufferPool, gzip, beforeFirstWrite);
+		try {
+			long count = 0;
+			JsonGenerator generator = objectMapper.getFactory().createGenerator(stream);
+			generator.writeStartArray();
+			for (Object value : values) {
+				objectWriter.writeValue(generator, value);
+				count++;
+			}
+			generator.writeEndArray();
+			generator.close();
+			// writes the rest to the target, unless the generator closed it already (JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+			stream.close();
+			return new Result(count, stream.getBytesWritten());
+		} finally {
+			stream.release();
+		}
+	}
+
+	public int getPooledBuffers() {
+		return bufferPool.getPooled();
+	}
+
+	public static final class Result {
+
+		private final long values;
+		private final long bytes;
+
+		Result(long values, long bytes) {
+			this.values = values;
+			this.bytes = bytes;
+		}
+
+		public long getValues() {
+			return values;
+		}
+
+		/**
+		 * @return Bytes written to the target, compressed if gzipped
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+	}
+
+}
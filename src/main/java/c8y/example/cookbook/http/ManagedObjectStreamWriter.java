@@ -0,0 +1,162 @@
+package c8y.example.cookbook.http;
+
+import java.io.IOException;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.WebRequest;
+
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Writes lists of managed objects to the response as they are fetched, instead of returning a list which
+ * Spring's message converter serializes into a buffer holding the whole body: memory per response stays at
+ * one page of objects plus one pooled buffer of cookbook.http.stream.bufferSize bytes, however large the list.
+ *
+ * Responses are gzipped by the service itself if the client accepts it and cookbook.http.stream.gzip is set,
+ * with pooled deflaters (cookbook.http.stream.gzipLevel); a container compression filter leaves responses with
+ * a Content-Encoding alone. Nothing is sent, and the status, Content-Type and Content-Encoding are only set,
+ * once the first buffer is full, so an upstream failure on the first page (e.g. a 429 of the rate limiter) still
+ * gets a regular error response; a failure after that leaves the response incomplete.
+ *
+ * The JSON is the same as from the message converter, both use Spring's ObjectMapper.
+ *
+ * Metrics: http.stream.responses, http.stream.gzipped, http.stream.objects, http.stream.bytes,
+ * http.stream.failures, http.stream.pooledBuffers (gauge)
+ */
+@Component
+public class ManagedObjectStreamWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(ManagedObjectStreamWriter.class);
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private HttpCaching httpCaching;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.http.stream.bufferSize:65536}")
+	private int bufferSize;
+
+	@Value("${cookbook.http.stream.pooledBuffers:32}")
+	private int pooledBuffers;
+
+	@Value("${cookbook.http.stream.gzip:true}")
+	private boolean gzipEnabled;
+
+	@Value("${cookbook.http.stream.gzipLevel:1}")
+	private int gzipLevel;
+
+	private JsonArrayStreamer streamer;
+
+	public ManagedObjectStreamWriter() {
+	}
+
+	/**
+	 * Without Spring, gzipping at level 1 if the client accepts it
+	 */
+	ManagedObjectStreamWriter(ObjectMapper objectMapper, HttpCaching httpCaching, MetricsRegistry metricsRegistry,
+			int bufferSize) {
+		this.objectMapper = objectMapper;
+		this.httpCaching = httpCaching;
+		this.metricsRegistry = metricsRegistry;
+		this.bufferSize = bufferSize;
+		this.pooledBuffers = 1;
+		this.gzipEnabled = true;
+		this.gzipLevel = 1;
+		init();
+	}
+
+	@PostConstruct
+	public void init() {
+		streamer = new JsonArrayStreamer(objectMapper, new ResponseBufferPool(bufferSize, pooledBuffers, gzipLevel));
+		metricsRegistry.gauge("http.stream.pooledBuffers", streamer::getPooledBuffers);
+	}
+
+	/**
+	 * Writes the objects as a JSON array with the route's Cache-Control header (see HttpCaching)
+	 *
+	 * @param etag ETag of the objects, or null if it can't be known before they are written; with an ETag,
+	 *        a matching If-None-Match gets a 304 without body
+	 */
+	public void write(WebRequest request, HttpServletResponse response, String route, String etag,
+			Iterable<ManagedObjectRepresentation> managedObjects) throws IOException {
+
+		response.setHeader(HttpHeaders.CACHE_CONTROL, httpCaching.cacheControl(route));
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (etag != null) {
+			response.setHeader(HttpHeaders.ETAG, etag);
+			if (httpCaching.isNotModified(request, etag)) {
+				metricsRegistry.increment("http.notModified");
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+		}
+
+		boolean gzip = gzipEnabled && acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+
+		try {
+			// only with the first bytes: the error response for a failure before that is neither JSON nor gzipped
+			JsonArrayStreamer.Result result = streamer.write(response.getOutputStream(), managedObjects, gzip, () -> {
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+				if (gzip) {
+					response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+				}
+			});
+			metricsRegistry.increment("http.stream.responses");
+			if (gzip) {
+				metricsRegistry.increment("http.stream.gzipped");
+			}
+			metricsRegistry.add("http.stream.objects", result.getValues());
+			metricsRegistry.add("http.stream.bytes", result.getBytes());
+		} catch (IOException | RuntimeException e) {
+			metricsRegistry.increment("http.stream.failures");
+			log.warn(String.format("Streaming %s response failed%s: %s", route,
+					response.isCommitted() ? " after the response was committed" : "", e.getMessage()));
+			if (!response.isCommitted()) {
+				// lets the error handling start over, with getWriter() as well
+				response.reset();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return Whether the Accept-Encoding header lists gzip, without q=0
+	 */
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.trim().split(";");
+			if (!"gzip".equalsIgnoreCase(parts[0].trim())) {
+				continue;
+			}
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].replace(" ", "");
+				if (parameter.matches("q=0(\\.0*)?")) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,151 @@
+package c8y.example.cookbook.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Buffers writes in a pooled buffer and passes them on to the target stream a full buffer at a time, optionally
+ * gzipped (RFC 1952) with the pooled deflater. flush() does not flush the target, so the target only sees full
+ * buffers; close() writes the rest, returns the buffers to the pool and leaves the target open. beforeFirstWrite
+ * runs once, right before the first bytes are passed on, e.g. to set the response headers.
+ */
+class PooledResponseStream extends OutputStream {
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final OutputStream target;
+	private final ResponseBufferPool pool;
+	private final boolean gzip;
+	private Runnable beforeFirstWrite;
+
+	private ResponseBufferPool.Buffers buffers;
+	private int position;
+	private long bytesWritten;
+	private long inputBytes;
+
+	PooledResponseStream(OutputStream target, ResponseBufferPool pool, boolean gzip, Runnable beforeFirstWrite)
+			throws IOException {
+		this.target = target;
+		this.pool = pool;
+		this.gzip = gzip;
+		this.beforeFirstWrite = beforeFirstWrite;
+		this.buffers = pool.acquire();
+		if (gzip) {
+			put(GZIP_HEADER, 0, GZIP_HEADER.length);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		inputBytes += len;
+		if (!gzip) {
+			put(b, off, len);
+			return;
+		}
+		buffers.crc.update(b, off, len);
+		Deflater deflater = buffers.deflater;
+		deflater.setInput(b, off, len);
+		while (!deflater.needsInput()) {
+			deflate();
+		}
+	}
+
+	@Override
+	public void flush() {
+		// only full buffers are passed on, see close()
+	}
+
+	/**
+	 * Writes the buffered rest and the gzip trailer to the target and flushes it; returns the buffers to the pool
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffers == null) {
+			return;
+		}
+		try {
+			if (gzip) {
+				Deflater deflater = buffers.deflater;
+				deflater.finish();
+				while (!deflater.finished()) {
+					deflate();
+				}
+				writeIntLE(buffers.crc.getValue());
+				writeIntLE(inputBytes);
+			}
+			drain();
+			target.flush();
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Returns the buffers to the pool without writing the rest, e.g. after a failed write
+	 */
+	void release() {
+		if (buffers != null) {
+			pool.release(buffers);
+			buffers = null;
+		}
+	}
+
+	/**
+	 * @return Bytes passed on to the target so far, compressed if gzipped
+	 */
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	private void deflate() throws IOException {
+		byte[] bytes = buffers.bytes;
+		if (position == bytes.length) {
+			drain();
+		}
+		position += buffers.deflater.deflate(bytes, position, bytes.length - position);
+	}
+
+	private void put(byte[] b, int off, int len) throws IOException {
+		byte[] bytes = buffers.bytes;
+		while (len > 0) {
+			if (position == bytes.length) {
+				drain();
+			}
+			int n = Math.min(len, bytes.length - position);
+			System.arraycopy(b, off, bytes, position, n);
+			position += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void writeIntLE(long value) throws IOException {
+		byte[] le = { (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24) };
+		put(le, 0, le.length);
+	}
+
+	private void drain() throws IOException {
+		if (beforeFirstWrite != null) {
+			Runnable runnable = beforeFirstWrite;
+			beforeFirstWrite = null;
+			runnable.run();
+		}
+		target.write(buffers.bytes, 0, position);
+		bytesWritten += position;
+		position = 0;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (buffers == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package c8y.example.cookbook.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output buffers, deflaters and checksums for streamed responses, reused across responses instead of being
+ * allocated per response. At most maxPooled sets are kept; when the pool is empty a new set is created, and
+ * sets returned to a full pool are dropped. The pool is shared by all threads, so the buffers are reused with
+ * virtual threads as well (see ExecutionMode), where thread locals would be allocated per request.
+ */
+public class ResponseBufferPool {
+
+	private final int bufferSize;
+	private final int gzipLevel;
+	private final BlockingQueue<Buffers> pool;
+
+	/**
+	 * @param bufferSize Bytes written to the response at once
+	 * @param maxPooled Sets of buffers kept for reuse
+	 * @param gzipLevel Deflater level of gzipped responses, 1 (fastest) to 9 (smallest)
+	 */
+	public ResponseBufferPool(int bufferSize, int maxPooled, int gzipLevel) {
+		this.bufferSize = bufferSize;
+		this.gzipLevel = gzipLevel;
+		this.pool = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+	}
+
+	Buffers acquire() {
+		Buffers buffers = pool.poll();
+		return buffers == null ? new Buffers(bufferSize, gzipLevel) : buffers;
+	}
+
+	void release(Buffers buffers) {
+		buffers.deflater.reset();
+		buffers.crc.reset();
+		if (!pool.offer(buffers)) {
+			// the deflater's native memory is freed by end(), not by the garbage collector
+			buffers.deflater.end();
+		}
+	}
+
+	public int getPooled() {
+		return pool.size();
+	}
+
+	static final class Buffers {
+
+		final byte[] bytes;
+		final Deflater deflater;
+		final CRC32 crc = new CRC32();
+
+		private Buffers(int bufferSize, int gzipLevel) {
+			this.bytes = new byte[bufferSize];
+			// raw deflate, the gzip header and trailer are written by PooledResponseStream
+			this.deflater = new Deflater(gzipLevel, true);
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package c8y.example.cookbook.ingest;
+
+/**
+ * Ingestion rate and lag of a tenant's readings, returned by GET /measurements/ingest
+ */
+public class IngestStatus {
+
+	private final String tenant;
+	private final int queued;
+	private final long lagMillis;
+	private final long lastBatchLagMillis;
+	private final double readingsPerSecond;
+	private final long written;
+
+	IngestStatus(String tenant, int queued, long lagMillis, long lastBatchLagMillis, double readingsPerSecond, long written) {
+		this.tenant = tenant;
+		this.queued = queued;
+		this.lagMillis = lagMillis;
+		this.lastBatchLagMillis = lastBatchLagMillis;
+		this.readingsPerSecond = readingsPerSecond;
+		this.written = written;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	/**
+	 * @return Readings waiting to be written
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return How long the oldest queued reading has been waiting, 0 if none is queued
+	 */
+	public long getLagMillis() {
+		return lagMillis;
+	}
+
+	/**
+	 * @return Time from receiving the oldest reading of the last written batch until the batch was written
+	 */
+	public long getLastBatchLagMillis() {
+		return lastBatchLagMillis;
+	}
+
+	/**
+	 * @return Readings written per second, over the last flush interval
+	 */
+	public double getReadingsPerSecond() {
+		return readingsPerSecond;
+	}
+
+	public long getWritten() {
+		return written;
+	}
+
+}
@@ -0,0 +1,234 @@
+package c8y.example.cookbook.ingest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.cumulocity.rest.representation.measurement.MeasurementCollectionRepresentation;
+import com.cumulocity.rest.representation.measurement.MeasurementRepresentation;
+import com.cumulocity.sdk.client.measurement.MeasurementApi;
+
+import c8y.example.cookbook.business.Sensor;
+import c8y.example.cookbook.execution.TaskExecutors;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.ratelimit.RateLimitExceededException;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+
+/**
+ * High-throughput ingestion of sensor readings: readings are queued per tenant and written as measurement
+ * collections (POST /measurement/measurements with a collection), instead of one request per measurement.
+ *
+ * A tenant's queue is flushed when it holds cookbook.ingest.batchSize readings, and every
+ * cookbook.ingest.flushIntervalMillis. A flush writes the queued readings in batches of at most batchSize,
+ * through the tenant's rate limiter, on cookbook.ingest.threads threads; a tenant has at most one flush running,
+ * so its readings are written in the order they were received. A batch which failed with a server error, a
+ * timeout or the rate limit is put back at the head of the queue and written again by the next flush, at most
+ * cookbook.ingest.maxAttempts times, then dropped. Since a request which timed out may still have been written,
+ * this can duplicate measurements. Client errors are not retried: a batch rejected for its content (400, 404,
+ * 413, 422), e.g. because of a reading of an unknown source, is split in halves until the invalid readings are
+ * found, and only those are dropped; other client errors, e.g. 403, drop the batch. When more than
+ * cookbook.ingest.maxQueuedPerTenant readings are queued, further readings are rejected with a
+ * RateLimitExceededException; retries are exempt, see TenantIngestQueue.
+ *
+ * Usage:
+ *
+ * ingestionBuffer.submit(tenant, Arrays.asList(new SensorReading("12345", "temperature", "T1", 21.5)));
+ * ingestionBuffer.submit(tenant, deviceId, temperatureSensor, 21.5);
+ *
+ * Metrics: ingest.{tenant}.queued, ingest.{tenant}.lagMillis (age of the oldest queued reading),
+ * ingest.{tenant}.lastBatchLagMillis, ingest.{tenant}.readingsPerSecond (gauges), ingest.received,
+ * ingest.written, ingest.batches, ingest.failedBatches, ingest.dropped, ingest.invalid (dropped for client errors),
+ * ingest.rejected
+ */
+@Component
+public class MeasurementIngestionBuffer {
+
+	private static final Logger log = LoggerFactory.getLogger(MeasurementIngestionBuffer.class);
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private MeasurementApi measurementApi;
+
+	@Autowired
+	private TenantRateLimiter rateLimiter;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private TaskExecutors taskExecutors;
+
+	@Value("${cookbook.ingest.threads:4}")
+	private int threads;
+
+	@Value("${cookbook.ingest.batchSize:500}")
+	private int batchSize;
+
+	@Value("${cookbook.ingest.flushIntervalMillis:1000}")
+	private long flushIntervalMillis;
+
+	@Value("${cookbook.ingest.maxQueuedPerTenant:100000}")
+	private int maxQueuedPerTenant;
+
+	@Value("${cookbook.ingest.maxAttempts:3}")
+	private int maxAttempts;
+
+	@Value("${cookbook.ingest.shutdownTimeoutMillis:30000}")
+	private long shutdownTimeoutMillis;
+
+	private ExecutorService executor;
+	private ScheduledExecutorService flushScheduler;
+
+	private final ConcurrentMap<String, TenantIngestQueue> queues = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		executor = taskExecutors.newExecutor("ingest", "measurement-ingest-", threads);
+
+		flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "measurement-ingest-flush"));
+		flushScheduler.scheduleWithFixedDelay(this::flushAll, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the queued readings, then stops the flush threads
+	 */
+	@PreDestroy
+	public void shutdown() {
+		flushScheduler.shutdownNow();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+
+		try {
+			for (TenantIngestQueue queue : queues.values()) {
+				while (!queue.isIdle() && System.nanoTime() < deadline) {
+					queue.flush();
+					Thread.sleep(10);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		executor.shutdownNow();
+		for (TenantIngestQueue queue : queues.values()) {
+			queue.drop("shutting down");
+		}
+	}
+
+	/**
+	 * Queues readings of the tenant, all or none
+	 *
+	 * @throws IllegalArgumentException if a reading is incomplete
+	 * @throws RateLimitExceededException if the tenant's queue is full
+	 */
+	public void submit(String tenant, List<SensorReading> readings) {
+		long now = System.currentTimeMillis();
+		List<MeasurementRepresentation> measurements = new ArrayList<>(readings.size());
+		for (SensorReading reading : readings) {
+			measurements.add(toMeasurement(reading, now));
+		}
+		getQueue(tenant).add(measurements);
+	}
+
+	/**
+	 * Queues a reading of one of the sensors of a device
+	 */
+	public void submit(String tenant, GId source, Sensor sensor, double value) {
+		SensorReading reading = new SensorReading(source.getValue(), SensorKind.of(sensor).name(), sensor.getName(), value);
+		submit(tenant, Collections.singletonList(reading));
+	}
+
+	public IngestStatus getStatus(String tenant) {
+		TenantIngestQueue queue = queues.get(tenant);
+		if (queue == null) {
+			return new IngestStatus(tenant, 0, 0, 0, 0, 0);
+		}
+		return queue.getStatus();
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		TenantIngestQueue queue = queues.remove(event.getTenant());
+		if (queue != null) {
+			queue.drop("subscription removed");
+		}
+		metricsRegistry.removeAll("ingest." + event.getTenant() + ".");
+	}
+
+	private void flushAll() {
+		try {
+			for (TenantIngestQueue queue : queues.values()) {
+				queue.updateRate();
+				queue.flush();
+			}
+		} catch (Exception e) {
+			log.error("Error flushing measurement ingestion queues", e);
+		}
+	}
+
+	private TenantIngestQueue getQueue(String tenant) {
+		return queues.computeIfAbsent(tenant, t -> {
+			TenantIngestQueue queue = new TenantIngestQueue(t, this::createBulk, executor, metricsRegistry, batchSize,
+					maxQueuedPerTenant, maxAttempts);
+			metricsRegistry.gauge("ingest." + t + ".queued", queue::size);
+			metricsRegistry.gauge("ingest." + t + ".lagMillis", queue::getLagMillis);
+			metricsRegistry.gauge("ingest." + t + ".lastBatchLagMillis", queue::getLastBatchLagMillis);
+			metricsRegistry.gauge("ingest." + t + ".readingsPerSecond", queue::getReadingsPerSecond);
+			return queue;
+		});
+	}
+
+	private void createBulk(String tenant, MeasurementCollectionRepresentation collection) {
+		subscriptionsService.runForTenant(tenant, () -> rateLimiter.run(tenant,
+				() -> measurementApi.createBulkWithoutResponse(collection)));
+	}
+
+	private static MeasurementRepresentation toMeasurement(SensorReading reading, long receivedAtMillis) {
+		if (reading.getSource() == null || reading.getValue() == null) {
+			throw new IllegalArgumentException("Readings need a source and a value");
+		}
+		SensorKind kind = SensorKind.of(reading.getKind());
+
+		Map<String, Object> value = new LinkedHashMap<>();
+		value.put("value", BigDecimal.valueOf(reading.getValue()));
+		value.put("unit", reading.getUnit() != null ? reading.getUnit() : kind.getDefaultUnit());
+		Map<String, Object> series = new LinkedHashMap<>();
+		series.put(reading.getSensor() != null ? reading.getSensor() : kind.getDefaultSeries(), value);
+
+		ManagedObjectRepresentation source = new ManagedObjectRepresentation();
+		source.setId(GId.asGId(reading.getSource()));
+
+		MeasurementRepresentation measurement = new MeasurementRepresentation();
+		measurement.setSource(source);
+		measurement.setType(kind.getFragment());
+		measurement.setDateTime(new DateTime(reading.getTime() != null ? reading.getTime().getTime() : receivedAtMillis));
+		measurement.set(series, kind.getFragment());
+		return measurement;
+	}
+
+}
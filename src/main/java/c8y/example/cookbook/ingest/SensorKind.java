@@ -0,0 +1,61 @@
+package c8y.example.cookbook.ingest;
+
+import java.util.Locale;
+
+import c8y.example.cookbook.business.HumiditySensor;
+import c8y.example.cookbook.business.Sensor;
+import c8y.example.cookbook.business.TemperatureSensor;
+
+/**
+ * The measurement fragment, default series and unit a sensor's readings are written as
+ */
+public enum SensorKind {
+
+	TEMPERATURE("c8y_TemperatureMeasurement", "T", "C", TemperatureSensor.class),
+	HUMIDITY("c8y_HumidityMeasurement", "h", "%RH", HumiditySensor.class);
+
+	private final String fragment;
+	private final String defaultSeries;
+	private final String defaultUnit;
+	private final Class<? extends Sensor> sensorClass;
+
+	SensorKind(String fragment, String defaultSeries, String defaultUnit, Class<? extends Sensor> sensorClass) {
+		this.fragment = fragment;
+		this.defaultSeries = defaultSeries;
+		this.defaultUnit = defaultUnit;
+		this.sensorClass = sensorClass;
+	}
+
+	public String getFragment() {
+		return fragment;
+	}
+
+	public String getDefaultSeries() {
+		return defaultSeries;
+	}
+
+	public String getDefaultUnit() {
+		return defaultUnit;
+	}
+
+	/**
+	 * @param name e.g. "temperature"
+	 */
+	public static SensorKind of(String name) {
+		try {
+			return valueOf(name.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException | NullPointerException e) {
+			throw new IllegalArgumentException(String.format("Unknown sensor kind %s", name));
+		}
+	}
+
+	public static SensorKind of(Sensor sensor) {
+		for (SensorKind kind : values()) {
+			if (kind.sensorClass.isInstance(sensor)) {
+				return kind;
+			}
+		}
+		throw new IllegalArgumentException(String.format("No measurements for sensors of type %s", sensor.getClass().getName()));
+	}
+
+}
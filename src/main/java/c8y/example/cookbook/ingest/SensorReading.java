@@ -0,0 +1,80 @@
+package c8y.example.cookbook.ingest;
+
+import java.util.Date;
+
+/**
+ * A single reading of a sensor, as posted to /measurements/readings:
+ *
+ * { "source": "12345", "kind": "temperature", "sensor": "T1", "value": 21.5, "time": "2024-01-01T12:00:00.000Z" }
+ *
+ * sensor (the series of the measurement), unit and time are optional; they default to the kind's series and
+ * unit and to the time the reading was received.
+ */
+public class SensorReading {
+
+	private String source;
+	private String kind;
+	private String sensor;
+	private Double value;
+	private String unit;
+	private Date time;
+
+	public SensorReading() {
+	}
+
+	public SensorReading(String source, String kind, String sensor, double value) {
+		this.source = source;
+		this.kind = kind;
+		this.sensor = sensor;
+		this.value = value;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public void setKind(String kind) {
+		this.kind = kind;
+	}
+
+	public String getSensor() {
+		return sensor;
+	}
+
+	public void setSensor(String sensor) {
+		this.sensor = sensor;
+	}
+
+	public Double getValue() {
+		return value;
+	}
+
+	public void setValue(Double value) {
+		this.value = value;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	public void setUnit(String unit) {
+		this.unit = unit;
+	}
+
+	public Date getTime() {
+		return time;
+	}
+
+	public void setTime(Date time) {
+		this.time = time;
+	}
+
+}
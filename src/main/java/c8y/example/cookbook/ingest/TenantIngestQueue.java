@@ -0,0 +1,304 @@
+package c8y.example.cookbook.ingest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cumulocity.rest.representation.measurement.MeasurementCollectionRepresentation;
+import com.cumulocity.rest.representation.measurement.MeasurementRepresentation;
+import com.cumulocity.sdk.client.SDKException;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.ratelimit.RateLimitExceededException;
+
+/**
+ * The queued readings of one tenant of MeasurementIngestionBuffer, and the writing of them: batches of at most
+ * batchSize, at most one flush at a time, retries at the head of the queue and the isolation of invalid readings.
+ *
+ * Retries are put back even if the queue is full: they were taken from it, so the queue exceeds maxQueued by at
+ * most one batch.
+ */
+class TenantIngestQueue {
+
+	private static final Logger log = LoggerFactory.getLogger(TenantIngestQueue.class);
+
+	// client errors caused by the content of a collection, a part of it may still be valid
+	private static final Set<Integer> INVALID_CONTENT_STATUSES = new HashSet<>(Arrays.asList(400, 404, 413, 422));
+
+	/**
+	 * Writes a measurement collection of a tenant to the platform
+	 */
+	interface BulkWriter {
+
+		void create(String tenant, MeasurementCollectionRepresentation collection);
+	}
+
+	private final String tenant;
+	private final BulkWriter bulkWriter;
+	private final Executor executor;
+	private final MetricsRegistry metricsRegistry;
+	private final int batchSize;
+	private final int maxQueued;
+	private final int maxAttempts;
+
+	// guarded by this
+	private final ArrayDeque<PendingReading> pending = new ArrayDeque<>();
+	private boolean flushing;
+	private long written;
+	private long lastBatchLagMillis;
+	private double readingsPerSecond;
+	private long rateWritten;
+	private long rateNanos = System.nanoTime();
+
+	TenantIngestQueue(String tenant, BulkWriter bulkWriter, Executor executor, MetricsRegistry metricsRegistry,
+			int batchSize, int maxQueued, int maxAttempts) {
+		this.tenant = tenant;
+		this.bulkWriter = bulkWriter;
+		this.executor = executor;
+		this.metricsRegistry = metricsRegistry;
+		this.batchSize = batchSize;
+		this.maxQueued = maxQueued;
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Queues the measurements, all or none, and starts a flush once a batch is full
+	 *
+	 * @throws RateLimitExceededException if they don't fit into the queue
+	 */
+	void add(List<MeasurementRepresentation> measurements) {
+		boolean flushNow;
+		synchronized (this) {
+			if (pending.size() + measurements.size() > maxQueued) {
+				metricsRegistry.add("ingest.rejected", measurements.size());
+				throw new RateLimitExceededException(String.format(
+						"Readings of tenant %s rejected: %d readings waiting to be written", tenant, pending.size()));
+			}
+			long now = System.nanoTime();
+			for (MeasurementRepresentation measurement : measurements) {
+				pending.addLast(new PendingReading(measurement, now));
+			}
+			metricsRegistry.add("ingest.received", measurements.size());
+			flushNow = pending.size() >= batchSize;
+		}
+		if (flushNow) {
+			flush();
+		}
+	}
+
+	synchronized int size() {
+		return pending.size();
+	}
+
+	synchronized long getLagMillis() {
+		PendingReading oldest = pending.peekFirst();
+		return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.receivedNanos);
+	}
+
+	synchronized long getLastBatchLagMillis() {
+		return lastBatchLagMillis;
+	}
+
+	synchronized double getReadingsPerSecond() {
+		return readingsPerSecond;
+	}
+
+	synchronized IngestStatus getStatus() {
+		return new IngestStatus(tenant, pending.size(), getLagMillis(), lastBatchLagMillis, readingsPerSecond, written);
+	}
+
+	synchronized boolean isIdle() {
+		return pending.isEmpty() && !flushing;
+	}
+
+	/**
+	 * Starts writing the queued readings, unless a flush of the tenant is already running
+	 */
+	synchronized void flush() {
+		if (pending.isEmpty() || flushing) {
+			return;
+		}
+		flushing = true;
+		try {
+			executor.execute(this::writeQueued);
+		} catch (RuntimeException e) {
+			flushing = false;
+			throw e;
+		}
+	}
+
+	synchronized void updateRate() {
+		long now = System.nanoTime();
+		readingsPerSecond = (written - rateWritten) * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - rateNanos);
+		rateWritten = written;
+		rateNanos = now;
+	}
+
+	synchronized void drop(String reason) {
+		if (pending.isEmpty()) {
+			return;
+		}
+		log.warn(String.format("Dropping %d queued readings of tenant %s: %s", pending.size(), tenant, reason));
+		metricsRegistry.add("ingest.dropped", pending.size());
+		pending.clear();
+	}
+
+	/**
+	 * Writes batches until the queue is empty or a batch failed; the failed batch is retried by the next flush
+	 */
+	private void writeQueued() {
+		try {
+			List<PendingReading> batch;
+			while (!(batch = takeBatch()).isEmpty()) {
+				if (!write(batch)) {
+					return;
+				}
+			}
+		} finally {
+			synchronized (this) {
+				flushing = false;
+			}
+		}
+	}
+
+	private synchronized List<PendingReading> takeBatch() {
+		List<PendingReading> batch = new ArrayList<>(Math.min(batchSize, pending.size()));
+		while (batch.size() < batchSize && !pending.isEmpty()) {
+			batch.add(pending.pollFirst());
+		}
+		return batch;
+	}
+
+	/**
+	 * @return false if writing stopped at a failure which is retried by the next flush
+	 */
+	private boolean write(List<PendingReading> batch) {
+		try {
+			writeOrSplit(batch);
+			return true;
+		} catch (PartialWriteException e) {
+			metricsRegistry.increment("ingest.failedBatches");
+			requeue(batch.subList(e.handled, batch.size()), e.failure);
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the readings as one collection. If the platform rejects it for its content, e.g. 422 for a reading
+	 * of an unknown source, a retry would fail the same way: the halves are written separately until the
+	 * invalid readings are isolated, which are dropped.
+	 *
+	 * @throws PartialWriteException on any other failure, with the number of readings written or dropped before it
+	 */
+	private void writeOrSplit(List<PendingReading> readings) throws PartialWriteException {
+		try {
+			post(readings);
+		} catch (RuntimeException e) {
+			int status = clientErrorStatus(e);
+			if (status == 0) {
+				throw new PartialWriteException(0, e);
+			}
+			if (readings.size() == 1 || !INVALID_CONTENT_STATUSES.contains(status)) {
+				dropInvalid(readings, status, e);
+				return;
+			}
+			int half = readings.size() / 2;
+			writeOrSplit(readings.subList(0, half));
+			try {
+				writeOrSplit(readings.subList(half, readings.size()));
+			} catch (PartialWriteException partial) {
+				throw new PartialWriteException(half + partial.handled, partial.failure);
+			}
+		}
+	}
+
+	private void post(List<PendingReading> readings) {
+		List<MeasurementRepresentation> measurements = new ArrayList<>(readings.size());
+		for (PendingReading reading : readings) {
+			measurements.add(reading.measurement);
+		}
+		MeasurementCollectionRepresentation collection = new MeasurementCollectionRepresentation();
+		collection.setMeasurements(measurements);
+
+		bulkWriter.create(tenant, collection);
+
+		long lagMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readings.get(0).receivedNanos);
+		synchronized (this) {
+			written += readings.size();
+			lastBatchLagMillis = lagMillis;
+		}
+		metricsRegistry.increment("ingest.batches");
+		metricsRegistry.add("ingest.written", readings.size());
+	}
+
+	private void dropInvalid(List<PendingReading> readings, int status, RuntimeException e) {
+		log.warn(String.format("Dropping %d readings of tenant %s rejected with %d, first source %s: %s", readings.size(),
+				tenant, status, readings.get(0).measurement.getSource().getId().getValue(), e.getMessage()));
+		metricsRegistry.add("ingest.invalid", readings.size());
+		metricsRegistry.add("ingest.dropped", readings.size());
+	}
+
+	private synchronized void requeue(List<PendingReading> batch, Exception e) {
+		List<PendingReading> retries = new ArrayList<>(batch.size());
+		for (PendingReading reading : batch) {
+			if (++reading.attempts < maxAttempts) {
+				retries.add(reading);
+			}
+		}
+		log.warn(String.format("Writing %d readings of tenant %s failed, %d will be retried: %s",
+				batch.size(), tenant, retries.size(), e.getMessage()));
+		metricsRegistry.add("ingest.dropped", batch.size() - retries.size());
+		for (int i = retries.size() - 1; i >= 0; i--) {
+			pending.addFirst(retries.get(i));
+		}
+	}
+
+	/**
+	 * @return The HTTP status if the exception is a client error which a retry would get again (4xx other than
+	 *         408 and 429), otherwise 0
+	 */
+	private static int clientErrorStatus(Throwable e) {
+		for (Throwable cause = e; cause != null && cause.getCause() != cause; cause = cause.getCause()) {
+			if (cause instanceof SDKException) {
+				int status = ((SDKException) cause).getHttpStatus();
+				return status >= 400 && status < 500 && status != 408 && status != 429 ? status : 0;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * A collection couldn't be written for a reason which may pass, e.g. a server error or the rate limit
+	 */
+	private static class PartialWriteException extends Exception {
+		// leading readings which were written or dropped before the failure
+		private final int handled;
+		private final RuntimeException failure;
+
+		PartialWriteException(int handled, RuntimeException failure) {
+			super(failure);
+			this.handled = handled;
+			this.failure = failure;
+		}
+	}
+
+	private static class PendingReading {
+		private final MeasurementRepresentation measurement;
+		private final long receivedNanos;
+		private int attempts;
+
+		PendingReading(MeasurementRepresentation measurement, long receivedNanos) {
+			this.measurement = measurement;
+			this.receivedNanos = receivedNanos;
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package c8y.example.cookbook.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.MDC;
+import org.slf4j.event.Level;
+
+import com.cumulocity.model.idtype.GId;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * An event of a StructuredLogger, logged with log()
+ */
+public class LogEvent {
+
+	static final LogEvent DISABLED = new LogEvent(null, null, null);
+
+	private final StructuredLogger logger;
+	private final Level level;
+	private final String message;
+
+	private final List<String> names = new ArrayList<>(4);
+	private final List<Object> values = new ArrayList<>(4);
+	private List<String> payloadNames;
+	private List<Object> payloads;
+	private int sampleOneIn = 1;
+	private double perSecond;
+	private Throwable throwable;
+
+	LogEvent(StructuredLogger logger, Level level, String message) {
+		this.logger = logger;
+		this.level = level;
+		this.message = message;
+	}
+
+	public LogEvent tenant(String tenant) {
+		return field("tenant", tenant);
+	}
+
+	public LogEvent id(GId id) {
+		return field("id", id == null ? null : id.getValue());
+	}
+
+	public LogEvent latencyMillis(long latencyMillis) {
+		return field("latencyMillis", latencyMillis);
+	}
+
+	public LogEvent field(String name, Object value) {
+		if (this != DISABLED) {
+			names.add(name);
+			values.add(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Adds a payload, serialized to JSON only if the logger is enabled for DEBUG and the event is logged
+	 */
+	public LogEvent json(String name, Object value) {
+		if (this != DISABLED && logger.isEnabled(Level.DEBUG)) {
+			if (payloads == null) {
+				payloadNames = new ArrayList<>(1);
+				payloads = new ArrayList<>(1);
+			}
+			payloadNames.add(name);
+			payloads.add(value);
+		}
+		return this;
+	}
+
+	/**
+	 * Logs only one in oneIn events with this message
+	 */
+	public LogEvent sampled(int oneIn) {
+		if (this != DISABLED) {
+			this.sampleOneIn = oneIn;
+		}
+		return this;
+	}
+
+	/**
+	 * Logs at most perSecond events with this message per second, bursts up to perSecond
+	 */
+	public LogEvent rateLimited(double perSecond) {
+		if (this != DISABLED) {
+			this.perSecond = perSecond;
+		}
+		return this;
+	}
+
+	public LogEvent exception(Throwable throwable) {
+		if (this != DISABLED) {
+			this.throwable = throwable;
+		}
+		return this;
+	}
+
+	public void log() {
+		if (this == DISABLED) {
+			return;
+		}
+		if (sampleOneIn > 1 || perSecond > 0) {
+			StructuredLogger.Throttle throttle = logger.throttle(message);
+			if ((sampleOneIn > 1 && !throttle.sample(sampleOneIn)) || (perSecond > 0 && !throttle.acquire(perSecond))) {
+				throttle.suppressed();
+				return;
+			}
+			long suppressed = throttle.takeSuppressed();
+			if (suppressed > 0) {
+				field("suppressed", suppressed);
+			}
+		}
+
+		StringBuilder line = new StringBuilder(message);
+		for (int i = 0; i < names.size(); i++) {
+			appendField(line, names.get(i), values.get(i));
+			if (values.get(i) != null) {
+				MDC.put(names.get(i), String.valueOf(values.get(i)));
+			}
+		}
+		if (payloads != null) {
+			for (int i = 0; i < payloads.size(); i++) {
+				line.append(' ').append(payloadNames.get(i)).append('=').append(toJson(payloads.get(i)));
+			}
+		}
+		try {
+			write(line.toString());
+		} finally {
+			for (String name : names) {
+				MDC.remove(name);
+			}
+		}
+	}
+
+	private void write(String line) {
+		switch (level) {
+		case ERROR:
+			logger.getLogger().error(line, throwable);
+			break;
+		case WARN:
+			logger.getLogger().warn(line, throwable);
+			break;
+		case INFO:
+			logger.getLogger().info(line, throwable);
+			break;
+		case DEBUG:
+			logger.getLogger().debug(line, throwable);
+			break;
+		default:
+			logger.getLogger().trace(line, throwable);
+		}
+	}
+
+	private static void appendField(StringBuilder line, String name, Object value) {
+		String text = String.valueOf(value);
+		line.append(' ').append(name).append('=');
+		if (text.isEmpty() || text.indexOf(' ') >= 0 || text.indexOf('"') >= 0) {
+			line.append('"').append(text.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		} else {
+			line.append(text);
+		}
+	}
+
+	private static String toJson(Object value) {
+		try {
+			return StructuredLogger.JSON.writeValueAsString(value);
+		} catch (JsonProcessingException e) {
+			return "(not serializable: " + e.getMessage() + ")";
+		}
+	}
+
+}
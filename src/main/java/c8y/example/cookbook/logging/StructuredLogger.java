@@ -0,0 +1,126 @@
+package c8y.example.cookbook.logging;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Logger for high-volume events with structured fields, e.g. one event per managed object:
+ *
+ * private static final StructuredLogger log = StructuredLogger.getLogger(InventoryCookbook.class);
+ *
+ * log.info("Fetched managed object").tenant(tenant).id(mor.getId()).latencyMillis(elapsed)
+ *		.json("managedObject", mor)
+ *		.rateLimited(10)
+ *		.log();
+ *
+ * is logged as: Fetched managed object tenant=t123 id=4711 latencyMillis=12
+ *
+ * Nothing is collected or rendered if the level is disabled. Fields added with json() are payloads: they
+ * are only serialized if the logger is enabled for DEBUG, and only when the event is actually logged.
+ * All fields are also put into the MDC while the event is logged, so that a JSON encoder can write them
+ * as separate fields.
+ *
+ * Sampling (sampled()) and rate limits (rateLimited()) apply per logger and message; the number of
+ * events dropped is added to the next logged event as field 'suppressed'. The appenders are asynchronous,
+ * see logback.xml.
+ */
+public final class StructuredLogger {
+
+	static final ObjectMapper JSON = new ObjectMapper();
+
+	private final Logger logger;
+	private final ConcurrentMap<String, Throttle> throttles = new ConcurrentHashMap<>();
+
+	private StructuredLogger(Logger logger) {
+		this.logger = logger;
+	}
+
+	public static StructuredLogger getLogger(Class<?> type) {
+		return new StructuredLogger(LoggerFactory.getLogger(type));
+	}
+
+	public LogEvent debug(String message) {
+		return event(Level.DEBUG, message);
+	}
+
+	public LogEvent info(String message) {
+		return event(Level.INFO, message);
+	}
+
+	public LogEvent warn(String message) {
+		return event(Level.WARN, message);
+	}
+
+	private LogEvent event(Level level, String message) {
+		return isEnabled(level) ? new LogEvent(this, level, message) : LogEvent.DISABLED;
+	}
+
+	Logger getLogger() {
+		return logger;
+	}
+
+	boolean isEnabled(Level level) {
+		switch (level) {
+		case ERROR:
+			return logger.isErrorEnabled();
+		case WARN:
+			return logger.isWarnEnabled();
+		case INFO:
+			return logger.isInfoEnabled();
+		case DEBUG:
+			return logger.isDebugEnabled();
+		default:
+			return logger.isTraceEnabled();
+		}
+	}
+
+	Throttle throttle(String message) {
+		return throttles.computeIfAbsent(message, m -> new Throttle());
+	}
+
+	/**
+	 * Sampling counter and token bucket of one message
+	 */
+	static final class Throttle {
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong suppressed = new AtomicLong();
+		private double tokens = -1;
+		private long refilledAtNanos;
+
+		boolean sample(int oneIn) {
+			return count.getAndIncrement() % oneIn == 0;
+		}
+
+		synchronized boolean acquire(double perSecond) {
+			long now = System.nanoTime();
+			if (tokens < 0) {
+				tokens = perSecond;
+			} else {
+				tokens = Math.min(perSecond, tokens + perSecond * (now - refilledAtNanos) / TimeUnit.SECONDS.toNanos(1));
+			}
+			refilledAtNanos = now;
+			if (tokens < 1) {
+				return false;
+			}
+			tokens--;
+			return true;
+		}
+
+		void suppressed() {
+			suppressed.incrementAndGet();
+		}
+
+		long takeSuppressed() {
+			return suppressed.getAndSet(0);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package c8y.example.cookbook.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in milliseconds, in power-of-two buckets: bucket 0 counts 0..1 ms, bucket i
+ * counts (2^(i-1), 2^i] ms. Percentiles are reported as the upper bound of their bucket (at most the maximum
+ * recorded value), i.e. with less than a factor two of error, which is enough to tell a 50 ms job from a 5 s one.
+ *
+ * Registered with MetricsRegistry.histogram(), which exposes {name}.count, {name}.p50, {name}.p95, {name}.p99
+ * and {name}.max.
+ */
+public class Histogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long millis) {
+		long value = Math.max(0, millis);
+		buckets.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param quantile e.g. 0.99
+	 * @return The upper bound of the bucket the quantile falls into, 0 if nothing was recorded
+	 */
+	public long getPercentile(double quantile) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				return Math.min(1L << i, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	static int bucketOf(long millis) {
+		if (millis <= 1) {
+			return 0;
+		}
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis - 1));
+	}
+
+}
@@ -0,0 +1,97 @@
+package c8y.example.cookbook.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Minimal in-process metrics registry holding named counters, gauges and histograms.
+ * 
+ * Metric names are dot separated, e.g. 'rateLimit.t12345.rejected'. Per-tenant metrics include 
+ * the tenant id so that they can be listed (and dropped) by prefix. 
+ * 
+ * The current values are exposed over REST by MetricsRestController. 
+ */
+@Component
+public class MetricsRegistry {
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+	public void increment(String name) {
+		add(name, 1);
+	}
+
+	public void add(String name, long delta) {
+		counters.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+	}
+
+	public long getCount(String name) {
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Registers a gauge, which is evaluated every time a snapshot is taken. Replaces any 
+	 * previously registered gauge with the same name.
+	 */
+	public void gauge(String name, Supplier<? extends Number> valueSupplier) {
+		gauges.put(name, valueSupplier);
+	}
+
+	/**
+	 * @return The histogram with the name, created on first use; its snapshot values are {name}.count,
+	 *         {name}.p50, {name}.p95, {name}.p99 and {name}.max
+	 */
+	public Histogram histogram(String name) {
+		return histograms.computeIfAbsent(name, n -> new Histogram());
+	}
+
+	/**
+	 * Drops all counters, gauges and histograms whose name starts with the given prefix, e.g. when a tenant 
+	 * unsubscribes. 
+	 */
+	public void removeAll(String prefix) {
+		counters.keySet().removeIf(name -> name.startsWith(prefix));
+		gauges.keySet().removeIf(name -> name.startsWith(prefix));
+		histograms.keySet().removeIf(name -> name.startsWith(prefix));
+	}
+
+	/**
+	 * @param prefix Only include metrics whose name starts with the prefix; null for all metrics
+	 * @return Current values sorted by metric name
+	 */
+	public SortedMap<String, Number> snapshot(String prefix) {
+		SortedMap<String, Number> snapshot = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+			if (prefix == null || counter.getKey().startsWith(prefix)) {
+				snapshot.put(counter.getKey(), counter.getValue().sum());
+			}
+		}
+		for (Map.Entry<String, Supplier<? extends Number>> gauge : gauges.entrySet()) {
+			if (prefix == null || gauge.getKey().startsWith(prefix)) {
+				snapshot.put(gauge.getKey(), gauge.getValue().get());
+			}
+		}
+		for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+			if (prefix == null || histogram.getKey().startsWith(prefix)) {
+				String name = histogram.getKey();
+				Histogram values = histogram.getValue();
+				snapshot.put(name + ".count", values.getCount());
+				snapshot.put(name + ".p50", values.getPercentile(0.5));
+				snapshot.put(name + ".p95", values.getPercentile(0.95));
+				snapshot.put(name + ".p99", values.getPercentile(0.99));
+				snapshot.put(name + ".max", values.getMax());
+			}
+		}
+		return snapshot;
+	}
+
+}
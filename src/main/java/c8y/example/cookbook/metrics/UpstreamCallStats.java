@@ -0,0 +1,134 @@
+package c8y.example.cookbook.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.sdk.client.SDKException;
+
+/**
+ * Counts the calls to the platform APIs and their failures over a sliding window of 
+ * cookbook.upstream.statsWindowSeconds, split into one second buckets. Only server errors count as
+ * failures (see isServerError), a 404 for an unknown id is the client's fault, not the platform's.
+ * 
+ * Metrics: upstream.calls, upstream.errors (totals), upstream.errorRate (gauge, over the window)
+ */
+@Component
+public class UpstreamCallStats {
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.upstream.statsWindowSeconds:60}")
+	private int windowSeconds;
+
+	// per bucket: second the bucket belongs to, number of calls, number of errors
+	private AtomicLongArray bucketSeconds;
+	private AtomicLongArray calls;
+	private AtomicLongArray errors;
+
+	@PostConstruct
+	public void init() {
+		bucketSeconds = new AtomicLongArray(windowSeconds);
+		calls = new AtomicLongArray(windowSeconds);
+		errors = new AtomicLongArray(windowSeconds);
+		metricsRegistry.gauge("upstream.errorRate", this::getErrorRate);
+	}
+
+	public void recordSuccess() {
+		record(false);
+	}
+
+	public void recordError() {
+		record(true);
+	}
+
+	/**
+	 * Records a failed call as an error if it is a server error, otherwise as a success: the platform answered
+	 */
+	public void recordFailure(RuntimeException e) {
+		record(isServerError(e));
+	}
+
+	/**
+	 * @return Whether the exception is a server error, i.e. the platform failed rather than the request: HTTP
+	 *         status 5xx or 0 (no response), an I/O error or a timeout, also as the cause of another exception
+	 */
+	public static boolean isServerError(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SDKException) {
+				int status = ((SDKException) cause).getHttpStatus();
+				return status == 0 || status >= 500;
+			}
+			if (cause instanceof IOException || cause instanceof TimeoutException) {
+				return true;
+			}
+			if (cause.getCause() == cause) {
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Number of calls within the window
+	 */
+	public long getCallCount() {
+		long nowSecond = currentSecond();
+		long sum = 0;
+		for (int i = 0; i < windowSeconds; i++) {
+			if (nowSecond - bucketSeconds.get(i) < windowSeconds) {
+				sum += calls.get(i);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @return Fraction of failed calls within the window, 0 if there were no calls
+	 */
+	public double getErrorRate() {
+		long nowSecond = currentSecond();
+		long callSum = 0;
+		long errorSum = 0;
+		for (int i = 0; i < windowSeconds; i++) {
+			if (nowSecond - bucketSeconds.get(i) < windowSeconds) {
+				callSum += calls.get(i);
+				errorSum += errors.get(i);
+			}
+		}
+		return callSum == 0 ? 0 : (double) errorSum / callSum;
+	}
+
+	private void record(boolean error) {
+		metricsRegistry.increment("upstream.calls");
+		if (error) {
+			metricsRegistry.increment("upstream.errors");
+		}
+
+		long nowSecond = currentSecond();
+		int bucket = (int) (nowSecond % windowSeconds);
+		long bucketSecond = bucketSeconds.get(bucket);
+		if (bucketSecond != nowSecond && bucketSeconds.compareAndSet(bucket, bucketSecond, nowSecond)) {
+			// first call in this second: the bucket still holds the counts of an older second
+			calls.set(bucket, 0);
+			errors.set(bucket, 0);
+		}
+		calls.incrementAndGet(bucket);
+		if (error) {
+			errors.incrementAndGet(bucket);
+		}
+	}
+
+	private static long currentSecond() {
+		return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+	}
+
+}
@@ -0,0 +1,58 @@
+package c8y.example.cookbook.notification;
+
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+
+/**
+ * A change of a managed object in a tenant's inventory, as received from the platform's realtime notifications
+ */
+public class InventoryNotification {
+
+	public enum Action {
+		CREATE, UPDATE, DELETE
+	}
+
+	private final String tenant;
+	private final Action action;
+	private final String managedObjectId;
+	private final ManagedObjectRepresentation managedObject;
+	private final long receivedAtNanos = System.nanoTime();
+
+	/**
+	 * @param managedObject The managed object after the change; null for DELETE
+	 */
+	public InventoryNotification(String tenant, Action action, String managedObjectId, ManagedObjectRepresentation managedObject) {
+		this.tenant = tenant;
+		this.action = action;
+		this.managedObjectId = managedObjectId;
+		this.managedObject = managedObject;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public Action getAction() {
+		return action;
+	}
+
+	public String getManagedObjectId() {
+		return managedObjectId;
+	}
+
+	public ManagedObjectRepresentation getManagedObject() {
+		return managedObject;
+	}
+
+	/**
+	 * @return System.nanoTime() when the notification was received, for the dispatch latency
+	 */
+	public long getReceivedAtNanos() {
+		return receivedAtNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "InventoryNotification [tenant=" + tenant + ", action=" + action + ", managedObjectId=" + managedObjectId + "]";
+	}
+
+}
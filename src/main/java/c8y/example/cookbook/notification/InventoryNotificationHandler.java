@@ -0,0 +1,13 @@
+package c8y.example.cookbook.notification;
+
+/**
+ * Handles inventory notifications, see InventoryNotificationService.register(). Called on a dispatcher thread:
+ * the notifications of a tenant arrive in order, one at a time; handlers should not block for long, since the
+ * notifications of other tenants on the same dispatcher thread wait meanwhile.
+ */
+@FunctionalInterface
+public interface InventoryNotificationHandler {
+
+	void onNotification(InventoryNotification notification);
+
+}
@@ -0,0 +1,202 @@
+package c8y.example.cookbook.notification;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionAddedEvent;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionsInitializedEvent;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+
+import c8y.example.cookbook.cache.ManagedObjectCache;
+import c8y.example.cookbook.delta.DeltaInventoryUpdater;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Subscribes to the inventory notifications of every subscribed tenant and dispatches them to the registered
+ * handlers (see NotificationDispatcher), instead of polling the inventory for changes.
+ *
+ * The service itself keeps ManagedObjectCache up to date: created and updated objects are put into the cache,
+ * deleted objects are evicted (and forgotten by DeltaInventoryUpdater), so cached objects reflect changes made
+ * elsewhere within the notification latency rather than the cache TTL. A failed subscription is renewed after
+ * cookbook.notifications.resubscribeDelayMillis; notifications missed meanwhile are covered by the cache TTL.
+ * The cache is per instance, so every instance subscribes to the notifications of every tenant, also with
+ * sharding (see ShardManager).
+ *
+ * Metrics: notifications.queued (gauge), notifications.subscriptions (gauge), notifications.{tenant}.received,
+ * notifications.resubscribes, and the dispatcher's metrics
+ */
+@Component
+public class InventoryNotificationService {
+
+	private static final Logger log = LoggerFactory.getLogger(InventoryNotificationService.class);
+
+	@Autowired
+	private NotificationSource notificationSource;
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private ManagedObjectCache managedObjectCache;
+
+	@Autowired
+	private DeltaInventoryUpdater deltaUpdater;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.notifications.enabled:true}")
+	private boolean enabled;
+
+	@Value("${cookbook.notifications.threads:2}")
+	private int threads;
+
+	@Value("${cookbook.notifications.capacityPerThread:8192}")
+	private int capacityPerThread;
+
+	@Value("${cookbook.notifications.offerTimeoutMillis:100}")
+	private long offerTimeoutMillis;
+
+	@Value("${cookbook.notifications.resubscribeDelayMillis:5000}")
+	private long resubscribeDelayMillis;
+
+	private NotificationDispatcher dispatcher;
+	private ScheduledExecutorService resubscribeScheduler;
+
+	private final ConcurrentMap<String, NotificationSource.Subscription> subscriptions = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		dispatcher = new NotificationDispatcher("inventory-notifications-", threads, capacityPerThread, offerTimeoutMillis,
+				metricsRegistry);
+		dispatcher.register(this::updateCache);
+		dispatcher.start();
+		resubscribeScheduler = Executors.newSingleThreadScheduledExecutor(
+				runnable -> new Thread(runnable, "inventory-notifications-resubscribe"));
+		metricsRegistry.gauge("notifications.queued", dispatcher::getQueued);
+		metricsRegistry.gauge("notifications.subscriptions", subscriptions::size);
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		resubscribeScheduler.shutdownNow();
+		for (String tenant : subscriptions.keySet()) {
+			unsubscribe(tenant);
+		}
+		dispatcher.shutdown(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	@EventListener
+	public void onSubscriptionAdded(MicroserviceSubscriptionAddedEvent event) {
+		subscribe(event.getCredentials().getTenant());
+	}
+
+	@EventListener
+	public void onSubscriptionsInitialized(MicroserviceSubscriptionsInitializedEvent event) {
+		for (MicroserviceCredentials credentials : subscriptionsService.getAll()) {
+			subscribe(credentials.getTenant());
+		}
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		unsubscribe(event.getTenant());
+		metricsRegistry.removeAll("notifications." + event.getTenant() + ".");
+	}
+
+	/**
+	 * Registers a handler for the inventory notifications of all tenants
+	 */
+	public void register(InventoryNotificationHandler handler) {
+		dispatcher.register(handler);
+	}
+
+	public void unregister(InventoryNotificationHandler handler) {
+		dispatcher.unregister(handler);
+	}
+
+	/**
+	 * Subscribes to the tenant's notifications, unless already subscribed
+	 */
+	public void subscribe(String tenant) {
+		if (!enabled) {
+			return;
+		}
+		subscriptions.computeIfAbsent(tenant, t -> {
+			log.info(String.format("Subscribing to inventory notifications of tenant %s", t));
+			return notificationSource.subscribe(t, new NotificationSource.Listener() {
+				@Override
+				public void onNotification(InventoryNotification notification) {
+					metricsRegistry.increment("notifications." + t + ".received");
+					dispatcher.publish(notification);
+				}
+
+				@Override
+				public void onError(Throwable e) {
+					log.warn(String.format("Inventory notification subscription of tenant %s failed: %s", t, e.getMessage()));
+					resubscribe(t);
+				}
+			});
+		});
+	}
+
+	public void unsubscribe(String tenant) {
+		NotificationSource.Subscription subscription = subscriptions.remove(tenant);
+		if (subscription != null) {
+			try {
+				subscription.close();
+			} catch (RuntimeException e) {
+				log.warn(String.format("Closing inventory notification subscription of tenant %s failed: %s", tenant, e.getMessage()));
+			}
+			log.info(String.format("Unsubscribed from inventory notifications of tenant %s", tenant));
+		}
+	}
+
+	private void resubscribe(String tenant) {
+		if (resubscribeScheduler.isShutdown()) {
+			return;
+		}
+		unsubscribe(tenant);
+		resubscribeScheduler.schedule(() -> {
+			if (!subscriptionsService.getCredentials(tenant).isPresent()) {
+				return;
+			}
+			metricsRegistry.increment("notifications.resubscribes");
+			try {
+				subscribe(tenant);
+			} catch (RuntimeException e) {
+				log.warn(String.format("Resubscribing to inventory notifications of tenant %s failed: %s", tenant, e.getMessage()));
+				resubscribe(tenant);
+			}
+		}, resubscribeDelayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void updateCache(InventoryNotification notification) {
+		switch (notification.getAction()) {
+		case CREATE:
+		case UPDATE:
+			managedObjectCache.put(notification.getTenant(), notification.getManagedObject());
+			break;
+		case DELETE:
+			managedObjectCache.evict(notification.getTenant(), notification.getManagedObjectId());
+			deltaUpdater.forget(notification.getTenant(), notification.getManagedObjectId());
+			break;
+		}
+	}
+
+}
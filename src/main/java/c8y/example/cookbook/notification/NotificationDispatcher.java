@@ -0,0 +1,167 @@
+package c8y.example.cookbook.notification;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import c8y.example.cookbook.logging.StructuredLogger;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Dispatches inventory notifications to the registered handlers on a fixed set of worker threads.
+ *
+ * Each worker consumes its own RingBuffer, and all notifications of a tenant go to the same worker (by the
+ * hash of the tenant id), so the handlers see a tenant's notifications in the order they were published,
+ * while different tenants are handled in parallel. Publishing never takes a lock; if a worker's buffer stays
+ * full for offerTimeoutMillis, the notification is dropped and counted. Idle workers yield for a few rounds,
+ * then park until publish() unparks them, so idle workers cost no CPU and sparse notifications are picked up
+ * without waiting for a timeout. A publisher unparks only a worker which announced that it's parking.
+ *
+ * Metrics: notifications.dispatched, notifications.dropped, notifications.handlerErrors
+ */
+public class NotificationDispatcher {
+
+	private static final StructuredLogger events = StructuredLogger.getLogger(NotificationDispatcher.class);
+
+	private static final int SPINS_BEFORE_PARKING = 64;
+
+	private final List<InventoryNotificationHandler> handlers = new CopyOnWriteArrayList<>();
+	private final RingBuffer<InventoryNotification>[] buffers;
+	private final Thread[] workers;
+	// 1 while the worker is parked or about to park
+	private final AtomicIntegerArray parked;
+	private final long offerTimeoutNanos;
+	private final MetricsRegistry metricsRegistry;
+
+	private volatile boolean running = true;
+
+	@SuppressWarnings("unchecked")
+	public NotificationDispatcher(String threadPrefix, int threads, int capacityPerThread, long offerTimeoutMillis,
+			MetricsRegistry metricsRegistry) {
+		this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+		this.metricsRegistry = metricsRegistry;
+		buffers = new RingBuffer[threads];
+		workers = new Thread[threads];
+		parked = new AtomicIntegerArray(threads);
+		for (int i = 0; i < threads; i++) {
+			int worker = i;
+			buffers[i] = new RingBuffer<>(capacityPerThread);
+			workers[i] = new Thread(() -> consume(worker), threadPrefix + i);
+			workers[i].setDaemon(true);
+		}
+	}
+
+	public void start() {
+		for (Thread worker : workers) {
+			worker.start();
+		}
+	}
+
+	/**
+	 * Handles the notifications still buffered, then stops the workers
+	 */
+	public void shutdown(long timeoutMillis) throws InterruptedException {
+		running = false;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		for (Thread worker : workers) {
+			LockSupport.unpark(worker);
+			worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+		}
+	}
+
+	public void register(InventoryNotificationHandler handler) {
+		handlers.add(handler);
+	}
+
+	public void unregister(InventoryNotificationHandler handler) {
+		handlers.remove(handler);
+	}
+
+	/**
+	 * Called by the notification sources, from any thread
+	 *
+	 * @return false if the notification was dropped because the tenant's worker is too far behind
+	 */
+	public boolean publish(InventoryNotification notification) {
+		int worker = (notification.getTenant().hashCode() & Integer.MAX_VALUE) % buffers.length;
+		RingBuffer<InventoryNotification> buffer = buffers[worker];
+		if (buffer.offer(notification)) {
+			wakeUp(worker);
+			return true;
+		}
+		long deadline = System.nanoTime() + offerTimeoutNanos;
+		while (System.nanoTime() < deadline) {
+			LockSupport.parkNanos(10_000);
+			if (buffer.offer(notification)) {
+				wakeUp(worker);
+				return true;
+			}
+		}
+		metricsRegistry.increment("notifications.dropped");
+		events.warn("Dropped inventory notification, dispatcher is full").tenant(notification.getTenant())
+				.field("managedObjectId", notification.getManagedObjectId())
+				.rateLimited(1)
+				.log();
+		return false;
+	}
+
+	/**
+	 * @return Notifications buffered and not yet handled
+	 */
+	public int getQueued() {
+		int queued = 0;
+		for (RingBuffer<InventoryNotification> buffer : buffers) {
+			queued += buffer.size();
+		}
+		return queued;
+	}
+
+	private void wakeUp(int worker) {
+		if (parked.get(worker) == 1) {
+			LockSupport.unpark(workers[worker]);
+		}
+	}
+
+	private void consume(int worker) {
+		RingBuffer<InventoryNotification> buffer = buffers[worker];
+		int idle = 0;
+		while (running || buffer.size() > 0) {
+			InventoryNotification notification = buffer.poll();
+			if (notification == null) {
+				if (++idle < SPINS_BEFORE_PARKING) {
+					Thread.yield();
+				} else {
+					// announced before checking the buffer again: a publisher either sees the flag and unparks
+					// this worker, or its notification is seen here
+					parked.set(worker, 1);
+					if (running && buffer.size() == 0) {
+						LockSupport.park(this);
+					}
+					parked.set(worker, 0);
+				}
+				continue;
+			}
+			idle = 0;
+			dispatch(notification);
+		}
+	}
+
+	private void dispatch(InventoryNotification notification) {
+		for (InventoryNotificationHandler handler : handlers) {
+			try {
+				handler.onNotification(notification);
+			} catch (RuntimeException e) {
+				metricsRegistry.increment("notifications.handlerErrors");
+				events.warn("Inventory notification handler failed").tenant(notification.getTenant())
+						.field("managedObjectId", notification.getManagedObjectId())
+						.exception(e)
+						.rateLimited(1)
+						.log();
+			}
+		}
+		metricsRegistry.increment("notifications.dispatched");
+	}
+
+}
@@ -0,0 +1,30 @@
+package c8y.example.cookbook.notification;
+
+/**
+ * Source of a tenant's inventory notifications: the platform's realtime API (PlatformNotificationSource), or
+ * a stand-in in tests
+ */
+public interface NotificationSource {
+
+	interface Listener {
+
+		void onNotification(InventoryNotification notification);
+
+		/**
+		 * The subscription failed and delivers no more notifications
+		 */
+		void onError(Throwable e);
+	}
+
+	interface Subscription extends AutoCloseable {
+
+		@Override
+		void close();
+	}
+
+	/**
+	 * Subscribes to the changes of all managed objects of the tenant; the listener is called on the source's threads
+	 */
+	Subscription subscribe(String tenant, Listener listener);
+
+}
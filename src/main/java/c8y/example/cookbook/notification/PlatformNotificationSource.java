@@ -0,0 +1,70 @@
+package c8y.example.cookbook.notification;
+
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+import com.cumulocity.model.authentication.CumulocityCredentials;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.cumulocity.sdk.client.PlatformImpl;
+import com.cumulocity.sdk.client.cep.notification.InventoryRealtimeDeleteAwareNotificationsSubscriber;
+import com.cumulocity.sdk.client.cep.notification.ManagedObjectDeleteAwareNotification;
+import com.cumulocity.sdk.client.notification.SubscriptionListener;
+
+/**
+ * Inventory notifications from the platform's realtime API (/notification/realtime, channel /managedobjects/*),
+ * with the tenant's service credentials. Each subscription has its own platform connection, since the
+ * realtime client keeps its connection open outside of any tenant scope.
+ */
+@Component
+public class PlatformNotificationSource implements NotificationSource {
+
+	private static final String ALL_MANAGED_OBJECTS = "*";
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Value("${C8Y.baseURL}")
+	private String baseUrl;
+
+	@Override
+	public Subscription subscribe(String tenant, Listener listener) {
+		MicroserviceCredentials credentials = subscriptionsService.getCredentials(tenant)
+				.orElseThrow(() -> new IllegalStateException(String.format("Tenant %s is not subscribed", tenant)));
+
+		PlatformImpl platform = new PlatformImpl(baseUrl, CumulocityCredentials.Builder
+				.cumulocityCredentials(credentials.getUsername(), credentials.getPassword())
+				.withTenantId(tenant)
+				.build());
+		InventoryRealtimeDeleteAwareNotificationsSubscriber subscriber = new InventoryRealtimeDeleteAwareNotificationsSubscriber(platform);
+
+		subscriber.subscribe(ALL_MANAGED_OBJECTS, new SubscriptionListener<String, ManagedObjectDeleteAwareNotification>() {
+			@Override
+			public void onNotification(com.cumulocity.sdk.client.notification.Subscription<String> subscription, ManagedObjectDeleteAwareNotification notification) {
+				ManagedObjectRepresentation managedObject = notification.getData();
+				if (managedObject == null || managedObject.getId() == null) {
+					return;
+				}
+				InventoryNotification.Action action = InventoryNotification.Action.valueOf(
+						notification.getRealtimeAction().toUpperCase(Locale.ROOT));
+				listener.onNotification(new InventoryNotification(tenant, action, managedObject.getId().getValue(),
+						action == InventoryNotification.Action.DELETE ? null : managedObject));
+			}
+
+			@Override
+			public void onError(com.cumulocity.sdk.client.notification.Subscription<String> subscription, Throwable e) {
+				listener.onError(e);
+			}
+		});
+
+		return () -> {
+			subscriber.disconnect();
+			platform.close();
+		};
+	}
+
+}
@@ -0,0 +1,96 @@
+package c8y.example.cookbook.notification;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer, on a preallocated array.
+ *
+ * Each slot has a sequence number: a producer claims the slot of the tail position with a CAS on the tail,
+ * writes the element and then publishes it by setting the slot's sequence to position + 1. The consumer
+ * takes the element once it sees that sequence, and frees the slot for the next round by setting its
+ * sequence to position + capacity. Neither side ever blocks; offer() fails when the buffer is full.
+ */
+public class RingBuffer<E> {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	// written by the consumer only, atomic for size()
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * @param capacity Rounded up to a power of two
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}
+		int rounded = 1;
+		while (rounded < capacity) {
+			rounded <<= 1;
+		}
+		this.capacity = rounded;
+		this.mask = this.capacity - 1;
+		this.elements = new AtomicReferenceArray<>(this.capacity);
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(E element) {
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(index, element);
+					sequences.lazySet(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				// the consumer hasn't freed this slot yet
+				return false;
+			} else {
+				// another producer claimed the slot
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Must only be called by the single consumer
+	 *
+	 * @return The oldest element, null if the buffer is empty
+	 */
+	public E poll() {
+		long position = head.get();
+		int index = (int) position & mask;
+		if (sequences.get(index) != position + 1) {
+			return null;
+		}
+		E element = elements.get(index);
+		elements.lazySet(index, null);
+		sequences.lazySet(index, position + capacity);
+		head.lazySet(position + 1);
+		return element;
+	}
+
+	public int size() {
+		return (int) Math.max(0, Math.min(capacity, tail.get() - head.get()));
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+}
@@ -0,0 +1,157 @@
+package c8y.example.cookbook.paging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.model.JSONBase;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.cumulocity.sdk.client.PagingParam;
+import com.cumulocity.sdk.client.QueryParam;
+import com.cumulocity.sdk.client.inventory.ManagedObjectCollection;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.resilience.UpstreamGuard;
+
+/**
+ * Pages through managed object collections with a page size tuned per tenant (see PageSizeTuner), instead
+ * of a fixed page size for all tenants: tenants with small objects get large pages, tenants with large
+ * objects or a slow inventory get pages which stay within cookbook.paging.maxPageLatencyMillis and
+ * cookbook.paging.maxPageBytes. The size of a page is estimated from the JSON of its first object.
+ *
+ * Each page is fetched through the UpstreamGuard (circuit breaker, bulkhead, retries and the tenant's rate
+ * limiter), in the caller's context (user or service credentials), when the iteration reaches it.
+ *
+ * Usage:
+ *
+ * for (ManagedObjectRepresentation mor : pager.allPages(tenant, inventoryApi.getManagedObjectsByFilter(filter))) { ... }
+ *
+ * Metrics: paging.{tenant}.pageSize (gauge), paging.{tenant}.objectsPerSecond (gauge), paging.pages
+ */
+@Component
+public class AdaptivePager {
+
+	@Autowired
+	private UpstreamGuard upstreamGuard;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.paging.minPageSize:125}")
+	private int minPageSize;
+
+	@Value("${cookbook.paging.maxPageSize:2000}")
+	private int maxPageSize;
+
+	@Value("${cookbook.paging.initialPageSize:500}")
+	private int initialPageSize;
+
+	@Value("${cookbook.paging.maxPageLatencyMillis:5000}")
+	private long maxPageLatencyMillis;
+
+	@Value("${cookbook.paging.maxPageBytes:8388608}")
+	private long maxPageBytes;
+
+	private final ConcurrentMap<String, PageSizeTuner> tuners = new ConcurrentHashMap<>();
+
+	/**
+	 * @return All objects of the collection, fetched lazily page by page
+	 */
+	public Iterable<ManagedObjectRepresentation> allPages(String tenant, ManagedObjectCollection collection) {
+		return () -> new PagingIterator(tenant, collection, getTuner(tenant));
+	}
+
+	public List<ManagedObjectRepresentation> getAll(String tenant, ManagedObjectCollection collection) {
+		List<ManagedObjectRepresentation> managedObjects = new ArrayList<>();
+		allPages(tenant, collection).forEach(managedObjects::add);
+		return managedObjects;
+	}
+
+	public int getPageSize(String tenant) {
+		return getTuner(tenant).getPageSize();
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		tuners.remove(event.getTenant());
+		metricsRegistry.removeAll("paging." + event.getTenant() + ".");
+	}
+
+	private PageSizeTuner getTuner(String tenant) {
+		return tuners.computeIfAbsent(tenant, t -> {
+			PageSizeTuner tuner = new PageSizeTuner(minPageSize, maxPageSize, initialPageSize, maxPageLatencyMillis, maxPageBytes);
+			metricsRegistry.gauge("paging." + t + ".pageSize", tuner::getPageSize);
+			metricsRegistry.gauge("paging." + t + ".objectsPerSecond", () -> Math.round(tuner.getObjectsPerSecond()));
+			return tuner;
+		});
+	}
+
+	private class PagingIterator implements Iterator<ManagedObjectRepresentation> {
+
+		private final String tenant;
+		private final ManagedObjectCollection collection;
+		private final PageSizeTuner tuner;
+
+		private long offset;
+		private Iterator<ManagedObjectRepresentation> page = Collections.emptyIterator();
+		private boolean lastPage;
+
+		PagingIterator(String tenant, ManagedObjectCollection collection, PageSizeTuner tuner) {
+			this.tenant = tenant;
+			this.collection = collection;
+			this.tuner = tuner;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!page.hasNext() && !lastPage) {
+				fetchPage();
+			}
+			return page.hasNext();
+		}
+
+		@Override
+		public ManagedObjectRepresentation next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return page.next();
+		}
+
+		private void fetchPage() {
+			int pageSize = tuner.getPageSize(offset);
+			// the offset is a multiple of the page size, so the page starts right after the objects fetched so far
+			String currentPage = String.valueOf(offset / pageSize + 1);
+			long[] latencyMillis = new long[1];
+			List<ManagedObjectRepresentation> managedObjects = upstreamGuard.call("inventory", tenant, () -> {
+				long started = System.nanoTime();
+				List<ManagedObjectRepresentation> fetched = collection
+						.get(pageSize, new QueryParam(PagingParam.CURRENT_PAGE, currentPage))
+						.getManagedObjects();
+				latencyMillis[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+				return fetched;
+			});
+
+			long bytes = managedObjects.isEmpty() ? 0
+					: (long) JSONBase.getJSONGenerator().forValue(managedObjects.get(0)).length() * managedObjects.size();
+			tuner.record(pageSize, managedObjects.size(), latencyMillis[0], bytes);
+			metricsRegistry.increment("paging.pages");
+
+			offset += managedObjects.size();
+			lastPage = managedObjects.size() < pageSize;
+			page = managedObjects.iterator();
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package c8y.example.cookbook.paging;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Chooses the page size for one tenant from the latency and size of the pages fetched so far.
+ *
+ * Page sizes are minPageSize doubled zero or more times, up to maxPageSize. After each full page the tuner
+ * halves the page size if the page took longer than maxPageLatencyMillis or was larger than maxPageBytes;
+ * otherwise it climbs towards the page size with the best throughput (objects per second, smoothed per page
+ * size), trying the next larger size as long as that is projected to stay within both limits. The measured
+ * throughputs are forgotten every RELEARN_PAGES pages, so the tuner follows changes in the tenant's inventory
+ * and the platform's load.
+ *
+ * Because all page sizes are multiples of each other, a paging run can switch page sizes between pages
+ * without skipping or repeating objects, see getPageSize(long).
+ */
+public class PageSizeTuner {
+
+	static final int RELEARN_PAGES = 50;
+
+	// a neighbouring page size has to be this much faster to move there
+	private static final double MIN_IMPROVEMENT = 0.1;
+
+	private static final double SMOOTHING = 0.3;
+
+	private final int minPageSize;
+	private final int maxPageSize;
+	private final long maxPageLatencyMillis;
+	private final long maxPageBytes;
+
+	private final Map<Integer, Double> objectsPerSecond = new HashMap<>();
+	private int pageSize;
+	private int pages;
+	private volatile double lastObjectsPerSecond;
+
+	public PageSizeTuner(int minPageSize, int maxPageSize, int initialPageSize, long maxPageLatencyMillis, long maxPageBytes) {
+		if (minPageSize < 1 || maxPageSize < minPageSize) {
+			throw new IllegalArgumentException(String.format("Invalid page size bounds %d..%d", minPageSize, maxPageSize));
+		}
+		this.minPageSize = minPageSize;
+		this.maxPageSize = largestPageSizeUpTo(minPageSize, maxPageSize);
+		this.maxPageLatencyMillis = maxPageLatencyMillis;
+		this.maxPageBytes = maxPageBytes;
+		this.pageSize = largestPageSizeUpTo(minPageSize, Math.max(minPageSize, Math.min(initialPageSize, maxPageSize)));
+	}
+
+	public synchronized int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * @return The page size to fetch the objects from the offset on: the current page size, or a smaller one
+	 *         if the offset is not a multiple of it, so that the offset is the start of a page
+	 */
+	public synchronized int getPageSize(long offset) {
+		int size = pageSize;
+		while (size > minPageSize && offset % size != 0) {
+			size /= 2;
+		}
+		return size;
+	}
+
+	/**
+	 * @return Throughput of the last full page, in objects per second
+	 */
+	public double getObjectsPerSecond() {
+		return lastObjectsPerSecond;
+	}
+
+	/**
+	 * Records a fetched page and adjusts the page size. Pages with fewer objects than their page size (the
+	 * last page of a run) only count against the limits, not towards the throughput.
+	 */
+	public synchronized void record(int requestedPageSize, int objects, long latencyMillis, long bytes) {
+		if (latencyMillis > maxPageLatencyMillis || bytes > maxPageBytes) {
+			pageSize = Math.max(minPageSize, Math.min(pageSize, requestedPageSize / 2));
+			return;
+		}
+		if (objects < requestedPageSize) {
+			return;
+		}
+
+		if (++pages % RELEARN_PAGES == 0) {
+			objectsPerSecond.clear();
+		}
+		double rate = objects * 1000.0 / Math.max(1, latencyMillis);
+		lastObjectsPerSecond = rate;
+		objectsPerSecond.merge(requestedPageSize, rate, (previous, current) -> previous + SMOOTHING * (current - previous));
+		if (requestedPageSize != pageSize) {
+			// fetched at a smaller size to align the offset, no reason to change the page size
+			return;
+		}
+
+		double currentRate = objectsPerSecond.get(pageSize);
+		int larger = pageSize * 2;
+		int smaller = pageSize / 2;
+		boolean largerWithinLimits = larger <= maxPageSize
+				&& latencyMillis * 2 <= maxPageLatencyMillis && bytes * 2 <= maxPageBytes;
+		Double largerRate = objectsPerSecond.get(larger);
+		Double smallerRate = smaller >= minPageSize ? objectsPerSecond.get(smaller) : null;
+
+		if (smallerRate != null && smallerRate > currentRate * (1 + MIN_IMPROVEMENT)) {
+			pageSize = smaller;
+		} else if (largerWithinLimits && (largerRate == null || largerRate > currentRate * (1 + MIN_IMPROVEMENT))) {
+			pageSize = larger;
+		}
+	}
+
+	private static int largestPageSizeUpTo(int minPageSize, int limit) {
+		int size = minPageSize;
+		while (size * 2 <= limit) {
+			size *= 2;
+		}
+		return size;
+	}
+
+}
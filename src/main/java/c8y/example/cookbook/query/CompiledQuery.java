@@ -0,0 +1,148 @@
+package c8y.example.cookbook.query;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An InventoryQuery with bound parameters: the query string, ready to be passed to
+ * ExtendedInventoryFilter.byQuery() or, URL-encoded, to a raw REST call, and the same query evaluated
+ * against managed objects in memory
+ */
+public class CompiledQuery {
+
+	// without default typing, for the JSON form of POJO fragments
+	private static final ObjectMapper JSON = new ObjectMapper();
+
+	private final InventoryQuery query;
+	private final Map<String, Object> parameters;
+	private final String queryString;
+	private final String encodedQueryString;
+
+	CompiledQuery(InventoryQuery query, Map<String, Object> parameters, String queryString) {
+		this.query = query;
+		this.parameters = parameters;
+		this.queryString = queryString;
+		try {
+			this.encodedQueryString = URLEncoder.encode(queryString, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return The query string, e.g. "$filter=(has(c8y_IsDevice) and name eq 'foo*') $orderby=name asc"
+	 */
+	public String getQueryString() {
+		return queryString;
+	}
+
+	/**
+	 * @return The URL-encoded query string, for the query parameter of /inventory/managedObjects
+	 */
+	public String getEncodedQueryString() {
+		return encodedQueryString;
+	}
+
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	public boolean matches(ManagedObjectRepresentation managedObject) {
+		return query.getFilter().matches(managedObject, parameters);
+	}
+
+	/**
+	 * @return The matching managed objects, sorted like the platform would sort them
+	 */
+	public List<ManagedObjectRepresentation> filter(Collection<ManagedObjectRepresentation> managedObjects) {
+		List<ManagedObjectRepresentation> matching = new ArrayList<>();
+		for (ManagedObjectRepresentation managedObject : managedObjects) {
+			if (matches(managedObject)) {
+				matching.add(managedObject);
+			}
+		}
+		Comparator<ManagedObjectRepresentation> comparator = null;
+		for (InventoryQuery.Order order : query.getOrderBy()) {
+			Comparator<ManagedObjectRepresentation> byProperty = (a, b) -> compareValues(
+					propertyValue(a, order.property), propertyValue(b, order.property));
+			if (!order.ascending) {
+				byProperty = byProperty.reversed();
+			}
+			comparator = comparator == null ? byProperty : comparator.thenComparing(byProperty);
+		}
+		if (comparator != null) {
+			matching.sort(comparator);
+		}
+		return matching;
+	}
+
+	@Override
+	public String toString() {
+		return queryString;
+	}
+
+	/**
+	 * @return The value of a top-level field (id, name, type) or of a fragment property, dot-separated for nested
+	 *         properties; fragments the SDK read into POJOs (e.g. CustomDevice) are resolved through their JSON form
+	 */
+	static Object propertyValue(ManagedObjectRepresentation managedObject, String property) {
+		switch (property) {
+		case "id":
+			return managedObject.getId() == null ? null : managedObject.getId().getValue();
+		case "name":
+			return managedObject.getName();
+		case "type":
+			return managedObject.getType();
+		default:
+			String[] path = property.split("\\.");
+			Object value = managedObject.get(path[0]);
+			for (int i = 1; i < path.length; i++) {
+				Map<?, ?> object = asJsonObject(value);
+				value = object == null ? null : object.get(path[i]);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * @return The value as JSON object, converted with Jackson if it is a POJO; null if it is no object
+	 */
+	private static Map<?, ?> asJsonObject(Object value) {
+		if (value instanceof Map) {
+			return (Map<?, ?>) value;
+		}
+		if (value == null || value instanceof CharSequence || value instanceof Number || value instanceof Boolean
+				|| value instanceof Collection || value.getClass().isArray() || value.getClass().isEnum()) {
+			return null;
+		}
+		try {
+			return JSON.convertValue(value, Map.class);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareValues(Object a, Object b) {
+		if (a == null || b == null) {
+			// missing values last
+			return a == null ? (b == null ? 0 : 1) : -1;
+		}
+		if (a instanceof Number && b instanceof Number) {
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		}
+		if (a instanceof Comparable && a.getClass() == b.getClass()) {
+			return ((Comparable) a).compareTo(b);
+		}
+		return String.valueOf(a).compareTo(String.valueOf(b));
+	}
+
+}
@@ -0,0 +1,364 @@
+package c8y.example.cookbook.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.cumulocity.model.util.ExtensibilityConverter;
+import com.cumulocity.rest.representation.inventory.ManagedObjectReferenceRepresentation;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+
+/**
+ * Typed builder for the inventory query language, as an alternative to building query strings with
+ * String.format(). A query is built once, typically as a constant, with named parameters for the values
+ * which vary:
+ *
+ * static final InventoryQuery BY_MANUFACTURER = InventoryQuery.where(
+ *		InventoryQuery.and(
+ *			InventoryQuery.has(CustomDevice.class),
+ *			InventoryQuery.eq("c8y_example_cookbook_business_CustomDevice.manufacturer", InventoryQuery.param("manufacturer"))))
+ *		.orderBy("name", true);
+ *
+ * CompiledQuery query = BY_MANUFACTURER.bind("manufacturer", "Acme Corp");
+ * inventoryApi.getManagedObjectsByFilter(new ExtendedInventoryFilter().byQuery(query));
+ *
+ * bind() returns the compiled query string from a cache per query, keyed by the bound values
+ * (at most 256 entries, least recently used are dropped). String values are quoted and escaped, so bound values
+ * can't change the structure of the query.
+ *
+ * The compiled query can also be evaluated against managed objects in memory (CompiledQuery.matches()),
+ * e.g. to serve a query from cached objects. Equality with '*' wildcards in string values, has() and the
+ * logical operators are evaluated like the platform does; bygroupid() needs the objects' asset parents.
+ */
+public class InventoryQuery {
+
+	private static final int CACHE_SIZE = 256;
+
+	private final Expression filter;
+	private final List<Order> orderBy;
+
+	private final Map<Map<String, Object>, CompiledQuery> compiled = Collections.synchronizedMap(
+			new LinkedHashMap<Map<String, Object>, CompiledQuery>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Map<String, Object>, CompiledQuery> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			});
+
+	private InventoryQuery(Expression filter, List<Order> orderBy) {
+		this.filter = filter;
+		this.orderBy = orderBy;
+	}
+
+	public static InventoryQuery where(Expression filter) {
+		return new InventoryQuery(filter, Collections.<Order>emptyList());
+	}
+
+	/**
+	 * @return A new query which additionally sorts by the property
+	 */
+	public InventoryQuery orderBy(String property, boolean ascending) {
+		List<Order> newOrderBy = new ArrayList<>(orderBy);
+		newOrderBy.add(new Order(property, ascending));
+		return new InventoryQuery(filter, Collections.unmodifiableList(newOrderBy));
+	}
+
+	public static Parameter param(String name) {
+		return new Parameter(name);
+	}
+
+	/**
+	 * property eq value; value may be a String (with '*' wildcards), Number, Boolean or Parameter
+	 */
+	public static Expression eq(String property, Object value) {
+		return new Eq(property, value);
+	}
+
+	public static Expression has(String fragmentType) {
+		return new Has(fragmentType);
+	}
+
+	public static Expression has(Class<?> fragmentClass) {
+		return new Has(ExtensibilityConverter.classToStringRepresentation(fragmentClass));
+	}
+
+	/**
+	 * Objects which are child assets of the group; groupId may be a Parameter
+	 */
+	public static Expression bygroupid(Object groupId) {
+		return new ByGroupId(groupId);
+	}
+
+	public static Expression and(Expression... operands) {
+		return new Junction("and", Arrays.asList(operands));
+	}
+
+	public static Expression or(Expression... operands) {
+		return new Junction("or", Arrays.asList(operands));
+	}
+
+	public CompiledQuery bind() {
+		return bind(Collections.<String, Object>emptyMap());
+	}
+
+	public CompiledQuery bind(String name, Object value) {
+		return bind(Collections.singletonMap(name, value));
+	}
+
+	/**
+	 * @param parameters Values of all parameters of the query
+	 * @throws IllegalArgumentException if a parameter is missing or a value has an unsupported type
+	 */
+	public CompiledQuery bind(Map<String, Object> parameters) {
+		CompiledQuery query = compiled.get(parameters);
+		if (query == null) {
+			Map<String, Object> boundParameters = Collections.unmodifiableMap(new LinkedHashMap<>(parameters));
+			query = new CompiledQuery(this, boundParameters, render(boundParameters));
+			compiled.put(boundParameters, query);
+		}
+		return query;
+	}
+
+	Expression getFilter() {
+		return filter;
+	}
+
+	List<Order> getOrderBy() {
+		return orderBy;
+	}
+
+	private String render(Map<String, Object> parameters) {
+		StringBuilder query = new StringBuilder();
+		if (orderBy.isEmpty()) {
+			filter.render(query, parameters);
+			return query.toString();
+		}
+		query.append("$filter=(");
+		filter.render(query, parameters);
+		query.append(") $orderby=");
+		for (int i = 0; i < orderBy.size(); i++) {
+			query.append(i > 0 ? "," : "").append(orderBy.get(i).property).append(orderBy.get(i).ascending ? " asc" : " desc");
+		}
+		return query.toString();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder query = new StringBuilder();
+		filter.render(query, null);
+		return query.toString();
+	}
+
+	/**
+	 * A node of the query's filter
+	 */
+	public interface Expression {
+
+		/**
+		 * @param parameters Bound parameter values; null to render the parameter names
+		 */
+		void render(StringBuilder query, Map<String, Object> parameters);
+
+		boolean matches(ManagedObjectRepresentation managedObject, Map<String, Object> parameters);
+	}
+
+	public static final class Parameter {
+		private final String name;
+
+		private Parameter(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	static final class Order {
+		final String property;
+		final boolean ascending;
+
+		Order(String property, boolean ascending) {
+			this.property = property;
+			this.ascending = ascending;
+		}
+	}
+
+	private static final class Eq implements Expression {
+		private final String property;
+		private final Object value;
+
+		Eq(String property, Object value) {
+			this.property = checkProperty(property);
+			this.value = value;
+		}
+
+		@Override
+		public void render(StringBuilder query, Map<String, Object> parameters) {
+			query.append(property).append(" eq ");
+			renderValue(query, value, parameters);
+		}
+
+		@Override
+		public boolean matches(ManagedObjectRepresentation managedObject, Map<String, Object> parameters) {
+			Object expected = resolve(value, parameters);
+			Object actual = CompiledQuery.propertyValue(managedObject, property);
+			if (actual == null) {
+				return false;
+			}
+			if (expected instanceof String && ((String) expected).indexOf('*') < 0) {
+				return expected.equals(String.valueOf(actual));
+			}
+			if (expected instanceof String) {
+				return wildcardPattern((String) expected).matcher(String.valueOf(actual)).matches();
+			}
+			if (expected instanceof Number && actual instanceof Number) {
+				return Double.compare(((Number) expected).doubleValue(), ((Number) actual).doubleValue()) == 0;
+			}
+			return expected.equals(actual);
+		}
+
+		private static Pattern wildcardPattern(String value) {
+			List<String> parts = new ArrayList<>();
+			for (String part : value.split("\\*", -1)) {
+				parts.add(Pattern.quote(part));
+			}
+			return Pattern.compile(String.join(".*", parts), Pattern.DOTALL);
+		}
+	}
+
+	private static final class Has implements Expression {
+		private final String fragmentType;
+
+		Has(String fragmentType) {
+			this.fragmentType = checkProperty(fragmentType);
+		}
+
+		@Override
+		public void render(StringBuilder query, Map<String, Object> parameters) {
+			query.append("has(").append(fragmentType).append(')');
+		}
+
+		@Override
+		public boolean matches(ManagedObjectRepresentation managedObject, Map<String, Object> parameters) {
+			return managedObject.hasProperty(fragmentType);
+		}
+	}
+
+	private static final class ByGroupId implements Expression {
+		private final Object groupId;
+
+		ByGroupId(Object groupId) {
+			this.groupId = groupId;
+		}
+
+		@Override
+		public void render(StringBuilder query, Map<String, Object> parameters) {
+			Object id = parameters == null ? groupId : resolve(groupId, parameters);
+			query.append("bygroupid(").append(id instanceof Parameter ? ":" + ((Parameter) id).getName() : checkId(id)).append(')');
+		}
+
+		/**
+		 * Matches if the object's asset parents, as fetched with withParents=true, contain the group
+		 */
+		@Override
+		public boolean matches(ManagedObjectRepresentation managedObject, Map<String, Object> parameters) {
+			String id = String.valueOf(resolve(groupId, parameters));
+			if (managedObject.getAssetParents() == null) {
+				return false;
+			}
+			for (ManagedObjectReferenceRepresentation parent : managedObject.getAssetParents().getReferences()) {
+				if (parent.getManagedObject() != null && parent.getManagedObject().getId() != null
+						&& id.equals(parent.getManagedObject().getId().getValue())) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static String checkId(Object id) {
+			String value = String.valueOf(id);
+			if (!value.matches("[0-9]+")) {
+				throw new IllegalArgumentException("Invalid group id: " + value);
+			}
+			return value;
+		}
+	}
+
+	private static final class Junction implements Expression {
+		private final String operator;
+		private final List<Expression> operands;
+
+		Junction(String operator, List<Expression> operands) {
+			if (operands.isEmpty()) {
+				throw new IllegalArgumentException(operator + " needs at least one operand");
+			}
+			this.operator = operator;
+			this.operands = operands;
+		}
+
+		@Override
+		public void render(StringBuilder query, Map<String, Object> parameters) {
+			for (int i = 0; i < operands.size(); i++) {
+				if (i > 0) {
+					query.append(' ').append(operator).append(' ');
+				}
+				boolean nested = operands.get(i) instanceof Junction;
+				query.append(nested ? "(" : "");
+				operands.get(i).render(query, parameters);
+				query.append(nested ? ")" : "");
+			}
+		}
+
+		@Override
+		public boolean matches(ManagedObjectRepresentation managedObject, Map<String, Object> parameters) {
+			boolean and = "and".equals(operator);
+			for (Expression operand : operands) {
+				if (operand.matches(managedObject, parameters) != and) {
+					return !and;
+				}
+			}
+			return and;
+		}
+	}
+
+	private static String checkProperty(String property) {
+		if (property == null || !property.matches("[A-Za-z0-9_$@.\\-]+")) {
+			throw new IllegalArgumentException("Invalid property name: " + property);
+		}
+		return property;
+	}
+
+	private static Object resolve(Object value, Map<String, Object> parameters) {
+		if (!(value instanceof Parameter)) {
+			return value;
+		}
+		String name = ((Parameter) value).getName();
+		if (parameters == null || !parameters.containsKey(name) || parameters.get(name) == null) {
+			throw new IllegalArgumentException("Query parameter not bound: " + name);
+		}
+		return parameters.get(name);
+	}
+
+	private static void renderValue(StringBuilder query, Object value, Map<String, Object> parameters) {
+		if (parameters == null && value instanceof Parameter) {
+			query.append(':').append(((Parameter) value).getName());
+			return;
+		}
+		Object resolved = resolve(value, parameters);
+		if (resolved instanceof String) {
+			query.append('\'').append(((String) resolved).replace("'", "''")).append('\'');
+		} else if (resolved instanceof Number || resolved instanceof Boolean) {
+			query.append(resolved);
+		} else {
+			throw new IllegalArgumentException("Unsupported query value type: " + resolved.getClass().getName());
+		}
+	}
+
+}
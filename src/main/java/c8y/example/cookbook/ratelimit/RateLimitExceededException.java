@@ -0,0 +1,19 @@
+package c8y.example.cookbook.ratelimit;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when an upstream call of a tenant was rejected because the tenant exceeded its rate limit 
+ * or queue capacity. Results in a 429 response when thrown from a request handler.
+ */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class RateLimitExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RateLimitExceededException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,217 @@
+package c8y.example.cookbook.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+
+import c8y.example.cookbook.cache.TenantSettingsCache;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.metrics.UpstreamCallStats;
+
+/**
+ * Guards calls to the platform APIs so that a single noisy tenant cannot starve the others.
+ *
+ * Each tenant gets its own token bucket limiting the rate of its upstream calls. On top of that, the
+ * number of concurrent upstream calls of the whole microservice is capped, and the free slots are
+ * handed out in weighted fair order between the tenants waiting for them (see WeightedFairScheduler).
+ * Calls which can't get a token and a slot within the configured wait time, or which find the
+ * tenant's queue full, are rejected with a RateLimitExceededException.
+ *
+ * The defaults come from application properties (cookbook.rateLimit.*) and can be overridden per
+ * tenant with the tenant options rateLimit.permitsPerSecond, rateLimit.burst and rateLimit.weight.
+ *
+ * Usage:
+ *
+ * ManagedObjectRepresentation mor = rateLimiter.call(tenant, () -> inventoryApi.get(id));
+ *
+ * Metrics: rateLimit.{tenant}.queued (gauge), rateLimit.{tenant}.permitted, rateLimit.{tenant}.rejected
+ */
+@Component
+public class TenantRateLimiter {
+
+	private static final Logger log = LoggerFactory.getLogger(TenantRateLimiter.class);
+
+	public static final String PERMITS_PER_SECOND_OPTION = "rateLimit.permitsPerSecond";
+	public static final String BURST_OPTION = "rateLimit.burst";
+	public static final String WEIGHT_OPTION = "rateLimit.weight";
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private TenantSettingsCache settingsCache;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private UpstreamCallStats upstreamCallStats;
+
+	@Value("${cookbook.rateLimit.permitsPerSecond:20}")
+	private double defaultPermitsPerSecond;
+
+	@Value("${cookbook.rateLimit.burst:40}")
+	private int defaultBurst;
+
+	@Value("${cookbook.rateLimit.weight:1}")
+	private int defaultWeight;
+
+	@Value("${cookbook.rateLimit.maxConcurrentCalls:32}")
+	private int maxConcurrentCalls;
+
+	@Value("${cookbook.rateLimit.maxQueuedPerTenant:100}")
+	private int maxQueuedPerTenant;
+
+	@Value("${cookbook.rateLimit.maxWaitMillis:5000}")
+	private long maxWaitMillis;
+
+	@Value("${cookbook.rateLimit.settingsRefreshSeconds:60}")
+	private long settingsRefreshSeconds;
+
+	private final ConcurrentMap<String, TenantState> tenants = new ConcurrentHashMap<>();
+
+	private WeightedFairScheduler scheduler;
+
+	@PostConstruct
+	public void init() {
+		scheduler = new WeightedFairScheduler(maxConcurrentCalls);
+		metricsRegistry.gauge("rateLimit.queued", scheduler::getQueueLength);
+	}
+
+	/**
+	 * Runs an upstream call of the current tenant, i.e. must be called within a tenant scope
+	 * (runForTenant() / runForEachTenant() / callForTenant())
+	 */
+	public <T> T call(Supplier<T> upstreamCall) {
+		return call(subscriptionsService.getTenant(), upstreamCall);
+	}
+
+	public void run(Runnable upstreamCall) {
+		run(subscriptionsService.getTenant(), upstreamCall);
+	}
+
+	public void run(String tenant, Runnable upstreamCall) {
+		call(tenant, () -> {
+			upstreamCall.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Waits for the tenant's rate limit and a free upstream slot, then runs the upstream call.
+	 *
+	 * @param tenant Tenant id, e.g. 't174774'
+	 * @param upstreamCall The call to the platform API, e.g. () -> inventoryApi.get(id)
+	 * @throws RateLimitExceededException if the call could not be started within the configured wait time
+	 */
+	public <T> T call(String tenant, Supplier<T> upstreamCall) {
+		TenantState state = getTenantState(tenant);
+
+		if (state.queued.incrementAndGet() > maxQueuedPerTenant) {
+			state.queued.decrementAndGet();
+			throw reject(state, "too many queued calls");
+		}
+
+		try {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+			long waitNanos = state.bucket.tryReserve(TimeUnit.MILLISECONDS.toNanos(maxWaitMillis));
+			if (waitNanos < 0) {
+				throw reject(state, "rate limit exceeded");
+			}
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+
+			if (!scheduler.acquire(state, deadline - System.nanoTime())) {
+				throw reject(state, "timed out waiting for a free upstream slot");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw reject(state, "interrupted");
+		} finally {
+			state.queued.decrementAndGet();
+		}
+
+		try {
+			metricsRegistry.increment(metricName(tenant, "permitted"));
+			T result = upstreamCall.get();
+			upstreamCallStats.recordSuccess();
+			return result;
+		} catch (RuntimeException e) {
+			upstreamCallStats.recordFailure(e);
+			throw e;
+		} finally {
+			scheduler.release();
+		}
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		tenants.remove(event.getTenant());
+		metricsRegistry.removeAll(metricName(event.getTenant(), ""));
+	}
+
+	private TenantState getTenantState(String tenant) {
+		TenantState state = tenants.computeIfAbsent(tenant, t -> {
+			TenantState newState = new TenantState(t, defaultPermitsPerSecond, defaultBurst, defaultWeight);
+			metricsRegistry.gauge(metricName(t, "queued"), newState.queued::get);
+			return newState;
+		});
+
+		long now = System.currentTimeMillis();
+		if (now - state.settingsLoadedAtMillis > TimeUnit.SECONDS.toMillis(settingsRefreshSeconds)) {
+			synchronized (state) {
+				if (now - state.settingsLoadedAtMillis > TimeUnit.SECONDS.toMillis(settingsRefreshSeconds)) {
+					loadTenantSettings(state);
+					state.settingsLoadedAtMillis = now;
+				}
+			}
+		}
+		return state;
+	}
+
+	private void loadTenantSettings(TenantState state) {
+		try {
+			Map<String, String> options = settingsCache.getAll(state.tenant);
+			double permitsPerSecond = parseOption(options.get(PERMITS_PER_SECOND_OPTION), defaultPermitsPerSecond);
+			int burst = (int) parseOption(options.get(BURST_OPTION), defaultBurst);
+			int weight = (int) parseOption(options.get(WEIGHT_OPTION), defaultWeight);
+
+			state.bucket.configure(permitsPerSecond, burst);
+			state.weight = Math.max(1, weight);
+		} catch (Exception e) {
+			log.warn(String.format("Could not load rate limit settings of tenant %s, keeping previous settings: %s",
+					state.tenant, e.getMessage()));
+		}
+	}
+
+	private static double parseOption(String value, double defaultValue) {
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Double.parseDouble(value.trim());
+	}
+
+	private RateLimitExceededException reject(TenantState state, String reason) {
+		metricsRegistry.increment(metricName(state.tenant, "rejected"));
+		return new RateLimitExceededException(String.format("Upstream call of tenant %s rejected: %s", state.tenant, reason));
+	}
+
+	private static String metricName(String tenant, String name) {
+		return "rateLimit." + tenant + "." + name;
+	}
+
+}
@@ -0,0 +1,27 @@
+package c8y.example.cookbook.ratelimit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rate limiting state of a single tenant. Fields other than the counters are guarded by the 
+ * owning TenantRateLimiter / WeightedFairScheduler.
+ */
+class TenantState {
+
+	final String tenant;
+	final TokenBucket bucket;
+	final AtomicInteger queued = new AtomicInteger();
+	
+	volatile int weight;
+	volatile long settingsLoadedAtMillis;
+	
+	// guarded by WeightedFairScheduler
+	double lastTag;
+
+	TenantState(String tenant, double permitsPerSecond, int burst, int weight) {
+		this.tenant = tenant;
+		this.bucket = new TokenBucket(permitsPerSecond, burst);
+		this.weight = weight;
+	}
+
+}
@@ -0,0 +1,70 @@
+package c8y.example.cookbook.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket which refills continuously at a fixed rate up to a maximum burst size.
+ * 
+ * Callers reserve a token ahead of time and are told how long they have to wait until the 
+ * token becomes available, so that waiting callers are served in arrival order.
+ */
+class TokenBucket {
+
+	private double permitsPerSecond;
+	private double burst;
+	
+	private double storedPermits;
+	private long lastRefillNanos;
+
+	TokenBucket(double permitsPerSecond, int burst) {
+		this.lastRefillNanos = System.nanoTime();
+		configure(permitsPerSecond, burst);
+		this.storedPermits = this.burst;
+	}
+
+	synchronized void configure(double permitsPerSecond, int burst) {
+		if (permitsPerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException(String.format("Invalid token bucket settings: permitsPerSecond %s, burst %d", 
+					permitsPerSecond, burst));
+		}
+		refill(System.nanoTime());
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.storedPermits = Math.min(storedPermits, burst);
+	}
+
+	/**
+	 * Reserves one token, unless it would not become available within maxWaitNanos.
+	 * 
+	 * @return Nanoseconds the caller has to wait before using the token, or -1 if no token was reserved
+	 */
+	synchronized long tryReserve(long maxWaitNanos) {
+		long now = System.nanoTime();
+		refill(now);
+		
+		if (storedPermits >= 1) {
+			storedPermits -= 1;
+			return 0;
+		}
+		
+		// storedPermits may be negative: earlier callers already hold reservations on future tokens
+		long waitNanos = (long) ((1 - storedPermits) * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+		if (waitNanos > maxWaitNanos) {
+			return -1;
+		}
+		storedPermits -= 1;
+		return waitNanos;
+	}
+
+	synchronized double getStoredPermits() {
+		refill(System.nanoTime());
+		return storedPermits;
+	}
+
+	private void refill(long now) {
+		double refilled = (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+		storedPermits = Math.min(burst, storedPermits + refilled);
+		lastRefillNanos = now;
+	}
+
+}
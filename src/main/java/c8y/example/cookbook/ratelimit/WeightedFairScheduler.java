@@ -0,0 +1,94 @@
+package c8y.example.cookbook.ratelimit;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out a fixed number of concurrent upstream call slots using start-time fair queuing.
+ * 
+ * Every waiting call gets a virtual tag of max(virtual time, tenant's last tag) + 1/weight and 
+ * freed slots are granted to the call with the smallest tag. A tenant which floods the queue 
+ * therefore only pushes its own calls further back, while a tenant with a higher weight 
+ * gets a proportionally larger share of the slots.
+ */
+class WeightedFairScheduler {
+
+	private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+	
+	private int availableSlots;
+	private double virtualTime;
+	private long sequence;
+
+	WeightedFairScheduler(int slots) {
+		this.availableSlots = slots;
+	}
+
+	/**
+	 * @return true if a slot was acquired, false on timeout; a successful acquire must be followed by release()
+	 */
+	synchronized boolean acquire(TenantState tenant, long timeoutNanos) throws InterruptedException {
+		double tag = Math.max(virtualTime, tenant.lastTag) + 1.0 / tenant.weight;
+		tenant.lastTag = tag;
+		
+		if (availableSlots > 0 && waiters.isEmpty()) {
+			availableSlots--;
+			return true;
+		}
+		
+		Waiter waiter = new Waiter(tag, sequence++);
+		waiters.add(waiter);
+		
+		long deadline = System.nanoTime() + timeoutNanos;
+		try {
+			while (!waiter.granted) {
+				long remainingNanos = deadline - System.nanoTime();
+				if (remainingNanos <= 0) {
+					waiters.remove(waiter);
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			if (waiter.granted) {
+				release();
+			} else {
+				waiters.remove(waiter);
+			}
+			throw e;
+		}
+	}
+
+	synchronized void release() {
+		Waiter next = waiters.poll();
+		if (next == null) {
+			availableSlots++;
+			return;
+		}
+		virtualTime = next.tag;
+		next.granted = true;
+		notifyAll();
+	}
+
+	synchronized int getQueueLength() {
+		return waiters.size();
+	}
+
+	private static class Waiter implements Comparable<Waiter> {
+		private final double tag;
+		private final long sequence;
+		private boolean granted;
+
+		Waiter(double tag, long sequence) {
+			this.tag = tag;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Waiter other) {
+			int byTag = Double.compare(tag, other.tag);
+			return byTag != 0 ? byTag : Long.compare(sequence, other.sequence);
+		}
+	}
+
+}
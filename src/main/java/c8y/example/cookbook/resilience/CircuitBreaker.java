@@ -0,0 +1,156 @@
+package c8y.example.cookbook.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Circuit breaker over the outcomes of the last windowSize calls.
+ *
+ * CLOSED: calls are permitted. Once at least minimumCalls outcomes are recorded and the fraction of failed
+ * calls (errors and calls slower than slowCallMillis) reaches failureRateThreshold, the breaker opens.
+ * OPEN: calls are rejected for openMillis, then the breaker becomes half-open.
+ * HALF_OPEN: up to halfOpenCalls trial calls are permitted. If they all succeed, the breaker closes with an
+ * empty window; the first failure opens it again.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, HALF_OPEN, OPEN
+	}
+
+	private final int windowSize;
+	private final int minimumCalls;
+	private final double failureRateThreshold;
+	private final long slowCallMillis;
+	private final long openMillis;
+	private final int halfOpenCalls;
+	private final BiConsumer<State, State> onTransition;
+
+	// ring buffer of the last outcomes, true for a failure
+	private final boolean[] outcomes;
+	private int recorded;
+	private int next;
+	private int failures;
+
+	private State state = State.CLOSED;
+	private long openedAtNanos;
+	private int halfOpenPermitted;
+	private int halfOpenSucceeded;
+
+	/**
+	 * @param onTransition Called with the old and new state on every state change, while holding the breaker's lock
+	 */
+	public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long slowCallMillis,
+			long openMillis, int halfOpenCalls, BiConsumer<State, State> onTransition) {
+		this.windowSize = windowSize;
+		this.minimumCalls = Math.min(minimumCalls, windowSize);
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallMillis = slowCallMillis;
+		this.openMillis = openMillis;
+		this.halfOpenCalls = halfOpenCalls;
+		this.onTransition = onTransition;
+		this.outcomes = new boolean[windowSize];
+	}
+
+	/**
+	 * @return Whether a call may be made now; if so, its outcome must be recorded with onSuccess() or onFailure()
+	 */
+	public synchronized boolean tryAcquire() {
+		if (state == State.OPEN) {
+			if (System.nanoTime() - openedAtNanos < TimeUnit.MILLISECONDS.toNanos(openMillis)) {
+				return false;
+			}
+			transitionTo(State.HALF_OPEN);
+		}
+		if (state == State.HALF_OPEN) {
+			if (halfOpenPermitted >= halfOpenCalls) {
+				return false;
+			}
+			halfOpenPermitted++;
+		}
+		return true;
+	}
+
+	/**
+	 * Gives back a permit obtained with tryAcquire() for a call which was not made after all
+	 */
+	public synchronized void release() {
+		if (state == State.HALF_OPEN && halfOpenPermitted > halfOpenSucceeded) {
+			halfOpenPermitted--;
+		}
+	}
+
+	public synchronized void onSuccess(long latencyMillis) {
+		boolean slow = latencyMillis >= slowCallMillis;
+		if (state == State.HALF_OPEN) {
+			if (slow) {
+				transitionTo(State.OPEN);
+			} else if (++halfOpenSucceeded >= halfOpenCalls) {
+				transitionTo(State.CLOSED);
+			}
+			return;
+		}
+		record(slow);
+	}
+
+	public synchronized void onFailure() {
+		if (state == State.HALF_OPEN) {
+			transitionTo(State.OPEN);
+			return;
+		}
+		record(true);
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return Fraction of failed calls in the window, 0 if no calls were recorded
+	 */
+	public synchronized double getFailureRate() {
+		return recorded == 0 ? 0 : (double) failures / recorded;
+	}
+
+	private void record(boolean failure) {
+		if (state != State.CLOSED) {
+			// outcome of a call permitted before the breaker opened
+			return;
+		}
+		if (recorded == windowSize) {
+			if (outcomes[next]) {
+				failures--;
+			}
+		} else {
+			recorded++;
+		}
+		outcomes[next] = failure;
+		if (failure) {
+			failures++;
+		}
+		next = (next + 1) % windowSize;
+
+		if (recorded >= minimumCalls && (double) failures / recorded >= failureRateThreshold) {
+			transitionTo(State.OPEN);
+		}
+	}
+
+	private void transitionTo(State newState) {
+		State oldState = state;
+		state = newState;
+		if (newState == State.OPEN) {
+			openedAtNanos = System.nanoTime();
+		}
+		if (newState == State.HALF_OPEN) {
+			halfOpenPermitted = 0;
+			halfOpenSucceeded = 0;
+		}
+		if (newState == State.CLOSED) {
+			recorded = 0;
+			next = 0;
+			failures = 0;
+		}
+		onTransition.accept(oldState, newState);
+	}
+
+}
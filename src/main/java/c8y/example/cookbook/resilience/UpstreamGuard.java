@@ -0,0 +1,221 @@
+package c8y.example.cookbook.resilience;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.metrics.UpstreamCallStats;
+import c8y.example.cookbook.ratelimit.RateLimitExceededException;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+
+/**
+ * Isolates the callers from a slow or failing platform API, on top of the tenant's rate limiter.
+ *
+ * - Circuit breaker per API and tenant (see CircuitBreaker, cookbook.resilience.circuit.*): while a tenant's
+ *   calls to an API keep failing or running slower than slowCallMillis, further calls fail immediately
+ *   instead of blocking a thread.
+ * - Bulkhead per API: at most cookbook.resilience.bulkhead.maxConcurrent calls to one API at a time
+ *   (per API: cookbook.resilience.bulkhead.{api}.maxConcurrent), so a hanging API can't take up the threads
+ *   needed for the others.
+ * - Deadline-aware retries: calls failing with a server or connection error are retried up to maxAttempts
+ *   times with jittered exponential backoff, but only as long as the retry can start before the call's
+ *   deadline (cookbook.resilience.deadlineMillis after the first attempt). Client errors (4xx) are not retried.
+ *
+ * Calls which are rejected, or which failed on all attempts, throw an UpstreamUnavailableException; callers
+ * catch it to fall back, e.g. to a stale cached object. Retries make this suitable for idempotent calls only.
+ *
+ * Usage:
+ *
+ * ManagedObjectRepresentation mor = upstreamGuard.call("inventory", tenant, () -> inventoryApi.get(id));
+ *
+ * Metrics: circuit.{tenant}.{api}.state (gauge, 0 closed, 1 half-open, 2 open), circuit.{tenant}.{api}.opened,
+ * circuit.{tenant}.{api}.halfOpened, circuit.{tenant}.{api}.closed, circuit.rejected,
+ * bulkhead.{api}.available (gauge), bulkhead.{api}.rejected, upstream.retries
+ */
+@Component
+public class UpstreamGuard {
+
+	private static final Logger log = LoggerFactory.getLogger(UpstreamGuard.class);
+
+	@Autowired
+	private TenantRateLimiter rateLimiter;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private Environment environment;
+
+	@Value("${cookbook.resilience.circuit.windowSize:20}")
+	private int windowSize;
+
+	@Value("${cookbook.resilience.circuit.minimumCalls:10}")
+	private int minimumCalls;
+
+	@Value("${cookbook.resilience.circuit.failureRateThreshold:0.5}")
+	private double failureRateThreshold;
+
+	@Value("${cookbook.resilience.circuit.slowCallMillis:5000}")
+	private long slowCallMillis;
+
+	@Value("${cookbook.resilience.circuit.openMillis:30000}")
+	private long openMillis;
+
+	@Value("${cookbook.resilience.circuit.halfOpenCalls:3}")
+	private int halfOpenCalls;
+
+	@Value("${cookbook.resilience.bulkhead.maxConcurrent:20}")
+	private int defaultMaxConcurrent;
+
+	@Value("${cookbook.resilience.bulkhead.maxWaitMillis:1000}")
+	private long bulkheadMaxWaitMillis;
+
+	@Value("${cookbook.resilience.maxAttempts:3}")
+	private int maxAttempts;
+
+	@Value("${cookbook.resilience.backoffMillis:200}")
+	private long backoffMillis;
+
+	@Value("${cookbook.resilience.deadlineMillis:10000}")
+	private long deadlineMillis;
+
+	private final ConcurrentMap<String, ConcurrentMap<String, CircuitBreaker>> breakers = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Semaphore> bulkheads = new ConcurrentHashMap<>();
+
+	/**
+	 * @param api Name of the platform API, e.g. 'inventory'; each API has its own breakers and bulkhead
+	 * @param tenant Tenant id, e.g. 't174774'
+	 * @param upstreamCall Idempotent call to the platform API, e.g. () -> inventoryApi.get(id)
+	 * @throws UpstreamUnavailableException if the call was rejected or failed with a server error on all attempts
+	 * @throws RateLimitExceededException if the tenant exceeded its rate limit
+	 */
+	public <T> T call(String api, String tenant, Supplier<T> upstreamCall) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+		for (int attempt = 1;; attempt++) {
+			try {
+				return attempt(api, tenant, upstreamCall);
+			} catch (UpstreamUnavailableException | RateLimitExceededException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				if (!UpstreamCallStats.isServerError(e)) {
+					throw e;
+				}
+				long backoff = (long) (backoffMillis * (1L << (attempt - 1)) * ThreadLocalRandom.current().nextDouble(0.5, 1.5));
+				if (attempt >= maxAttempts || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff) >= deadline) {
+					throw new UpstreamUnavailableException(String.format("%s call of tenant %s failed after %d attempts: %s",
+							api, tenant, attempt, e.getMessage()), e);
+				}
+				metricsRegistry.increment("upstream.retries");
+				try {
+					TimeUnit.MILLISECONDS.sleep(backoff);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw new UpstreamUnavailableException(String.format("%s call of tenant %s interrupted", api, tenant), e);
+				}
+			}
+		}
+	}
+
+	public CircuitBreaker.State getState(String api, String tenant) {
+		return getBreaker(api, tenant).getState();
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		breakers.remove(event.getTenant());
+		metricsRegistry.removeAll("circuit." + event.getTenant() + ".");
+	}
+
+	private <T> T attempt(String api, String tenant, Supplier<T> upstreamCall) {
+		CircuitBreaker breaker = getBreaker(api, tenant);
+		if (!breaker.tryAcquire()) {
+			metricsRegistry.increment("circuit.rejected");
+			throw new UpstreamUnavailableException(String.format("Circuit breaker of %s calls of tenant %s is open", api, tenant));
+		}
+
+		Semaphore bulkhead = getBulkhead(api);
+		try {
+			if (!bulkhead.tryAcquire(bulkheadMaxWaitMillis, TimeUnit.MILLISECONDS)) {
+				breaker.release();
+				metricsRegistry.increment("bulkhead." + api + ".rejected");
+				throw new UpstreamUnavailableException(String.format("Too many concurrent %s calls", api));
+			}
+		} catch (InterruptedException e) {
+			breaker.release();
+			Thread.currentThread().interrupt();
+			throw new UpstreamUnavailableException(String.format("%s call of tenant %s interrupted", api, tenant), e);
+		}
+
+		try {
+			long[] started = new long[1];
+			T result = rateLimiter.call(tenant, () -> {
+				started[0] = System.nanoTime();
+				return upstreamCall.get();
+			});
+			breaker.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started[0]));
+			return result;
+		} catch (RateLimitExceededException e) {
+			breaker.release();
+			throw e;
+		} catch (RuntimeException e) {
+			if (UpstreamCallStats.isServerError(e)) {
+				breaker.onFailure();
+			} else {
+				// the API answered, the request was wrong
+				breaker.onSuccess(0);
+			}
+			throw e;
+		} finally {
+			bulkhead.release();
+		}
+	}
+
+	private CircuitBreaker getBreaker(String api, String tenant) {
+		return breakers.computeIfAbsent(tenant, t -> new ConcurrentHashMap<>()).computeIfAbsent(api, a -> {
+			String prefix = "circuit." + tenant + "." + a + ".";
+			CircuitBreaker breaker = new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold, slowCallMillis,
+					openMillis, halfOpenCalls, (from, to) -> {
+						metricsRegistry.increment(prefix + transitionName(to));
+						log.warn(String.format("Circuit breaker of %s calls of tenant %s: %s -> %s", a, tenant, from, to));
+					});
+			metricsRegistry.gauge(prefix + "state", () -> breaker.getState().ordinal());
+			return breaker;
+		});
+	}
+
+	private Semaphore getBulkhead(String api) {
+		return bulkheads.computeIfAbsent(api, a -> {
+			int maxConcurrent = environment.getProperty("cookbook.resilience.bulkhead." + a + ".maxConcurrent",
+					Integer.class, defaultMaxConcurrent);
+			Semaphore bulkhead = new Semaphore(maxConcurrent, true);
+			metricsRegistry.gauge("bulkhead." + a + ".available", bulkhead::availablePermits);
+			return bulkhead;
+		});
+	}
+
+	private static String transitionName(CircuitBreaker.State state) {
+		switch (state) {
+		case OPEN:
+			return "opened";
+		case HALF_OPEN:
+			return "halfOpened";
+		default:
+			return "closed";
+		}
+	}
+
+}
@@ -0,0 +1,24 @@
+package c8y.example.cookbook.resilience;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when an upstream call was not made because the circuit breaker is open or the bulkhead is full, or
+ * when it failed with a server error on every attempt. Results in a 503 response when thrown from a request
+ * handler; callers with a fallback, e.g. a stale cached object, catch it and use the fallback instead.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class UpstreamUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public UpstreamUnavailableException(String message) {
+		super(message);
+	}
+
+	public UpstreamUnavailableException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,105 @@
+package c8y.example.cookbook.scheduling;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Starts the runs of TenantJobScheduler's jobs: a run is skipped while the previous run of the same job and
+ * tenant is still running or waiting, and a run over the job's concurrency cap is retried after deferMillis
+ * (plus jitter).
+ */
+class JobRunner {
+
+	private static final Logger log = LoggerFactory.getLogger(JobRunner.class);
+
+	/**
+	 * Runs a task within a tenant's scope
+	 */
+	interface TenantScope {
+
+		/**
+		 * @return false if the tenant is no longer subscribed and the task didn't run
+		 */
+		boolean run(String tenant, Runnable task);
+	}
+
+	private final ExecutorService executor;
+	private final ScheduledExecutorService timer;
+	private final long deferMillis;
+	private final TenantScope tenantScope;
+	private final MetricsRegistry metricsRegistry;
+
+	JobRunner(ExecutorService executor, ScheduledExecutorService timer, long deferMillis, TenantScope tenantScope,
+			MetricsRegistry metricsRegistry) {
+		this.executor = executor;
+		this.timer = timer;
+		this.deferMillis = deferMillis;
+		this.tenantScope = tenantScope;
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	/**
+	 * Starts a run of the job for the tenant, unless the previous one is still running or waiting
+	 *
+	 * @return false if the run was skipped
+	 */
+	boolean start(TenantJob job, String tenant) {
+		if (!job.claimed.add(tenant)) {
+			metricsRegistry.increment("jobs." + job.name + ".skipped");
+			log.debug(String.format("Skipped job %s of tenant %s, previous run still running", job.name, tenant));
+			return false;
+		}
+		attempt(job, tenant);
+		return true;
+	}
+
+	/**
+	 * Runs a claimed run if the job is below its concurrency cap, otherwise tries again after deferMillis
+	 */
+	private void attempt(TenantJob job, String tenant) {
+		if (!job.permits.tryAcquire()) {
+			metricsRegistry.increment("jobs." + job.name + ".deferred");
+			try {
+				timer.schedule(() -> attempt(job, tenant), deferMillis + ThreadLocalRandom.current().nextLong(deferMillis + 1),
+						TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				job.claimed.remove(tenant);
+			}
+			return;
+		}
+		try {
+			executor.execute(() -> run(job, tenant));
+		} catch (RejectedExecutionException e) {
+			job.permits.release();
+			job.claimed.remove(tenant);
+		}
+	}
+
+	private void run(TenantJob job, String tenant) {
+		long startedNanos = System.nanoTime();
+		try {
+			if (!tenantScope.run(tenant, () -> job.task.accept(tenant))) {
+				return;
+			}
+			metricsRegistry.increment("jobs." + job.name + ".runs");
+			job.durations.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+		} catch (Exception e) {
+			metricsRegistry.increment("jobs." + job.name + ".failures");
+			job.durations.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos));
+			job.lastFailure = String.format("%s: %s", tenant, e.getMessage());
+			log.warn(String.format("Job %s of tenant %s failed: %s", job.name, tenant, e.getMessage()));
+		} finally {
+			job.permits.release();
+			job.claimed.remove(tenant);
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package c8y.example.cookbook.scheduling;
+
+/**
+ * Schedule, run counts and execution times of a job, returned by GET /jobs
+ */
+public class JobStatus {
+
+	private final String name;
+	private final long intervalSeconds;
+	private final int maxConcurrent;
+	private final int scheduledTenants;
+	private final int running;
+	private final long runs;
+	private final long failures;
+	private final long skipped;
+	private final long deferred;
+	private final long p50Millis;
+	private final long p95Millis;
+	private final long p99Millis;
+	private final long maxMillis;
+	private final String lastFailure;
+
+	JobStatus(TenantJob job, long runs, long failures, long skipped, long deferred) {
+		this.name = job.name;
+		this.intervalSeconds = job.intervalMillis / 1000;
+		this.maxConcurrent = job.maxConcurrent;
+		this.scheduledTenants = job.schedules.size();
+		this.running = job.maxConcurrent - job.permits.availablePermits();
+		this.runs = runs;
+		this.failures = failures;
+		this.skipped = skipped;
+		this.deferred = deferred;
+		this.p50Millis = job.durations.getPercentile(0.5);
+		this.p95Millis = job.durations.getPercentile(0.95);
+		this.p99Millis = job.durations.getPercentile(0.99);
+		this.maxMillis = job.durations.getMax();
+		this.lastFailure = job.lastFailure;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return 0 if the job only runs when triggered
+	 */
+	public long getIntervalSeconds() {
+		return intervalSeconds;
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public int getScheduledTenants() {
+		return scheduledTenants;
+	}
+
+	public int getRunning() {
+		return running;
+	}
+
+	public long getRuns() {
+		return runs;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return Runs skipped because the previous run of the tenant was still running
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return Runs delayed because maxConcurrent runs were running
+	 */
+	public long getDeferred() {
+		return deferred;
+	}
+
+	public long getP50Millis() {
+		return p50Millis;
+	}
+
+	public long getP95Millis() {
+		return p95Millis;
+	}
+
+	public long getP99Millis() {
+		return p99Millis;
+	}
+
+	public long getMaxMillis() {
+		return maxMillis;
+	}
+
+	public String getLastFailure() {
+		return lastFailure;
+	}
+
+}
@@ -0,0 +1,43 @@
+package c8y.example.cookbook.scheduling;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import c8y.example.cookbook.metrics.Histogram;
+
+/**
+ * A job registered with TenantJobScheduler, with its per-tenant schedules and run state
+ */
+class TenantJob {
+
+	final String name;
+	final Consumer<String> task;
+	final long intervalMillis;
+	final int maxConcurrent;
+	final Semaphore permits;
+	final Histogram durations;
+
+	// tenants with a run claimed: running, or waiting for a permit
+	final Set<String> claimed = ConcurrentHashMap.newKeySet();
+	final ConcurrentMap<String, ScheduledFuture<?>> schedules = new ConcurrentHashMap<>();
+
+	volatile String lastFailure;
+
+	TenantJob(String name, Consumer<String> task, long intervalMillis, int maxConcurrent, Histogram durations) {
+		this.name = name;
+		this.task = task;
+		this.intervalMillis = intervalMillis;
+		this.maxConcurrent = maxConcurrent;
+		this.permits = new Semaphore(maxConcurrent);
+		this.durations = durations;
+	}
+
+	boolean isPeriodic() {
+		return intervalMillis > 0;
+	}
+
+}
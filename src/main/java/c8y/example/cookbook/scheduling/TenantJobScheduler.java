@@ -0,0 +1,288 @@
+package c8y.example.cookbook.scheduling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionAddedEvent;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionsInitializedEvent;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+
+import c8y.example.cookbook.execution.TaskExecutors;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.sharding.ShardAssignmentChangedEvent;
+import c8y.example.cookbook.sharding.ShardManager;
+
+/**
+ * Runs periodic jobs for each subscribed tenant, in the tenant's scope.
+ *
+ * - Jitter: the runs of a job are spread over its interval, each tenant at its own fixed phase (a hash of job
+ *   and tenant), so the tenants don't all hit the platform at the same moment. The k-th run belongs to the slot
+ *   phase + k * interval (wall-clock time), and only its start is shifted by up to cookbook.jobs.jitterFraction
+ *   of the interval, so the jitter doesn't add up and the phase doesn't drift.
+ * - Skip if running: a run is skipped (and counted) while the previous run of the same job and tenant is still
+ *   running or waiting.
+ * - Concurrency caps: at most maxConcurrent runs of a job at a time (cookbook.jobs.maxConcurrent, per job
+ *   cookbook.jobs.{job}.maxConcurrent), all jobs on cookbook.jobs.threads threads. A run over the cap waits
+ *   cookbook.jobs.deferMillis (plus jitter) and tries again. See JobRunner.
+ *
+ * The interval of a job is given on registration and can be overridden with cookbook.jobs.{job}.intervalSeconds;
+ * 0 disables the periodic runs, the job can still be triggered. With sharding (see ShardManager), a tenant's jobs
+ * only run on the instance owning the tenant.
+ *
+ * Usage, e.g. in a @PostConstruct method:
+ *
+ * jobScheduler.register("tenantSettings.refresh", 300, tenant -> settingsCache.refresh(tenant));
+ *
+ * Metrics: jobs.{job}.millis (histogram), jobs.{job}.running (gauge), jobs.{job}.runs, jobs.{job}.failures,
+ * jobs.{job}.skipped, jobs.{job}.deferred
+ */
+@Component
+public class TenantJobScheduler {
+
+	private static final Logger log = LoggerFactory.getLogger(TenantJobScheduler.class);
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private ShardManager shardManager;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private TaskExecutors taskExecutors;
+
+	@Autowired
+	private Environment environment;
+
+	@Value("${cookbook.jobs.threads:4}")
+	private int threads;
+
+	@Value("${cookbook.jobs.maxConcurrent:2}")
+	private int defaultMaxConcurrent;
+
+	@Value("${cookbook.jobs.jitterFraction:0.1}")
+	private double jitterFraction;
+
+	@Value("${cookbook.jobs.deferMillis:1000}")
+	private long deferMillis;
+
+	private ExecutorService executor;
+	private ScheduledExecutorService timer;
+	private JobRunner runner;
+
+	private final ConcurrentMap<String, TenantJob> jobs = new ConcurrentHashMap<>();
+	private volatile boolean tenantsInitialized;
+
+	@PostConstruct
+	public void init() {
+		executor = taskExecutors.newExecutor("jobs", "tenant-job-", threads);
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "tenant-job-timer"));
+		runner = new JobRunner(executor, timer, deferMillis, (tenant, task) -> {
+			if (!subscriptionsService.getCredentials(tenant).isPresent()) {
+				return false;
+			}
+			subscriptionsService.runForTenant(tenant, task);
+			return true;
+		}, metricsRegistry);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		timer.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @param name e.g. "tenantSettings.refresh"
+	 * @param defaultIntervalSeconds Interval unless overridden by cookbook.jobs.{name}.intervalSeconds; 0 to run
+	 *        only when triggered
+	 * @param task Called with the tenant id, within the tenant's scope
+	 */
+	public void register(String name, long defaultIntervalSeconds, Consumer<String> task) {
+		long intervalSeconds = environment.getProperty("cookbook.jobs." + name + ".intervalSeconds", Long.class, defaultIntervalSeconds);
+		int maxConcurrent = environment.getProperty("cookbook.jobs." + name + ".maxConcurrent", Integer.class, defaultMaxConcurrent);
+		TenantJob job = new TenantJob(name, task, TimeUnit.SECONDS.toMillis(intervalSeconds), Math.max(1, maxConcurrent),
+				metricsRegistry.histogram("jobs." + name + ".millis"));
+		if (jobs.putIfAbsent(name, job) != null) {
+			throw new IllegalStateException(String.format("Job %s is already registered", name));
+		}
+		metricsRegistry.gauge("jobs." + name + ".running", () -> job.maxConcurrent - job.permits.availablePermits());
+		log.info(String.format("Registered job %s, interval %d s, at most %d concurrent runs", name, intervalSeconds, job.maxConcurrent));
+
+		if (tenantsInitialized) {
+			for (MicroserviceCredentials credentials : subscriptionsService.getAll()) {
+				schedule(job, credentials.getTenant());
+			}
+		}
+	}
+
+	public Collection<JobStatus> getJobs() {
+		List<JobStatus> statuses = new ArrayList<>();
+		for (TenantJob job : jobs.values()) {
+			statuses.add(getStatus(job));
+		}
+		statuses.sort((a, b) -> a.getName().compareTo(b.getName()));
+		return statuses;
+	}
+
+	public Optional<JobStatus> getJob(String name) {
+		TenantJob job = jobs.get(name);
+		return job == null ? Optional.empty() : Optional.of(getStatus(job));
+	}
+
+	/**
+	 * Runs the job for the tenant now, unless it is already running for the tenant; the run may still wait for
+	 * the job's concurrency cap
+	 *
+	 * @return false if the job is already running for the tenant
+	 * @throws IllegalArgumentException if there is no such job
+	 */
+	public boolean trigger(String name, String tenant) {
+		TenantJob job = jobs.get(name);
+		if (job == null) {
+			throw new IllegalArgumentException(String.format("No job %s", name));
+		}
+		return runner.start(job, tenant);
+	}
+
+	@EventListener
+	public void onSubscriptionsInitialized(MicroserviceSubscriptionsInitializedEvent event) {
+		tenantsInitialized = true;
+		for (MicroserviceCredentials credentials : subscriptionsService.getAll()) {
+			scheduleAll(credentials.getTenant());
+		}
+	}
+
+	@EventListener
+	public void onSubscriptionAdded(MicroserviceSubscriptionAddedEvent event) {
+		if (tenantsInitialized) {
+			scheduleAll(event.getCredentials().getTenant());
+		}
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		unscheduleAll(event.getTenant());
+	}
+
+	@EventListener
+	public void onShardAssignmentChanged(ShardAssignmentChangedEvent event) {
+		if (!tenantsInitialized) {
+			return;
+		}
+		for (MicroserviceCredentials credentials : subscriptionsService.getAll()) {
+			String tenant = credentials.getTenant();
+			if (event.getCurrent().owns(tenant)) {
+				scheduleAll(tenant);
+			} else {
+				unscheduleAll(tenant);
+			}
+		}
+	}
+
+	private void scheduleAll(String tenant) {
+		for (TenantJob job : jobs.values()) {
+			schedule(job, tenant);
+		}
+	}
+
+	private void unscheduleAll(String tenant) {
+		for (TenantJob job : jobs.values()) {
+			ScheduledFuture<?> schedule = job.schedules.remove(tenant);
+			if (schedule != null) {
+				schedule.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Starts the periodic runs of the job for the tenant, at the tenant's phase within the interval
+	 */
+	private void schedule(TenantJob job, String tenant) {
+		if (!job.isPeriodic() || !shardManager.owns(tenant)) {
+			return;
+		}
+		long phaseMillis = Math.floorMod((job.name + "/" + tenant).hashCode(), job.intervalMillis);
+		long slot = firstSlot(System.currentTimeMillis(), phaseMillis, job.intervalMillis);
+		job.schedules.computeIfAbsent(tenant, t -> scheduleTick(job, t, slot));
+	}
+
+	/**
+	 * @param slot The time the run belongs to, in epoch millis; it starts at slot plus jitter
+	 */
+	private ScheduledFuture<?> scheduleTick(TenantJob job, String tenant, long slot) {
+		long delayMillis = slot + jitter(job.intervalMillis) - System.currentTimeMillis();
+		try {
+			return timer.schedule(() -> tick(job, tenant, slot), Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// shutting down
+			return null;
+		}
+	}
+
+	private void tick(TenantJob job, String tenant, long slot) {
+		// the next run from the slot, not from this run's jitter or the timer's delay, so the phase doesn't drift
+		long nextSlot = nextSlot(slot, System.currentTimeMillis(), job.intervalMillis);
+		// unless unscheduled meanwhile
+		if (job.schedules.computeIfPresent(tenant, (t, previous) -> scheduleTick(job, t, nextSlot)) == null) {
+			return;
+		}
+		runner.start(job, tenant);
+	}
+
+	/**
+	 * @return The first time after nowMillis of the form phaseMillis + k * intervalMillis (epoch millis), so all
+	 *         instances agree on a tenant's slots
+	 */
+	static long firstSlot(long nowMillis, long phaseMillis, long intervalMillis) {
+		return nowMillis - Math.floorMod(nowMillis - phaseMillis, intervalMillis) + intervalMillis;
+	}
+
+	/**
+	 * @return The slot one interval after slot; slots which already passed, e.g. while the process was
+	 *         suspended, are skipped rather than run in a burst
+	 */
+	static long nextSlot(long slot, long nowMillis, long intervalMillis) {
+		long next = slot + intervalMillis;
+		return next > nowMillis ? next : firstSlot(nowMillis, slot, intervalMillis);
+	}
+
+	private long jitter(long intervalMillis) {
+		long maxJitter = (long) (intervalMillis * jitterFraction);
+		return maxJitter <= 0 ? 0 : ThreadLocalRandom.current().nextLong(-maxJitter, maxJitter + 1);
+	}
+
+	private JobStatus getStatus(TenantJob job) {
+		String prefix = "jobs." + job.name + ".";
+		return new JobStatus(job, metricsRegistry.getCount(prefix + "runs"), metricsRegistry.getCount(prefix + "failures"),
+				metricsRegistry.getCount(prefix + "skipped"), metricsRegistry.getCount(prefix + "deferred"));
+	}
+
+}
@@ -0,0 +1,51 @@
+package c8y.example.cookbook.security;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of what the user of a request is allowed to do: the user's tenant, roles 
+ * and whether the tenant is subscribed to the microservice.
+ */
+public class UserAuthorization {
+
+	private final String tenant;
+	private final Set<String> roles;
+	private final boolean tenantSubscribed;
+	private final long expiresAtMillis;
+
+	UserAuthorization(String tenant, Collection<String> roles, boolean tenantSubscribed, long expiresAtMillis) {
+		this.tenant = tenant;
+		this.roles = Collections.unmodifiableSet(new HashSet<>(roles));
+		this.tenantSubscribed = tenantSubscribed;
+		this.expiresAtMillis = expiresAtMillis;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public Set<String> getRoles() {
+		return roles;
+	}
+
+	public boolean hasRole(String role) {
+		return roles.contains(role);
+	}
+
+	public boolean isTenantSubscribed() {
+		return tenantSubscribed;
+	}
+
+	boolean isExpired(long nowMillis) {
+		return nowMillis >= expiresAtMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "UserAuthorization [tenant=" + tenant + ", roles=" + roles + ", tenantSubscribed=" + tenantSubscribed + "]";
+	}
+
+}
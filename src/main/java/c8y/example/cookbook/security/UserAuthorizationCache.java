@@ -0,0 +1,176 @@
+package c8y.example.cookbook.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import com.cumulocity.microservice.security.service.RoleService;
+import com.cumulocity.model.authentication.CumulocityCredentials;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionAddedEvent;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+import com.cumulocity.sdk.client.Platform;
+import com.cumulocity.sdk.client.PlatformParameters;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Caches the authorization data of the users calling the REST API, so that permission checks don't
+ * cost a call to the platform on every request.
+ * 
+ * Entries are keyed by a hash of the user's authentication string (the credentials themselves are
+ * not kept); for token or OAuth credentials, which have no authentication string, by a hash of tenant, user
+ * and the token of the request's Authorization header or authorization cookie. Requests without either are not
+ * cached. Entries expire after a short TTL (cookbook.authorizationCache.ttlSeconds), so that changes 
+ * to a user's roles are picked up quickly. All entries of a tenant are evicted when its subscription 
+ * is added or removed.
+ * 
+ * Metrics: authorizationCache.hits, authorizationCache.misses, authorizationCache.uncacheable
+ */
+@Component
+public class UserAuthorizationCache {
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private RoleService roleService;
+
+	@Autowired
+	@Qualifier("userPlatform")
+	private Platform userPlatform;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.authorizationCache.ttlSeconds:30}")
+	private long ttlSeconds;
+
+	@Value("${cookbook.authorizationCache.maxEntries:10000}")
+	private int maxEntries;
+
+	private final ConcurrentMap<String, UserAuthorization> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Must be called from a request handler, i.e. with the user platform of the request available. 
+	 * 
+	 * @return The authorization data of the user of the current request
+	 */
+	public UserAuthorization getForCurrentUser() {
+		PlatformParameters userPlatformParameters = getUserPlatformParameters();
+		String key = cacheKey(userPlatformParameters);
+		long now = System.currentTimeMillis();
+
+		UserAuthorization authorization = key == null ? null : cache.get(key);
+		if (authorization != null && !authorization.isExpired(now)) {
+			metricsRegistry.increment("authorizationCache.hits");
+			return authorization;
+		}
+
+		String tenant = userPlatformParameters.getTenantId();
+		authorization = new UserAuthorization(tenant,
+				roleService.getUserRoles(),
+				subscriptionsService.getCredentials(tenant).isPresent(),
+				now + TimeUnit.SECONDS.toMillis(ttlSeconds));
+		if (key == null) {
+			metricsRegistry.increment("authorizationCache.uncacheable");
+			return authorization;
+		}
+
+		metricsRegistry.increment("authorizationCache.misses");
+
+		if (cache.size() >= maxEntries) {
+			cache.values().removeIf(entry -> entry.isExpired(now));
+		}
+		if (cache.size() < maxEntries) {
+			cache.put(key, authorization);
+		}
+		return authorization;
+	}
+
+	@EventListener
+	public void onSubscriptionAdded(MicroserviceSubscriptionAddedEvent event) {
+		evictTenant(event.getCredentials().getTenant());
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		evictTenant(event.getTenant());
+	}
+
+	public void evictTenant(String tenant) {
+		cache.values().removeIf(entry -> entry.getTenant().equals(tenant));
+	}
+
+	private PlatformParameters getUserPlatformParameters() {
+		if (!(userPlatform instanceof PlatformParameters)) {
+			throw new IllegalStateException("userPlatform not instanceof PlatformParameters");
+		}
+		return (PlatformParameters) userPlatform;
+	}
+
+	/**
+	 * @return null if the request carries nothing to tell its user apart by
+	 */
+	private static String cacheKey(PlatformParameters userPlatformParameters) {
+		CumulocityCredentials credentials = userPlatformParameters.getCumulocityCredentials();
+		if (credentials != null && credentials.getAuthenticationString() != null) {
+			return hash(credentials.getAuthenticationString());
+		}
+		String token = getRequestToken();
+		if (token == null) {
+			return null;
+		}
+		return hash(userPlatformParameters.getTenantId() + "/" + userPlatformParameters.getUser() + "/" + token);
+	}
+
+	/**
+	 * @return The Authorization header of the current request, or its OAuth authorization cookie
+	 */
+	private static String getRequestToken() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (!(attributes instanceof ServletRequestAttributes)) {
+			return null;
+		}
+		HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+		String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+		if (authorization != null && !authorization.isEmpty()) {
+			return authorization;
+		}
+		if (request.getCookies() != null) {
+			for (Cookie cookie : request.getCookies()) {
+				if ("authorization".equals(cookie.getName()) && cookie.getValue() != null && !cookie.getValue().isEmpty()) {
+					return cookie.getValue();
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String hash(String authenticationString) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(authenticationString.getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package c8y.example.cookbook.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent hash ring over the members (instances) of the service.
+ *
+ * Each member is placed on the ring at virtualNodes positions; a key belongs to the member at the first
+ * position at or after the key's hash. When a member joins or leaves, only the keys between its positions
+ * and their predecessors move, i.e. about 1/n of the keys, and all of them move to or from that member.
+ */
+public class ConsistentHashRing {
+
+	private final SortedSet<String> members;
+	private final TreeMap<Long, String> positions = new TreeMap<>();
+
+	public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException("Invalid number of virtual nodes " + virtualNodes);
+		}
+		this.members = Collections.unmodifiableSortedSet(new TreeSet<>(members));
+		for (String member : this.members) {
+			for (int i = 0; i < virtualNodes; i++) {
+				// on a (very unlikely) collision, the smaller member wins on every instance alike
+				positions.merge(hash(member + "#" + i), member, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+			}
+		}
+	}
+
+	/**
+	 * @return The member the key belongs to, null if the ring has no members
+	 */
+	public String getOwner(String key) {
+		if (positions.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Long, String> position = positions.ceilingEntry(hash(key));
+		return position != null ? position.getValue() : positions.firstEntry().getValue();
+	}
+
+	public SortedSet<String> getMembers() {
+		return members;
+	}
+
+	static long hash(String key) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		long hash = 0;
+		for (int i = 0; i < 8; i++) {
+			hash = (hash << 8) | (digest[i] & 0xff);
+		}
+		return hash;
+	}
+
+}
@@ -0,0 +1,30 @@
+package c8y.example.cookbook.sharding;
+
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Members are the addresses a DNS name resolves to, e.g. the headless service of the replicas in Kubernetes or
+ * the service name in Docker Compose. The DNS entries follow the instances being started and stopped, so
+ * the ring is rebalanced without any configuration change. The members are IP addresses, so the instance id
+ * must be this instance's address.
+ */
+public class DnsMembershipProvider implements MembershipProvider {
+
+	private final String dnsName;
+
+	public DnsMembershipProvider(String dnsName) {
+		this.dnsName = dnsName;
+	}
+
+	@Override
+	public Set<String> getMembers() throws Exception {
+		Set<String> members = new TreeSet<>();
+		for (InetAddress address : InetAddress.getAllByName(dnsName)) {
+			members.add(address.getHostAddress());
+		}
+		return members;
+	}
+
+}
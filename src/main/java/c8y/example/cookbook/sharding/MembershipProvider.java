@@ -0,0 +1,16 @@
+package c8y.example.cookbook.sharding;
+
+import java.util.Set;
+
+/**
+ * The list of running instances of the service, see ShardManager. Called periodically, so that instances
+ * joining or leaving are picked up.
+ */
+public interface MembershipProvider {
+
+	/**
+	 * @return The ids of all instances, including this one once it is known to the others; empty if unknown
+	 */
+	Set<String> getMembers() throws Exception;
+
+}
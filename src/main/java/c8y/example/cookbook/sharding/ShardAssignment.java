@@ -0,0 +1,50 @@
+package c8y.example.cookbook.sharding;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The work of this instance, for one version of the membership list.
+ *
+ * Tenant-scoped work (e.g. the scheduled jobs of a tenant) belongs to the owner of the tenant id on the ring.
+ *
+ * All instances compute the same assignment from the same membership list, without further coordination.
+ */
+public class ShardAssignment {
+
+	private final String localMember;
+	private final ConsistentHashRing ring;
+
+	public ShardAssignment(String localMember, ConsistentHashRing ring) {
+		this.localMember = localMember;
+		this.ring = ring;
+	}
+
+	/**
+	 * An assignment which owns all work, for a single instance or when sharding is disabled
+	 */
+	public static ShardAssignment unsharded(String localMember) {
+		return new ShardAssignment(localMember, new ConsistentHashRing(Collections.singleton(localMember), 1));
+	}
+
+	public String getLocalMember() {
+		return localMember;
+	}
+
+	public Set<String> getMembers() {
+		return ring.getMembers();
+	}
+
+	/**
+	 * @return Whether this instance runs the tenant-scoped work of the tenant
+	 */
+	public boolean owns(String tenant) {
+		return localMember.equals(ring.getOwner(tenant));
+	}
+
+	@Override
+	public String toString() {
+		return "ShardAssignment [localMember=" + localMember + ", members=" + ring.getMembers() + "]";
+	}
+
+}
@@ -0,0 +1,25 @@
+package c8y.example.cookbook.sharding;
+
+/**
+ * Published by ShardManager when the membership list changed. Listeners start the work they acquired and
+ * stop the work they lost, e.g. by comparing previous.owns(tenant) with current.owns(tenant).
+ */
+public class ShardAssignmentChangedEvent {
+
+	private final ShardAssignment previous;
+	private final ShardAssignment current;
+
+	public ShardAssignmentChangedEvent(ShardAssignment previous, ShardAssignment current) {
+		this.previous = previous;
+		this.current = current;
+	}
+
+	public ShardAssignment getPrevious() {
+		return previous;
+	}
+
+	public ShardAssignment getCurrent() {
+		return current;
+	}
+
+}
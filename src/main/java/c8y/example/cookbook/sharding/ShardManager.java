@@ -0,0 +1,157 @@
+package c8y.example.cookbook.sharding;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Divides the per-tenant background work between the running instances of the service, by consistent hashing
+ * of the tenants over the membership list, see ShardAssignment.
+ *
+ * The members are either the static list cookbook.sharding.members, or the addresses cookbook.sharding.membersDnsName
+ * resolves to (see DnsMembershipProvider). The list is refreshed every cookbook.sharding.refreshMillis; when it
+ * changed, a ShardAssignmentChangedEvent is published and the listeners rebalance their work. If the list can't
+ * be read, the previous assignment stays; until a first list has been read, and with cookbook.sharding.enabled=false,
+ * this instance owns all work (as without sharding).
+ *
+ * Usage:
+ *
+ * if (shardManager.owns(tenant)) { ... }
+ *
+ * Metrics: sharding.members (gauge), sharding.rebalances
+ */
+@Component
+public class ShardManager {
+
+	private static final Logger log = LoggerFactory.getLogger(ShardManager.class);
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Value("${cookbook.sharding.enabled:false}")
+	private boolean enabled;
+
+	@Value("${cookbook.sharding.instanceId:${HOSTNAME:}}")
+	private String instanceId;
+
+	@Value("${cookbook.sharding.members:}")
+	private String[] members;
+
+	@Value("${cookbook.sharding.membersDnsName:}")
+	private String membersDnsName;
+
+	@Value("${cookbook.sharding.virtualNodes:160}")
+	private int virtualNodes;
+
+	@Value("${cookbook.sharding.refreshMillis:10000}")
+	private long refreshMillis;
+
+	private MembershipProvider membershipProvider;
+	private ScheduledExecutorService refreshScheduler;
+
+	private volatile ShardAssignment assignment;
+	private volatile boolean membershipKnown;
+
+	@PostConstruct
+	public void init() throws UnknownHostException {
+		boolean dns = !membersDnsName.trim().isEmpty();
+		if (instanceId.trim().isEmpty()) {
+			instanceId = dns ? InetAddress.getLocalHost().getHostAddress() : InetAddress.getLocalHost().getHostName();
+		}
+		assignment = ShardAssignment.unsharded(instanceId);
+		metricsRegistry.gauge("sharding.members", () -> assignment.getMembers().size());
+		if (!enabled) {
+			return;
+		}
+
+		if (dns) {
+			membershipProvider = new DnsMembershipProvider(membersDnsName.trim());
+		} else {
+			Set<String> staticMembers = toSet(members);
+			membershipProvider = () -> staticMembers;
+		}
+		log.info(String.format("Sharding enabled, instance %s, members from %s", instanceId,
+				dns ? "DNS name " + membersDnsName : Arrays.toString(members)));
+
+		refresh();
+		refreshScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "sharding-refresh"));
+		refreshScheduler.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (refreshScheduler != null) {
+			refreshScheduler.shutdownNow();
+		}
+	}
+
+	public ShardAssignment getAssignment() {
+		return assignment;
+	}
+
+	/**
+	 * @return Whether this instance runs the tenant-scoped work of the tenant
+	 */
+	public boolean owns(String tenant) {
+		return assignment.owns(tenant);
+	}
+
+	/**
+	 * Reads the membership list and rebalances if it changed
+	 */
+	public void refresh() {
+		Set<String> currentMembers;
+		try {
+			currentMembers = membershipProvider.getMembers();
+		} catch (Exception e) {
+			log.warn(String.format("Reading the sharding members failed, keeping %s: %s", assignment.getMembers(), e.getMessage()));
+			return;
+		}
+		if (currentMembers.isEmpty() || (membershipKnown && currentMembers.equals(assignment.getMembers()))) {
+			return;
+		}
+		if (!currentMembers.contains(instanceId)) {
+			// not (yet) known to the others, which divide all work among themselves
+			log.warn(String.format("Instance %s is not among the sharding members %s", instanceId, currentMembers));
+		}
+
+		ShardAssignment previous = assignment;
+		ShardAssignment current = new ShardAssignment(instanceId, new ConsistentHashRing(currentMembers, virtualNodes));
+		assignment = current;
+		membershipKnown = true;
+		metricsRegistry.increment("sharding.rebalances");
+		log.info(String.format("Sharding members changed from %s to %s", previous.getMembers(), current.getMembers()));
+		eventPublisher.publishEvent(new ShardAssignmentChangedEvent(previous, current));
+	}
+
+	private static Set<String> toSet(String[] values) {
+		Set<String> set = new TreeSet<>();
+		for (String value : values) {
+			if (!value.trim().isEmpty()) {
+				set.add(value.trim());
+			}
+		}
+		return set;
+	}
+
+}
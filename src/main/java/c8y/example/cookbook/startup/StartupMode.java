@@ -0,0 +1,23 @@
+package c8y.example.cookbook.startup;
+
+/**
+ * How a startup task is run, configured per task with cookbook.startup.tasks.{task name}
+ */
+public enum StartupMode {
+	
+	/**
+	 * Run as soon as the task's phase is reached; the microservice is not ready until the task is finished
+	 */
+	EAGER,
+	
+	/**
+	 * Run in the background after all eager tasks are finished; does not delay readiness
+	 */
+	LAZY,
+	
+	/**
+	 * Don't run at all
+	 */
+	DISABLED
+	
+}
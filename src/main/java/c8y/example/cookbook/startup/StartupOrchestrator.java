@@ -0,0 +1,215 @@
+package c8y.example.cookbook.startup;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionsInitializedEvent;
+
+import c8y.example.cookbook.execution.TaskExecutors;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+
+/**
+ * Runs the startup work of the cookbook components in parallel, off the threads that publish the
+ * Spring and subscription events, instead of blocking in @PostConstruct methods and event listeners.
+ *
+ * Components register their startup tasks (usually in a @PostConstruct method) together with the
+ * phase in which the task can run:
+ *
+ * startupOrchestrator.register("inventoryCookbook", StartupPhase.SUBSCRIPTIONS_INITIALIZED, this::runCookbook);
+ *
+ * The mode of each task (eager, lazy or disabled, see StartupMode) is configured with the property
+ * cookbook.startup.tasks.{task name}, defaulting to cookbook.startup.defaultMode. The microservice is
+ * ready (isReady()) as soon as all eager tasks of all phases are finished; lazy tasks are started
+ * after that.
+ *
+ * getReport() returns the timing breakdown of the startup phases and tasks.
+ */
+@Component
+public class StartupOrchestrator {
+
+	private static final Logger log = LoggerFactory.getLogger(StartupOrchestrator.class);
+
+	@Autowired
+	private Environment environment;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private TaskExecutors taskExecutors;
+
+	@Value("${cookbook.startup.threads:4}")
+	private int threads;
+
+	@Value("${cookbook.startup.defaultMode:EAGER}")
+	private StartupMode defaultMode;
+
+	private ExecutorService executor;
+
+	private final List<RegisteredTask> tasks = new CopyOnWriteArrayList<>();
+	private final Map<StartupPhase, Long> phaseReachedAtMillis = new EnumMap<>(StartupPhase.class);
+	private final AtomicInteger pendingEagerTasks = new AtomicInteger();
+
+	private volatile long readyAtMillis = -1;
+	private boolean lazyTasksStarted;
+
+	@PostConstruct
+	public void init() {
+		executor = taskExecutors.newExecutor("startup", "startup-", threads);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Registers a startup task. If the phase of the task has already been reached, an eager task is started immediately.
+	 *
+	 * @param name Unique task name, used to configure the task's mode
+	 */
+	public synchronized void register(String name, StartupPhase phase, Runnable task) {
+		StartupMode mode = environment.getProperty("cookbook.startup.tasks." + name, StartupMode.class, defaultMode);
+		RegisteredTask registeredTask = new RegisteredTask(new StartupTaskTiming(name, phase, mode), task);
+		tasks.add(registeredTask);
+
+		if (mode == StartupMode.EAGER) {
+			pendingEagerTasks.incrementAndGet();
+			if (phaseReachedAtMillis.containsKey(phase)) {
+				start(registeredTask);
+			}
+		} else if (mode == StartupMode.LAZY && lazyTasksStarted) {
+			start(registeredTask);
+		}
+	}
+
+	@EventListener
+	public void onApplicationReady(ApplicationReadyEvent event) {
+		phaseReached(StartupPhase.CONTEXT_READY);
+	}
+
+	@EventListener
+	public void onSubscriptionsInitialized(MicroserviceSubscriptionsInitializedEvent event) {
+		phaseReached(StartupPhase.SUBSCRIPTIONS_INITIALIZED);
+	}
+
+	/**
+	 * @return true once all eager startup tasks are finished
+	 */
+	public boolean isReady() {
+		return readyAtMillis >= 0;
+	}
+
+	/**
+	 * @return Milliseconds since JVM start at which each phase was reached, the tasks' timings, and when the service became ready
+	 */
+	public synchronized Map<String, Object> getReport() {
+		Map<String, Object> report = new LinkedHashMap<>();
+		Map<String, Long> phases = new LinkedHashMap<>();
+		for (Map.Entry<StartupPhase, Long> phase : phaseReachedAtMillis.entrySet()) {
+			phases.put(phase.getKey().name(), phase.getValue());
+		}
+
+		List<StartupTaskTiming> timings = new ArrayList<>();
+		for (RegisteredTask task : tasks) {
+			timings.add(task.timing);
+		}
+
+		report.put("phases", phases);
+		report.put("readyAtMillis", readyAtMillis);
+		report.put("tasks", timings);
+		return report;
+	}
+
+	private synchronized void phaseReached(StartupPhase phase) {
+		if (phaseReachedAtMillis.containsKey(phase)) {
+			return;
+		}
+		phaseReachedAtMillis.put(phase, millisSinceJvmStart());
+		log.info(String.format("Startup phase %s reached after %d ms", phase, phaseReachedAtMillis.get(phase)));
+
+		for (RegisteredTask task : tasks) {
+			if (task.timing.getPhase() == phase && task.timing.getMode() == StartupMode.EAGER) {
+				start(task);
+			}
+		}
+		checkReady();
+	}
+
+	private void start(RegisteredTask task) {
+		CompletableFuture.runAsync(() -> {
+			long startedAt = millisSinceJvmStart();
+			task.timing.started(startedAt);
+			Throwable error = null;
+			try {
+				task.task.run();
+			} catch (Throwable e) {
+				error = e;
+				log.error(String.format("Startup task %s failed", task.timing.getName()), e);
+			}
+			task.timing.finished(millisSinceJvmStart() - startedAt, error);
+		}, executor).whenComplete((result, e) -> {
+			if (task.timing.getMode() == StartupMode.EAGER) {
+				pendingEagerTasks.decrementAndGet();
+				checkReady();
+			}
+		});
+	}
+
+	private synchronized void checkReady() {
+		// only ready once all phases were reached, tasks of a phase not reached yet may still be registered
+		if (readyAtMillis >= 0 || pendingEagerTasks.get() > 0
+				|| phaseReachedAtMillis.size() < StartupPhase.values().length) {
+			return;
+		}
+		readyAtMillis = millisSinceJvmStart();
+		log.info(String.format("Startup finished, ready after %d ms: %s", readyAtMillis, tasks));
+
+		lazyTasksStarted = true;
+		for (RegisteredTask task : tasks) {
+			if (task.timing.getMode() == StartupMode.LAZY) {
+				start(task);
+			}
+		}
+	}
+
+	private static long millisSinceJvmStart() {
+		return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+
+	private static class RegisteredTask {
+		private final StartupTaskTiming timing;
+		private final Runnable task;
+
+		RegisteredTask(StartupTaskTiming timing, Runnable task) {
+			this.timing = timing;
+			this.task = task;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s %d ms", timing.getName(), timing.getStatus(), timing.getDurationMillis());
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package c8y.example.cookbook.startup;
+
+/**
+ * The point during startup at which a startup task can run
+ */
+public enum StartupPhase {
+	
+	/**
+	 * The Spring context has been refreshed and the application is ready (ApplicationReadyEvent)
+	 */
+	CONTEXT_READY,
+	
+	/**
+	 * The service credentials of all subscribed tenants are available (MicroserviceSubscriptionsInitializedEvent)
+	 */
+	SUBSCRIPTIONS_INITIALIZED
+	
+}
@@ -0,0 +1,75 @@
+package c8y.example.cookbook.startup;
+
+/**
+ * Timing of a single startup task, relative to the start of the JVM
+ */
+public class StartupTaskTiming {
+
+	public enum Status {
+		PENDING, RUNNING, SUCCEEDED, FAILED, DISABLED
+	}
+	
+	private final String name;
+	private final StartupPhase phase;
+	private final StartupMode mode;
+	
+	private volatile Status status = Status.PENDING;
+	private volatile long startedAtMillis = -1;
+	private volatile long durationMillis = -1;
+	private volatile String error;
+
+	StartupTaskTiming(String name, StartupPhase phase, StartupMode mode) {
+		this.name = name;
+		this.phase = phase;
+		this.mode = mode;
+		if (mode == StartupMode.DISABLED) {
+			this.status = Status.DISABLED;
+		}
+	}
+
+	void started(long startedAtMillis) {
+		this.startedAtMillis = startedAtMillis;
+		this.status = Status.RUNNING;
+	}
+
+	void finished(long durationMillis, Throwable error) {
+		this.durationMillis = durationMillis;
+		this.error = error == null ? null : error.toString();
+		this.status = error == null ? Status.SUCCEEDED : Status.FAILED;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public StartupPhase getPhase() {
+		return phase;
+	}
+
+	public StartupMode getMode() {
+		return mode;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return Milliseconds since JVM start at which the task was started, -1 if not started
+	 */
+	public long getStartedAtMillis() {
+		return startedAtMillis;
+	}
+
+	/**
+	 * @return -1 if not finished
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+}
@@ -3,6 +3,8 @@ package c8y.example.cookbook.util;
 import com.cumulocity.sdk.client.ParamSource;
 import com.cumulocity.sdk.client.inventory.InventoryFilter;
 
+import c8y.example.cookbook.query.CompiledQuery;
+
 public class ExtendedInventoryFilter extends InventoryFilter {
 	
 	@ParamSource
@@ -13,4 +15,8 @@ public class ExtendedInventoryFilter extends InventoryFilter {
         return this;
     }
 
+	public ExtendedInventoryFilter byQuery(CompiledQuery query) {
+		return byQuery(query.getQueryString());
+	}
+
 }
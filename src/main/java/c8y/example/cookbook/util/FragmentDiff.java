@@ -0,0 +1,90 @@
+package c8y.example.cookbook.util;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares managed object fragments, as key-value maps (see ManagedObjectPOJOMapper.toFragment()).
+ *
+ * The inventory replaces a top-level fragment as a whole on update, so a delta update consists of the
+ * changed top-level fragments. Fragments are compared by value: numbers are equal if they have the same
+ * numeric value, regardless of their Java type (a fragment read back from the platform may hold a Long
+ * or a BigDecimal where the serialized POJO held an Integer or a Double).
+ */
+public class FragmentDiff {
+
+	private FragmentDiff() {
+	}
+
+	/**
+	 * @param lastKnown The last known fragments of a managed object, by fragment name
+	 * @param current The current fragments, by fragment name
+	 * @return The fragments of current which are missing from lastKnown or differ from it
+	 */
+	public static Map<String, Object> changedFragments(Map<String, Object> lastKnown, Map<String, Object> current) {
+		Map<String, Object> changed = new LinkedHashMap<>();
+		for (Map.Entry<String, Object> fragment : current.entrySet()) {
+			if (!lastKnown.containsKey(fragment.getKey()) || !valueEquals(lastKnown.get(fragment.getKey()), fragment.getValue())) {
+				changed.put(fragment.getKey(), fragment.getValue());
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Deep comparison of two JSON-like values (maps, lists, numbers, strings, booleans and nulls)
+	 */
+	public static boolean valueEquals(Object a, Object b) {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null) {
+			return false;
+		}
+		if (a instanceof Number && b instanceof Number) {
+			return toBigDecimal((Number) a).compareTo(toBigDecimal((Number) b)) == 0;
+		}
+		if (a instanceof Map && b instanceof Map) {
+			Map<?, ?> mapA = (Map<?, ?>) a;
+			Map<?, ?> mapB = (Map<?, ?>) b;
+			if (mapA.size() != mapB.size()) {
+				return false;
+			}
+			for (Map.Entry<?, ?> entry : mapA.entrySet()) {
+				if (!mapB.containsKey(entry.getKey()) || !valueEquals(entry.getValue(), mapB.get(entry.getKey()))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (a instanceof List && b instanceof List) {
+			List<?> listA = (List<?>) a;
+			List<?> listB = (List<?>) b;
+			if (listA.size() != listB.size()) {
+				return false;
+			}
+			Iterator<?> itorB = listB.iterator();
+			for (Object elementA : listA) {
+				if (!valueEquals(elementA, itorB.next())) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return a.equals(b);
+	}
+
+	private static BigDecimal toBigDecimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal) number;
+		}
+		if (number instanceof Double || number instanceof Float) {
+			return BigDecimal.valueOf(number.doubleValue());
+		}
+		return new BigDecimal(number.toString());
+	}
+
+}
@@ -1,17 +1,28 @@
 package c8y.example.cookbook.util;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonDeserializer;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 /**
  * Provides utility methods for serialization and deserialization of Java objects in the inventory.   
@@ -27,25 +38,37 @@ import com.fasterxml.jackson.databind.SerializationFeature;
  * Implementing classes should be annotated with @JsonTypeName. 
  * 
  * Polymorphic types without annotations(ManagedObjectPOJOMapper.TRUSTED_SOURCE):
- * If the JSON is from a trusted source, an ObjectMapper with default typing enabled may be supplied:
- * objectMapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+ * If the JSON is from a trusted source, default typing may be enabled with builder().enableDefaultTyping(),
+ * i.e. objectMapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
  * This makes annotations unnecessary.
  * 
- * Note: this is built to work with the c8y SDK, namely the ManagedObjectRepresentation class. As a side effect, 
- * the deserialization is not very efficient. To improve performance, the same mechanism can be adapted to on work with raw 
- * JSON instead of ManagedObjectRepresentation.  
+ * Polymorphic types without annotations, registered with short ids (builder().typeRegistry(typeRegistry).build()):
+ * Subtypes are registered once in a PolymorphicTypeRegistry; only registered types get a type id, 
+ * and only registered types can be instantiated. Fragments written with TRUSTED_SOURCE can still be read.
+ * 
+ * Mappers are immutable and safe to share between threads: a mapper is configured once with a Builder 
+ * (default typing or a type registry, modules, mix-ins, custom serializers and deserializers) and only hands 
+ * out ObjectWriters and per-class ObjectReaders afterwards, so nothing can change its configuration while
+ * other threads use it. Custom serializers for hot types, e.g. CustomDevice.Serializer, replace the generic
+ * bean serialization:
+ * 
+ * ManagedObjectPOJOMapper mapper = ManagedObjectPOJOMapper.builder()
+ *		.serializer(CustomDevice.class, new CustomDevice.Serializer())
+ *		.deserializer(CustomDevice.class, new CustomDevice.Deserializer())
+ *		.build();
+ * 
+ * Note: this is built to work with the c8y SDK, namely the ManagedObjectRepresentation class. Fragments are 
+ * converted from and to key-value maps through a token buffer, without rendering JSON text in between.
  *   
  * 
  * @author MKOS
  */
-/**
- * @author MKOS
- *
- */
-public class ManagedObjectPOJOMapper {
+public final class ManagedObjectPOJOMapper {
 	
-	private ObjectMapper objectMapper;
-	private ObjectMapper defaultObjectMapper = new ObjectMapper();
+	// without default typing, for the key-value maps of fragments
+	private static final ObjectMapper PLAIN_OBJECT_MAPPER = new ObjectMapper();
+	private static final ObjectReader FRAGMENT_READER = PLAIN_OBJECT_MAPPER.readerFor(new TypeReference<Map<String, Object>>() {});
+	private static final ObjectWriter FRAGMENT_WRITER = PLAIN_OBJECT_MAPPER.writer();
 	
 	/**
 	 * Polymorphic types with annotations
@@ -53,12 +76,20 @@ public class ManagedObjectPOJOMapper {
      * Interfaces should be annotated with @JsonTypeInfo and @JsonSubTypes.
      * Implementing classes should be annotated with @JsonTypeName. 
 	 */
-	public static ManagedObjectPOJOMapper DEFAULT = new ManagedObjectPOJOMapper();
+	public static final ManagedObjectPOJOMapper DEFAULT = builder().build();
 	
 	/**
 	 * Polymorphic types without annotations,(use if the JSON is from a trusted source)
 	 */
-	public static ManagedObjectPOJOMapper TRUSTED_SOURCE = new ManagedObjectPOJOMapper(true);
+	public static final ManagedObjectPOJOMapper TRUSTED_SOURCE = builder().enableDefaultTyping().build();
+	
+	private final ObjectMapper objectMapper;
+	private final ObjectWriter writer;
+	private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+	private final boolean defaultTyping;
+	private final PolymorphicTypeRegistry typeRegistry;
+	private final ObjectMapper legacyObjectMapper;
+	private final ConcurrentMap<Class<?>, ObjectReader> legacyReaders = new ConcurrentHashMap<>();
 
 	/**
 	 * The name of the json property of the ManagedObject which will hold the serialized Java object.
@@ -74,28 +105,54 @@ public class ManagedObjectPOJOMapper {
 		return '@' + objectClass.getName().replace('.', '_');
 	}
 	
+	public static Builder builder() {
+		return new Builder();
+	}
+	
+	/**
+	 * @deprecated Use DEFAULT or builder().build()
+	 */
+	@Deprecated
 	public ManagedObjectPOJOMapper() {
 		this(false);
 	}
 
+	/**
+	 * @param objectMapper The ObjectMapper to write and read with; the mapper uses a copy, so later changes to it
+	 * have no effect
+	 * @deprecated Use builder() with the modules, mix-ins, serializers and deserializers of the ObjectMapper
+	 */
+	@Deprecated
 	public ManagedObjectPOJOMapper(ObjectMapper objectMapper) {
-		super();
-		this.objectMapper = objectMapper;
+		this(builder().objectMapper(objectMapper));
 	}
 			
 	/**
 	 * @param enableObjectMapperDefaultTyping allows to write and read polymorphic types without annotations;
 	 * security issue if deserializing untrusted JSON - use only if incoming JSON is from a trusted source;
+	 * @deprecated Use TRUSTED_SOURCE or builder().enableDefaultTyping().build()
 	 */
+	@Deprecated
 	public ManagedObjectPOJOMapper(boolean enableObjectMapperDefaultTyping) {
-		objectMapper = new ObjectMapper();
-		objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
-		objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-		
-		if (enableObjectMapperDefaultTyping) {
+		this(enableObjectMapperDefaultTyping ? builder().enableDefaultTyping() : builder());
+	}
+	
+	private ManagedObjectPOJOMapper(Builder builder) {
+		objectMapper = builder.newObjectMapper();
+		typeRegistry = builder.typeRegistry;
+		defaultTyping = builder.defaultTyping;
+		if (defaultTyping) {
 			//objectMapper.enableDefaultTyping -security issue if deserializing untrusted JSON
 			objectMapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
 		}
+		if (typeRegistry != null) {
+			typeRegistry.configure(objectMapper);
+			legacyObjectMapper = builder.newObjectMapper();
+			typeRegistry.configureLegacy(legacyObjectMapper);
+		} else {
+			legacyObjectMapper = null;
+		}
+		writer = objectMapper.writer();
 	}
 
 	/**
@@ -122,14 +179,23 @@ public class ManagedObjectPOJOMapper {
 			fragmentName = getDefaultFragmentNameForClass(object.getClass());
 		}
 		
-		String jsonString = objectMapper.writeValueAsString(object);
-		
-		Map<String, Object> map = new ObjectMapper().readValue(jsonString, new TypeReference<Map<String, Object>>() {});
-			
+		managedObjectRepresentation.set(toFragment(object), fragmentName);
+	}
+	
+	/**
+	 * Serializes a Java object to the key-value map which writePOJO() stores as a property of a managed object
+	 * 
+	 * @param object The Java object to serialize
+	 * @return The fragment, as sent to the inventory
+	 * @throws IOException
+	 */
+	public Map<String, Object> toFragment(Object object) throws IOException {
 		//convertValue is probably faster but doesn't work if default typing is enabled
 		//Map<String, Object> map = objectMapper.convertValue(object, Map.class); 
+		TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+		writer.writeValue(buffer, object);
 		
-		managedObjectRepresentation.set(map, fragmentName);
+		return FRAGMENT_READER.readValue(buffer.asParser());
 	}
 	
 	public <V> V readPOJO(ManagedObjectRepresentation managedObjectRepresentation,	
@@ -141,18 +207,7 @@ public class ManagedObjectPOJOMapper {
 		Map<String, Object> map =  (Map<String, Object>) managedObjectRepresentation
 				.get(fragmentName);
 		
-		// convertValue does not work with default typing, that's why we do 
-		// intermediate conversion to string below instead
-		//V object = objectMapper.convertValue(map, objectClass);
-				
-		// use the defaultObjectMapper which has disabled defaultTyping  
-		String jsonString = defaultObjectMapper.writeValueAsString(map);
-		
-		String typeInfo = (String) map.get("@class");
-		V object = (V) objectMapper.readValue(jsonString, Class.forName(typeInfo));
-		
-		
-		return object;
+		return readFragment(map, objectClass);
 	}
 
 	public <V> V readPOJO(ManagedObjectRepresentation managedObjectRepresentation,
@@ -176,17 +231,7 @@ public class ManagedObjectPOJOMapper {
 		Map<String, Object> map =  (Map<String, Object>) managedObject
 				.get(fragmentName);
 		
-		// convertValue does not work with default typing, that's why we do 
-		// intermediate conversion to string below instead
-		//V object = objectMapper.convertValue(map, objectClass);
-				
-		// use the defaultObjectMapper which has disabled defaultTyping  
-		String jsonString = defaultObjectMapper.writeValueAsString(map);
-		
-		String typeInfo = (String) map.get("@class");
-		V object = (V) objectMapper.readValue(jsonString, Class.forName(typeInfo));
-				
-		return object;		
+		return readFragment(map, objectClass);		
 	}
 
 	/**
@@ -199,5 +244,146 @@ public class ManagedObjectPOJOMapper {
 		return readPOJO(managedObject, objectClass, null);
 	}
 
+	@SuppressWarnings("unchecked")
+	private <V> V readFragment(Map<String, Object> map, Class<V> objectClass) throws JsonParseException, JsonMappingException, IOException, ClassNotFoundException {
+		// convertValue does not work with default typing, that's why we do 
+		// intermediate conversion through a token buffer below instead
+		//V object = objectMapper.convertValue(map, objectClass);
+				
+		// written with the plain mapper which has disabled defaultTyping  
+		TokenBuffer buffer = new TokenBuffer(PLAIN_OBJECT_MAPPER, false);
+		FRAGMENT_WRITER.writeValue(buffer, map);
+		
+		String typeInfo = (String) map.get("@class");
+		if (typeRegistry == null) {
+			// without default typing, @class is an ignored unknown property, it must not pick the class to load
+			return (V) reader(defaultTyping && typeInfo != null ? subclass(typeInfo, objectClass) : objectClass).readValue(buffer.asParser());
+		}
+		
+		if (typeInfo != null) {
+			// written with default typing (TRUSTED_SOURCE), before the type registry was introduced
+			Class<?> legacyClass = typeRegistry.getLegacyClass(typeInfo);
+			return (V) legacyReaders.computeIfAbsent(legacyClass, legacyObjectMapper::readerFor).readValue(buffer.asParser());
+		}
+		return (V) reader(objectClass).readValue(buffer.asParser());
+	}
+	
+	/**
+	 * @return The class named by the @class property, if it is objectClass or one of its subclasses
+	 */
+	private static Class<?> subclass(String typeInfo, Class<?> objectClass) throws JsonMappingException, ClassNotFoundException {
+		// not initialized before it's known to be a subclass
+		Class<?> namedClass = Class.forName(typeInfo, false, ManagedObjectPOJOMapper.class.getClassLoader());
+		if (!objectClass.isAssignableFrom(namedClass)) {
+			throw new JsonMappingException(null, String.format("@class %s is not a subclass of %s", typeInfo, objectClass.getName()));
+		}
+		return namedClass;
+	}
+
+	private ObjectReader reader(Class<?> objectClass) {
+		return readers.computeIfAbsent(objectClass, objectMapper::readerFor);
+	}
+	
+	/**
+	 * Configuration of a ManagedObjectPOJOMapper. Each build() creates a mapper with its own ObjectMappers,
+	 * later changes to the builder don't affect mappers built before.
+	 */
+	public static class Builder {
+		
+		private boolean defaultTyping;
+		private PolymorphicTypeRegistry typeRegistry;
+		// of the deprecated ManagedObjectPOJOMapper(ObjectMapper), used instead of a new ObjectMapper
+		private ObjectMapper objectMapper;
+		private final List<Module> modules = new ArrayList<>();
+		private final Map<Class<?>, Class<?>> mixIns = new LinkedHashMap<>();
+		private final Map<Class<?>, JsonSerializer<?>> serializers = new LinkedHashMap<>();
+		private final Map<Class<?>, JsonDeserializer<?>> deserializers = new LinkedHashMap<>();
+		
+		private Builder() {
+		}
+		
+		/**
+		 * Allows to write and read polymorphic types without annotations; security issue if deserializing 
+		 * untrusted JSON - use only if incoming JSON is from a trusted source
+		 */
+		public Builder enableDefaultTyping() {
+			if (typeRegistry != null) {
+				throw new IllegalStateException("Default typing and a type registry are mutually exclusive");
+			}
+			defaultTyping = true;
+			return this;
+		}
+		
+		/**
+		 * Polymorphic types registered in a type registry, written with their short ids; reads fragments 
+		 * written with TRUSTED_SOURCE as well, as long as they only name registered or allowed classes
+		 * 
+		 * @param typeRegistry The registered subtypes; must not be changed afterwards
+		 */
+		public Builder typeRegistry(PolymorphicTypeRegistry typeRegistry) {
+			if (defaultTyping) {
+				throw new IllegalStateException("Default typing and a type registry are mutually exclusive");
+			}
+			this.typeRegistry = typeRegistry;
+			return this;
+		}
+		
+		public Builder module(Module module) {
+			modules.add(module);
+			return this;
+		}
+		
+		public Builder mixIn(Class<?> target, Class<?> mixIn) {
+			mixIns.put(target, mixIn);
+			return this;
+		}
+		
+		/**
+		 * Registers a serializer for a type; with default typing or a type registry, it has to implement
+		 * serializeWithType() for the type ids to be written
+		 */
+		public <T> Builder serializer(Class<? extends T> type, JsonSerializer<T> serializer) {
+			serializers.put(type, serializer);
+			return this;
+		}
+		
+		public <T> Builder deserializer(Class<T> type, JsonDeserializer<? extends T> deserializer) {
+			deserializers.put(type, deserializer);
+			return this;
+		}
+		
+		public ManagedObjectPOJOMapper build() {
+			return new ManagedObjectPOJOMapper(this);
+		}
+		
+		private Builder objectMapper(ObjectMapper objectMapper) {
+			this.objectMapper = objectMapper;
+			return this;
+		}
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private ObjectMapper newObjectMapper() {
+			if (objectMapper != null) {
+				return objectMapper.copy();
+			}
+			ObjectMapper objectMapper = new ObjectMapper();
+			objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+			objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+			
+			SimpleModule customizations = new SimpleModule("ManagedObjectPOJOMapper");
+			for (Map.Entry<Class<?>, JsonSerializer<?>> entry : serializers.entrySet()) {
+				customizations.addSerializer((Class) entry.getKey(), (JsonSerializer) entry.getValue());
+			}
+			for (Map.Entry<Class<?>, JsonDeserializer<?>> entry : deserializers.entrySet()) {
+				customizations.addDeserializer((Class) entry.getKey(), (JsonDeserializer) entry.getValue());
+			}
+			objectMapper.registerModules(modules);
+			objectMapper.registerModule(customizations);
+			for (Map.Entry<Class<?>, Class<?>> entry : mixIns.entrySet()) {
+				objectMapper.addMixIn(entry.getKey(), entry.getValue());
+			}
+			return objectMapper;
+		}
+	}
 	
 }
@@ -0,0 +1,234 @@
+package c8y.example.cookbook.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.DatabindContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.fasterxml.jackson.databind.jsontype.TypeIdResolver;
+import com.fasterxml.jackson.databind.jsontype.impl.ClassNameIdResolver;
+import com.fasterxml.jackson.databind.jsontype.impl.TypeIdResolverBase;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+/**
+ * Registry of polymorphic type hierarchies for ManagedObjectPOJOMapper, as an alternative to default typing
+ * (ManagedObjectPOJOMapper.TRUSTED_SOURCE) which writes the fully qualified class name into every nested
+ * object and instantiates whatever class the JSON names.
+ *
+ * Each subtype is registered once, with a short id:
+ *
+ * PolymorphicTypeRegistry registry = new PolymorphicTypeRegistry()
+ *		.register(Sensor.class, Sensor.class, "sensor")
+ *		.register(Sensor.class, TemperatureSensor.class, "temperature")
+ *		.register(Sensor.class, HumiditySensor.class, "humidity")
+ *		.allowLegacy(SensorArray.class);
+ * ManagedObjectPOJOMapper mapper = ManagedObjectPOJOMapper.builder().typeRegistry(registry).build();
+ *
+ * Only values whose declared type is a registered base type (or a subtype of one) carry a type id, in the
+ * property TYPE_PROPERTY: {"@type":"temperature","name":"foo"}. Reading an unknown id fails, no other
+ * classes can be instantiated.
+ *
+ * For the migration of stored data, fragments written with default typing (having an "@class" property)
+ * are still read, but only if all class names in them are registered subtypes, classes allowed with
+ * allowLegacy(), or plain java.util collections.
+ */
+public class PolymorphicTypeRegistry {
+
+	public static final String TYPE_PROPERTY = "@type";
+
+	private static final Set<Class<?>> LEGACY_JDK_CLASSES = new HashSet<>(Arrays.<Class<?>>asList(
+			ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, TreeSet.class,
+			HashMap.class, LinkedHashMap.class, TreeMap.class, Date.class));
+
+	private final Set<Class<?>> baseTypes = new LinkedHashSet<>();
+	private final Map<String, Class<?>> classesById = new LinkedHashMap<>();
+	private final Map<Class<?>, String> idsByClass = new HashMap<>();
+	private final Map<String, Class<?>> legacyClasses = new HashMap<>();
+
+	/**
+	 * @param baseType Declared type of the values which get a type id, e.g. Sensor for a List<Sensor>
+	 * @param subtype The concrete class, may be the base type itself
+	 * @param id Short, unique id written instead of the class name
+	 */
+	public synchronized PolymorphicTypeRegistry register(Class<?> baseType, Class<?> subtype, String id) {
+		if (!baseType.isAssignableFrom(subtype)) {
+			throw new IllegalArgumentException(String.format("%s is not a subtype of %s", subtype.getName(), baseType.getName()));
+		}
+		Class<?> registered = classesById.get(id);
+		if (registered != null && registered != subtype) {
+			throw new IllegalArgumentException(String.format("Type id '%s' is already registered for %s", id, registered.getName()));
+		}
+		baseTypes.add(baseType);
+		classesById.put(id, subtype);
+		idsByClass.put(subtype, id);
+		legacyClasses.put(subtype.getName(), subtype);
+		return this;
+	}
+
+	/**
+	 * Allows a class which is not a registered subtype to be named in fragments written with default typing,
+	 * e.g. the top-level POJO class
+	 */
+	public synchronized PolymorphicTypeRegistry allowLegacy(Class<?>... classes) {
+		for (Class<?> legacyClass : classes) {
+			legacyClasses.put(legacyClass.getName(), legacyClass);
+		}
+		return this;
+	}
+
+	public synchronized Map<String, Class<?>> getRegisteredTypes() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(classesById));
+	}
+
+	/**
+	 * @return The class named in a fragment written with default typing, if it may be instantiated
+	 */
+	public synchronized Class<?> getLegacyClass(String className) {
+		Class<?> legacyClass = legacyClasses.get(className);
+		if (legacyClass == null) {
+			for (Class<?> jdkClass : LEGACY_JDK_CLASSES) {
+				if (jdkClass.getName().equals(className)) {
+					return jdkClass;
+				}
+			}
+			throw new IllegalArgumentException(String.format("Class %s is not registered in the type registry", className));
+		}
+		return legacyClass;
+	}
+
+	synchronized boolean isPolymorphic(Class<?> type) {
+		for (Class<?> baseType : baseTypes) {
+			if (baseType.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Configures an ObjectMapper to write and read the registered types with their ids
+	 */
+	void configure(ObjectMapper objectMapper) {
+		objectMapper.setDefaultTyping(new RegistryTypeResolverBuilder()
+				.init(JsonTypeInfo.Id.NAME, null)
+				.inclusion(JsonTypeInfo.As.PROPERTY)
+				.typeProperty(TYPE_PROPERTY));
+	}
+
+	/**
+	 * Configures an ObjectMapper to read fragments written with default typing, restricted to the allowed classes
+	 */
+	void configureLegacy(ObjectMapper objectMapper) {
+		objectMapper.setDefaultTyping(new LegacyTypeResolverBuilder()
+				.init(JsonTypeInfo.Id.CLASS, null)
+				.inclusion(JsonTypeInfo.As.PROPERTY));
+	}
+
+	private class RegistryTypeResolverBuilder extends ObjectMapper.DefaultTypeResolverBuilder {
+		private static final long serialVersionUID = 1L;
+
+		RegistryTypeResolverBuilder() {
+			super(ObjectMapper.DefaultTyping.NON_FINAL);
+		}
+
+		@Override
+		public boolean useForType(JavaType type) {
+			while (type.isArrayType()) {
+				type = type.getContentType();
+			}
+			return isPolymorphic(type.getRawClass());
+		}
+
+		@Override
+		protected TypeIdResolver idResolver(MapperConfig<?> config, JavaType baseType, Collection<NamedType> subtypes,
+				boolean forSer, boolean forDeser) {
+			return new RegistryIdResolver(baseType, config.getTypeFactory());
+		}
+	}
+
+	private class RegistryIdResolver extends TypeIdResolverBase {
+
+		RegistryIdResolver(JavaType baseType, TypeFactory typeFactory) {
+			super(baseType, typeFactory);
+		}
+
+		@Override
+		public String idFromValue(Object value) {
+			return idFromValueAndType(value, value.getClass());
+		}
+
+		@Override
+		public String idFromValueAndType(Object value, Class<?> suggestedType) {
+			synchronized (PolymorphicTypeRegistry.this) {
+				String id = idsByClass.get(suggestedType);
+				if (id == null) {
+					throw new IllegalArgumentException(String.format("Class %s is not registered in the type registry", suggestedType.getName()));
+				}
+				return id;
+			}
+		}
+
+		@Override
+		public JavaType typeFromId(DatabindContext context, String id) {
+			Class<?> type;
+			synchronized (PolymorphicTypeRegistry.this) {
+				type = classesById.get(id);
+			}
+			if (type == null || !_baseType.getRawClass().isAssignableFrom(type)) {
+				// unknown type id, reported by Jackson
+				return null;
+			}
+			return _typeFactory.constructSpecializedType(_baseType, type);
+		}
+
+		@Override
+		public JsonTypeInfo.Id getMechanism() {
+			return JsonTypeInfo.Id.NAME;
+		}
+	}
+
+	private class LegacyTypeResolverBuilder extends ObjectMapper.DefaultTypeResolverBuilder {
+		private static final long serialVersionUID = 1L;
+
+		LegacyTypeResolverBuilder() {
+			super(ObjectMapper.DefaultTyping.NON_FINAL);
+		}
+
+		@Override
+		protected TypeIdResolver idResolver(MapperConfig<?> config, JavaType baseType, Collection<NamedType> subtypes,
+				boolean forSer, boolean forDeser) {
+			return new AllowedClassNameIdResolver(baseType, config.getTypeFactory());
+		}
+	}
+
+	private class AllowedClassNameIdResolver extends ClassNameIdResolver {
+
+		AllowedClassNameIdResolver(JavaType baseType, TypeFactory typeFactory) {
+			super(baseType, typeFactory);
+		}
+
+		@Override
+		protected JavaType _typeFromId(String id, DatabindContext ctxt) throws IOException {
+			getLegacyClass(id);
+			return super._typeFromId(id, ctxt);
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+package c8y.example.cookbook.warmup;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.context.credentials.MicroserviceCredentials;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionAddedEvent;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionsInitializedEvent;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.cumulocity.sdk.client.inventory.InventoryApi;
+import com.cumulocity.sdk.client.inventory.InventoryFilter;
+
+import c8y.example.cookbook.cache.ManagedObjectCache;
+import c8y.example.cookbook.cache.TenantSettingsCache;
+import c8y.example.cookbook.execution.TaskExecutors;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.paging.AdaptivePager;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+
+/**
+ * Warms up the per-tenant state of a newly subscribed tenant, so that its first real requests don't
+ * pay for cold connections and empty caches. The warm-up steps run in parallel, each in the tenant's
+ * scope:
+ *
+ * - open cookbook.warmup.connections connections to the platform with the tenant's service credentials
+ * - prefetch the tenant options into TenantSettingsCache
+ * - preload the managed objects with the fragment types listed in cookbook.warmup.fragmentTypes into
+ *   ManagedObjectCache, at most cookbook.warmup.maxObjectsPerFragment per fragment type
+ *
+ * Steps still running after cookbook.warmup.timeBudgetMillis are cancelled. When a subscription is
+ * removed, any running warm-up is cancelled and the tenant's cached state is dropped. The warm-up is
+ * finished (warmup.<tenant>.millis) once every step has completed or was cancelled.
+ *
+ * The caches are per instance, so every instance warms up every tenant, also with sharding (see ShardManager):
+ * requests for any tenant can reach any instance.
+ */
+@Component
+public class TenantWarmUpService {
+
+	private static final Logger log = LoggerFactory.getLogger(TenantWarmUpService.class);
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private InventoryApi inventoryApi;
+
+	@Autowired
+	private TenantRateLimiter rateLimiter;
+
+	@Autowired
+	private ManagedObjectCache managedObjectCache;
+
+	@Autowired
+	private TenantSettingsCache settingsCache;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private TaskExecutors taskExecutors;
+
+	@Autowired
+	private AdaptivePager pager;
+
+	@Value("${cookbook.warmup.enabled:true}")
+	private boolean enabled;
+
+	@Value("${cookbook.warmup.threads:8}")
+	private int threads;
+
+	@Value("${cookbook.warmup.connections:2}")
+	private int connections;
+
+	@Value("${cookbook.warmup.fragmentTypes:}")
+	private String[] fragmentTypes;
+
+	@Value("${cookbook.warmup.maxObjectsPerFragment:1000}")
+	private int maxObjectsPerFragment;
+
+	@Value("${cookbook.warmup.timeBudgetMillis:10000}")
+	private long timeBudgetMillis;
+
+	private ExecutorService executor;
+	private ScheduledExecutorService timeoutScheduler;
+
+	private final ConcurrentMap<String, List<Future<?>>> warmUps = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		executor = taskExecutors.newExecutor("tenantWarmUp", "tenant-warmup-", threads);
+		timeoutScheduler = Executors.newSingleThreadScheduledExecutor(
+				runnable -> new Thread(runnable, "tenant-warmup-timeout"));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+		timeoutScheduler.shutdownNow();
+	}
+
+	@EventListener
+	public void onSubscriptionAdded(MicroserviceSubscriptionAddedEvent event) {
+		warmUp(event.getCredentials().getTenant());
+	}
+
+	@EventListener
+	public void onSubscriptionsInitialized(MicroserviceSubscriptionsInitializedEvent event) {
+		for (MicroserviceCredentials credentials : subscriptionsService.getAll()) {
+			warmUp(credentials.getTenant());
+		}
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		tearDown(event.getTenant());
+	}
+
+	/**
+	 * Starts the warm-up of the tenant in the background, unless the tenant has already been warmed up
+	 * (the subscription added event is also published on startup for every subscribed tenant).
+	 */
+	public void warmUp(String tenant) {
+		if (!enabled) {
+			return;
+		}
+
+		List<Future<?>> steps = new ArrayList<>();
+		if (warmUps.putIfAbsent(tenant, steps) != null) {
+			return;
+		}
+
+		log.info(String.format("Warming up tenant %s", tenant));
+		long startedNanos = System.nanoTime();
+
+		List<Runnable> stepTasks = new ArrayList<>();
+		for (int i = 0; i < connections; i++) {
+			stepTasks.add(() -> openConnection(tenant));
+		}
+		stepTasks.add(() -> settingsCache.refresh(tenant));
+		for (String fragmentType : fragmentTypes) {
+			if (!fragmentType.trim().isEmpty()) {
+				stepTasks.add(() -> preloadFragment(tenant, fragmentType.trim()));
+			}
+		}
+
+		AtomicInteger remainingSteps = new AtomicInteger(stepTasks.size());
+		synchronized (steps) {
+			for (Runnable stepTask : stepTasks) {
+				FutureTask<Void> step = new FutureTask<Void>(() -> {
+					try {
+						subscriptionsService.runForTenant(tenant, stepTask);
+					} catch (Exception e) {
+						log.warn(String.format("Warm-up step of tenant %s failed: %s", tenant, e.getMessage()));
+					}
+				}, null) {
+
+					@Override
+					protected void done() {
+						// once per step, also for steps cancelled before they started
+						if (remainingSteps.decrementAndGet() == 0) {
+							long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+							metricsRegistry.gauge("warmup." + tenant + ".millis", () -> millis);
+							log.info(String.format("Warm-up of tenant %s finished in %d ms", tenant, millis));
+						}
+					}
+				};
+				steps.add(step);
+				executor.execute(step);
+			}
+		}
+
+		timeoutScheduler.schedule(() -> cancelSteps(tenant, steps, "time budget exceeded"), timeBudgetMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Cancels a running warm-up of the tenant and drops the tenant's cached state
+	 */
+	public void tearDown(String tenant) {
+		List<Future<?>> steps = warmUps.remove(tenant);
+		if (steps != null) {
+			cancelSteps(tenant, steps, "subscription removed");
+		}
+		managedObjectCache.evictTenant(tenant);
+		settingsCache.evictTenant(tenant);
+		metricsRegistry.removeAll("warmup." + tenant + ".");
+		log.info(String.format("Dropped warm state of tenant %s", tenant));
+	}
+
+	private void cancelSteps(String tenant, List<Future<?>> steps, String reason) {
+		int cancelled = 0;
+		synchronized (steps) {
+			for (Future<?> step : steps) {
+				if (step.cancel(true)) {
+					cancelled++;
+				}
+			}
+		}
+		if (cancelled > 0) {
+			metricsRegistry.add("warmup.cancelledSteps", cancelled);
+			log.warn(String.format("Cancelled %d warm-up steps of tenant %s: %s", cancelled, tenant, reason));
+		}
+	}
+
+	/**
+	 * A cheap request with the tenant's credentials, leaves an open connection in the pool of the tenant's platform client
+	 */
+	private void openConnection(String tenant) {
+		rateLimiter.run(tenant, () -> inventoryApi.getManagedObjects().get(1));
+	}
+
+	private void preloadFragment(String tenant, String fragmentType) {
+		InventoryFilter filter = new InventoryFilter().byFragmentType(fragmentType);
+		// each page fetched through the rate limiter when the iteration reaches it
+		int count = 0;
+		Iterator<ManagedObjectRepresentation> itor = pager.allPages(tenant, inventoryApi.getManagedObjectsByFilter(filter)).iterator();
+		while (count < maxObjectsPerFragment && itor.hasNext() && !Thread.currentThread().isInterrupted()) {
+			managedObjectCache.put(tenant, itor.next());
+			count++;
+		}
+		log.debug(String.format("Preloaded %d managed objects with fragment %s of tenant %s", count, fragmentType, tenant));
+	}
+
+}
@@ -0,0 +1,226 @@
+package c8y.example.cookbook.writebehind;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.cumulocity.microservice.subscription.model.MicroserviceSubscriptionRemovedEvent;
+import com.cumulocity.microservice.subscription.service.MicroserviceSubscriptionsService;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.cumulocity.sdk.client.inventory.InventoryApi;
+
+import c8y.example.cookbook.cache.ManagedObjectCache;
+import c8y.example.cookbook.execution.TaskExecutors;
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.ratelimit.TenantRateLimiter;
+
+/**
+ * Write-behind buffer for inventory creates and updates, for bursts of small writes such as a gateway
+ * replaying its state after a reconnect.
+ *
+ * Updates of the same managed object are merged while they wait in the buffer: the fragments of a later
+ * update replace the same fragments of an earlier one, as they would on the platform, so only one update
+ * per managed object is sent per flush. Creates can't be merged (the objects have no id yet) but are
+ * written in the same flushes.
+ *
+ * A tenant's buffer is flushed when it holds cookbook.writeBehind.flushSize writes, and every
+ * cookbook.writeBehind.flushIntervalMillis. The writes of a flush run on cookbook.writeBehind.threads
+ * threads, through the tenant's rate limiter; a tenant has at most one flush running at a time, so
+ * updates of the same object are written in the order they were submitted. When more than
+ * cookbook.writeBehind.maxBufferedPerTenant writes are waiting, further writes are rejected with a
+ * RateLimitExceededException.
+ *
+ * On shutdown the buffer is flushed, waiting at most cookbook.writeBehind.shutdownTimeoutMillis.
+ *
+ * Usage (within a tenant scope):
+ *
+ * writeBuffer.update(mor);                                 // fire and forget
+ * ManagedObjectRepresentation created = writeBuffer.create(mor).join();
+ *
+ * Metrics: writeBehind.{tenant}.pending (gauge), writeBehind.submitted, writeBehind.merged,
+ * writeBehind.written, writeBehind.failed, writeBehind.dropped
+ */
+@Component
+public class InventoryWriteBehindBuffer {
+
+	private static final Logger log = LoggerFactory.getLogger(InventoryWriteBehindBuffer.class);
+
+	@Autowired
+	private MicroserviceSubscriptionsService subscriptionsService;
+
+	@Autowired
+	private InventoryApi inventoryApi;
+
+	@Autowired
+	private TenantRateLimiter rateLimiter;
+
+	@Autowired
+	private ManagedObjectCache managedObjectCache;
+
+	@Autowired
+	private MetricsRegistry metricsRegistry;
+
+	@Autowired
+	private TaskExecutors taskExecutors;
+
+	@Value("${cookbook.writeBehind.enabled:true}")
+	private boolean enabled;
+
+	@Value("${cookbook.writeBehind.threads:4}")
+	private int threads;
+
+	@Value("${cookbook.writeBehind.flushSize:200}")
+	private int flushSize;
+
+	@Value("${cookbook.writeBehind.flushIntervalMillis:500}")
+	private long flushIntervalMillis;
+
+	@Value("${cookbook.writeBehind.maxBufferedPerTenant:10000}")
+	private int maxBufferedPerTenant;
+
+	@Value("${cookbook.writeBehind.shutdownTimeoutMillis:30000}")
+	private long shutdownTimeoutMillis;
+
+	private ExecutorService executor;
+	private ScheduledExecutorService flushScheduler;
+
+	private final ConcurrentMap<String, TenantWriteBuffer> buffers = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		executor = taskExecutors.newExecutor("writeBehind", "write-behind-", threads);
+
+		flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "write-behind-flush"));
+		flushScheduler.scheduleWithFixedDelay(this::flushAll, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Flushes all buffered writes, then stops the flush threads
+	 */
+	@PreDestroy
+	public void shutdown() {
+		flushScheduler.shutdownNow();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMillis);
+
+		try {
+			for (TenantWriteBuffer buffer : buffers.values()) {
+				buffer.awaitFlushed(deadline);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (TimeoutException e) {
+			log.error(String.format("Write-behind buffer not flushed within %d ms on shutdown", shutdownTimeoutMillis));
+		}
+
+		executor.shutdownNow();
+		for (TenantWriteBuffer buffer : buffers.values()) {
+			buffer.drop("shutting down");
+		}
+	}
+
+	/**
+	 * Buffers the creation of a managed object of the current tenant, i.e. must be called within a tenant scope
+	 *
+	 * @return Completes with the created managed object once it has been written
+	 */
+	public CompletableFuture<ManagedObjectRepresentation> create(ManagedObjectRepresentation managedObject) {
+		String tenant = subscriptionsService.getTenant();
+		if (!enabled) {
+			return CompletableFuture.completedFuture(rateLimiter.call(tenant, () -> inventoryApi.create(managedObject)));
+		}
+		return getBuffer(tenant).add(null, managedObject);
+	}
+
+	/**
+	 * Buffers an update of a managed object of the current tenant, i.e. must be called within a tenant scope.
+	 * The managed object must have its id set.
+	 *
+	 * @return Completes with the updated managed object once the update (possibly merged with other updates
+	 * of the same object) has been written
+	 */
+	public CompletableFuture<ManagedObjectRepresentation> update(ManagedObjectRepresentation managedObject) {
+		String tenant = subscriptionsService.getTenant();
+		if (!enabled) {
+			ManagedObjectRepresentation updated = rateLimiter.call(tenant, () -> inventoryApi.update(managedObject));
+			managedObjectCache.evict(tenant, managedObject.getId().getValue());
+			return CompletableFuture.completedFuture(updated);
+		}
+		// the cached object is stale from now on, not only once the update has been written
+		managedObjectCache.evict(tenant, managedObject.getId().getValue());
+		return getBuffer(tenant).add(managedObject.getId().getValue(), managedObject);
+	}
+
+	/**
+	 * Drops a buffered, not yet written update of a managed object, e.g. because the object is being deleted.
+	 * Its future completes with null.
+	 */
+	public void discard(String tenant, String managedObjectId) {
+		TenantWriteBuffer buffer = buffers.get(tenant);
+		if (buffer != null) {
+			buffer.discard(managedObjectId);
+		}
+	}
+
+	/**
+	 * Starts a flush of the tenant's buffered writes, unless a flush of the tenant is already running
+	 */
+	public void flush(String tenant) {
+		TenantWriteBuffer buffer = buffers.get(tenant);
+		if (buffer != null) {
+			buffer.flush();
+		}
+	}
+
+	@EventListener
+	public void onSubscriptionRemoved(MicroserviceSubscriptionRemovedEvent event) {
+		TenantWriteBuffer buffer = buffers.remove(event.getTenant());
+		if (buffer != null) {
+			buffer.drop("subscription removed");
+		}
+		metricsRegistry.removeAll("writeBehind." + event.getTenant() + ".");
+	}
+
+	private void flushAll() {
+		try {
+			for (TenantWriteBuffer buffer : buffers.values()) {
+				buffer.flush();
+			}
+		} catch (Exception e) {
+			log.error("Error flushing write-behind buffers", e);
+		}
+	}
+
+	private TenantWriteBuffer getBuffer(String tenant) {
+		return buffers.computeIfAbsent(tenant, t -> {
+			TenantWriteBuffer buffer = new TenantWriteBuffer(t, this::write, executor, metricsRegistry, flushSize,
+					maxBufferedPerTenant);
+			metricsRegistry.gauge("writeBehind." + t + ".pending", buffer::size);
+			return buffer;
+		});
+	}
+
+	private ManagedObjectRepresentation write(String tenant, String managedObjectId, ManagedObjectRepresentation managedObject) {
+		ManagedObjectRepresentation result = subscriptionsService.callForTenant(tenant, () -> rateLimiter.call(tenant, () ->
+				managedObjectId == null ? inventoryApi.create(managedObject) : inventoryApi.update(managedObject)));
+		if (managedObjectId != null) {
+			managedObjectCache.evict(tenant, managedObjectId);
+		}
+		return result;
+	}
+
+}
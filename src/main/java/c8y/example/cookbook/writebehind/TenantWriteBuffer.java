@@ -0,0 +1,213 @@
+package c8y.example.cookbook.writebehind;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.ratelimit.RateLimitExceededException;
+
+/**
+ * The buffered writes of one tenant of InventoryWriteBehindBuffer: updates of the same managed object are
+ * merged, a flush starts once flushSize writes are waiting or when flush() is called, and at most one flush
+ * runs at a time.
+ */
+class TenantWriteBuffer {
+
+	private static final Logger log = LoggerFactory.getLogger(TenantWriteBuffer.class);
+
+	/**
+	 * Writes a managed object of a tenant to the platform
+	 */
+	interface InventoryWriter {
+
+		/**
+		 * @param managedObjectId null to create the managed object, otherwise its id
+		 */
+		ManagedObjectRepresentation write(String tenant, String managedObjectId, ManagedObjectRepresentation managedObject);
+	}
+
+	private final String tenant;
+	private final InventoryWriter writer;
+	private final Executor executor;
+	private final MetricsRegistry metricsRegistry;
+	private final int flushSize;
+	private final int maxBuffered;
+
+	// guarded by this; updates keyed by managed object id, creates keyed by a generated key
+	private final LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+	private long createSequence;
+	private CompletableFuture<Void> runningFlush;
+
+	TenantWriteBuffer(String tenant, InventoryWriter writer, Executor executor, MetricsRegistry metricsRegistry,
+			int flushSize, int maxBuffered) {
+		this.tenant = tenant;
+		this.writer = writer;
+		this.executor = executor;
+		this.metricsRegistry = metricsRegistry;
+		this.flushSize = flushSize;
+		this.maxBuffered = maxBuffered;
+	}
+
+	CompletableFuture<ManagedObjectRepresentation> add(String managedObjectId, ManagedObjectRepresentation managedObject) {
+		boolean flushNow;
+		PendingWrite write;
+		synchronized (this) {
+			metricsRegistry.increment("writeBehind.submitted");
+			write = managedObjectId == null ? null : pending.get(managedObjectId);
+			if (write != null) {
+				merge(write.managedObject, managedObject);
+				metricsRegistry.increment("writeBehind.merged");
+			} else {
+				if (pending.size() >= maxBuffered) {
+					metricsRegistry.increment("writeBehind.dropped");
+					throw new RateLimitExceededException(String.format(
+							"Write of tenant %s rejected: %d writes waiting to be flushed", tenant, pending.size()));
+				}
+				write = new PendingWrite(managedObjectId, copyOf(managedObject));
+				pending.put(managedObjectId != null ? managedObjectId : "create-" + createSequence++, write);
+			}
+			flushNow = pending.size() >= flushSize;
+		}
+		if (flushNow) {
+			flush();
+		}
+		return write.result;
+	}
+
+	synchronized void discard(String managedObjectId) {
+		PendingWrite write = pending.remove(managedObjectId);
+		if (write != null) {
+			write.result.complete(null);
+		}
+	}
+
+	synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Hands the pending writes to the executor, unless the previous flush is still running. Once the
+	 * flush is done, the writes which arrived in the meantime are flushed if there are enough of them.
+	 */
+	synchronized void flush() {
+		if (pending.isEmpty() || (runningFlush != null && !runningFlush.isDone())) {
+			return;
+		}
+		List<PendingWrite> writes = new ArrayList<>(pending.values());
+		pending.clear();
+
+		List<CompletableFuture<?>> results = new ArrayList<>();
+		for (PendingWrite write : writes) {
+			results.add(CompletableFuture.runAsync(() -> write(write), executor).exceptionally(e -> {
+				write.result.completeExceptionally(e);
+				return null;
+			}));
+		}
+		runningFlush = CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]));
+		runningFlush.whenComplete((result, e) -> {
+			if (size() >= flushSize) {
+				flush();
+			}
+		});
+	}
+
+	void awaitFlushed(long deadlineNanos) throws InterruptedException, TimeoutException {
+		while (true) {
+			CompletableFuture<Void> flush;
+			synchronized (this) {
+				if (pending.isEmpty() && (runningFlush == null || runningFlush.isDone())) {
+					return;
+				}
+				flush();
+				flush = runningFlush;
+			}
+			long remainingNanos = deadlineNanos - System.nanoTime();
+			if (remainingNanos <= 0) {
+				throw new TimeoutException();
+			}
+			try {
+				flush.get(remainingNanos, TimeUnit.NANOSECONDS);
+			} catch (ExecutionException e) {
+				// failures of the single writes are handled in write()
+			}
+		}
+	}
+
+	synchronized void drop(String reason) {
+		if (pending.isEmpty()) {
+			return;
+		}
+		log.warn(String.format("Dropping %d buffered writes of tenant %s: %s", pending.size(), tenant, reason));
+		metricsRegistry.add("writeBehind.dropped", pending.size());
+		for (PendingWrite write : pending.values()) {
+			write.result.completeExceptionally(new IllegalStateException("Write dropped: " + reason));
+		}
+		pending.clear();
+	}
+
+	private void write(PendingWrite write) {
+		try {
+			ManagedObjectRepresentation result = writer.write(tenant, write.managedObjectId, write.managedObject);
+			metricsRegistry.increment("writeBehind.written");
+			write.result.complete(result);
+		} catch (Exception e) {
+			metricsRegistry.increment("writeBehind.failed");
+			log.warn(String.format("Write-behind %s of tenant %s failed: %s",
+					write.managedObjectId == null ? "create" : "update of " + write.managedObjectId, tenant, e.getMessage()));
+			write.result.completeExceptionally(e);
+		}
+	}
+
+	private static ManagedObjectRepresentation copyOf(ManagedObjectRepresentation managedObject) {
+		ManagedObjectRepresentation copy = new ManagedObjectRepresentation();
+		if (managedObject.getId() != null) {
+			copy.setId(new GId(managedObject.getId().getValue()));
+		}
+		merge(copy, managedObject);
+		return copy;
+	}
+
+	/**
+	 * Applies a later update on top of an earlier one: top-level fragments of the later update replace
+	 * those of the earlier one, like they would when sent one after the other.
+	 */
+	private static void merge(ManagedObjectRepresentation target, ManagedObjectRepresentation update) {
+		if (update.getName() != null) {
+			target.setName(update.getName());
+		}
+		if (update.getType() != null) {
+			target.setType(update.getType());
+		}
+		for (Map.Entry<String, Object> fragment : update.getAttrs().entrySet()) {
+			target.set(fragment.getValue(), fragment.getKey());
+		}
+	}
+
+	/**
+	 * A buffered write; updates of the same managed object share one PendingWrite
+	 */
+	private static class PendingWrite {
+		private final String managedObjectId;
+		private final ManagedObjectRepresentation managedObject;
+		private final CompletableFuture<ManagedObjectRepresentation> result = new CompletableFuture<>();
+
+		PendingWrite(String managedObjectId, ManagedObjectRepresentation managedObject) {
+			this.managedObjectId = managedObjectId;
+			this.managedObject = managedObject;
+		}
+	}
+
+}
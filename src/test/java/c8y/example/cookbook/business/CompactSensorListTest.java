@@ -0,0 +1,110 @@
+package c8y.example.cookbook.business;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+import c8y.example.cookbook.util.ManagedObjectPOJOMapper;
+import c8y.example.cookbook.util.PolymorphicTypeRegistry;
+import junit.framework.TestCase;
+
+public class CompactSensorListTest extends TestCase {
+
+	private static final List<Sensor> SENSORS = Arrays.<Sensor>asList(
+			new TemperatureSensor("foo"), new HumiditySensor("bar"), new TemperatureSensor("foo"), new Sensor(null));
+
+	public void testPresentsListView() {
+		SensorNameDictionary dictionary = new SensorNameDictionary();
+		CompactSensorList list = CompactSensorList.of(SENSORS, dictionary, false);
+
+		assertEquals(4, list.size());
+		assertEquals(TemperatureSensor.class, list.get(0).getClass());
+		assertEquals(HumiditySensor.class, list.get(1).getClass());
+		assertEquals("foo", list.get(2).getName());
+		assertNull(list.get(3).getName());
+		assertEquals(2, dictionary.size());
+
+		list.add(1, new HumiditySensor("baz"));
+		assertEquals("baz", list.getName(1));
+		assertEquals("bar", list.getName(2));
+		list.remove(0);
+		assertEquals(HumiditySensor.class, list.getSensorClass(0));
+		assertEquals(4, list.size());
+	}
+
+	public void testGrowsOffHeap() {
+		CompactSensorList list = new CompactSensorList(1, new SensorNameDictionary(), true);
+		for (int i = 0; i < 1000; i++) {
+			list.add(i % 2 == 0 ? new TemperatureSensor("t" + i % 10) : new HumiditySensor("h" + i % 10));
+		}
+		assertEquals(1000, list.size());
+		assertEquals("h9", list.getName(999));
+		assertEquals(TemperatureSensor.class, list.getSensorClass(998));
+	}
+
+	public void testRoundTripThroughPOJOMapper() throws Exception {
+		SensorArray sensorArray = new SensorArray(CompactSensorList.of(SENSORS));
+		Map<Object, Object> managedObject = new HashMap<>();
+		managedObject.put(ManagedObjectPOJOMapper.getDefaultFragmentNameForClass(SensorArray.class),
+				ManagedObjectPOJOMapper.TRUSTED_SOURCE.toFragment(sensorArray));
+
+		SensorArray read = ManagedObjectPOJOMapper.TRUSTED_SOURCE.readPOJO(managedObject, SensorArray.class);
+
+		assertTrue(read.getSensors() instanceof CompactSensorList);
+		assertEquals(4, read.getSensors().size());
+		assertEquals(TemperatureSensor.class, read.getSensors().get(0).getClass());
+		assertEquals("bar", read.getSensors().get(1).getName());
+		assertNull(read.getSensors().get(3).getName());
+	}
+
+	public void testReadsFormatOfPlainList() throws Exception {
+		SensorArray sensorArray = new SensorArray(SENSORS);
+		SensorArray compact = new SensorArray(CompactSensorList.of(SENSORS));
+
+		String plainJson = new ObjectMapper().writeValueAsString(
+				ManagedObjectPOJOMapper.TRUSTED_SOURCE.toFragment(sensorArray).get("sensors"));
+		String compactJson = new ObjectMapper().writeValueAsString(
+				ManagedObjectPOJOMapper.TRUSTED_SOURCE.toFragment(compact).get("sensors"));
+
+		// same elements, only the type id of the list itself differs
+		assertEquals(plainJson.substring(plainJson.indexOf(',')), compactJson.substring(compactJson.indexOf(',')));
+	}
+
+	public void testRoundTripThroughTypeRegistry() throws Exception {
+		// plain Sensor not registered, the list doesn't hold one
+		ManagedObjectPOJOMapper registryMapper = ManagedObjectPOJOMapper.builder()
+				.typeRegistry(new PolymorphicTypeRegistry()
+						.register(Sensor.class, TemperatureSensor.class, "temperature")
+						.register(Sensor.class, HumiditySensor.class, "humidity"))
+				.mixIn(SensorArray.class, CompactSensorArrayMixIn.class)
+				.build();
+		SensorArray sensorArray = new SensorArray(CompactSensorList.of(SENSORS.subList(0, 3)));
+		Map<String, Object> fragment = registryMapper.toFragment(sensorArray);
+
+		JsonNode sensors = new ObjectMapper().valueToTree(fragment.get("sensors"));
+		assertEquals("temperature", sensors.get(0).get(PolymorphicTypeRegistry.TYPE_PROPERTY).asText());
+		assertEquals("humidity", sensors.get(1).get(PolymorphicTypeRegistry.TYPE_PROPERTY).asText());
+
+		Map<Object, Object> managedObject = new HashMap<>();
+		managedObject.put(ManagedObjectPOJOMapper.getDefaultFragmentNameForClass(SensorArray.class), fragment);
+		SensorArray read = registryMapper.readPOJO(managedObject, SensorArray.class);
+
+		assertTrue(read.getSensors() instanceof CompactSensorList);
+		assertEquals(3, read.getSensors().size());
+		assertEquals(TemperatureSensor.class, read.getSensors().get(0).getClass());
+		assertEquals(HumiditySensor.class, read.getSensors().get(1).getClass());
+		assertEquals("foo", read.getSensors().get(2).getName());
+	}
+
+	private abstract static class CompactSensorArrayMixIn {
+
+		@JsonDeserialize(as = CompactSensorList.class)
+		abstract void setSensors(List<Sensor> sensors);
+	}
+
+}
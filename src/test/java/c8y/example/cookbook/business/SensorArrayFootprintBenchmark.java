@@ -0,0 +1,90 @@
+package c8y.example.cookbook.business;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import junit.framework.TestCase;
+
+/**
+ * Memory footprint of sensor arrays kept in memory, as List<Sensor> and as CompactSensorList (on-heap and
+ * off-heap, with a dictionary shared by all arrays). Only run in the 'benchmark' profile:
+ *
+ * mvn -B test -Pbenchmark [-Dbenchmark.arrays=20] [-Dbenchmark.sensorsPerArray=50000] [-Dbenchmark.distinctNames=1000]
+ *
+ * Heap usage is measured after full GCs, so run it with a fixed heap (e.g. -Xms2g -Xmx2g in argLine) for
+ * stable numbers.
+ */
+public class SensorArrayFootprintBenchmark extends TestCase {
+
+	private final int arrays = Integer.getInteger("benchmark.arrays", 20);
+	private final int sensorsPerArray = Integer.getInteger("benchmark.sensorsPerArray", 50000);
+	private final int distinctNames = Integer.getInteger("benchmark.distinctNames", 1000);
+
+	public void testFootprint() {
+		long listBytes = measure("List<Sensor>", i -> new SensorArray(newSensors(i)));
+
+		SensorNameDictionary dictionary = new SensorNameDictionary();
+		long compactBytes = measure("CompactSensorList", i -> new SensorArray(CompactSensorList.of(newSensors(i), dictionary, false)));
+
+		SensorNameDictionary offHeapDictionary = new SensorNameDictionary();
+		long offHeapBytes = measure("CompactSensorList off-heap", i -> new SensorArray(CompactSensorList.of(newSensors(i), offHeapDictionary, true)));
+
+		assertTrue(String.format("compact %d bytes, list %d bytes", compactBytes, listBytes), compactBytes < listBytes / 2);
+		assertTrue(String.format("off-heap %d bytes, list %d bytes", offHeapBytes, listBytes), offHeapBytes < listBytes / 2);
+	}
+
+	/**
+	 * @return Heap plus direct memory retained by the sensor arrays
+	 */
+	private long measure(String name, IntFunction<SensorArray> factory) {
+		long heapBefore = usedHeap();
+		long directBefore = usedDirectMemory();
+
+		List<SensorArray> retained = new ArrayList<>();
+		for (int i = 0; i < arrays; i++) {
+			retained.add(factory.apply(i));
+		}
+
+		long heapBytes = usedHeap() - heapBefore;
+		long directBytes = usedDirectMemory() - directBefore;
+		int sensors = 0;
+		for (SensorArray sensorArray : retained) {
+			sensors += sensorArray.getSensors().size();
+		}
+
+		System.out.println(String.format("%-28s %,14d heap bytes %,14d direct bytes %8.1f bytes/sensor",
+				name, heapBytes, directBytes, (heapBytes + directBytes) / (double) sensors));
+		return heapBytes + directBytes;
+	}
+
+	private List<Sensor> newSensors(int array) {
+		List<Sensor> sensors = new ArrayList<>(sensorsPerArray);
+		for (int i = 0; i < sensorsPerArray; i++) {
+			// names as parsed from JSON: equal, but distinct String instances
+			String sensorName = new String("sensor-" + (i % distinctNames));
+			sensors.add(i % 2 == 0 ? new TemperatureSensor(sensorName) : new HumiditySensor(sensorName));
+		}
+		return sensors;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long usedDirectMemory() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+
+}
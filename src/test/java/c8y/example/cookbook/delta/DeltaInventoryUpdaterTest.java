@@ -0,0 +1,57 @@
+package c8y.example.cookbook.delta;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.cumulocity.model.util.ExtensibilityConverter;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+
+import c8y.example.cookbook.business.CustomDevice;
+import c8y.example.cookbook.util.FragmentDiff;
+import c8y.example.cookbook.util.ManagedObjectPOJOMapper;
+import junit.framework.TestCase;
+
+public class DeltaInventoryUpdaterTest extends TestCase {
+
+	private static final String DEVICE_FRAGMENT = ExtensibilityConverter.classToStringRepresentation(CustomDevice.class);
+
+	private static final ManagedObjectPOJOMapper DEVICE_MAPPER = ManagedObjectPOJOMapper.builder()
+			.serializer(CustomDevice.class, new CustomDevice.Serializer())
+			.deserializer(CustomDevice.class, new CustomDevice.Deserializer())
+			.build();
+
+	public void testTypedFragmentOfFetchedObjectIsUnchanged() throws IOException {
+		// as fetched: the SDK's parser has read the fragment into a CustomDevice
+		ManagedObjectRepresentation fetched = new ManagedObjectRepresentation();
+		fetched.set(new CustomDevice("Acme Corp", "foobar 15"), DEVICE_FRAGMENT);
+		fetched.set(Collections.emptyMap(), "c8y_IsDevice");
+
+		Map<String, Object> known = DeltaInventoryUpdater.toFragments(fetched.getAttrs(), DEVICE_MAPPER);
+
+		Map<String, Object> same = Collections.singletonMap(DEVICE_FRAGMENT,
+				DEVICE_MAPPER.toFragment(new CustomDevice("Acme Corp", "foobar 15")));
+		assertTrue(FragmentDiff.changedFragments(known, same).isEmpty());
+
+		Map<String, Object> changed = Collections.singletonMap(DEVICE_FRAGMENT,
+				DEVICE_MAPPER.toFragment(new CustomDevice("Acme Corp", "foobar 16")));
+		assertEquals(changed, FragmentDiff.changedFragments(known, changed));
+	}
+
+	public void testRemembersDeepCopies() {
+		Map<String, Object> position = new HashMap<>();
+		position.put("lat", 51.2);
+		position.put("lng", Arrays.asList(6.7, 6.8));
+		Map<String, Object> attrs = new HashMap<>();
+		attrs.put("c8y_Position", position);
+
+		Map<String, Object> known = DeltaInventoryUpdater.toFragments(attrs, ManagedObjectPOJOMapper.DEFAULT);
+		position.put("lat", 52.0);
+
+		assertEquals(51.2, ((Map<?, ?>) known.get("c8y_Position")).get("lat"));
+		assertTrue(known.get("c8y_Position") != position);
+	}
+
+}
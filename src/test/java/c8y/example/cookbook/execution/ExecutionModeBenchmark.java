@@ -0,0 +1,79 @@
+package c8y.example.cookbook.execution;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Throughput and thread usage of blocking tasks, like SDK calls waiting for the platform, on a fixed pool
+ * of platform threads (the PLATFORM execution mode) and on virtual threads (VIRTUAL). Only run in the
+ * 'benchmark' profile:
+ *
+ * mvn -B test -Pbenchmark [-Dbenchmark.tasks=2000] [-Dbenchmark.blockingMillis=50] [-Dbenchmark.poolThreads=8]
+ *     [-Dbenchmark.maxConcurrency=256]
+ *
+ * The virtual thread run is skipped when running on a JVM before Java 21.
+ */
+public class ExecutionModeBenchmark extends TestCase {
+
+	private final int tasks = Integer.getInteger("benchmark.tasks", 2000);
+	private final int blockingMillis = Integer.getInteger("benchmark.blockingMillis", 50);
+	private final int poolThreads = Integer.getInteger("benchmark.poolThreads", 8);
+	private final int maxConcurrency = Integer.getInteger("benchmark.maxConcurrency", 256);
+
+	public void testThroughput() throws Exception {
+		double pooled = measure("platform, " + poolThreads + " threads", Executors.newFixedThreadPool(poolThreads));
+		double pooledLarge = measure("platform, " + maxConcurrency + " threads", Executors.newFixedThreadPool(maxConcurrency));
+
+		if (!VirtualThreadExecutor.isSupported()) {
+			System.out.println("Virtual threads not supported on Java " + System.getProperty("java.version") + ", skipped");
+			return;
+		}
+		double virtual = measure("virtual, " + maxConcurrency + " concurrent", new VirtualThreadExecutor("benchmark-", maxConcurrency));
+
+		assertTrue(String.format("virtual %.0f tasks/s, platform %.0f tasks/s", virtual, pooled), virtual > pooled);
+		assertTrue(String.format("virtual %.0f tasks/s, platform %.0f tasks/s", virtual, pooledLarge), virtual > pooledLarge / 2);
+	}
+
+	/**
+	 * @return Tasks per second
+	 */
+	private double measure(String name, ExecutorService executor) throws Exception {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		threadBean.resetPeakThreadCount();
+		int threadsBefore = threadBean.getThreadCount();
+
+		long started = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>(tasks);
+		for (int i = 0; i < tasks; i++) {
+			futures.add(executor.submit(() -> {
+				try {
+					Thread.sleep(blockingMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		long elapsedNanos = System.nanoTime() - started;
+		int peakThreads = threadBean.getPeakThreadCount() - threadsBefore;
+
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		double throughput = tasks / (elapsedNanos / 1e9);
+		System.out.println(String.format("%-28s %,10.0f tasks/s %8d ms %6d additional platform threads",
+				name, throughput, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), peakThreads));
+		return throughput;
+	}
+
+}
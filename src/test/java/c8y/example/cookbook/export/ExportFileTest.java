@@ -0,0 +1,163 @@
+package c8y.example.cookbook.export;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import c8y.example.cookbook.standin.FakePlatformServer;
+import junit.framework.TestCase;
+
+public class ExportFileTest extends TestCase {
+
+	private static final String FETCH = "GET /inventory/managedObjects";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private FakePlatformServer platform;
+	private Path directory;
+	private Path file;
+
+	@Override
+	protected void setUp() throws Exception {
+		platform = new FakePlatformServer().withDatasetSize(25).start(0);
+		directory = Files.createTempDirectory("export-test");
+		file = directory.resolve(InventoryTransferService.EXPORT_FILE);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		platform.stop();
+		Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+
+	public void testResumesAfterStopMidPage() throws IOException {
+		try (ExportFile exportFile = new ExportFile(file, null, 10)) {
+			assertFalse(exportFile.isResumed());
+			exportFile.exportPages(page -> {
+				if (page == 3) {
+					throw new IllegalStateException("stopped");
+				}
+				return fetchPage(page, 10);
+			}, managedObjects -> { });
+			fail("export not stopped");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		// the process died while writing page 3: part of a gzip member follows the last checkpoint
+		byte[] partialPage = gzip(fetchPage(3, 10));
+		Files.write(file, Arrays.copyOf(partialPage, partialPage.length / 2), StandardOpenOption.APPEND);
+		long requests = platform.getRequestCount(FETCH);
+
+		List<Integer> written = new ArrayList<>();
+		try (ExportFile exportFile = new ExportFile(file, null, 10)) {
+			assertTrue(exportFile.isResumed());
+			assertEquals(3, exportFile.getCheckpoint().getNextPage());
+			exportFile.exportPages(page -> fetchPage(page, 10), managedObjects -> written.add(managedObjects.size()));
+			exportFile.complete();
+		}
+
+		// only the last page is fetched again, the partial member is cut off
+		assertEquals(Arrays.asList(5), written);
+		assertEquals(requests + 1, platform.getRequestCount(FETCH));
+		assertEquals(allNames(), readNames());
+		ExportCheckpoint checkpoint = ExportFile.readCheckpoint(directory.resolve(ExportFile.CHECKPOINT_FILE));
+		assertTrue(checkpoint.isComplete());
+		assertEquals(25, checkpoint.getObjects());
+		assertEquals(Files.size(file), checkpoint.getFileLength());
+	}
+
+	public void testStartsOverForOtherPageSizeOrCompleteExport() throws IOException {
+		try (ExportFile exportFile = new ExportFile(file, null, 10)) {
+			exportFile.exportPages(page -> {
+				if (page == 2) {
+					throw new IllegalStateException("stopped");
+				}
+				return fetchPage(page, 10);
+			}, managedObjects -> { });
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		try (ExportFile exportFile = new ExportFile(file, null, 20)) {
+			assertFalse(exportFile.isResumed());
+			assertEquals(0, Files.size(file));
+			exportFile.exportPages(page -> fetchPage(page, 20), managedObjects -> { });
+			exportFile.complete();
+		}
+		assertEquals(allNames(), readNames());
+
+		try (ExportFile exportFile = new ExportFile(file, null, 20)) {
+			assertFalse(exportFile.isResumed());
+			assertEquals(1, exportFile.getCheckpoint().getNextPage());
+		}
+	}
+
+	private List<ManagedObjectRepresentation> fetchPage(int page, int pageSize) {
+		List<ManagedObjectRepresentation> managedObjects = new ArrayList<>();
+		for (JsonNode json : get(String.format("/inventory/managedObjects?pageSize=%d&currentPage=%d", pageSize, page)).get("managedObjects")) {
+			ManagedObjectRepresentation managedObject = new ManagedObjectRepresentation();
+			managedObject.setId(GId.asGId(json.get("id").asText()));
+			managedObject.setName(json.get("name").asText());
+			managedObjects.add(managedObject);
+		}
+		return managedObjects;
+	}
+
+	private List<String> allNames() {
+		List<String> names = new ArrayList<>();
+		fetchPage(1, 100).forEach(managedObject -> names.add(managedObject.getName()));
+		return names;
+	}
+
+	/**
+	 * @return The names in the export file, which is read as one gzip stream of concatenated members
+	 */
+	private List<String> readNames() throws IOException {
+		List<String> names = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				names.add(objectMapper.readTree(line).get("name").asText());
+			}
+		}
+		return names;
+	}
+
+	private static byte[] gzip(List<ManagedObjectRepresentation> managedObjects) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			for (ManagedObjectRepresentation managedObject : managedObjects) {
+				gzip.write((managedObject.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private JsonNode get(String path) {
+		try (InputStream body = new URL(platform.getBaseUrl() + path).openStream()) {
+			return objectMapper.readTree(body);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
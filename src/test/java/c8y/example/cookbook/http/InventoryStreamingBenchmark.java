@@ -0,0 +1,210 @@
+package c8y.example.cookbook.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import c8y.example.cookbook.CookBookApp;
+import c8y.example.cookbook.standin.FakePlatformServer;
+import junit.framework.TestCase;
+
+/**
+ * Live heap of the microservice while it streams the full inventory listing (/api/inventory, through the
+ * AdaptivePager and ManagedObjectStreamWriter) from the platform stand-in, for a small and a large inventory.
+ * Only run in the 'benchmark' profile:
+ *
+ * mvn -B test -Pbenchmark [-Dbenchmark.streaming.smallDatasetSize=10000] [-Dbenchmark.streaming.datasetSize=200000]
+ *
+ * The stand-in, the microservice and the client share the JVM, so heap usage is measured after full GCs, relative
+ * to the heap before the request. Run it with a fixed heap (e.g. -Xms2g -Xmx2g in argLine) for stable numbers.
+ */
+public class InventoryStreamingBenchmark extends TestCase {
+
+	private final int smallDatasetSize = Integer.getInteger("benchmark.streaming.smallDatasetSize", 10000);
+	private final int datasetSize = Integer.getInteger("benchmark.streaming.datasetSize", 200000);
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private FakePlatformServer platform;
+	private ConfigurableApplicationContext application;
+	private CloseableHttpClient httpClient;
+
+	@Override
+	protected void tearDown() throws Exception {
+		stop();
+	}
+
+	/**
+	 * The live heap while the listing is written must not grow with the inventory, as it would if the objects or
+	 * the serialized body were collected before writing
+	 */
+	public void testHeapStaysFlatAsInventoryGrows() throws Exception {
+		long smallPeak = 0;
+		for (int objects : new int[] { smallDatasetSize, datasetSize }) {
+			start(objects);
+			for (boolean gzip : new boolean[] { false, true }) {
+				Download download = download(gzip, Math.max(1, objects / 8));
+
+				assertEquals(objects, download.objects);
+				System.out.println(String.format("%,10d objects %-6s %,14d bytes received %,12d bytes peak live heap",
+						objects, gzip ? "gzip" : "plain", download.bytes, download.peak));
+				if (objects == smallDatasetSize) {
+					smallPeak = Math.max(smallPeak, download.peak);
+				} else {
+					assertTrue(String.format("%d objects: peak %d bytes, %d objects: %d bytes", objects, download.peak,
+							smallDatasetSize, smallPeak), download.peak < smallPeak + 8 * 1024 * 1024);
+				}
+			}
+			stop();
+		}
+	}
+
+	private void start(int objects) throws Exception {
+		platform = new FakePlatformServer().withDatasetSize(objects).start(0);
+
+		application = SpringApplication.run(CookBookApp.class,
+				"--spring.profiles.active=standin",
+				"--server.port=0",
+				"--C8Y.baseURL=" + platform.getBaseUrl());
+
+		String credentials = FakePlatformServer.TENANT + "/admin:" + FakePlatformServer.PASSWORD;
+		// the client must not decompress: each request asks for gzip or not itself
+		httpClient = HttpClients.custom()
+				.disableContentCompression()
+				.setDefaultHeaders(Collections.singletonList(new BasicHeader(HttpHeaders.AUTHORIZATION,
+						"Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)))))
+				.build();
+
+		awaitReadiness(TimeUnit.SECONDS.toNanos(120));
+	}
+
+	private void stop() throws IOException {
+		if (httpClient != null) {
+			httpClient.close();
+			httpClient = null;
+		}
+		if (application != null) {
+			application.close();
+			application = null;
+		}
+		if (platform != null) {
+			platform.stop();
+			platform = null;
+		}
+	}
+
+	/**
+	 * Reads the listing one object at a time, checks that the objects arrive in id order and measures the live
+	 * heap after every sampleEvery objects, while the microservice is still writing
+	 */
+	private Download download(boolean gzip, int sampleEvery) throws IOException {
+		HttpGet get = new HttpGet(baseUrl() + "/api/inventory");
+		get.setHeader(HttpHeaders.ACCEPT_ENCODING, gzip ? "gzip" : "identity");
+
+		long baseline = usedHeap();
+		HttpResponse response = httpClient.execute(get);
+		assertEquals(200, response.getStatusLine().getStatusCode());
+		Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+		assertEquals(gzip, contentEncoding != null && "gzip".equals(contentEncoding.getValue()));
+
+		Download download = new Download();
+		try (CountingInputStream body = new CountingInputStream(response.getEntity().getContent());
+				JsonParser parser = objectMapper.getFactory().createParser(gzip ? new GZIPInputStream(body) : body)) {
+			assertEquals(JsonToken.START_ARRAY, parser.nextToken());
+			long nextId = platform.getFirstManagedObjectId();
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				JsonNode managedObject = parser.readValueAsTree();
+				assertEquals(nextId++, managedObject.get("id").asLong());
+				if (++download.objects % sampleEvery == 0) {
+					download.peak = Math.max(download.peak, usedHeap() - baseline);
+				}
+			}
+			assertEquals(JsonToken.END_ARRAY, parser.getCurrentToken());
+			download.bytes = body.bytes;
+		} finally {
+			EntityUtils.consumeQuietly(response.getEntity());
+		}
+		return download;
+	}
+
+	private String baseUrl() {
+		return "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+	}
+
+	private void awaitReadiness(long timeoutNanos) throws Exception {
+		String readinessUrl = baseUrl() + "/api/health/readiness";
+		long deadline = System.nanoTime() + timeoutNanos;
+		while (System.nanoTime() < deadline) {
+			HttpResponse response = httpClient.execute(new HttpGet(readinessUrl));
+			EntityUtils.consume(response.getEntity());
+			if (response.getStatusLine().getStatusCode() == 200) {
+				return;
+			}
+			TimeUnit.MILLISECONDS.sleep(500);
+		}
+		fail("Microservice not ready within timeout");
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static class Download {
+
+		private long objects;
+		private long bytes;
+		private long peak;
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long bytes;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				bytes++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				bytes += read;
+			}
+			return read;
+		}
+	}
+
+}
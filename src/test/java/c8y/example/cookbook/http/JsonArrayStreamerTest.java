@@ -0,0 +1,105 @@
+package c8y.example.cookbook.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import junit.framework.TestCase;
+
+public class JsonArrayStreamerTest extends TestCase {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	public void testSameJsonAsObjectMapper() throws IOException {
+		List<ManagedObjectRepresentation> managedObjects = new ArrayList<>();
+		newManagedObjects(5000).forEach(managedObjects::add);
+		JsonArrayStreamer streamer = new JsonArrayStreamer(objectMapper, new ResponseBufferPool(4096, 2, 1));
+
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		JsonArrayStreamer.Result result = streamer.write(plain, managedObjects, false);
+
+		assertEquals(5000, result.getValues());
+		assertEquals(plain.size(), result.getBytes());
+		assertEquals(objectMapper.writeValueAsString(managedObjects), plain.toString("UTF-8"));
+
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		result = streamer.write(gzipped, managedObjects, true);
+
+		assertEquals(gzipped.size(), result.getBytes());
+		assertTrue(result.getBytes() < plain.size() / 2);
+		JsonNode array = objectMapper.readTree(new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray())));
+		assertEquals(5000, array.size());
+		assertEquals("device-4999", array.get(4999).get("name").asText());
+	}
+
+	public void testBuffersAreReused() throws IOException {
+		ResponseBufferPool pool = new ResponseBufferPool(4096, 2, 1);
+		JsonArrayStreamer streamer = new JsonArrayStreamer(objectMapper, pool);
+
+		for (int i = 0; i < 3; i++) {
+			streamer.write(new ByteArrayOutputStream(), newManagedObjects(100), i % 2 == 0);
+			assertEquals(1, pool.getPooled());
+		}
+
+		try {
+			streamer.write(new ByteArrayOutputStream(), failingAfter(10), true);
+			fail("iteration failure not passed on");
+		} catch (IllegalStateException e) {
+			// buffers returned to the pool anyway
+			assertEquals(1, pool.getPooled());
+		}
+	}
+
+	private static Iterable<ManagedObjectRepresentation> newManagedObjects(int count) {
+		return () -> new Iterator<ManagedObjectRepresentation>() {
+
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < count;
+			}
+
+			@Override
+			public ManagedObjectRepresentation next() {
+				ManagedObjectRepresentation managedObject = new ManagedObjectRepresentation();
+				managedObject.setId(GId.asGId(String.valueOf(10000 + next)));
+				managedObject.setName("device-" + next);
+				managedObject.setType("c8y_SensorArray");
+				next++;
+				return managedObject;
+			}
+		};
+	}
+
+	private static Iterable<ManagedObjectRepresentation> failingAfter(int count) {
+		return () -> {
+			Iterator<ManagedObjectRepresentation> managedObjects = newManagedObjects(count).iterator();
+			return new Iterator<ManagedObjectRepresentation>() {
+
+				@Override
+				public boolean hasNext() {
+					return true;
+				}
+
+				@Override
+				public ManagedObjectRepresentation next() {
+					if (!managedObjects.hasNext()) {
+						throw new IllegalStateException("upstream failed");
+					}
+					return managedObjects.next();
+				}
+			};
+		};
+	}
+
+}
@@ -0,0 +1,168 @@
+package c8y.example.cookbook.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.WebRequest;
+
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.ratelimit.RateLimitExceededException;
+import junit.framework.TestCase;
+
+public class ManagedObjectStreamWriterTest extends TestCase {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+	private final HttpCaching httpCaching = new HttpCaching() {
+
+		@Override
+		public String cacheControl(String route) {
+			return "private, no-cache";
+		}
+	};
+	private final ManagedObjectStreamWriter writer = new ManagedObjectStreamWriter(objectMapper, httpCaching, metricsRegistry, 4096);
+	private final FakeResponse response = new FakeResponse();
+
+	public void testFirstPageFailureLeavesResponseToErrorHandling() throws IOException {
+		try {
+			writer.write(gzipRequest(), response.proxy(), "inventory.list", null, newManagedObjects(10, true));
+			fail("rate limit not passed on");
+		} catch (RateLimitExceededException e) {
+			// expected, rendered by Spring's error handling
+		}
+
+		// no gzip header which would outlive the reset, and a reset for the error response
+		assertFalse(response.committed);
+		assertFalse(response.headersSet.contains(HttpHeaders.CONTENT_ENCODING));
+		assertEquals(1, response.resets);
+		assertTrue(response.headers.isEmpty());
+		assertEquals(0, response.body.size());
+		assertEquals(1, metricsRegistry.getCount("http.stream.failures"));
+	}
+
+	public void testGzipHeaderSetWithFirstBytes() throws IOException {
+		writer.write(gzipRequest(), response.proxy(), "inventory.list", null, newManagedObjects(5000, false));
+
+		assertEquals(0, response.resets);
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals("gzip", response.headers.get(HttpHeaders.CONTENT_ENCODING));
+		assertTrue(response.contentType.startsWith("application/json"));
+		JsonNode array = objectMapper.readTree(new GZIPInputStream(new ByteArrayInputStream(response.body.toByteArray())));
+		assertEquals(5000, array.size());
+		assertEquals(1, metricsRegistry.getCount("http.stream.gzipped"));
+	}
+
+	private static WebRequest gzipRequest() {
+		Map<String, String> headers = Collections.singletonMap(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+		return (WebRequest) Proxy.newProxyInstance(WebRequest.class.getClassLoader(), new Class<?>[] { WebRequest.class },
+				(proxy, method, args) -> "getHeader".equals(method.getName()) ? headers.get(args[0]) : null);
+	}
+
+	/**
+	 * @param failing Whether fetching the next page fails after the objects, as with a 429 of the rate limiter
+	 */
+	private static Iterable<ManagedObjectRepresentation> newManagedObjects(int count, boolean failing) {
+		return () -> new Iterator<ManagedObjectRepresentation>() {
+
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return failing || next < count;
+			}
+
+			@Override
+			public ManagedObjectRepresentation next() {
+				if (next == count) {
+					throw new RateLimitExceededException("Rate limit of tenant t1 exceeded");
+				}
+				ManagedObjectRepresentation managedObject = new ManagedObjectRepresentation();
+				managedObject.setId(GId.asGId(String.valueOf(10000 + next)));
+				managedObject.setName("device-" + next);
+				next++;
+				return managedObject;
+			}
+		};
+	}
+
+	/**
+	 * The parts of a servlet response the writer uses; the response is committed with the first bytes written
+	 */
+	private static class FakeResponse {
+
+		private final Map<String, String> headers = new HashMap<>();
+		private final Set<String> headersSet = new HashSet<>();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private int status = HttpServletResponse.SC_OK;
+		private String contentType;
+		private boolean committed;
+		private int resets;
+
+		HttpServletResponse proxy() {
+			ServletOutputStream outputStream = new ServletOutputStream() {
+
+				@Override
+				public void write(int b) {
+					committed = true;
+					body.write(b);
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener writeListener) {
+				}
+			};
+			return (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+					new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+						switch (method.getName()) {
+						case "setHeader":
+							headers.put((String) args[0], (String) args[1]);
+							headersSet.add((String) args[0]);
+							return null;
+						case "setStatus":
+							status = (Integer) args[0];
+							return null;
+						case "setContentType":
+							contentType = (String) args[0];
+							return null;
+						case "isCommitted":
+							return committed;
+						case "reset":
+							headers.clear();
+							contentType = null;
+							status = HttpServletResponse.SC_OK;
+							resets++;
+							return null;
+						case "getOutputStream":
+							return outputStream;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					});
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package c8y.example.cookbook.ingest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+import com.cumulocity.rest.representation.measurement.MeasurementCollectionRepresentation;
+import com.cumulocity.rest.representation.measurement.MeasurementRepresentation;
+import com.cumulocity.sdk.client.SDKException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.standin.FakePlatformServer;
+import junit.framework.TestCase;
+
+public class TenantIngestQueueTest extends TestCase {
+
+	private static final String CREATE = "POST /measurement/measurements";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	// sources of the measurements the platform accepted, in the order they were written
+	private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+	private FakePlatformServer platform;
+
+	@Override
+	protected void setUp() throws Exception {
+		platform = new FakePlatformServer().withDatasetSize(10).start(0);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		platform.stop();
+	}
+
+	public void testOnlyReadingOfUnknownSourceIsDropped() throws Exception {
+		TenantIngestQueue queue = newQueue(3);
+		List<String> sources = Arrays.asList(source(0), source(1), source(2), source(3), source(4), "999999", source(6), source(7));
+
+		queue.add(measurements(sources));
+		queue.flush();
+		awaitFlushed();
+
+		List<String> valid = new ArrayList<>(sources);
+		valid.remove("999999");
+		assertEquals(valid, written);
+		assertEquals(7, platform.getMeasurementCount());
+		assertEquals(1, metricsRegistry.getCount("ingest.invalid"));
+		assertEquals(1, metricsRegistry.getCount("ingest.dropped"));
+		assertEquals(0, metricsRegistry.getCount("ingest.failedBatches"));
+	}
+
+	public void testServerErrorRequeuesBatchAtHeadUntilMaxAttempts() throws Exception {
+		TenantIngestQueue queue = newQueue(3);
+		platform.withErrorRate(1).withErrorStatus(503);
+
+		queue.add(measurements(Arrays.asList(source(0), source(1), source(2))));
+		queue.flush();
+		awaitFlushed();
+		assertEquals(3, queue.size());
+		assertEquals(1, metricsRegistry.getCount("ingest.failedBatches"));
+
+		// the retry goes before readings received after the failure
+		queue.add(measurements(Collections.singletonList(source(3))));
+		platform.withErrorRate(0);
+		queue.flush();
+		awaitFlushed();
+		assertEquals(Arrays.asList(source(0), source(1), source(2), source(3)), written);
+
+		platform.withErrorRate(1);
+		queue.add(measurements(Arrays.asList(source(4), source(5))));
+		for (int attempt = 1; attempt <= 3; attempt++) {
+			assertEquals(2, queue.size());
+			queue.flush();
+			awaitFlushed();
+		}
+		assertEquals(0, queue.size());
+		assertEquals(4, metricsRegistry.getCount("ingest.failedBatches"));
+		assertEquals(2, metricsRegistry.getCount("ingest.dropped"));
+		assertEquals(0, metricsRegistry.getCount("ingest.invalid"));
+		assertEquals(4, written.size());
+	}
+
+	public void testForbiddenDropsBatchWithoutRetry() throws Exception {
+		TenantIngestQueue queue = newQueue(3);
+		platform.withErrorRate(1).withErrorStatus(403);
+
+		queue.add(measurements(Arrays.asList(source(0), source(1), source(2), source(3))));
+		queue.flush();
+		awaitFlushed();
+
+		// not split either, the whole collection is forbidden
+		assertEquals(0, queue.size());
+		assertEquals(1, platform.getRequestCount(CREATE));
+		assertEquals(4, metricsRegistry.getCount("ingest.invalid"));
+		assertEquals(4, metricsRegistry.getCount("ingest.dropped"));
+		assertEquals(0, metricsRegistry.getCount("ingest.failedBatches"));
+	}
+
+	private TenantIngestQueue newQueue(int maxAttempts) {
+		return new TenantIngestQueue(FakePlatformServer.TENANT, this::create, executor, metricsRegistry, 100, 1000, maxAttempts);
+	}
+
+	/**
+	 * Posts the collection to the stand-in, failing with the status like the SDK's MeasurementApi
+	 */
+	private void create(String tenant, MeasurementCollectionRepresentation collection) {
+		List<Map<String, Object>> measurements = new ArrayList<>();
+		for (MeasurementRepresentation measurement : collection.getMeasurements()) {
+			Map<String, Object> json = new LinkedHashMap<>();
+			json.put("source", Collections.singletonMap("id", measurement.getSource().getId().getValue()));
+			json.put("type", measurement.getType());
+			measurements.add(json);
+		}
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(platform.getBaseUrl() + "/measurement/measurements").openConnection();
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setDoOutput(true);
+			try (OutputStream body = connection.getOutputStream()) {
+				objectMapper.writeValue(body, Collections.singletonMap("measurements", measurements));
+			}
+			int status = connection.getResponseCode();
+			connection.disconnect();
+			if (status >= 300) {
+				throw new SDKException(status, "Http status code: " + status);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		for (Map<String, Object> measurement : measurements) {
+			written.add((String) ((Map<?, ?>) measurement.get("source")).get("id"));
+		}
+	}
+
+	private String source(int index) {
+		return String.valueOf(platform.getFirstManagedObjectId() + index);
+	}
+
+	private static List<MeasurementRepresentation> measurements(List<String> sources) {
+		List<MeasurementRepresentation> measurements = new ArrayList<>();
+		for (String sourceId : sources) {
+			ManagedObjectRepresentation source = new ManagedObjectRepresentation();
+			source.setId(GId.asGId(sourceId));
+			MeasurementRepresentation measurement = new MeasurementRepresentation();
+			measurement.setSource(source);
+			measurement.setType(SensorKind.TEMPERATURE.getFragment());
+			measurements.add(measurement);
+		}
+		return measurements;
+	}
+
+	/**
+	 * Waits for the flush started last, which runs on the single executor thread before the empty task
+	 */
+	private void awaitFlushed() throws Exception {
+		executor.submit(() -> { }).get(10, TimeUnit.SECONDS);
+	}
+
+}
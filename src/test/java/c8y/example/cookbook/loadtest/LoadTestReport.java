@@ -0,0 +1,103 @@
+package c8y.example.cookbook.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Results of a load test run per route, stored as JSON so that a run can be compared against a baseline
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class LoadTestReport {
+
+	private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private Map<String, Object> settings = new LinkedHashMap<>();
+	private Map<String, RouteResult> routes = new LinkedHashMap<>();
+
+	public static LoadTestReport read(File file) throws IOException {
+		return objectMapper.readValue(file, LoadTestReport.class);
+	}
+
+	public void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		objectMapper.writeValue(file, this);
+	}
+
+	/**
+	 * Compares this run with a baseline run. A route regresses if its p50 or p99 latency is more than
+	 * threshold (relative) and more than minLatencyDeltaMillis (absolute) above the baseline, if its
+	 * throughput is more than threshold below the baseline, or if its error rate grew by more than threshold.
+	 *
+	 * @return Descriptions of all regressions, empty if there are none
+	 */
+	public List<String> findRegressions(LoadTestReport baseline, double threshold, double minLatencyDeltaMillis) {
+		List<String> regressions = new ArrayList<>();
+		for (Map.Entry<String, RouteResult> baselineRoute : baseline.getRoutes().entrySet()) {
+			String route = baselineRoute.getKey();
+			RouteResult expected = baselineRoute.getValue();
+			RouteResult actual = routes.get(route);
+			if (actual == null) {
+				regressions.add(String.format("%s: missing in this run", route));
+				continue;
+			}
+
+			checkLatency(regressions, route, "p50", expected.getP50Millis(), actual.getP50Millis(), threshold, minLatencyDeltaMillis);
+			checkLatency(regressions, route, "p99", expected.getP99Millis(), actual.getP99Millis(), threshold, minLatencyDeltaMillis);
+
+			if (actual.getThroughputPerSecond() < expected.getThroughputPerSecond() * (1 - threshold)) {
+				regressions.add(String.format("%s: throughput %.1f/s, baseline %.1f/s", route,
+						actual.getThroughputPerSecond(), expected.getThroughputPerSecond()));
+			}
+			if (actual.getErrorRate() > expected.getErrorRate() + threshold) {
+				regressions.add(String.format("%s: error rate %.3f, baseline %.3f", route,
+						actual.getErrorRate(), expected.getErrorRate()));
+			}
+		}
+		return regressions;
+	}
+
+	private static void checkLatency(List<String> regressions, String route, String percentile, double expectedMillis,
+			double actualMillis, double threshold, double minDeltaMillis) {
+		if (actualMillis > expectedMillis * (1 + threshold) && actualMillis - expectedMillis > minDeltaMillis) {
+			regressions.add(String.format("%s: %s %.1f ms, baseline %.1f ms", route, percentile, actualMillis, expectedMillis));
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder summary = new StringBuilder(String.format("%-60s %8s %7s %9s %8s %8s %8s %8s%n",
+				"route", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+		for (Map.Entry<String, RouteResult> route : routes.entrySet()) {
+			RouteResult result = route.getValue();
+			summary.append(String.format("%-60s %8d %7d %9.1f %8.1f %8.1f %8.1f %8.1f%n", route.getKey(), result.getCount(),
+					result.getErrorCount() + result.getDroppedCount(), result.getThroughputPerSecond(), result.getP50Millis(),
+					result.getP90Millis(), result.getP99Millis(), result.getMaxMillis()));
+		}
+		return summary.toString();
+	}
+
+	public Map<String, Object> getSettings() {
+		return settings;
+	}
+
+	public void setSettings(Map<String, Object> settings) {
+		this.settings = settings;
+	}
+
+	public Map<String, RouteResult> getRoutes() {
+		return routes;
+	}
+
+	public void setRoutes(Map<String, RouteResult> routes) {
+		this.routes = routes;
+	}
+
+}
@@ -0,0 +1,110 @@
+package c8y.example.cookbook.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Open-loop load generator: sends requests at a fixed rate, independent of how fast the service
+ * responds, the way independent clients would. A closed-loop generator (N threads sending requests
+ * back-to-back) slows down together with the service and under-reports its latency.
+ *
+ * At most maxInFlight requests are outstanding; requests due while that many are in flight are
+ * counted as dropped.
+ */
+class OpenLoopLoadGenerator {
+
+	private final CloseableHttpClient httpClient;
+	private final String baseUrl;
+	private final RequestMix requestMix;
+	private final long firstManagedObjectId;
+	private final int managedObjectCount;
+	private final Semaphore inFlight;
+
+	OpenLoopLoadGenerator(CloseableHttpClient httpClient, String baseUrl, RequestMix requestMix, long firstManagedObjectId,
+			int managedObjectCount, int maxInFlight) {
+		this.httpClient = httpClient;
+		this.baseUrl = baseUrl;
+		this.requestMix = requestMix;
+		this.firstManagedObjectId = firstManagedObjectId;
+		this.managedObjectCount = managedObjectCount;
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Sends requests at ratePerSecond for the given duration and waits for all of them to complete.
+	 * 
+	 * @param results Null to send requests without recording them, e.g. for warm-up
+	 */
+	void run(double ratePerSecond, long durationNanos, Map<String, RouteResult> results) throws InterruptedException {
+		ExecutorService workers = Executors.newCachedThreadPool();
+		long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+		long start = System.nanoTime();
+		long end = start + durationNanos;
+
+		for (long intendedStart = start; intendedStart < end; intendedStart += intervalNanos) {
+			long waitNanos = intendedStart - System.nanoTime();
+			if (waitNanos > 0) {
+				LockSupport.parkNanos(waitNanos);
+			}
+
+			RequestMix.Route route = requestMix.next();
+			RouteResult result = results == null ? null : results.computeIfAbsent(route.getName(), r -> new RouteResult());
+			if (!inFlight.tryAcquire()) {
+				if (result != null) {
+					result.recordDropped();
+				}
+				continue;
+			}
+
+			long scheduledStart = intendedStart;
+			workers.execute(() -> {
+				try {
+					send(route, scheduledStart, result);
+				} finally {
+					inFlight.release();
+				}
+			});
+		}
+
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	private void send(RequestMix.Route route, long intendedStart, RouteResult result) {
+		String path = route.path.replace("{id}", String.valueOf(firstManagedObjectId + ThreadLocalRandom.current().nextInt(managedObjectCount)));
+		HttpGet request = new HttpGet(baseUrl + path);
+		boolean success;
+		try {
+			HttpResponse response = httpClient.execute(request);
+			EntityUtils.consume(response.getEntity());
+			success = response.getStatusLine().getStatusCode() < 400;
+		} catch (Exception e) {
+			success = false;
+		}
+
+		if (result != null) {
+			long latencyNanos = System.nanoTime() - intendedStart;
+			if (success) {
+				result.recordSuccess(latencyNanos);
+			} else {
+				result.recordError(latencyNanos);
+			}
+		}
+	}
+
+	static Map<String, RouteResult> newResults() {
+		return new ConcurrentHashMap<>();
+	}
+
+}
@@ -0,0 +1,66 @@
+package c8y.example.cookbook.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Weighted mix of requests, parsed from a comma separated list of 'path:weight' entries, e.g.
+ * 
+ * /api/inventory/{id}:80,/api/inventory?pageSize=100&currentPage=1:5,/configuration/tenantOptions:15
+ * 
+ * {id} in a path is replaced with a random managed object id of the stand-in's dataset.
+ */
+class RequestMix {
+
+	static class Route {
+		final String path;
+		final int weight;
+
+		Route(String path, int weight) {
+			this.path = path;
+			this.weight = weight;
+		}
+
+		String getName() {
+			return "GET " + path;
+		}
+	}
+
+	private final List<Route> routes = new ArrayList<>();
+	private int totalWeight;
+
+	static RequestMix parse(String mix) {
+		RequestMix requestMix = new RequestMix();
+		for (String entry : mix.split(",")) {
+			int separator = entry.lastIndexOf(':');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Request mix entry without weight: " + entry);
+			}
+			requestMix.add(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+		}
+		return requestMix;
+	}
+
+	void add(String path, int weight) {
+		routes.add(new Route(path, weight));
+		totalWeight += weight;
+	}
+
+	List<Route> getRoutes() {
+		return Collections.unmodifiableList(routes);
+	}
+
+	Route next() {
+		int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+		for (Route route : routes) {
+			pick -= route.weight;
+			if (pick < 0) {
+				return route;
+			}
+		}
+		return routes.get(routes.size() - 1);
+	}
+
+}
@@ -0,0 +1,152 @@
+package c8y.example.cookbook.loadtest;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import c8y.example.cookbook.CookBookApp;
+import c8y.example.cookbook.standin.FakePlatformServer;
+import junit.framework.TestCase;
+
+/**
+ * Boots the microservice against the platform stand-in and measures throughput and tail latency of
+ * its REST endpoints under an open-loop load. Only run in the 'loadtest' profile:
+ *
+ * mvn -B test -Ploadtest [-Dloadtest.rate=500] [-Dloadtest.durationSeconds=60] [-Dloadtest.updateBaseline=true]
+ *
+ * The report is written to loadtest.report and compared against the baseline report in loadtest.baseline;
+ * the test fails if any route regressed by more than loadtest.threshold. Run with loadtest.updateBaseline=true
+ * on the reference machine to store the current results as the new baseline.
+ *
+ * See "Load testing the REST endpoints" in README.md for all settings and their defaults.
+ */
+public class RestEndpointLoadTest extends TestCase {
+
+	private static final String DEFAULT_MIX = "/api/inventory/{id}:70,"
+			+ "/api/inventory?pageSize=100&currentPage=1:10,"
+			+ "/api/inventory:2,"
+			+ "/configuration/tenantOptions:18";
+
+	private FakePlatformServer platform;
+	private ConfigurableApplicationContext application;
+	private CloseableHttpClient httpClient;
+
+	@Override
+	protected void setUp() throws Exception {
+		platform = new FakePlatformServer()
+				.withDatasetSize(Integer.getInteger("loadtest.datasetSize", 10000))
+				.withLatency(Long.getLong("loadtest.platformLatencyMillis", 20), Long.getLong("loadtest.platformJitterMillis", 10))
+				.withErrorRate(Double.parseDouble(System.getProperty("loadtest.platformErrorRate", "0")))
+				.start(0);
+
+		application = SpringApplication.run(CookBookApp.class,
+				"--spring.profiles.active=standin",
+				"--server.port=0",
+				"--C8Y.baseURL=" + platform.getBaseUrl());
+
+		String credentials = FakePlatformServer.TENANT + "/admin:" + FakePlatformServer.PASSWORD;
+		int maxInFlight = Integer.getInteger("loadtest.maxInFlight", 200);
+		httpClient = HttpClients.custom()
+				.setMaxConnTotal(maxInFlight).setMaxConnPerRoute(maxInFlight)
+				.setDefaultHeaders(Collections.singletonList(new BasicHeader(HttpHeaders.AUTHORIZATION,
+						"Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)))))
+				.build();
+
+		awaitReadiness(TimeUnit.SECONDS.toNanos(Long.getLong("loadtest.startupTimeoutSeconds", 120)));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (httpClient != null) {
+			httpClient.close();
+		}
+		if (application != null) {
+			application.close();
+		}
+		if (platform != null) {
+			platform.stop();
+		}
+	}
+
+	public void testRestEndpointsThroughputAndLatency() throws Exception {
+		double rate = Double.parseDouble(System.getProperty("loadtest.rate", "200"));
+		long durationSeconds = Long.getLong("loadtest.durationSeconds", 30);
+		long warmupSeconds = Long.getLong("loadtest.warmupSeconds", 10);
+		int maxInFlight = Integer.getInteger("loadtest.maxInFlight", 200);
+		String mix = System.getProperty("loadtest.mix", DEFAULT_MIX);
+
+		RequestMix requestMix = RequestMix.parse(mix);
+		String baseUrl = "http://localhost:" + application.getEnvironment().getProperty("local.server.port");
+
+		new OpenLoopLoadGenerator(httpClient, baseUrl, requestMix, platform.getFirstManagedObjectId(),
+				platform.getManagedObjectCount(), maxInFlight)
+				.run(rate, TimeUnit.SECONDS.toNanos(warmupSeconds), null);
+
+		Map<String, RouteResult> results = OpenLoopLoadGenerator.newResults();
+		long started = System.nanoTime();
+		new OpenLoopLoadGenerator(httpClient, baseUrl, requestMix, platform.getFirstManagedObjectId(),
+				platform.getManagedObjectCount(), maxInFlight)
+				.run(rate, TimeUnit.SECONDS.toNanos(durationSeconds), results);
+		long durationNanos = System.nanoTime() - started;
+
+		LoadTestReport report = new LoadTestReport();
+		report.getSettings().put("rate", rate);
+		report.getSettings().put("durationSeconds", durationSeconds);
+		report.getSettings().put("mix", mix);
+		report.getSettings().put("datasetSize", platform.getManagedObjectCount());
+		for (Map.Entry<String, RouteResult> result : new TreeMap<>(results).entrySet()) {
+			result.getValue().summarize(durationNanos);
+			report.getRoutes().put(result.getKey(), result.getValue());
+		}
+
+		File reportFile = new File(System.getProperty("loadtest.report", "target/loadtest/report.json"));
+		report.write(reportFile);
+		System.out.println("Load test report (" + reportFile + "):\n" + report);
+
+		File baselineFile = new File(System.getProperty("loadtest.baseline", "src/test/resources/loadtest/baseline.json"));
+		if (Boolean.getBoolean("loadtest.updateBaseline")) {
+			report.write(baselineFile);
+			System.out.println("Stored as new baseline: " + baselineFile);
+			return;
+		}
+		if (!baselineFile.exists()) {
+			System.out.println("No baseline at " + baselineFile + ", run with -Dloadtest.updateBaseline=true to create one");
+			return;
+		}
+
+		List<String> regressions = report.findRegressions(LoadTestReport.read(baselineFile),
+				Double.parseDouble(System.getProperty("loadtest.threshold", "0.2")),
+				Double.parseDouble(System.getProperty("loadtest.minLatencyDeltaMillis", "5")));
+		assertTrue("Regressions against baseline " + baselineFile + ": " + regressions, regressions.isEmpty());
+	}
+
+	private void awaitReadiness(long timeoutNanos) throws Exception {
+		String readinessUrl = "http://localhost:" + application.getEnvironment().getProperty("local.server.port") + "/api/health/readiness";
+		long deadline = System.nanoTime() + timeoutNanos;
+		while (System.nanoTime() < deadline) {
+			HttpResponse response = httpClient.execute(new HttpGet(readinessUrl));
+			EntityUtils.consume(response.getEntity());
+			if (response.getStatusLine().getStatusCode() == 200) {
+				return;
+			}
+			TimeUnit.MILLISECONDS.sleep(500);
+		}
+		fail("Microservice not ready within timeout");
+	}
+
+}
@@ -0,0 +1,149 @@
+package c8y.example.cookbook.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Latency histogram and counters of a single route. Latencies are measured from the intended start 
+ * of the request (not the actual one), so that a slow service can't hide its latency by slowing down 
+ * the load generator (coordinated omission).
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RouteResult {
+
+	@JsonIgnore
+	private final ConcurrentHistogram latencyMicros = new ConcurrentHistogram(3);
+	@JsonIgnore
+	private final LongAdder errors = new LongAdder();
+	@JsonIgnore
+	private final LongAdder dropped = new LongAdder();
+
+	private long count;
+	private long errorCount;
+	private long droppedCount;
+	private double throughputPerSecond;
+	private double p50Millis;
+	private double p90Millis;
+	private double p99Millis;
+	private double p999Millis;
+	private double maxMillis;
+
+	void recordSuccess(long latencyNanos) {
+		latencyMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+	}
+
+	void recordError(long latencyNanos) {
+		latencyMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+		errors.increment();
+	}
+
+	/**
+	 * The generator had too many requests in flight and could not send this one
+	 */
+	void recordDropped() {
+		dropped.increment();
+	}
+
+	/**
+	 * Computes the summary values from the histogram
+	 */
+	void summarize(long durationNanos) {
+		count = latencyMicros.getTotalCount();
+		errorCount = errors.sum();
+		droppedCount = dropped.sum();
+		throughputPerSecond = (count - errorCount) / (durationNanos / 1e9);
+		p50Millis = percentileMillis(50);
+		p90Millis = percentileMillis(90);
+		p99Millis = percentileMillis(99);
+		p999Millis = percentileMillis(99.9);
+		maxMillis = latencyMicros.getMaxValue() / 1000.0;
+	}
+
+	private double percentileMillis(double percentile) {
+		return latencyMicros.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	public double getErrorRate() {
+		return count == 0 ? 0 : (double) (errorCount + droppedCount) / (count + droppedCount);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	public double getThroughputPerSecond() {
+		return throughputPerSecond;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public double getP90Millis() {
+		return p90Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public double getP999Millis() {
+		return p999Millis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	// setters for reading a stored report
+
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	public void setErrorCount(long errorCount) {
+		this.errorCount = errorCount;
+	}
+
+	public void setDroppedCount(long droppedCount) {
+		this.droppedCount = droppedCount;
+	}
+
+	public void setThroughputPerSecond(double throughputPerSecond) {
+		this.throughputPerSecond = throughputPerSecond;
+	}
+
+	public void setP50Millis(double p50Millis) {
+		this.p50Millis = p50Millis;
+	}
+
+	public void setP90Millis(double p90Millis) {
+		this.p90Millis = p90Millis;
+	}
+
+	public void setP99Millis(double p99Millis) {
+		this.p99Millis = p99Millis;
+	}
+
+	public void setP999Millis(double p999Millis) {
+		this.p999Millis = p999Millis;
+	}
+
+	public void setMaxMillis(double maxMillis) {
+		this.maxMillis = maxMillis;
+	}
+
+}
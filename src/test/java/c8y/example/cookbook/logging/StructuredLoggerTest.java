@@ -0,0 +1,79 @@
+package c8y.example.cookbook.logging;
+
+import java.util.Collections;
+
+import org.slf4j.LoggerFactory;
+
+import com.cumulocity.model.idtype.GId;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import junit.framework.TestCase;
+
+public class StructuredLoggerTest extends TestCase {
+
+	private final StructuredLogger log = StructuredLogger.getLogger(StructuredLoggerTest.class);
+	private final Logger logger = (Logger) LoggerFactory.getLogger(StructuredLoggerTest.class);
+	private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+	@Override
+	protected void setUp() {
+		appender.start();
+		logger.addAppender(appender);
+		logger.setLevel(Level.INFO);
+	}
+
+	@Override
+	protected void tearDown() {
+		logger.detachAppender(appender);
+		logger.setLevel(null);
+	}
+
+	public void testWritesFields() {
+		log.info("Fetched managed object").tenant("t100").id(GId.asGId("42")).latencyMillis(12).field("name", "my device").log();
+
+		assertEquals("Fetched managed object tenant=t100 id=42 latencyMillis=12 name=\"my device\"", message(0));
+		assertEquals("t100", appender.list.get(0).getMDCPropertyMap().get("tenant"));
+	}
+
+	public void testRendersPayloadsOnlyAtDebug() {
+		NotSerialized payload = new NotSerialized();
+		log.info("Fetched").json("payload", payload).log();
+		log.debug("Not logged").json("payload", payload).log();
+		assertFalse(payload.serialized);
+		assertEquals("Fetched", message(0));
+
+		logger.setLevel(Level.DEBUG);
+		log.info("Fetched").json("payload", Collections.singletonMap("a", 1)).log();
+		assertEquals("Fetched payload={\"a\":1}", message(1));
+	}
+
+	public void testSamplesAndRateLimits() {
+		for (int i = 0; i < 10; i++) {
+			log.info("Sampled").sampled(5).log();
+		}
+		assertEquals(2, appender.list.size());
+		assertEquals("Sampled suppressed=4", message(1));
+
+		for (int i = 0; i < 100; i++) {
+			log.info("Limited").rateLimited(10).log();
+		}
+		assertEquals(12, appender.list.size());
+	}
+
+	private String message(int index) {
+		return appender.list.get(index).getFormattedMessage();
+	}
+
+	public static class NotSerialized {
+		boolean serialized;
+
+		public String getValue() {
+			serialized = true;
+			return "value";
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package c8y.example.cookbook.metrics;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+	public void testBuckets() {
+		assertEquals(0, Histogram.bucketOf(0));
+		assertEquals(0, Histogram.bucketOf(1));
+		assertEquals(1, Histogram.bucketOf(2));
+		assertEquals(2, Histogram.bucketOf(3));
+		assertEquals(2, Histogram.bucketOf(4));
+		assertEquals(10, Histogram.bucketOf(1024));
+		assertEquals(11, Histogram.bucketOf(1025));
+	}
+
+	public void testPercentilesAreBucketUpperBounds() {
+		Histogram histogram = new Histogram();
+		for (int i = 0; i < 98; i++) {
+			histogram.record(10);
+		}
+		histogram.record(900);
+		histogram.record(3000);
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(16, histogram.getPercentile(0.5));
+		assertEquals(16, histogram.getPercentile(0.95));
+		assertEquals(1024, histogram.getPercentile(0.99));
+		// capped at the maximum
+		assertEquals(3000, histogram.getPercentile(1.0));
+		assertEquals(3000, histogram.getMax());
+	}
+
+	public void testEmpty() {
+		Histogram histogram = new Histogram();
+
+		assertEquals(0, histogram.getPercentile(0.99));
+		assertEquals(0.0, histogram.getMean(), 0.0);
+	}
+
+	public void testSnapshotOfRegistry() {
+		MetricsRegistry metricsRegistry = new MetricsRegistry();
+		metricsRegistry.histogram("jobs.test.millis").record(5);
+
+		assertEquals(1L, metricsRegistry.snapshot("jobs.").get("jobs.test.millis.count"));
+		assertEquals(5L, metricsRegistry.snapshot("jobs.").get("jobs.test.millis.p99"));
+
+		metricsRegistry.removeAll("jobs.");
+		assertTrue(metricsRegistry.snapshot("jobs.").isEmpty());
+	}
+
+}
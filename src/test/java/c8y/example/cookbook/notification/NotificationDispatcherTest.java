@@ -0,0 +1,143 @@
+package c8y.example.cookbook.notification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import c8y.example.cookbook.notification.InventoryNotification.Action;
+import junit.framework.TestCase;
+
+public class NotificationDispatcherTest extends TestCase {
+
+	private static final int TENANTS = 6;
+	private static final int NOTIFICATIONS_PER_TENANT = 20000;
+
+	private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+	public void testRingBufferFullAndEmpty() {
+		RingBuffer<String> buffer = new RingBuffer<>(3);
+		assertEquals(4, buffer.getCapacity());
+		assertNull(buffer.poll());
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(buffer.offer("e" + i));
+		}
+		assertFalse(buffer.offer("e4"));
+		assertEquals(4, buffer.size());
+
+		assertEquals("e0", buffer.poll());
+		assertTrue(buffer.offer("e4"));
+		for (int i = 1; i <= 4; i++) {
+			assertEquals("e" + i, buffer.poll());
+		}
+		assertNull(buffer.poll());
+		assertEquals(0, buffer.size());
+	}
+
+	public void testPreservesOrderPerTenant() throws InterruptedException {
+		NotificationDispatcher dispatcher = new NotificationDispatcher("test-dispatcher-", 3, 256, 10000, metricsRegistry);
+		Map<String, List<String>> received = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(TENANTS * NOTIFICATIONS_PER_TENANT);
+		dispatcher.register(notification -> {
+			// a tenant's notifications are only handled by one thread at a time
+			received.computeIfAbsent(notification.getTenant(), t -> new ArrayList<>()).add(notification.getManagedObjectId());
+			done.countDown();
+		});
+		dispatcher.start();
+
+		// one producer per tenant, as with the per-tenant platform subscriptions
+		List<Thread> producers = new ArrayList<>();
+		for (int t = 0; t < TENANTS; t++) {
+			String tenant = "t" + t;
+			producers.add(new Thread(() -> {
+				for (int i = 0; i < NOTIFICATIONS_PER_TENANT; i++) {
+					assertTrue(dispatcher.publish(new InventoryNotification(tenant, Action.UPDATE, Integer.toString(i), null)));
+				}
+			}));
+		}
+		producers.forEach(Thread::start);
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		dispatcher.shutdown(1000);
+
+		assertEquals(TENANTS, received.size());
+		for (List<String> ids : received.values()) {
+			assertEquals(NOTIFICATIONS_PER_TENANT, ids.size());
+			for (int i = 0; i < NOTIFICATIONS_PER_TENANT; i++) {
+				assertEquals(Integer.toString(i), ids.get(i));
+			}
+		}
+		assertEquals(TENANTS * NOTIFICATIONS_PER_TENANT, metricsRegistry.getCount("notifications.dispatched"));
+		assertEquals(0, metricsRegistry.getCount("notifications.dropped"));
+	}
+
+	public void testHandlerErrorsDontStopDispatching() throws InterruptedException {
+		NotificationDispatcher dispatcher = new NotificationDispatcher("test-dispatcher-", 1, 16, 1000, metricsRegistry);
+		CountDownLatch done = new CountDownLatch(2);
+		dispatcher.register(notification -> {
+			throw new IllegalStateException("failed");
+		});
+		dispatcher.register(notification -> done.countDown());
+		dispatcher.start();
+
+		dispatcher.publish(new InventoryNotification("t1", Action.CREATE, "1", null));
+		dispatcher.publish(new InventoryNotification("t1", Action.DELETE, "1", null));
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		dispatcher.shutdown(1000);
+		assertEquals(2, metricsRegistry.getCount("notifications.handlerErrors"));
+	}
+
+	public void testParkedWorkerIsWokenByPublish() throws InterruptedException {
+		NotificationDispatcher dispatcher = new NotificationDispatcher("test-parking-", 1, 16, 1000, metricsRegistry);
+		dispatcher.start();
+
+		for (int i = 0; i < 5; i++) {
+			// parked without a timeout, only publish() can wake it
+			Thread worker = awaitParked("test-parking-0");
+			dispatcher.publish(new InventoryNotification("t1", Action.UPDATE, String.valueOf(i), null));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (metricsRegistry.getCount("notifications.dispatched") == i && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals(worker.getName(), i + 1, metricsRegistry.getCount("notifications.dispatched"));
+		}
+		dispatcher.shutdown(1000);
+	}
+
+	/**
+	 * @return The worker, once it's parked without a timeout
+	 */
+	private static Thread awaitParked(String name) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (System.nanoTime() < deadline) {
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				if (thread.getName().equals(name) && thread.getState() == Thread.State.WAITING) {
+					return thread;
+				}
+			}
+			Thread.sleep(1);
+		}
+		fail(name + " didn't park");
+		return null;
+	}
+
+	public void testDropsWhenFull() throws InterruptedException {
+		NotificationDispatcher dispatcher = new NotificationDispatcher("test-dispatcher-", 1, 2, 1, metricsRegistry);
+		// not started, nothing is consumed
+		assertTrue(dispatcher.publish(new InventoryNotification("t1", Action.UPDATE, "1", null)));
+		assertTrue(dispatcher.publish(new InventoryNotification("t1", Action.UPDATE, "2", null)));
+		assertFalse(dispatcher.publish(new InventoryNotification("t1", Action.UPDATE, "3", null)));
+
+		assertEquals(2, dispatcher.getQueued());
+		assertEquals(1, metricsRegistry.getCount("notifications.dropped"));
+	}
+
+}
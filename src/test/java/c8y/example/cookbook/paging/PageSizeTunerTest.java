@@ -0,0 +1,63 @@
+package c8y.example.cookbook.paging;
+
+import junit.framework.TestCase;
+
+public class PageSizeTunerTest extends TestCase {
+
+	public void testGrowsWhileLargerPagesAreFaster() {
+		PageSizeTuner tuner = new PageSizeTuner(125, 2000, 500, 5000, 8 * 1024 * 1024);
+
+		// fixed overhead of 100 ms per page plus 0.1 ms per object: larger pages are always faster
+		for (int i = 0; i < 10; i++) {
+			int pageSize = tuner.getPageSize();
+			tuner.record(pageSize, pageSize, 100 + pageSize / 10, pageSize * 1000L);
+		}
+
+		assertEquals(2000, tuner.getPageSize());
+	}
+
+	public void testShrinksWhenPagesAreTooSlowOrTooLarge() {
+		PageSizeTuner tuner = new PageSizeTuner(125, 2000, 2000, 5000, 8 * 1024 * 1024);
+
+		tuner.record(2000, 2000, 6000, 1000);
+		assertEquals(1000, tuner.getPageSize());
+
+		tuner.record(1000, 1000, 100, 10 * 1024 * 1024);
+		assertEquals(500, tuner.getPageSize());
+
+		// doubling would exceed the byte limit
+		tuner.record(500, 500, 100, 5 * 1024 * 1024);
+		assertEquals(500, tuner.getPageSize());
+	}
+
+	public void testStaysAtFastestPageSize() {
+		PageSizeTuner tuner = new PageSizeTuner(125, 2000, 250, 5000, 8 * 1024 * 1024);
+
+		// 250 objects in 100 ms, 500 objects in 400 ms: the larger page is slower
+		tuner.record(250, 250, 100, 1000);
+		assertEquals(500, tuner.getPageSize());
+		tuner.record(500, 500, 400, 1000);
+		assertEquals(250, tuner.getPageSize());
+		tuner.record(250, 250, 100, 1000);
+		assertEquals(250, tuner.getPageSize());
+	}
+
+	public void testPageSizeAlignsWithOffset() {
+		PageSizeTuner tuner = new PageSizeTuner(100, 1000, 800, 5000, 8 * 1024 * 1024);
+
+		assertEquals(800, tuner.getPageSize());
+		assertEquals(800, tuner.getPageSize(1600));
+		assertEquals(400, tuner.getPageSize(1200));
+		assertEquals(100, tuner.getPageSize(300));
+	}
+
+	public void testShortLastPageDoesNotCountTowardsThroughput() {
+		PageSizeTuner tuner = new PageSizeTuner(125, 2000, 500, 5000, 8 * 1024 * 1024);
+
+		tuner.record(500, 3, 100, 1000);
+
+		assertEquals(500, tuner.getPageSize());
+		assertEquals(0.0, tuner.getObjectsPerSecond());
+	}
+
+}
@@ -0,0 +1,106 @@
+package c8y.example.cookbook.query;
+
+import static c8y.example.cookbook.query.InventoryQuery.and;
+import static c8y.example.cookbook.query.InventoryQuery.eq;
+import static c8y.example.cookbook.query.InventoryQuery.has;
+import static c8y.example.cookbook.query.InventoryQuery.or;
+import static c8y.example.cookbook.query.InventoryQuery.param;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.model.util.ExtensibilityConverter;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+
+import c8y.example.cookbook.business.CustomDevice;
+import junit.framework.TestCase;
+
+public class InventoryQueryTest extends TestCase {
+
+	private static final InventoryQuery DEVICES_BY_NAME = InventoryQuery.where(and(
+			has("c8y_IsDevice"),
+			or(eq("name", param("name")), eq("c8y_Hardware.model", "ACME*"))))
+			.orderBy("name", true);
+
+	public void testRendersQueryString() {
+		assertEquals("$filter=(has(c8y_IsDevice) and (name eq 'foo' or c8y_Hardware.model eq 'ACME*')) $orderby=name asc",
+				DEVICES_BY_NAME.bind("name", "foo").getQueryString());
+		assertEquals("has(c8y_IsDevice) and (name eq :name or c8y_Hardware.model eq 'ACME*')", DEVICES_BY_NAME.toString());
+		assertEquals("c8y_Battery.level eq 90 and bygroupid(42)",
+				InventoryQuery.where(and(eq("c8y_Battery.level", 90), InventoryQuery.bygroupid(42))).bind().getQueryString());
+	}
+
+	public void testEscapesBoundValues() {
+		CompiledQuery query = DEVICES_BY_NAME.bind("name", "x' or name eq '*");
+
+		assertTrue(query.getQueryString().contains("name eq 'x'' or name eq ''*'"));
+		assertFalse(query.getEncodedQueryString().contains(" "));
+		try {
+			InventoryQuery.where(InventoryQuery.bygroupid(param("group"))).bind("group", "1) or has(x");
+			fail("Invalid group id accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testCachesCompiledQueries() {
+		assertSame(DEVICES_BY_NAME.bind("name", "foo"), DEVICES_BY_NAME.bind("name", "foo"));
+		assertFalse(DEVICES_BY_NAME.bind("name", "foo") == DEVICES_BY_NAME.bind("name", "bar"));
+		try {
+			DEVICES_BY_NAME.bind();
+			fail("Missing parameter accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testEvaluatesLocally() {
+		ManagedObjectRepresentation foo = device("1", "foo", "Other");
+		ManagedObjectRepresentation acme = device("2", "bar", "ACME 3000");
+		ManagedObjectRepresentation noDevice = new ManagedObjectRepresentation();
+		noDevice.setName("foo");
+
+		CompiledQuery query = DEVICES_BY_NAME.bind("name", "foo");
+		assertTrue(query.matches(foo));
+		assertTrue(query.matches(acme));
+		assertFalse(query.matches(noDevice));
+		assertFalse(DEVICES_BY_NAME.bind("name", "fo").matches(foo));
+
+		List<ManagedObjectRepresentation> result = query.filter(Arrays.asList(foo, noDevice, acme));
+		assertEquals(Arrays.asList(acme, foo), result);
+	}
+
+	public void testEvaluatesTypedFragments() {
+		InventoryQuery byManufacturer = InventoryQuery.where(eq(
+				ExtensibilityConverter.classToStringRepresentation(CustomDevice.class) + ".manufacturer", param("manufacturer")))
+				.orderBy(ExtensibilityConverter.classToStringRepresentation(CustomDevice.class) + ".model", true);
+		// as fetched from the platform: the SDK's parser has read the fragment into a CustomDevice
+		ManagedObjectRepresentation acme15 = new ManagedObjectRepresentation();
+		acme15.set(new CustomDevice("Acme Corp", "foobar 15"));
+		ManagedObjectRepresentation acme12 = new ManagedObjectRepresentation();
+		acme12.set(new CustomDevice("Acme Corp", "foobar 12"));
+		ManagedObjectRepresentation other = new ManagedObjectRepresentation();
+		other.set(new CustomDevice("Other Inc", "foobar 15"));
+
+		assertTrue(byManufacturer.bind("manufacturer", "Acme Corp").matches(acme15));
+		assertTrue(byManufacturer.bind("manufacturer", "Acme*").matches(acme15));
+		assertFalse(byManufacturer.bind("manufacturer", "Acme*").matches(other));
+		assertEquals(Arrays.asList(acme12, acme15), byManufacturer.bind("manufacturer", "Acme*").filter(Arrays.asList(acme15, other, acme12)));
+	}
+
+	private static ManagedObjectRepresentation device(String id, String name, String model) {
+		ManagedObjectRepresentation managedObject = new ManagedObjectRepresentation();
+		managedObject.setId(GId.asGId(id));
+		managedObject.setName(name);
+		managedObject.set(Collections.emptyMap(), "c8y_IsDevice");
+		Map<String, Object> hardware = new HashMap<>();
+		hardware.put("model", model);
+		managedObject.set(hardware, "c8y_Hardware");
+		return managedObject;
+	}
+
+}
@@ -0,0 +1,62 @@
+package c8y.example.cookbook.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class TokenBucketTest extends TestCase {
+
+	public void testBurstIsAvailableAtOnce() {
+		TokenBucket bucket = new TokenBucket(1, 5);
+
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, bucket.tryReserve(0));
+		}
+		assertEquals(-1, bucket.tryReserve(0));
+	}
+
+	public void testReservationsWaitInArrivalOrder() {
+		TokenBucket bucket = new TokenBucket(10, 1);
+		assertEquals(0, bucket.tryReserve(0));
+
+		long first = bucket.tryReserve(TimeUnit.SECONDS.toNanos(1));
+		long second = bucket.tryReserve(TimeUnit.SECONDS.toNanos(1));
+
+		// one token every 100 ms
+		assertTrue("first " + first, first > TimeUnit.MILLISECONDS.toNanos(50) && first <= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue("second " + second, second > first + TimeUnit.MILLISECONDS.toNanos(90));
+		// a third would have to wait about 300 ms
+		assertEquals(-1, bucket.tryReserve(TimeUnit.MILLISECONDS.toNanos(250)));
+		assertTrue(bucket.getStoredPermits() < -1);
+	}
+
+	public void testRefillsAtRateUpToBurst() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(20, 10);
+		for (int i = 0; i < 10; i++) {
+			bucket.tryReserve(0);
+		}
+		assertTrue(bucket.getStoredPermits() < 1);
+
+		Thread.sleep(200);
+		double refilled = bucket.getStoredPermits();
+		assertTrue("refilled " + refilled, refilled >= 3.5 && refilled < 10);
+
+		Thread.sleep(600);
+		assertEquals(10.0, bucket.getStoredPermits(), 0.0);
+	}
+
+	public void testConfigureCapsStoredPermits() {
+		TokenBucket bucket = new TokenBucket(1, 10);
+
+		bucket.configure(1, 3);
+
+		assertEquals(3.0, bucket.getStoredPermits(), 0.01);
+		try {
+			bucket.configure(0, 3);
+			fail("invalid rate accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package c8y.example.cookbook.ratelimit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class WeightedFairSchedulerTest extends TestCase {
+
+	private final List<String> granted = Collections.synchronizedList(new ArrayList<>());
+	private final List<Thread> threads = new ArrayList<>();
+
+	public void testFloodingTenantDoesNotDelayOthers() throws InterruptedException {
+		WeightedFairScheduler scheduler = new WeightedFairScheduler(1);
+		TenantState holder = new TenantState("holder", 1, 1, 1);
+		TenantState flooding = new TenantState("flooding", 1, 1, 1);
+		TenantState quiet = new TenantState("quiet", 1, 1, 1);
+		assertTrue(scheduler.acquire(holder, 0));
+
+		enqueue(scheduler, flooding, "flooding-1");
+		enqueue(scheduler, flooding, "flooding-2");
+		enqueue(scheduler, flooding, "flooding-3");
+		enqueue(scheduler, quiet, "quiet-1");
+		scheduler.release();
+		joinAll();
+
+		assertEquals(Arrays.asList("flooding-1", "quiet-1", "flooding-2", "flooding-3"), granted);
+	}
+
+	public void testHigherWeightGetsLargerShare() throws InterruptedException {
+		WeightedFairScheduler scheduler = new WeightedFairScheduler(1);
+		TenantState holder = new TenantState("holder", 1, 1, 1);
+		TenantState light = new TenantState("light", 1, 1, 1);
+		TenantState heavy = new TenantState("heavy", 1, 1, 2);
+		assertTrue(scheduler.acquire(holder, 0));
+
+		enqueue(scheduler, light, "light-1");
+		enqueue(scheduler, light, "light-2");
+		enqueue(scheduler, heavy, "heavy-1");
+		enqueue(scheduler, heavy, "heavy-2");
+		enqueue(scheduler, heavy, "heavy-3");
+		enqueue(scheduler, heavy, "heavy-4");
+		scheduler.release();
+		joinAll();
+
+		// tags: light 1, 2; heavy 0.5, 1, 1.5, 2; equal tags in arrival order
+		assertEquals(Arrays.asList("heavy-1", "light-1", "heavy-2", "heavy-3", "light-2", "heavy-4"), granted);
+	}
+
+	public void testTimeoutLeavesQueue() throws InterruptedException {
+		WeightedFairScheduler scheduler = new WeightedFairScheduler(1);
+		TenantState tenant = new TenantState("t1", 1, 1, 1);
+		assertTrue(scheduler.acquire(tenant, 0));
+
+		assertFalse(scheduler.acquire(tenant, TimeUnit.MILLISECONDS.toNanos(20)));
+		assertEquals(0, scheduler.getQueueLength());
+
+		// the slot is handed back, not lost
+		scheduler.release();
+		assertTrue(scheduler.acquire(tenant, 0));
+	}
+
+	/**
+	 * Starts a thread which waits for a slot, records the grant and releases the slot again; returns once the
+	 * thread is queued, so the waiters are queued in call order
+	 */
+	private void enqueue(WeightedFairScheduler scheduler, TenantState tenant, String name) throws InterruptedException {
+		int queued = scheduler.getQueueLength();
+		Thread thread = new Thread(() -> {
+			try {
+				if (scheduler.acquire(tenant, TimeUnit.SECONDS.toNanos(10))) {
+					granted.add(name);
+					scheduler.release();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		thread.start();
+		threads.add(thread);
+		while (scheduler.getQueueLength() == queued) {
+			Thread.sleep(1);
+		}
+	}
+
+	private void joinAll() throws InterruptedException {
+		for (Thread thread : threads) {
+			thread.join(10000);
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package c8y.example.cookbook.resilience;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CircuitBreakerTest extends TestCase {
+
+	private final List<String> transitions = new ArrayList<>();
+
+	private CircuitBreaker newBreaker(long openMillis) {
+		return new CircuitBreaker(10, 4, 0.5, 1000, openMillis, 2, (from, to) -> transitions.add(from + "->" + to));
+	}
+
+	public void testOpensAtFailureRateThreshold() {
+		CircuitBreaker breaker = newBreaker(60000);
+
+		breaker.onSuccess(10);
+		breaker.onFailure();
+		breaker.onSuccess(10);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		// 2 of 4 calls failed
+		breaker.onFailure();
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		assertEquals("[CLOSED->OPEN]", transitions.toString());
+	}
+
+	public void testSlowCallsCountAsFailures() {
+		CircuitBreaker breaker = newBreaker(60000);
+
+		for (int i = 0; i < 4; i++) {
+			breaker.onSuccess(2000);
+		}
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	public void testClosesAfterSuccessfulTrialCalls() throws InterruptedException {
+		CircuitBreaker breaker = newBreaker(10);
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure();
+		}
+		Thread.sleep(20);
+
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.tryAcquire());
+		// only two trial calls while half-open
+		assertFalse(breaker.tryAcquire());
+		breaker.onSuccess(10);
+		breaker.onSuccess(10);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0.0, breaker.getFailureRate());
+		assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+	}
+
+	public void testReopensOnFailedTrialCall() throws InterruptedException {
+		CircuitBreaker breaker = newBreaker(10);
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure();
+		}
+		Thread.sleep(20);
+
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure();
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+	}
+
+	public void testReleasedTrialPermitCanBeReused() throws InterruptedException {
+		CircuitBreaker breaker = newBreaker(10);
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure();
+		}
+		Thread.sleep(20);
+
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.tryAcquire());
+		breaker.release();
+
+		assertTrue(breaker.tryAcquire());
+	}
+
+}
@@ -0,0 +1,133 @@
+package c8y.example.cookbook.scheduling;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import junit.framework.TestCase;
+
+public class JobRunnerTest extends TestCase {
+
+	private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+	private final JobRunner runner = new JobRunner(executor, timer, 20, (tenant, task) -> {
+		task.run();
+		return true;
+	}, metricsRegistry);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final Set<String> running = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger maxRunning = new AtomicInteger();
+
+	@Override
+	protected void tearDown() throws Exception {
+		release.countDown();
+		executor.shutdownNow();
+		timer.shutdownNow();
+	}
+
+	public void testSkipsWhilePreviousRunIsRunning() throws InterruptedException {
+		TenantJob job = job(2, blockingTask());
+
+		assertTrue(runner.start(job, "t1"));
+		awaitRunning("t1");
+		assertFalse(runner.start(job, "t1"));
+		assertEquals(1, metricsRegistry.getCount("jobs.test.skipped"));
+		// other tenants aren't affected
+		assertTrue(runner.start(job, "t2"));
+
+		release.countDown();
+		awaitRuns(2);
+		awaitUnclaimed(job);
+		assertTrue(runner.start(job, "t1"));
+		awaitRuns(3);
+	}
+
+	public void testDefersRunsOverConcurrencyCap() throws InterruptedException {
+		TenantJob job = job(2, blockingTask());
+
+		assertTrue(runner.start(job, "t1"));
+		assertTrue(runner.start(job, "t2"));
+		awaitRunning("t1");
+		awaitRunning("t2");
+		assertTrue(runner.start(job, "t3"));
+
+		// t3 waits for a permit, it's claimed meanwhile
+		Thread.sleep(100);
+		assertFalse(running.contains("t3"));
+		assertTrue(metricsRegistry.getCount("jobs.test.deferred") >= 2);
+		assertFalse(runner.start(job, "t3"));
+
+		release.countDown();
+		awaitRuns(3);
+		awaitUnclaimed(job);
+		assertEquals(2, maxRunning.get());
+		assertEquals(2, job.permits.availablePermits());
+		assertTrue(job.claimed.isEmpty());
+	}
+
+	public void testFailedRunReleasesPermitAndClaim() throws InterruptedException {
+		TenantJob job = job(1, tenant -> {
+			throw new IllegalStateException("failed");
+		});
+
+		assertTrue(runner.start(job, "t1"));
+		awaitUnclaimed(job);
+
+		assertEquals(1, metricsRegistry.getCount("jobs.test.failures"));
+		assertEquals("t1: failed", job.lastFailure);
+		assertEquals(1, job.permits.availablePermits());
+		assertTrue(runner.start(job, "t1"));
+	}
+
+	private TenantJob job(int maxConcurrent, Consumer<String> task) {
+		return new TenantJob("test", task, 0, maxConcurrent, metricsRegistry.histogram("jobs.test.millis"));
+	}
+
+	private Consumer<String> blockingTask() {
+		return tenant -> {
+			running.add(tenant);
+			maxRunning.accumulateAndGet(running.size(), Math::max);
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				running.remove(tenant);
+			}
+		};
+	}
+
+	private void awaitRunning(String tenant) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!running.contains(tenant) && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertTrue(tenant + " not running", running.contains(tenant));
+	}
+
+	private void awaitUnclaimed(TenantJob job) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!job.claimed.isEmpty() && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertTrue(job.claimed.toString(), job.claimed.isEmpty());
+	}
+
+	private void awaitRuns(long runs) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (metricsRegistry.getCount("jobs.test.runs") < runs && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(runs, metricsRegistry.getCount("jobs.test.runs"));
+	}
+
+}
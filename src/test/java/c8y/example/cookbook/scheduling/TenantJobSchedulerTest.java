@@ -0,0 +1,36 @@
+package c8y.example.cookbook.scheduling;
+
+import junit.framework.TestCase;
+
+public class TenantJobSchedulerTest extends TestCase {
+
+	private static final long INTERVAL = 60000;
+	private static final long PHASE = 12345;
+
+	public void testFirstSlotIsNextPointOfPhase() {
+		assertEquals(PHASE, TenantJobScheduler.firstSlot(0, PHASE, INTERVAL));
+		assertEquals(PHASE + INTERVAL, TenantJobScheduler.firstSlot(PHASE, PHASE, INTERVAL));
+		assertEquals(PHASE + 100 * INTERVAL, TenantJobScheduler.firstSlot(PHASE + 99 * INTERVAL + 1, PHASE, INTERVAL));
+	}
+
+	public void testSlotsDontDriftWithLateOrEarlyRuns() {
+		long slot = TenantJobScheduler.firstSlot(1000000, PHASE, INTERVAL);
+		for (int k = 1; k <= 1000; k++) {
+			// each run starts up to 10% of the interval before or after its slot
+			long runStarted = slot + (k % 2 == 0 ? 1 : -1) * INTERVAL / 10;
+			slot = TenantJobScheduler.nextSlot(slot, runStarted, INTERVAL);
+		}
+		assertEquals(PHASE, Math.floorMod(slot, INTERVAL));
+		assertEquals(TenantJobScheduler.firstSlot(1000000, PHASE, INTERVAL) + 1000 * INTERVAL, slot);
+	}
+
+	public void testSkipsSlotsWhichAlreadyPassed() {
+		long slot = PHASE + 10 * INTERVAL;
+		long now = slot + 3 * INTERVAL + 5;
+
+		long next = TenantJobScheduler.nextSlot(slot, now, INTERVAL);
+
+		assertEquals(slot + 4 * INTERVAL, next);
+	}
+
+}
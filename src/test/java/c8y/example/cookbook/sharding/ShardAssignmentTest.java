@@ -0,0 +1,107 @@
+package c8y.example.cookbook.sharding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Simulates several instances in one process: each instance computes its own assignment from the same
+ * membership list, as the ShardManagers of the replicas do
+ */
+public class ShardAssignmentTest extends TestCase {
+
+	private static final int TENANTS = 3000;
+
+	private final List<String> tenants = new ArrayList<>();
+
+	@Override
+	protected void setUp() {
+		for (int i = 0; i < TENANTS; i++) {
+			tenants.add("t" + (100000 + i * 7919));
+		}
+	}
+
+	private static Map<String, ShardAssignment> startInstances(Set<String> members) {
+		ConsistentHashRing ring = new ConsistentHashRing(members, 160);
+		Map<String, ShardAssignment> instances = new HashMap<>();
+		for (String member : members) {
+			instances.put(member, new ShardAssignment(member, ring));
+		}
+		return instances;
+	}
+
+	private Map<String, String> ownersOfTenants(Map<String, ShardAssignment> instances) {
+		Map<String, String> owners = new HashMap<>();
+		for (String tenant : tenants) {
+			for (ShardAssignment instance : instances.values()) {
+				if (instance.owns(tenant)) {
+					assertTrue("owned twice: " + tenant, owners.put(tenant, instance.getLocalMember()) == null);
+				}
+			}
+			assertTrue("not owned: " + tenant, owners.containsKey(tenant));
+		}
+		return owners;
+	}
+
+	public void testEveryTenantHasExactlyOneOwnerAndLoadIsBalanced() {
+		Map<String, ShardAssignment> instances = startInstances(new TreeSet<>(Arrays.asList("a", "b", "c", "d")));
+
+		Map<String, String> owners = ownersOfTenants(instances);
+
+		Map<String, Integer> counts = new HashMap<>();
+		for (String owner : owners.values()) {
+			counts.merge(owner, 1, Integer::sum);
+		}
+		for (int count : counts.values()) {
+			// within 20% of the fair share
+			assertTrue("unbalanced: " + counts, Math.abs(count - TENANTS / 4) < TENANTS / 4 / 5);
+		}
+	}
+
+	public void testJoiningInstanceTakesOverOnlyItsShare() {
+		Set<String> members = new TreeSet<>(Arrays.asList("a", "b", "c", "d"));
+		Map<String, String> before = ownersOfTenants(startInstances(members));
+
+		members.add("e");
+		Map<String, String> after = ownersOfTenants(startInstances(members));
+
+		int moved = 0;
+		for (String tenant : tenants) {
+			if (!before.get(tenant).equals(after.get(tenant))) {
+				// tenants only move to the new instance
+				assertEquals("e", after.get(tenant));
+				moved++;
+			}
+		}
+		assertTrue("moved " + moved, moved > TENANTS / 5 * 0.7 && moved < TENANTS / 5 * 1.3);
+	}
+
+	public void testLeavingInstanceHandsOverOnlyItsTenants() {
+		Set<String> members = new TreeSet<>(Arrays.asList("a", "b", "c", "d"));
+		Map<String, String> before = ownersOfTenants(startInstances(members));
+
+		members.remove("b");
+		Map<String, String> after = ownersOfTenants(startInstances(members));
+
+		for (String tenant : tenants) {
+			if (!before.get(tenant).equals("b")) {
+				assertEquals(before.get(tenant), after.get(tenant));
+			}
+		}
+	}
+
+	public void testUnshardedOwnsEverything() {
+		ShardAssignment assignment = ShardAssignment.unsharded("a");
+
+		assertTrue(assignment.owns("t1"));
+		assertEquals(Collections.singleton("a"), assignment.getMembers());
+	}
+
+}
@@ -0,0 +1,557 @@
+package c8y.example.cookbook.standin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embeddable stand-in for the Cumulocity platform, for integration and load tests without a live tenant.
+ *
+ * Implements the parts of the REST API used by the cookbook:
+ *
+ * - inventory: GET/POST /inventory/managedObjects (paging, fragmentType, type and simple query filters),
+ *   GET/PUT/DELETE /inventory/managedObjects/{id}
+ * - measurements: POST /measurement/measurements (single measurements and collections; counted, not stored),
+ *   422 for the whole request if a source isn't in the inventory
+ * - subscriptions: GET /application/currentApplication/subscriptions
+ * - settings / tenant options: GET /application/currentApplication/settings, /tenant/options, /tenant/options/{category}
+ * - current user and tenant: GET /user/currentUser, /tenant/currentTenant
+ *
+ * Latency, error injection and the size of the generated inventory are configurable:
+ *
+ * FakePlatformServer platform = new FakePlatformServer()
+ *     .withDatasetSize(10000)
+ *     .withLatency(20, 10)
+ *     .withErrorRate(0.01)
+ *     .start(0);
+ *
+ * Point the microservice at it with the 'standin' profile (src/test/resources/application-standin.properties),
+ * or run main() to start it standalone.
+ *
+ * Authentication is not checked; all requests are served with the data of the single tenant.
+ */
+public class FakePlatformServer {
+
+	public static final String TENANT = "t1000";
+	public static final String BOOTSTRAP_USER = "servicebootstrap_microservice-cookbook";
+	public static final String SERVICE_USER = "service_microservice-cookbook";
+	public static final String PASSWORD = "standin";
+	public static final String APPLICATION = "microservice-cookbook";
+
+	private static final String CUSTOM_DEVICE_FRAGMENT = "c8y_example_cookbook_business_CustomDevice";
+	private static final String MANAGED_OBJECTS_PATH = "/inventory/managedObjects";
+	private static final String MEASUREMENTS_PATH = "/measurement/measurements";
+	private static final Pattern EQ_QUERY = Pattern.compile("^\\s*([\\w.]+)\\s+eq\\s+'([^']*)'\\s*$");
+	private static final Pattern HAS_QUERY = Pattern.compile("^\\s*has\\((\\w+)\\)\\s*$");
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final ConcurrentSkipListMap<Long, Map<String, Object>> managedObjects = new ConcurrentSkipListMap<>();
+	private final ConcurrentMap<String, String> tenantOptions = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+	private final AtomicLong idSequence = new AtomicLong(1000);
+	private final LongAdder measurementCount = new LongAdder();
+	private final List<String> userRoles = new ArrayList<>(Arrays.asList(
+			"ROLE_INVENTORY_READ", "ROLE_INVENTORY_ADMIN", "ROLE_MEASUREMENT_READ", "ROLE_MEASUREMENT_ADMIN",
+			"ROLE_COOKBOOK_READ", "ROLE_COOKBOOK_ADMIN"));
+
+	private volatile long latencyMillis;
+	private volatile long latencyJitterMillis;
+	private volatile double errorRate;
+	private volatile int errorStatus = 503;
+	private int datasetSize = 100;
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * @param datasetSize Number of managed objects generated on start; every other object has a CustomDevice fragment
+	 */
+	public FakePlatformServer withDatasetSize(int datasetSize) {
+		this.datasetSize = datasetSize;
+		return this;
+	}
+
+	/**
+	 * Every request is delayed by latencyMillis plus a uniformly distributed random jitter up to jitterMillis
+	 */
+	public FakePlatformServer withLatency(long latencyMillis, long jitterMillis) {
+		this.latencyMillis = latencyMillis;
+		this.latencyJitterMillis = jitterMillis;
+		return this;
+	}
+
+	/**
+	 * @param errorRate Fraction of requests (0..1) answered with the error status instead of being served
+	 */
+	public FakePlatformServer withErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	public FakePlatformServer withErrorStatus(int errorStatus) {
+		this.errorStatus = errorStatus;
+		return this;
+	}
+
+	public FakePlatformServer withTenantOption(String key, String value) {
+		tenantOptions.put(key, value);
+		return this;
+	}
+
+	public FakePlatformServer withUserRoles(String... roles) {
+		userRoles.clear();
+		userRoles.addAll(Arrays.asList(roles));
+		return this;
+	}
+
+	/**
+	 * @param port Port to listen on, 0 for any free port
+	 */
+	public FakePlatformServer start(int port) throws IOException {
+		generateDataset();
+
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+		return this;
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+
+	public String getBaseUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public int getManagedObjectCount() {
+		return managedObjects.size();
+	}
+
+	/**
+	 * @return Id of the first generated managed object; the generated objects have consecutive ids
+	 */
+	public long getFirstManagedObjectId() {
+		return managedObjects.firstKey();
+	}
+
+	public Map<String, Object> getManagedObject(long id) {
+		return managedObjects.get(id);
+	}
+
+	/**
+	 * @return Number of requests served for the method and path, e.g. "GET /inventory/managedObjects"
+	 */
+	public long getRequestCount(String methodAndPath) {
+		LongAdder count = requestCounts.get(methodAndPath);
+		return count == null ? 0 : count.sum();
+	}
+
+	/**
+	 * @return Number of measurements posted, single or in collections
+	 */
+	public long getMeasurementCount() {
+		return measurementCount.sum();
+	}
+
+	public long getTotalRequestCount() {
+		return requestCounts.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+
+	private void generateDataset() {
+		managedObjects.clear();
+		for (int i = 0; i < datasetSize; i++) {
+			Map<String, Object> managedObject = new LinkedHashMap<>();
+			managedObject.put("name", "Device " + i);
+			managedObject.put("type", "c8y_CookbookDevice");
+			if (i % 2 == 0) {
+				Map<String, Object> customDevice = new LinkedHashMap<>();
+				customDevice.put("manufacturer", i % 4 == 0 ? "Acme Corp" : "AmeriCorp");
+				customDevice.put("model", "foobar " + i);
+				managedObject.put(CUSTOM_DEVICE_FRAGMENT, customDevice);
+			}
+			create(managedObject);
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			String method = exchange.getRequestMethod();
+			requestCounts.computeIfAbsent(method + " " + normalize(path), p -> new LongAdder()).increment();
+
+			delay();
+			if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+				respond(exchange, errorStatus, error("standin/injected", "Injected error"));
+				return;
+			}
+
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+
+			if (path.equals(MANAGED_OBJECTS_PATH) && method.equals("GET")) {
+				respond(exchange, 200, listManagedObjects(params));
+			} else if (path.equals(MANAGED_OBJECTS_PATH) && method.equals("POST")) {
+				respond(exchange, 201, create(readBody(exchange)));
+			} else if (path.equals(MEASUREMENTS_PATH) && method.equals("POST")) {
+				Map<String, Object> body = readBody(exchange);
+				Object measurements = body.get("measurements");
+				List<?> posted = measurements instanceof List ? (List<?>) measurements : Collections.singletonList(body);
+				String unknownSource = findUnknownSource(posted);
+				if (unknownSource != null) {
+					respond(exchange, 422, error("measurement/unprocessableEntity",
+							"Finding device data from database failed : No managedObject for id '" + unknownSource + "'!"));
+					return;
+				}
+				measurementCount.add(posted.size());
+				respond(exchange, 201, body);
+			} else if (path.startsWith(MANAGED_OBJECTS_PATH + "/")) {
+				handleManagedObject(exchange, method, path.substring(MANAGED_OBJECTS_PATH.length() + 1));
+			} else if (path.equals("/application/currentApplication/subscriptions")) {
+				respond(exchange, 200, subscriptions());
+			} else if (path.equals("/application/currentApplication/settings")) {
+				respond(exchange, 200, settings());
+			} else if (path.equals("/tenant/options")) {
+				respond(exchange, 200, Collections.singletonMap("options", settingsWithCategory()));
+			} else if (path.startsWith("/tenant/options/")) {
+				respond(exchange, 200, new HashMap<>(tenantOptions));
+			} else if (path.equals("/user/currentUser")) {
+				respond(exchange, 200, currentUser());
+			} else if (path.equals("/tenant/currentTenant")) {
+				Map<String, Object> tenant = new LinkedHashMap<>();
+				tenant.put("name", TENANT);
+				tenant.put("domainName", "localhost");
+				respond(exchange, 200, tenant);
+			} else {
+				respond(exchange, 404, error("general/notFound", "Not implemented by the stand-in: " + method + " " + path));
+			}
+		} catch (IllegalArgumentException e) {
+			respond(exchange, 400, error("general/badRequest", e.getMessage()));
+		} catch (Exception e) {
+			respond(exchange, 500, error("general/internalError", e.toString()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleManagedObject(HttpExchange exchange, String method, String idString) throws IOException {
+		long id;
+		try {
+			id = Long.parseLong(idString);
+		} catch (NumberFormatException e) {
+			respond(exchange, 404, error("inventory/notFound", "Invalid id " + idString));
+			return;
+		}
+
+		Map<String, Object> managedObject = managedObjects.get(id);
+		if (managedObject == null) {
+			respond(exchange, 404, error("inventory/notFound", "Finding device data from database failed : No managedObject for id '" + id + "'!"));
+			return;
+		}
+
+		switch (method) {
+		case "GET":
+			respond(exchange, 200, managedObject);
+			break;
+		case "PUT":
+			Map<String, Object> updated = new LinkedHashMap<>(managedObject);
+			updated.putAll(readBody(exchange));
+			updated.put("id", String.valueOf(id));
+			updated.put("lastUpdated", now());
+			managedObjects.put(id, updated);
+			respond(exchange, 200, updated);
+			break;
+		case "DELETE":
+			managedObjects.remove(id);
+			respond(exchange, 204, null);
+			break;
+		default:
+			respond(exchange, 405, error("general/methodNotAllowed", method));
+		}
+	}
+
+	private Map<String, Object> listManagedObjects(Map<String, String> params) {
+		int pageSize = Integer.parseInt(params.getOrDefault("pageSize", "5"));
+		int currentPage = Integer.parseInt(params.getOrDefault("currentPage", "1"));
+		if (pageSize < 1 || pageSize > 2000 || currentPage < 1) {
+			throw new IllegalArgumentException("Invalid paging parameters");
+		}
+
+		List<Map<String, Object>> matching = new ArrayList<>();
+		for (Map<String, Object> managedObject : managedObjects.values()) {
+			if (matches(managedObject, params)) {
+				matching.add(managedObject);
+			}
+		}
+
+		int from = Math.min((currentPage - 1) * pageSize, matching.size());
+		int to = Math.min(from + pageSize, matching.size());
+		int totalPages = (matching.size() + pageSize - 1) / pageSize;
+
+		Map<String, Object> statistics = new LinkedHashMap<>();
+		statistics.put("currentPage", currentPage);
+		statistics.put("pageSize", pageSize);
+		if ("true".equals(params.get("withTotalPages"))) {
+			statistics.put("totalPages", totalPages);
+		}
+
+		Map<String, Object> collection = new LinkedHashMap<>();
+		collection.put("self", pageUrl(params, currentPage));
+		collection.put("managedObjects", matching.subList(from, to));
+		collection.put("statistics", statistics);
+		if (to < matching.size()) {
+			collection.put("next", pageUrl(params, currentPage + 1));
+		}
+		if (currentPage > 1) {
+			collection.put("prev", pageUrl(params, currentPage - 1));
+		}
+		return collection;
+	}
+
+	private boolean matches(Map<String, Object> managedObject, Map<String, String> params) {
+		String fragmentType = params.get("fragmentType");
+		if (fragmentType != null && !managedObject.containsKey(fragmentType)) {
+			return false;
+		}
+		String type = params.get("type");
+		if (type != null && !type.equals(managedObject.get("type"))) {
+			return false;
+		}
+		String query = params.get("query");
+		if (query != null) {
+			for (String condition : query.split("\\s+and\\s+")) {
+				if (!matchesCondition(managedObject, condition)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Supports the subset of the inventory query language used by the cookbook: "path.to.property eq 'value'" and "has(fragment)"
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean matchesCondition(Map<String, Object> managedObject, String condition) {
+		Matcher has = HAS_QUERY.matcher(condition);
+		if (has.matches()) {
+			return managedObject.containsKey(has.group(1));
+		}
+
+		Matcher eq = EQ_QUERY.matcher(condition);
+		if (!eq.matches()) {
+			throw new IllegalArgumentException("Query not supported by the stand-in: " + condition);
+		}
+		Object value = managedObject;
+		for (String property : eq.group(1).split("\\.")) {
+			if (!(value instanceof Map)) {
+				return false;
+			}
+			value = ((Map<String, Object>) value).get(property);
+		}
+		return value != null && eq.group(2).equals(String.valueOf(value));
+	}
+
+	private Map<String, Object> create(Map<String, Object> managedObject) {
+		long id = idSequence.incrementAndGet();
+		Map<String, Object> created = new LinkedHashMap<>(managedObject);
+		String now = now();
+		created.put("id", String.valueOf(id));
+		created.put("self", MANAGED_OBJECTS_PATH + "/" + id);
+		created.put("creationTime", now);
+		created.put("lastUpdated", now);
+		managedObjects.put(id, created);
+		return created;
+	}
+
+	private Map<String, Object> subscriptions() {
+		Map<String, Object> user = new LinkedHashMap<>();
+		user.put("tenant", TENANT);
+		user.put("name", SERVICE_USER);
+		user.put("password", PASSWORD);
+		return Collections.singletonMap("users", Collections.singletonList(user));
+	}
+
+	private List<Map<String, Object>> settings() {
+		List<Map<String, Object>> settings = new ArrayList<>();
+		for (Map.Entry<String, String> option : tenantOptions.entrySet()) {
+			Map<String, Object> setting = new LinkedHashMap<>();
+			setting.put("key", option.getKey());
+			setting.put("value", option.getValue());
+			settings.add(setting);
+		}
+		return settings;
+	}
+
+	private List<Map<String, Object>> settingsWithCategory() {
+		List<Map<String, Object>> settings = settings();
+		for (Map<String, Object> setting : settings) {
+			setting.put("category", APPLICATION);
+		}
+		return settings;
+	}
+
+	private Map<String, Object> currentUser() {
+		List<Map<String, Object>> roles = new ArrayList<>();
+		for (String role : userRoles) {
+			Map<String, Object> roleRepresentation = new LinkedHashMap<>();
+			roleRepresentation.put("id", role);
+			roleRepresentation.put("name", role);
+			roles.add(roleRepresentation);
+		}
+		Map<String, Object> user = new LinkedHashMap<>();
+		user.put("id", "admin");
+		user.put("userName", "admin");
+		user.put("effectiveRoles", roles);
+		return user;
+	}
+
+	private void delay() {
+		long delayMillis = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0);
+		if (delayMillis > 0) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return The first source id of the measurements which isn't in the inventory, null if there is none
+	 */
+	private String findUnknownSource(List<?> measurements) {
+		for (Object measurement : measurements) {
+			Object source = measurement instanceof Map ? ((Map<?, ?>) measurement).get("source") : null;
+			Object id = source instanceof Map ? ((Map<?, ?>) source).get("id") : null;
+			if (id == null) {
+				continue;
+			}
+			try {
+				if (!managedObjects.containsKey(Long.parseLong(id.toString()))) {
+					return id.toString();
+				}
+			} catch (NumberFormatException e) {
+				return id.toString();
+			}
+		}
+		return null;
+	}
+
+	private Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+		try (InputStream body = exchange.getRequestBody()) {
+			return objectMapper.readValue(body, new TypeReference<Map<String, Object>>() {});
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		byte[] bytes = objectMapper.writeValueAsBytes(body);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream responseBody = exchange.getResponseBody()) {
+			responseBody.write(bytes);
+		}
+	}
+
+	private String pageUrl(Map<String, String> params, int page) {
+		StringBuilder url = new StringBuilder(getBaseUrl()).append(MANAGED_OBJECTS_PATH).append("?currentPage=").append(page);
+		for (Map.Entry<String, String> param : params.entrySet()) {
+			if (!param.getKey().equals("currentPage")) {
+				url.append('&').append(param.getKey()).append('=').append(encode(param.getValue()));
+			}
+		}
+		return url.toString();
+	}
+
+	private static Map<String, Object> error(String error, String message) {
+		Map<String, Object> body = new LinkedHashMap<>();
+		body.put("error", error);
+		body.put("message", message);
+		return body;
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> params = new LinkedHashMap<>();
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return params;
+		}
+		for (String param : rawQuery.split("&")) {
+			int separator = param.indexOf('=');
+			if (separator > 0) {
+				params.put(URLDecoder.decode(param.substring(0, separator), "UTF-8"),
+						URLDecoder.decode(param.substring(separator + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String normalize(String path) {
+		return path.matches(MANAGED_OBJECTS_PATH + "/\\d+") ? MANAGED_OBJECTS_PATH + "/{id}" : path;
+	}
+
+	private static String now() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date());
+	}
+
+	/**
+	 * Starts the stand-in standalone. Arguments: [port (default 8111)] [dataset size (default 1000)] [latency ms] [error rate]
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8111;
+		FakePlatformServer server = new FakePlatformServer()
+				.withDatasetSize(args.length > 1 ? Integer.parseInt(args[1]) : 1000)
+				.withLatency(args.length > 2 ? Long.parseLong(args[2]) : 0, 0)
+				.withErrorRate(args.length > 3 ? Double.parseDouble(args[3]) : 0)
+				.start(port);
+		System.out.println("Platform stand-in listening at " + server.getBaseUrl());
+	}
+
+}
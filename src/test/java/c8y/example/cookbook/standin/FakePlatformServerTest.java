@@ -0,0 +1,126 @@
+package c8y.example.cookbook.standin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the platform stand-in itself
+ */
+public class FakePlatformServerTest extends TestCase {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private FakePlatformServer platform;
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (platform != null) {
+			platform.stop();
+		}
+	}
+
+	public void testPagesThroughGeneratedInventory() throws Exception {
+		platform = new FakePlatformServer().withDatasetSize(25).start(0);
+
+		JsonNode firstPage = get("/inventory/managedObjects?pageSize=10&withTotalPages=true");
+		assertEquals(10, firstPage.get("managedObjects").size());
+		assertEquals(3, firstPage.at("/statistics/totalPages").asInt());
+		assertTrue(firstPage.has("next"));
+
+		JsonNode lastPage = get("/inventory/managedObjects?pageSize=10&currentPage=3");
+		assertEquals(5, lastPage.get("managedObjects").size());
+		assertFalse(lastPage.has("next"));
+	}
+
+	public void testFiltersByFragmentTypeAndQuery() throws Exception {
+		platform = new FakePlatformServer().withDatasetSize(20).start(0);
+
+		JsonNode byFragment = get("/inventory/managedObjects?pageSize=100&fragmentType=c8y_example_cookbook_business_CustomDevice");
+		assertEquals(10, byFragment.get("managedObjects").size());
+
+		String query = URLEncoder.encode("c8y_example_cookbook_business_CustomDevice.manufacturer eq 'Acme Corp'", "UTF-8");
+		JsonNode byQuery = get("/inventory/managedObjects?pageSize=100&query=" + query);
+		assertEquals(5, byQuery.get("managedObjects").size());
+	}
+
+	public void testCreatesUpdatesAndDeletesManagedObjects() throws Exception {
+		platform = new FakePlatformServer().withDatasetSize(0).start(0);
+
+		JsonNode created = send("POST", "/inventory/managedObjects", "{\"name\":\"foo\"}", 201);
+		String id = created.get("id").asText();
+
+		JsonNode updated = send("PUT", "/inventory/managedObjects/" + id, "{\"name\":\"bar\"}", 200);
+		assertEquals("bar", updated.get("name").asText());
+		assertEquals("bar", get("/inventory/managedObjects/" + id).get("name").asText());
+
+		send("DELETE", "/inventory/managedObjects/" + id, null, 204);
+		assertEquals(0, platform.getManagedObjectCount());
+		assertEquals(1, platform.getRequestCount("GET /inventory/managedObjects/{id}"));
+	}
+
+	public void testCountsMeasurements() throws Exception {
+		platform = new FakePlatformServer().withDatasetSize(0).start(0);
+
+		send("POST", "/measurement/measurements", "{\"measurements\":[{\"type\":\"a\"},{\"type\":\"b\"}]}", 201);
+		send("POST", "/measurement/measurements", "{\"type\":\"c\"}", 201);
+
+		assertEquals(3, platform.getMeasurementCount());
+	}
+
+	public void testServesSubscriptionsAndTenantOptions() throws Exception {
+		platform = new FakePlatformServer().withTenantOption("rateLimit.permitsPerSecond", "5").start(0);
+
+		JsonNode subscriptions = get("/application/currentApplication/subscriptions");
+		assertEquals(FakePlatformServer.TENANT, subscriptions.at("/users/0/tenant").asText());
+
+		JsonNode options = get("/tenant/options/" + FakePlatformServer.APPLICATION);
+		assertEquals("5", options.get("rateLimit.permitsPerSecond").asText());
+	}
+
+	public void testInjectsErrorsAndLatency() throws Exception {
+		platform = new FakePlatformServer().withErrorRate(1).withErrorStatus(503).withLatency(50, 0).start(0);
+
+		long started = System.nanoTime();
+		HttpURLConnection connection = open("GET", "/inventory/managedObjects");
+		assertEquals(503, connection.getResponseCode());
+		assertTrue((System.nanoTime() - started) / 1000000 >= 50);
+	}
+
+	private JsonNode get(String path) throws IOException {
+		return send("GET", path, null, 200);
+	}
+
+	private JsonNode send(String method, String path, String body, int expectedStatus) throws IOException {
+		HttpURLConnection connection = open(method, path);
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/json");
+			try (OutputStream requestBody = connection.getOutputStream()) {
+				requestBody.write(body.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		assertEquals(method + " " + path, expectedStatus, connection.getResponseCode());
+		if (expectedStatus == 204) {
+			return null;
+		}
+		try (InputStream responseBody = connection.getInputStream()) {
+			return objectMapper.readTree(responseBody);
+		}
+	}
+
+	private HttpURLConnection open(String method, String path) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(platform.getBaseUrl() + path).openConnection();
+		connection.setRequestMethod(method);
+		return connection;
+	}
+
+}
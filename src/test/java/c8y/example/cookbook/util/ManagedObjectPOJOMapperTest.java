@@ -0,0 +1,177 @@
+package c8y.example.cookbook.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import c8y.example.cookbook.business.CompactSensorList;
+import c8y.example.cookbook.business.CustomDevice;
+import c8y.example.cookbook.business.HumiditySensor;
+import c8y.example.cookbook.business.Sensor;
+import c8y.example.cookbook.business.SensorArray;
+import c8y.example.cookbook.business.TemperatureSensor;
+import junit.framework.TestCase;
+
+public class ManagedObjectPOJOMapperTest extends TestCase {
+
+	private static final String FRAGMENT = ManagedObjectPOJOMapper.getDefaultFragmentNameForClass(SensorArray.class);
+
+	private final ManagedObjectPOJOMapper registryMapper = ManagedObjectPOJOMapper.builder().typeRegistry(new PolymorphicTypeRegistry()
+			.register(Sensor.class, Sensor.class, "sensor")
+			.register(Sensor.class, TemperatureSensor.class, "temperature")
+			.register(Sensor.class, HumiditySensor.class, "humidity")
+			.allowLegacy(SensorArray.class, CompactSensorList.class))
+			.build();
+
+	private final List<Sensor> sensors = Arrays.<Sensor>asList(new TemperatureSensor("foo"), new HumiditySensor("bar"));
+
+	public void testWritesShortTypeIds() throws Exception {
+		String json = new ObjectMapper().writeValueAsString(registryMapper.toFragment(new SensorArray(sensors)));
+
+		assertEquals("{\"sensors\":[{\"@type\":\"temperature\",\"name\":\"foo\"},{\"@type\":\"humidity\",\"name\":\"bar\"}]}", json);
+		assertEquals(json, new ObjectMapper().writeValueAsString(registryMapper.toFragment(new SensorArray(CompactSensorList.of(sensors)))));
+	}
+
+	public void testReadsRegistryFormat() throws Exception {
+		assertSensors(registryMapper.readPOJO(managedObject(registryMapper, new SensorArray(sensors)), SensorArray.class));
+	}
+
+	public void testReadsDefaultTypingFormat() throws Exception {
+		assertSensors(registryMapper.readPOJO(managedObject(ManagedObjectPOJOMapper.TRUSTED_SOURCE, new SensorArray(sensors)), SensorArray.class));
+		assertSensors(registryMapper.readPOJO(
+				managedObject(ManagedObjectPOJOMapper.TRUSTED_SOURCE, new SensorArray(CompactSensorList.of(sensors))), SensorArray.class));
+	}
+
+	public void testRejectsUnregisteredClasses() throws Exception {
+		Map<Object, Object> managedObject = managedObject(ManagedObjectPOJOMapper.TRUSTED_SOURCE, new SensorArray(sensors));
+		@SuppressWarnings("unchecked")
+		Map<String, Object> fragment = (Map<String, Object>) managedObject.get(FRAGMENT);
+		fragment.put("sensors", Arrays.asList("java.util.ArrayList",
+				Arrays.asList(mapOf("@class", "java.net.URL", "name", "foo"))));
+
+		try {
+			registryMapper.readPOJO(managedObject, SensorArray.class);
+			fail("Read a class which is not registered");
+		} catch (Exception e) {
+			assertTrue(e.toString(), e.toString().contains("java.net.URL"));
+		}
+	}
+
+	public void testDefaultMapperIgnoresClassProperty() throws Exception {
+		CustomDevice device = new CustomDevice("Acme Corp", "foobar 12");
+		Map<Object, Object> managedObject = managedObject(ManagedObjectPOJOMapper.DEFAULT, device, CustomDevice.class);
+		@SuppressWarnings("unchecked")
+		Map<String, Object> fragment = (Map<String, Object>) managedObject.get(ManagedObjectPOJOMapper.getDefaultFragmentNameForClass(CustomDevice.class));
+		fragment.put("@class", "java.net.URL");
+
+		assertEquals(device.toString(), ManagedObjectPOJOMapper.DEFAULT.readPOJO(managedObject, CustomDevice.class).toString());
+	}
+
+	public void testDefaultTypingRejectsClassOutsideRequestedType() throws Exception {
+		Map<Object, Object> managedObject = managedObject(ManagedObjectPOJOMapper.TRUSTED_SOURCE, new TemperatureSensor("foo"), Sensor.class);
+		assertEquals("foo", ManagedObjectPOJOMapper.TRUSTED_SOURCE.readPOJO(managedObject, Sensor.class).getName());
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> fragment = (Map<String, Object>) managedObject.get(ManagedObjectPOJOMapper.getDefaultFragmentNameForClass(Sensor.class));
+		fragment.put("@class", "java.net.URL");
+		try {
+			ManagedObjectPOJOMapper.TRUSTED_SOURCE.readPOJO(managedObject, Sensor.class);
+			fail("Read a class which is not a Sensor");
+		} catch (JsonMappingException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("java.net.URL"));
+		}
+	}
+
+	public void testRejectsUnknownTypeIds() throws Exception {
+		Map<Object, Object> managedObject = new HashMap<>();
+		managedObject.put(FRAGMENT, mapOf("sensors", Arrays.asList(mapOf("@type", "pressure", "name", "foo"))));
+
+		try {
+			registryMapper.readPOJO(managedObject, SensorArray.class);
+			fail("Read an unknown type id");
+		} catch (Exception e) {
+			assertTrue(e.toString(), e.toString().contains("pressure"));
+		}
+	}
+
+	public void testCustomSerializers() throws Exception {
+		ManagedObjectPOJOMapper.Builder builder = ManagedObjectPOJOMapper.builder()
+				.serializer(CustomDevice.class, new CustomDevice.Serializer())
+				.deserializer(CustomDevice.class, new CustomDevice.Deserializer());
+		ManagedObjectPOJOMapper mapper = builder.build();
+		ManagedObjectPOJOMapper trustedMapper = builder.enableDefaultTyping().build();
+		CustomDevice device = new CustomDevice("Acme Corp", "foobar 12");
+
+		assertEquals(ManagedObjectPOJOMapper.DEFAULT.toFragment(device), mapper.toFragment(device));
+		assertEquals(ManagedObjectPOJOMapper.TRUSTED_SOURCE.toFragment(device), trustedMapper.toFragment(device));
+
+		assertEquals(device.toString(), mapper.readPOJO(managedObject(mapper, device, CustomDevice.class), CustomDevice.class).toString());
+		assertEquals(device.toString(), trustedMapper.readPOJO(managedObject(trustedMapper, device, CustomDevice.class), CustomDevice.class).toString());
+	}
+
+	public void testBuiltMapperIsNotAffectedByLaterBuilderChanges() throws Exception {
+		ManagedObjectPOJOMapper.Builder builder = ManagedObjectPOJOMapper.builder();
+		ManagedObjectPOJOMapper mapper = builder.build();
+		builder.serializer(CustomDevice.class, new JsonSerializer<CustomDevice>() {
+			@Override
+			public void serialize(CustomDevice value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+				gen.writeString("replaced");
+			}
+		});
+
+		assertEquals("Acme Corp", mapper.toFragment(new CustomDevice("Acme Corp", "foobar 12")).get("manufacturer"));
+	}
+
+	@SuppressWarnings("deprecation")
+	public void testDeprecatedConstructorsDelegateToBuilder() throws Exception {
+		assertSensors(new ManagedObjectPOJOMapper(true).readPOJO(
+				managedObject(ManagedObjectPOJOMapper.TRUSTED_SOURCE, new SensorArray(sensors)), SensorArray.class));
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+		ManagedObjectPOJOMapper mapper = new ManagedObjectPOJOMapper(objectMapper);
+		// works on a copy
+		objectMapper.disableDefaultTyping();
+		assertSensors(mapper.readPOJO(managedObject(mapper, new SensorArray(sensors)), SensorArray.class));
+
+		assertEquals("Acme Corp", new ManagedObjectPOJOMapper().toFragment(new CustomDevice("Acme Corp", "foobar 12")).get("manufacturer"));
+	}
+
+	private static Map<Object, Object> managedObject(ManagedObjectPOJOMapper mapper, Object pojo, Class<?> fragmentClass) throws Exception {
+		Map<Object, Object> managedObject = new HashMap<>();
+		managedObject.put(ManagedObjectPOJOMapper.getDefaultFragmentNameForClass(fragmentClass), mapper.toFragment(pojo));
+		return managedObject;
+	}
+
+	private static Map<Object, Object> managedObject(ManagedObjectPOJOMapper mapper, Object pojo) throws Exception {
+		Map<Object, Object> managedObject = new HashMap<>();
+		managedObject.put(FRAGMENT, mapper.toFragment(pojo));
+		return managedObject;
+	}
+
+	private static Map<String, Object> mapOf(String key1, Object value1, String... more) {
+		Map<String, Object> map = new HashMap<>();
+		map.put(key1, value1);
+		for (int i = 0; i < more.length; i += 2) {
+			map.put(more[i], more[i + 1]);
+		}
+		return map;
+	}
+
+	private static void assertSensors(SensorArray sensorArray) {
+		assertEquals(2, sensorArray.getSensors().size());
+		assertEquals(TemperatureSensor.class, sensorArray.getSensors().get(0).getClass());
+		assertEquals("foo", sensorArray.getSensors().get(0).getName());
+		assertEquals(HumiditySensor.class, sensorArray.getSensors().get(1).getClass());
+	}
+
+}
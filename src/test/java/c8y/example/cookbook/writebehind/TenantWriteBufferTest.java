@@ -0,0 +1,159 @@
+package c8y.example.cookbook.writebehind;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cumulocity.model.idtype.GId;
+import com.cumulocity.rest.representation.inventory.ManagedObjectRepresentation;
+
+import c8y.example.cookbook.metrics.MetricsRegistry;
+import junit.framework.TestCase;
+
+public class TenantWriteBufferTest extends TestCase {
+
+	private static final String TENANT = "t1";
+
+	private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	@Override
+	protected void tearDown() {
+		executor.shutdownNow();
+	}
+
+	public void testUpdatesOfSameObjectAreCoalesced() throws Exception {
+		List<ManagedObjectRepresentation> written = Collections.synchronizedList(new ArrayList<>());
+		TenantWriteBuffer buffer = new TenantWriteBuffer(TENANT, (tenant, id, managedObject) -> {
+			written.add(managedObject);
+			return managedObject;
+		}, executor, metricsRegistry, 100, 1000);
+
+		CompletableFuture<ManagedObjectRepresentation> first = buffer.add("42", update("42", "before", "c8y_Position", 51.2));
+		CompletableFuture<ManagedObjectRepresentation> second = buffer.add("42", update("42", "after", "c8y_Battery", 87));
+		buffer.add("43", update("43", "other", "c8y_Battery", 12));
+		assertEquals(2, buffer.size());
+		assertSame(first, second);
+
+		buffer.flush();
+		buffer.awaitFlushed(System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+		ManagedObjectRepresentation merged = second.get();
+
+		assertEquals(2, written.size());
+		assertEquals("42", merged.getId().getValue());
+		assertEquals("after", merged.getName());
+		assertEquals(51.2, merged.getAttrs().get("c8y_Position"));
+		assertEquals(87, merged.getAttrs().get("c8y_Battery"));
+		assertEquals(3, metricsRegistry.getCount("writeBehind.submitted"));
+		assertEquals(1, metricsRegistry.getCount("writeBehind.merged"));
+		assertEquals(2, metricsRegistry.getCount("writeBehind.written"));
+	}
+
+	/**
+	 * Producers fill the buffer past flushSize, each flushing on its own, while a timer flushes concurrently.
+	 * No flush may overlap the previous one: updates of an object are written one at a time and in order.
+	 */
+	public void testSizeFlushRacingTimerFlushKeepsUpdatesInOrder() throws Exception {
+		int producers = 4;
+		int objectsPerProducer = 10;
+		int updatesPerObject = 300;
+
+		Set<String> inFlight = ConcurrentHashMap.newKeySet();
+		Map<String, Integer> lastWritten = new ConcurrentHashMap<>();
+		AtomicInteger overlaps = new AtomicInteger();
+		AtomicInteger reordered = new AtomicInteger();
+		AtomicInteger writes = new AtomicInteger();
+		TenantWriteBuffer buffer = new TenantWriteBuffer(TENANT, (tenant, id, managedObject) -> {
+			if (!inFlight.add(id)) {
+				overlaps.incrementAndGet();
+			}
+			LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(200000));
+			int counter = (Integer) managedObject.getAttrs().get("counter");
+			Integer previous = lastWritten.put(id, counter);
+			if (previous != null && previous >= counter) {
+				reordered.incrementAndGet();
+			}
+			writes.incrementAndGet();
+			inFlight.remove(id);
+			return managedObject;
+		}, executor, metricsRegistry, 20, 100000);
+
+		CountDownLatch start = new CountDownLatch(1);
+		List<CompletableFuture<ManagedObjectRepresentation>> results = Collections.synchronizedList(new ArrayList<>());
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			String prefix = "p" + p + "-";
+			threads.add(new Thread(() -> {
+				awaitQuietly(start);
+				for (int counter = 0; counter < updatesPerObject; counter++) {
+					for (int o = 0; o < objectsPerProducer; o++) {
+						results.add(buffer.add(prefix + o, update(prefix + o, null, "counter", counter)));
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread timer = new Thread(() -> {
+			awaitQuietly(start);
+			while (!Thread.currentThread().isInterrupted()) {
+				buffer.flush();
+				LockSupport.parkNanos(100000);
+			}
+		});
+		timer.start();
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		timer.interrupt();
+		timer.join();
+		buffer.awaitFlushed(System.nanoTime() + TimeUnit.SECONDS.toNanos(30));
+
+		for (CompletableFuture<ManagedObjectRepresentation> result : results) {
+			assertTrue(result.isDone() && !result.isCompletedExceptionally());
+		}
+		assertEquals(0, overlaps.get());
+		assertEquals(0, reordered.get());
+		assertEquals(producers * objectsPerProducer, lastWritten.size());
+		for (int counter : lastWritten.values()) {
+			assertEquals(updatesPerObject - 1, counter);
+		}
+		// every update was either written or merged into a write, none was lost
+		long submitted = metricsRegistry.getCount("writeBehind.submitted");
+		assertEquals(producers * objectsPerProducer * updatesPerObject, submitted);
+		assertEquals(writes.get(), metricsRegistry.getCount("writeBehind.written"));
+		assertEquals(submitted, writes.get() + metricsRegistry.getCount("writeBehind.merged"));
+		assertEquals(0, buffer.size());
+	}
+
+	private static ManagedObjectRepresentation update(String id, String name, String fragment, Object value) {
+		ManagedObjectRepresentation managedObject = new ManagedObjectRepresentation();
+		managedObject.setId(GId.asGId(id));
+		managedObject.setName(name);
+		managedObject.set(value, fragment);
+		return managedObject;
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}